@@ -2,10 +2,17 @@ package com.ekreutz.barcodescanner;
 
 import android.app.Activity;
 import android.content.pm.PackageManager;
+import android.graphics.RectF;
 import android.support.annotation.NonNull;
+import android.support.annotation.Nullable;
 import android.support.v7.app.AlertDialog;
+import android.util.Log;
 
 import com.ekreutz.barcodescanner.ui.BarcodeScannerView;
+import com.ekreutz.barcodescanner.util.BarcodeFormat;
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.uimanager.PixelUtil;
 import com.facebook.react.uimanager.SimpleViewManager;
 import com.facebook.react.uimanager.ThemedReactContext;
 import com.facebook.react.uimanager.annotations.ReactProp;
@@ -15,8 +22,10 @@ import com.facebook.react.uimanager.annotations.ReactProp;
  */
 
 public class BarcodeScannerManager extends SimpleViewManager<BarcodeScannerView> {
+    private static final String TAG = "BarcodeScannerManager";
 
-    private BarcodeScannerView mBarcodeScannerView;
+    // All mounted scanner views, and which one holds the camera
+    private final BarcodeScannerRegistry mRegistry = new BarcodeScannerRegistry();
     public static int RC_HANDLE_CAMERA_PERM = 176; // must be < 256
 
     @Override
@@ -26,12 +35,28 @@ public class BarcodeScannerManager extends SimpleViewManager<BarcodeScannerView>
 
     @Override
     protected BarcodeScannerView createViewInstance(ThemedReactContext reactContext) {
-        mBarcodeScannerView = new BarcodeScannerView(reactContext);
-        return mBarcodeScannerView;
+        BarcodeScannerView view = new BarcodeScannerView(reactContext);
+        mRegistry.add(view);
+        return view;
     }
 
-    public BarcodeScannerView getBarcodeScannerView() {
-        return mBarcodeScannerView;
+    @Override
+    public void onDropViewInstance(BarcodeScannerView view) {
+        super.onDropViewInstance(view);
+        mRegistry.remove(view);
+    }
+
+    /**
+     * Returns the view with the given React tag, or for -1 the view holding the camera (or else
+     * the view created last).
+     */
+    @Nullable
+    public BarcodeScannerView getBarcodeScannerView(int tag) {
+        return mRegistry.get(tag);
+    }
+
+    BarcodeScannerRegistry getRegistry() {
+        return mRegistry;
     }
 
     /*
@@ -46,6 +71,29 @@ public class BarcodeScannerManager extends SimpleViewManager<BarcodeScannerView>
         view.setBarcodeTypes(barcodeTypes);
     }
 
+    // Barcode types as a list of names, e.g. ["EAN_13", "QR_CODE"]
+    // Possible values: null = use barcodeTypes, ["ALL"] or [] = all types
+    // A list of only unknown names is ignored
+    @ReactProp(name = "barcodeFormats")
+    public void setBarcodeFormats(BarcodeScannerView view, @Nullable ReadableArray barcodeFormats) {
+        if (barcodeFormats == null) {
+            view.clearBarcodeFormats();
+            return;
+        }
+
+        String[] names = new String[barcodeFormats.size()];
+        for (int i = 0; i < names.length; i++) {
+            names[i] = barcodeFormats.getString(i);
+        }
+
+        int mask = BarcodeFormat.toMask(names);
+        if (mask == BarcodeFormat.UNKNOWN_FORMAT_INT) {
+            Log.w(TAG, "Ignoring barcodeFormats without a known format: " + barcodeFormats);
+            return;
+        }
+        view.setBarcodeFormats(mask);
+    }
+
     // Focus modes
     // Possible values: 0 = continuous focus (if supported), 1 = tap-to-focus (if supported), 2 = fixed focus
     @ReactProp(name = "focusMode", defaultInt = 0)
@@ -67,6 +115,128 @@ public class BarcodeScannerManager extends SimpleViewManager<BarcodeScannerView>
         view.setCameraFillMode(cameraFillMode);
     }
 
+    // Number of threads that run barcode detection in parallel
+    // Possible values: 1 (default) to 8
+    @ReactProp(name = "detectionWorkers", defaultInt = 1)
+    public void setDetectionWorkers(BarcodeScannerView view, int detectionWorkers) {
+        view.setDetectionWorkers(detectionWorkers);
+    }
+
+    // Target latency (in ms) of the adaptive frame rate
+    // Possible values: 0 = fixed frame rate (default), > 0 = adapt the frame rate to the device
+    @ReactProp(name = "targetLatency", defaultFloat = 0f)
+    public void setTargetLatency(BarcodeScannerView view, float targetLatency) {
+        view.setTargetLatency(targetLatency);
+    }
+
+    // Preview size tuning: try a few preview sizes and keep the one that scans best within this
+    // detection time budget (in ms) per frame
+    // Possible values: 0 = off (default), > 0 = budget
+    @ReactProp(name = "previewSizeTuning", defaultFloat = 0f)
+    public void setPreviewSizeTuning(BarcodeScannerView view, float previewSizeTuning) {
+        view.setPreviewSizeTuning(previewSizeTuning);
+    }
+
+    // Resolution cascade: detect on a frame downscaled by this factor first
+    // Possible values: 1 = off (default), 2, 4
+    @ReactProp(name = "resolutionCascade", defaultInt = 1)
+    public void setResolutionCascade(BarcodeScannerView view, int resolutionCascade) {
+        view.setResolutionCascade(resolutionCascade);
+    }
+
+    // How long (in ms) barcodes found are gathered before they are sent to JS as one event
+    // Possible values: 0 = send the barcodes of each frame together (default), > 0 = window length
+    @ReactProp(name = "eventBatchWindow", defaultInt = 0)
+    public void setEventBatchWindow(BarcodeScannerView view, int eventBatchWindow) {
+        view.setEventBatchWindow(eventBatchWindow);
+    }
+
+    // Max number of barcode events sent to JS per second
+    // Possible values: 0 = no limit (default), > 0 = events per second
+    @ReactProp(name = "maxEventRate", defaultFloat = 0f)
+    public void setMaxEventRate(BarcodeScannerView view, float maxEventRate) {
+        view.setMaxEventRate(maxEventRate);
+    }
+
+    // Time (in ms) during which a barcode that was already read isn't reported again
+    // Possible values: 0 = report every new read (default), > 0 = time to live of a read
+    @ReactProp(name = "dedupTtl", defaultInt = 0)
+    public void setDedupTtl(BarcodeScannerView view, int dedupTtl) {
+        view.setDedupTtl(dedupTtl);
+    }
+
+    // How the scanning thread waits for camera frames
+    // Possible values: 0 = park (default), 1 = spin briefly, then park
+    @ReactProp(name = "frameWaitStrategy", defaultInt = 0)
+    public void setFrameWaitStrategy(BarcodeScannerView view, int frameWaitStrategy) {
+        view.setFrameWaitStrategy(frameWaitStrategy);
+    }
+
+    // Format cascade: look for 1D codes only on most frames, and for all types when none are found or every few frames
+    // Possible values: false = look for all types on every frame (default), true = cascade
+    @ReactProp(name = "formatCascade", defaultBoolean = false)
+    public void setFormatCascade(BarcodeScannerView view, boolean formatCascade) {
+        view.setFormatCascade(formatCascade);
+    }
+
+    // Format scheduling: how many barcode types to look for per frame, taking turns, recently read types first
+    // Possible values: 0 = look for all types on every frame (default), > 0 = types per frame
+    @ReactProp(name = "formatScheduling", defaultInt = 0)
+    public void setFormatScheduling(BarcodeScannerView view, int formatScheduling) {
+        view.setFormatScheduling(formatScheduling);
+    }
+
+    // Auto zoom: zoom in on codes that are small in the frame, and back out when the scene changes
+    // Possible values: false = no zoom (default), true = auto zoom up to maxZoom
+    @ReactProp(name = "autoZoom", defaultBoolean = false)
+    public void setAutoZoom(BarcodeScannerView view, boolean autoZoom) {
+        view.setAutoZoom(autoZoom);
+    }
+
+    // Highest zoom ratio that auto zoom goes to
+    // Possible values: 3 (default), >= 1
+    @ReactProp(name = "maxZoom", defaultFloat = 3f)
+    public void setMaxZoom(BarcodeScannerView view, float maxZoom) {
+        view.setMaxZoom(maxZoom);
+    }
+
+    // Which barcode engine decodes frames
+    // Possible values: 0 = Play Services (default), 1 = pure Java (EAN/UPC only), 2 = Play Services, falling back to pure Java
+    @ReactProp(name = "decoder", defaultInt = 0)
+    public void setDecoder(BarcodeScannerView view, int decoder) {
+        view.setDecoder(decoder);
+    }
+
+    // Frame gate, as { minSharpness, minChange }: skip frames that are too blurry or too unchanged to scan
+    // Possible values: null = scan every frame (default)
+    @ReactProp(name = "frameGate")
+    public void setFrameGate(BarcodeScannerView view, @Nullable ReadableMap frameGate) {
+        if (frameGate == null) {
+            view.setFrameGate(0, 0);
+            return;
+        }
+
+        float minSharpness = frameGate.hasKey("minSharpness") ? (float) frameGate.getDouble("minSharpness") : 0;
+        float minChange = frameGate.hasKey("minChange") ? (float) frameGate.getDouble("minChange") : 0;
+        view.setFrameGate(minSharpness, minChange);
+    }
+
+    // Scan area, as { x, y, width, height } in the coordinates of the view
+    // Possible values: null = scan the whole view (default)
+    @ReactProp(name = "scanArea")
+    public void setScanArea(BarcodeScannerView view, @Nullable ReadableMap scanArea) {
+        if (scanArea == null) {
+            view.setScanArea(null);
+            return;
+        }
+
+        float x = PixelUtil.toPixelFromDIP(scanArea.getDouble("x"));
+        float y = PixelUtil.toPixelFromDIP(scanArea.getDouble("y"));
+        float width = PixelUtil.toPixelFromDIP(scanArea.getDouble("width"));
+        float height = PixelUtil.toPixelFromDIP(scanArea.getDouble("height"));
+        view.setScanArea(new RectF(x, y, x + width, y + height));
+    }
+
     /**
      * Handle results from requestPermissions.
      * Call this method from MainActivity.java in your React Native app or implement a version of your own that checks for the camera permission.
@@ -81,7 +251,10 @@ public class BarcodeScannerManager extends SimpleViewManager<BarcodeScannerView>
 
         if (grantResults.length != 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
             // we have permission, so create the camerasource
-            mBarcodeScannerView.init();
+            BarcodeScannerView view = mRegistry.get(BarcodeScannerRegistry.ANY_VIEW);
+            if (view != null) {
+                view.init();
+            }
             return;
         }
 
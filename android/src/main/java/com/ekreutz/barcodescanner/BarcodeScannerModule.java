@@ -1,18 +1,45 @@
 package com.ekreutz.barcodescanner;
 
 import android.util.Log;
+import android.util.SparseArray;
 
 import com.ekreutz.barcodescanner.camera.CameraSourcePreview;
+import com.ekreutz.barcodescanner.camera.FocusTimer;
+import com.ekreutz.barcodescanner.camera.FrameRecorder;
+import com.ekreutz.barcodescanner.camera.FrameRecording;
+import com.ekreutz.barcodescanner.camera.FrameTracer;
+import com.ekreutz.barcodescanner.camera.LockFreeFrameHandoff;
+import com.ekreutz.barcodescanner.camera.StartupTimer;
+import com.ekreutz.barcodescanner.decoder.BarcodeDecoder;
+import com.ekreutz.barcodescanner.decoder.DecoderComparison;
+import com.ekreutz.barcodescanner.decoder.GmsBarcodeDecoder;
+import com.ekreutz.barcodescanner.decoder.JavaBarcodeDecoder;
 import com.ekreutz.barcodescanner.ui.BarcodeScannerView;
 import com.ekreutz.barcodescanner.util.BarcodeFormat;
+import com.ekreutz.barcodescanner.util.BatchDecoder;
+import com.ekreutz.barcodescanner.util.BitmapBarcodeDecoder;
+import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.LifecycleEventListener;
 import com.facebook.react.bridge.Promise;
 import com.facebook.react.bridge.ReactApplicationContext;
 import com.facebook.react.bridge.ReactContextBaseJavaModule;
 import com.facebook.react.bridge.ReactMethod;
-
+import com.facebook.react.bridge.ReadableArray;
+import com.facebook.react.bridge.ReadableMap;
+import com.facebook.react.bridge.UiThreadUtil;
+import com.facebook.react.bridge.WritableArray;
+import com.facebook.react.bridge.WritableMap;
+import com.facebook.react.modules.core.DeviceEventManagerModule;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.google.android.gms.vision.barcode.BarcodeDetector;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
 import java.util.Map;
 
 import javax.annotation.Nullable;
@@ -24,9 +51,16 @@ import javax.annotation.Nullable;
  */
 
 public class BarcodeScannerModule extends ReactContextBaseJavaModule implements LifecycleEventListener {
+    private static final String TAG = "BarcodeScannerModule";
+
+    // Device event with the result of one image of a decodeImages() batch
+    private static final String IMAGE_DECODED_EVENT = "barcodeImageDecoded";
 
     private BarcodeScannerManager mBarcodeScannerManager;
 
+    // Created on the first decodeImages() call
+    private BatchDecoder<SparseArray<Barcode>> mBatchDecoder;
+
     public BarcodeScannerModule(ReactApplicationContext reactContext, BarcodeScannerManager barcodeScannerManager) {
         super(reactContext);
 
@@ -51,6 +85,9 @@ public class BarcodeScannerModule extends ReactContextBaseJavaModule implements
                 put("FocusMode", getFocusModes());
                 put("CameraFillMode", getCameraFillModes());
                 put("TorchMode", getTorchModes());
+                put("TraceStage", getTraceStages());
+                put("FrameWaitStrategy", getFrameWaitStrategies());
+                put("Decoder", getDecoders());
             }
         });
     }
@@ -74,6 +111,33 @@ public class BarcodeScannerModule extends ReactContextBaseJavaModule implements
         });
     }
 
+    private static Map<String, Integer> getFrameWaitStrategies() {
+        return Collections.unmodifiableMap(new HashMap<String, Integer>() {
+            {
+                put("PARK", LockFreeFrameHandoff.WAIT_PARK);
+                put("SPIN_THEN_PARK", LockFreeFrameHandoff.WAIT_SPIN_THEN_PARK);
+            }
+        });
+    }
+
+    private static Map<String, Integer> getDecoders() {
+        return Collections.unmodifiableMap(new HashMap<String, Integer>() {
+            {
+                put("GMS", BarcodeScannerView.DECODER_GMS);
+                put("JAVA", BarcodeScannerView.DECODER_JAVA);
+                put("AUTO", BarcodeScannerView.DECODER_AUTO);
+            }
+        });
+    }
+
+    private static Map<String, Integer> getTraceStages() {
+        Map<String, Integer> stages = new HashMap<>();
+        for (int stage = 0; stage < FrameTracer.STAGE_NAMES.length; stage++) {
+            stages.put(FrameTracer.STAGE_NAMES[stage], stage);
+        }
+        return Collections.unmodifiableMap(stages);
+    }
+
     private static Map<String, Integer> getCameraFillModes() {
         return Collections.unmodifiableMap(new HashMap<String, Integer>() {
             {
@@ -87,83 +151,368 @@ public class BarcodeScannerModule extends ReactContextBaseJavaModule implements
      * ------------- Methods for JS -----------------
      * ---------------------------------------------- */
 
+    /**
+     * Resumes the scanner view with the given React tag (or -1 for the view holding the camera,
+     * else the view created last).  The view takes the camera from any other scanner view
+     * holding it.
+     */
     @ReactMethod
-    public void resume(Promise promise) {
-        if (resume())
-            promise.resolve(null);
-        else
-            promise.reject("2", "Attempted to RESUME barcode scanner before scanner view was instantiated.");
+    public void resume(final int tag, final Promise promise) {
+        UiThreadUtil.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                BarcodeScannerView view = mBarcodeScannerManager.getBarcodeScannerView(tag);
+
+                if (view == null) {
+                    promise.reject("2", "Attempted to RESUME barcode scanner before scanner view was instantiated.");
+                    return;
+                }
+
+                mBarcodeScannerManager.getRegistry().resume(view);
+                promise.resolve(null);
+            }
+        });
     }
 
+    /**
+     * Pauses the scanner view with the given React tag (or -1 for the view holding the camera,
+     * else the view created last).  The camera goes back to the scanner view that had it before, if that one wasn't paused.
+     */
     @ReactMethod
-    public void pause(Promise promise) {
-        if (pause())
-            promise.resolve(null);
-        else
-            promise.reject("3", "Attempted to PAUSE barcode scanner before scanner view was instantiated.");
+    public void pause(final int tag, final Promise promise) {
+        UiThreadUtil.runOnUiThread(new Runnable() {
+            @Override
+            public void run() {
+                BarcodeScannerView view = mBarcodeScannerManager.getBarcodeScannerView(tag);
+
+                if (view == null) {
+                    promise.reject("3", "Attempted to PAUSE barcode scanner before scanner view was instantiated.");
+                    return;
+                }
+
+                mBarcodeScannerManager.getRegistry().pause(view);
+                promise.resolve(null);
+            }
+        });
     }
 
-    /* ----------------------------------------------
-     * ------------- Lifecycle events ---------------
-     * ---------------------------------------------- */
+    /**
+     * Resolves with the per stage timestamps of recent frames of the scanner view with the given
+     * React tag (or -1 for the view holding the camera, else the view created last), as a flat
+     * array of [frameId, stage, microseconds, frameId, stage, microseconds, ...], oldest first.  Times are
+     * relative to the earliest entry; stages are the values of the TraceStage constants.
+     */
+    @ReactMethod
+    public void getFrameTrace(int tag, Promise promise) {
+        BarcodeScannerView view = mBarcodeScannerManager.getBarcodeScannerView(tag);
+        FrameTracer tracer = view != null ? view.getFrameTracer() : null;
 
-    @Override
-    public void onHostResume() {
-        resume();
-    }
+        if (tracer == null) {
+            promise.reject("4", "Attempted to read the frame trace before the scanner camera was created.");
+            return;
+        }
 
-    @Override
-    public void onHostPause() {
-        pause();
+        long[] entries = tracer.snapshot();
+        long startNanos = Long.MAX_VALUE;
+        for (int i = 2; i < entries.length; i += 3) {
+            startNanos = Math.min(startNanos, entries[i]);
+        }
+
+        WritableArray trace = Arguments.createArray();
+        for (int i = 0; i < entries.length; i += 3) {
+            trace.pushDouble(entries[i]);
+            trace.pushInt((int) entries[i + 1]);
+            trace.pushDouble((entries[i + 2] - startNanos) / 1000);
+        }
+        promise.resolve(trace);
     }
 
-    @Override
-    public void onHostDestroy() {
-        release();
+    /**
+     * Resolves with the timings of the last camera start of the scanner view with the given React
+     * tag (or -1 for the view holding the camera, else the view created last), in milliseconds
+     * from the start request:
+     * timeToInteractive (until the UI thread was told the camera is running), timeToReady (until
+     * the preview was running), timeToFirstFrame (until the first preview frame arrived) and
+     * timeToFocus (until focus first locked).  A stage that wasn't reached yet is -1.
+     */
+    @ReactMethod
+    public void getStartupTimings(int tag, Promise promise) {
+        BarcodeScannerView view = mBarcodeScannerManager.getBarcodeScannerView(tag);
+        StartupTimer timer = view != null ? view.getStartupTimer() : null;
+
+        if (timer == null) {
+            promise.reject("5", "Attempted to read the startup timings before the scanner camera was created.");
+            return;
+        }
+
+        WritableMap timings = Arguments.createMap();
+        timings.putDouble("timeToInteractive", timer.getTimeToInteractiveMillis());
+        timings.putDouble("timeToReady", timer.getTimeToReadyMillis());
+        timings.putDouble("timeToFirstFrame", timer.getTimeToFirstFrameMillis());
+        timings.putDouble("timeToFocus", timer.getTimeToFocusMillis());
+        promise.resolve(timings);
     }
 
+    /**
+     * Resolves with how long the camera of the scanner view with the given React tag (or -1 for
+     * the view holding the camera, else the view created last) took to lock focus: runs (auto focus runs and continuous focus
+     * moves), locked (the runs that locked focus), and the last, mean and max run time in
+     * milliseconds, or -1 before the first run.
+     */
+    @ReactMethod
+    public void getFocusTimings(int tag, Promise promise) {
+        BarcodeScannerView view = mBarcodeScannerManager.getBarcodeScannerView(tag);
+        FocusTimer timer = view != null ? view.getFocusTimer() : null;
 
-    /* ----------------------------------------------
-     * ------------- Utility methods ----------------
-     * ---------------------------------------------- */
+        if (timer == null) {
+            promise.reject("5", "Attempted to read the focus timings before the scanner camera was created.");
+            return;
+        }
 
-    private boolean start() {
-        BarcodeScannerView view = mBarcodeScannerManager.getBarcodeScannerView();
+        WritableMap timings = Arguments.createMap();
+        timings.putDouble("runs", timer.getRuns());
+        timings.putDouble("locked", timer.getLocked());
+        timings.putDouble("last", timer.getLastMillis());
+        timings.putDouble("mean", timer.getMeanMillis());
+        timings.putDouble("max", timer.getMaxMillis());
+        promise.resolve(timings);
+    }
+
+    /**
+     * Starts recording the camera frames of the scanner view with the given React tag (or -1 for
+     * the view holding the camera, else the view created last) to a capture file at the given path, for replay with
+     * FrameReplay.  Options: compress (deflate the frames, default false) and maxFrames (default
+     * no limit).  Replaces any recording in progress.
+     */
+    @ReactMethod
+    public void startFrameRecording(int tag, String path, ReadableMap options, Promise promise) {
+        BarcodeScannerView view = mBarcodeScannerManager.getBarcodeScannerView(tag);
 
-        if (view != null) {
-            view.start();
+        if (view == null) {
+            promise.reject("7", "Attempted to record frames before scanner view was instantiated.");
+            return;
         }
 
-        return view != null;
+        boolean compressed = options != null && options.hasKey("compress") && options.getBoolean("compress");
+        int maxFrames = getInt(options, "maxFrames", FrameRecorder.NO_LIMIT);
+        try {
+            view.startFrameRecording(new File(path), compressed, Math.max(0, maxFrames));
+        } catch (IOException e) {
+            promise.reject("7", "Could not record frames to " + path + ": " + e.getMessage());
+            return;
+        }
+        promise.resolve(null);
     }
 
-    private boolean resume() {
-        BarcodeScannerView view = mBarcodeScannerManager.getBarcodeScannerView();
+    /**
+     * Stops recording the camera frames of the scanner view with the given React tag (or -1 for
+     * the view holding the camera, else the view created last).  Resolves with {path, frames, frameBytes, fileBytes}, or null
+     * if nothing was being recorded.
+     */
+    @ReactMethod
+    public void stopFrameRecording(int tag, Promise promise) {
+        BarcodeScannerView view = mBarcodeScannerManager.getBarcodeScannerView(tag);
+        FrameRecorder recorder = view != null ? view.stopFrameRecording() : null;
 
-        if (view != null) {
-            view.resume();
+        if (recorder == null) {
+            promise.resolve(null);
+            return;
         }
 
-        return view != null;
+        WritableMap result = Arguments.createMap();
+        result.putString("path", recorder.getFile().getPath());
+        result.putInt("frames", recorder.getFrames());
+        result.putDouble("frameBytes", recorder.getFrameBytes());
+        result.putDouble("fileBytes", recorder.getFileBytes());
+        promise.resolve(result);
     }
 
-    private boolean pause() {
-        BarcodeScannerView view = mBarcodeScannerManager.getBarcodeScannerView();
+    /**
+     * Decodes barcodes in the image files at the given paths, on a few background threads.  Every
+     * image is reported as soon as it is done, with a "barcodeImageDecoded" device event holding
+     * batchId, index, path, barcodes ([{data, type}]) and decodeTime in milliseconds, or error if
+     * the image couldn't be decoded.  Resolves with {decoded, failed, time} once all images are.
+     * <p/>
+     * Options: batchId (echoed in the events), barcodeTypes (format mask, 0 for all) and maxSize
+     * (images are downsampled to a longer side between maxSize and twice that).
+     */
+    @ReactMethod
+    public void decodeImages(ReadableArray paths, ReadableMap options, final Promise promise) {
+        final int batchId = getInt(options, "batchId", 0);
+        final int barcodeTypes = getInt(options, "barcodeTypes", BarcodeFormat.ALL_FORMATS);
+        final int maxSize = getInt(options, "maxSize", BitmapBarcodeDecoder.DEFAULT_MAX_SIZE);
+        if (maxSize < 1) {
+            promise.reject("6", "Invalid image size: " + maxSize);
+            return;
+        }
 
-        if (view != null) {
-            view.pause();
+        List<String> imagePaths = new ArrayList<>(paths.size());
+        for (int i = 0; i < paths.size(); i++) {
+            imagePaths.add(paths.getString(i));
         }
 
-        return view != null;
+        getBatchDecoder().decode(imagePaths, new BatchDecoder.Factory<SparseArray<Barcode>>() {
+            @Override
+            public BatchDecoder.Decoder<SparseArray<Barcode>> create() {
+                BarcodeDetector detector = new BarcodeDetector.Builder(getReactApplicationContext())
+                        .setBarcodeFormats(barcodeTypes)
+                        .build();
+                return new BitmapBarcodeDecoder(detector, maxSize);
+            }
+        }, new BatchDecoder.Listener<SparseArray<Barcode>>() {
+            @Override
+            public void onImageDecoded(int index, String path, SparseArray<Barcode> result, long decodeNanos) {
+                WritableArray barcodes = Arguments.createArray();
+                for (int i = 0; result != null && i < result.size(); i++) {
+                    Barcode barcode = result.valueAt(i);
+                    WritableMap item = Arguments.createMap();
+                    item.putString("data", barcode.displayValue);
+                    item.putString("type", BarcodeFormat.get(barcode.format));
+                    barcodes.pushMap(item);
+                }
+
+                WritableMap event = createImageEvent(batchId, index, path, decodeNanos);
+                event.putArray("barcodes", barcodes);
+                emit(IMAGE_DECODED_EVENT, event);
+            }
+
+            @Override
+            public void onImageFailed(int index, String path, Exception error, long decodeNanos) {
+                Log.w(TAG, "Could not decode " + path, error);
+                WritableMap event = createImageEvent(batchId, index, path, decodeNanos);
+                event.putArray("barcodes", Arguments.createArray());
+                event.putString("error", String.valueOf(error.getMessage()));
+                emit(IMAGE_DECODED_EVENT, event);
+            }
+
+            @Override
+            public void onBatchFinished(int decoded, int failed, long batchNanos) {
+                Log.d(TAG, String.format("Batch %d: %d decoded, %d failed in %.1fms",
+                        batchId, decoded, failed, batchNanos / 1e6f));
+                WritableMap result = Arguments.createMap();
+                result.putInt("decoded", decoded);
+                result.putInt("failed", failed);
+                result.putDouble("time", batchNanos / 1e6);
+                promise.resolve(result);
+            }
+        });
     }
 
-    private boolean release() {
-        BarcodeScannerView view = mBarcodeScannerManager.getBarcodeScannerView();
+    /**
+     * Runs the Play Services and the pure Java decoder over a frame recording made with
+     * startFrameRecording(), on a background thread.  Resolves with one entry per decoder:
+     * {name, frames, framesRead, reads, meanDecodeTime, maxDecodeTime, values}, times in
+     * milliseconds.  Play Services is left out when its detector isn't operational.
+     * <p/>
+     * Options: barcodeTypes (format mask, 0 for all).
+     */
+    @ReactMethod
+    public void compareDecoders(final String path, ReadableMap options, final Promise promise) {
+        final int barcodeTypes = getInt(options, "barcodeTypes", BarcodeFormat.ALL_FORMATS);
+
+        new Thread(new Runnable() {
+            @Override
+            public void run() {
+                Map<String, BarcodeDecoder> decoders = new LinkedHashMap<>();
+                BarcodeDecoder gms = GmsBarcodeDecoder.factory(getReactApplicationContext()).create(barcodeTypes);
+                if (gms.isOperational()) {
+                    decoders.put("gms", gms);
+                } else {
+                    Log.w(TAG, "Play Services detector isn't operational, comparing without it.");
+                    gms.release();
+                }
+                decoders.put("java", new JavaBarcodeDecoder(barcodeTypes));
+
+                FrameRecording recording = null;
+                try {
+                    recording = new FrameRecording(new File(path));
+                    WritableArray results = Arguments.createArray();
+                    for (DecoderComparison.Result result : DecoderComparison.run(recording, decoders)) {
+                        Log.d(TAG, result.toString());
+                        WritableArray values = Arguments.createArray();
+                        for (String value : result.getValues()) {
+                            values.pushString(value);
+                        }
+
+                        WritableMap item = Arguments.createMap();
+                        item.putString("name", result.getName());
+                        item.putInt("frames", result.getFrames());
+                        item.putInt("framesRead", result.getFramesRead());
+                        item.putInt("reads", result.getReads());
+                        item.putDouble("meanDecodeTime", result.getMeanDecodeMillis());
+                        item.putDouble("maxDecodeTime", result.getMaxDecodeMillis());
+                        item.putArray("values", values);
+                        results.pushMap(item);
+                    }
+                    promise.resolve(results);
+                } catch (IOException e) {
+                    promise.reject("8", "Could not read the frame recording " + path + ": " + e.getMessage());
+                } finally {
+                    if (recording != null) {
+                        try {
+                            recording.close();
+                        } catch (IOException e) {
+                            Log.w(TAG, "Could not close the frame recording " + path, e);
+                        }
+                    }
+                    for (BarcodeDecoder decoder : decoders.values()) {
+                        decoder.release();
+                    }
+                }
+            }
+        }, "DecoderComparison").start();
+    }
 
-        if (view != null) {
-            view.release();
+    private synchronized BatchDecoder<SparseArray<Barcode>> getBatchDecoder() {
+        if (mBatchDecoder == null) {
+            mBatchDecoder = new BatchDecoder<>(BatchDecoder.poolSize(
+                    BatchDecoder.DEFAULT_MAX_THREADS, Runtime.getRuntime().availableProcessors()));
         }
+        return mBatchDecoder;
+    }
+
+    private static WritableMap createImageEvent(int batchId, int index, String path, long decodeNanos) {
+        WritableMap event = Arguments.createMap();
+        event.putInt("batchId", batchId);
+        event.putInt("index", index);
+        event.putString("path", path);
+        event.putDouble("decodeTime", decodeNanos / 1e6);
+        return event;
+    }
+
+    private static int getInt(ReadableMap options, String key, int defaultValue) {
+        return options != null && options.hasKey(key) && !options.isNull(key) ? options.getInt(key) : defaultValue;
+    }
+
+    private void emit(String eventName, WritableMap event) {
+        getReactApplicationContext()
+                .getJSModule(DeviceEventManagerModule.RCTDeviceEventEmitter.class)
+                .emit(eventName, event);
+    }
+
+    /* ----------------------------------------------
+     * ------------- Lifecycle events ---------------
+     * ---------------------------------------------- */
 
-        return view != null;
+    @Override
+    public void onHostResume() {
+        mBarcodeScannerManager.getRegistry().onHostResume();
+    }
+
+    @Override
+    public void onHostPause() {
+        mBarcodeScannerManager.getRegistry().onHostPause();
+    }
+
+    @Override
+    public void onHostDestroy() {
+        mBarcodeScannerManager.getRegistry().onHostDestroy();
+
+        synchronized (this) {
+            if (mBatchDecoder != null) {
+                mBatchDecoder.shutdown();
+                mBatchDecoder = null;
+            }
+        }
     }
 }
@@ -0,0 +1,153 @@
+package com.ekreutz.barcodescanner;
+
+import android.support.annotation.Nullable;
+import android.util.Log;
+
+import com.ekreutz.barcodescanner.ui.BarcodeScannerView;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Keeps track of all mounted scanner views, by React tag, and of which one holds the camera.
+ * <p/>
+ * Only one view can have the camera open.  A view that starts the camera takes it from the view
+ * holding it, which is paused.  Views that were resumed and not paused since, like a scanner on a
+ * screen below a modal scanner, are remembered in the order they got the camera: when the view
+ * holding the camera is paused or dropped, the camera goes back to the most recent of them.
+ * <p/>
+ * Only changed on the main thread.  Views are also looked up from the native modules thread, so
+ * the view list and the camera owner are safe to read from any thread.
+ */
+class BarcodeScannerRegistry implements BarcodeScannerView.CameraArbiter {
+    private static final String TAG = "BarcodeScannerRegistry";
+
+    /**
+     * Passed as the view tag from JS to mean the view that holds the camera, or the view created
+     * last if none does.
+     */
+    static final int ANY_VIEW = -1;
+
+    // Copy on write, since views are also looked up from the native modules thread
+    private final List<BarcodeScannerView> mViews = new CopyOnWriteArrayList<>();
+
+    // Views that want the camera, the one that got it last at the end
+    private final List<BarcodeScannerView> mWanting = new ArrayList<>();
+
+    // Volatile, since the native modules thread reads it to find the view for ANY_VIEW
+    @Nullable
+    private volatile BarcodeScannerView mCameraOwner;
+
+    // Set while the host activity is paused, when no view may hold the camera
+    private boolean mHostPaused = false;
+
+    void add(BarcodeScannerView view) {
+        mViews.add(view);
+        view.setCameraArbiter(this);
+    }
+
+    /**
+     * Releases a view that was unmounted, handing the camera on if it held it.
+     */
+    void remove(BarcodeScannerView view) {
+        mViews.remove(view);
+        mWanting.remove(view);
+        view.release();
+        view.setCameraArbiter(null);
+        handOnCamera();
+    }
+
+    /**
+     * Returns the view with the given React tag, or for {@link #ANY_VIEW} the view holding the
+     * camera or else the view created last.  Null if there is no such view.
+     */
+    @Nullable
+    BarcodeScannerView get(int tag) {
+        if (tag == ANY_VIEW) {
+            BarcodeScannerView cameraOwner = mCameraOwner;
+            if (cameraOwner != null) {
+                return cameraOwner;
+            }
+            return mViews.isEmpty() ? null : mViews.get(mViews.size() - 1);
+        }
+
+        for (BarcodeScannerView view : mViews) {
+            if (view.getId() == tag) {
+                return view;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Resumes the view, taking the camera from the view that holds it.
+     */
+    void resume(BarcodeScannerView view) {
+        mWanting.remove(view);
+        mWanting.add(view);
+        if (!mHostPaused) {
+            view.resume();
+        }
+    }
+
+    /**
+     * Pauses the view, handing the camera on if it held it.
+     */
+    void pause(BarcodeScannerView view) {
+        mWanting.remove(view);
+        view.pause();
+        handOnCamera();
+    }
+
+    void onHostPause() {
+        mHostPaused = true;
+        if (mCameraOwner != null) {
+            mCameraOwner.pause();
+        }
+    }
+
+    void onHostResume() {
+        mHostPaused = false;
+        handOnCamera();
+    }
+
+    void onHostDestroy() {
+        // nothing gets the camera anymore
+        mHostPaused = true;
+        for (BarcodeScannerView view : mViews) {
+            remove(view);
+        }
+    }
+
+    @Override
+    public void onAcquireCamera(BarcodeScannerView view) {
+        if (mCameraOwner != null && mCameraOwner != view) {
+            Log.d(TAG, "Camera goes from view " + mCameraOwner.getId() + " to view " + view.getId());
+            // stays wanting, so that it gets the camera back later
+            mCameraOwner.pause();
+        }
+
+        mCameraOwner = view;
+        mWanting.remove(view);
+        mWanting.add(view);
+    }
+
+    @Override
+    public void onReleaseCamera(BarcodeScannerView view) {
+        if (mCameraOwner == view) {
+            mCameraOwner = null;
+        }
+    }
+
+    /**
+     * Gives the camera to the view that wanted it last, if nobody holds it.
+     */
+    private void handOnCamera() {
+        if (mCameraOwner != null || mHostPaused || mWanting.isEmpty()) {
+            return;
+        }
+
+        mWanting.get(mWanting.size() - 1).resume();
+    }
+}
@@ -20,15 +20,22 @@ import android.annotation.SuppressLint;
 import android.annotation.TargetApi;
 import android.content.Context;
 import android.graphics.ImageFormat;
+import android.graphics.Point;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.graphics.SurfaceTexture;
 import android.hardware.Camera;
 import android.hardware.Camera.CameraInfo;
 import android.os.Build;
-import android.os.SystemClock;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Looper;
+import android.os.Trace;
 import android.support.annotation.Nullable;
 import android.support.annotation.RequiresPermission;
 import android.support.annotation.StringDef;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.Surface;
 import android.view.SurfaceHolder;
 import android.view.SurfaceView;
@@ -37,16 +44,19 @@ import android.view.WindowManager;
 import com.google.android.gms.common.images.Size;
 import com.google.android.gms.vision.Detector;
 import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
 
 import java.io.IOException;
-import java.lang.Thread.State;
 import java.lang.annotation.Retention;
 import java.lang.annotation.RetentionPolicy;
 import java.nio.ByteBuffer;
 import java.util.ArrayList;
-import java.util.HashMap;
+import java.util.Arrays;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
 
 // Note: This requires Google Play Services 8.1 or higher, due to using indirect byte buffers for
 // storing images.
@@ -91,6 +101,12 @@ public class CameraSource {
      */
     private static final float ASPECT_RATIO_TOLERANCE = 0.01f;
 
+    /**
+     * Upper bound for the number of parallel detection workers.  Every worker holds on to one
+     * preview buffer while detecting, so this also bounds the size of the frame pool.
+     */
+    public static final int MAX_DETECTION_WORKERS = 8;
+
     @StringDef({
         Camera.Parameters.FOCUS_MODE_CONTINUOUS_PICTURE,
         Camera.Parameters.FOCUS_MODE_CONTINUOUS_VIDEO,
@@ -119,8 +135,8 @@ public class CameraSource {
 
     private final Object mCameraLock = new Object();
 
-    // Guarded by mCameraLock
-    private Camera mCamera;
+    // Guarded by mCameraLock, but read without it to return buffers to the camera
+    private volatile Camera mCamera;
 
     private int mFacing = CAMERA_FACING_BACK;
 
@@ -130,7 +146,7 @@ public class CameraSource {
      */
     private int mRotation;
 
-    private Size mPreviewSize;
+    private volatile Size mPreviewSize;
 
     // These values may be requested by the caller.  Due to hardware limitations, we may need to
     // select close, but not exactly the same values for these.
@@ -154,18 +170,111 @@ public class CameraSource {
     private SurfaceTexture mDummySurfaceTexture;
 
     /**
-     * Dedicated thread and associated runnable for calling into the detector with frames, as the
-     * frames become available from the camera.
+     * The processor that detections are handed to here, in frame order, when there are parallel
+     * detection workers or a resolution cascade.  Null when the detector hands its results to its
+     * own processor.
+     */
+    private Detector.Processor<?> mProcessor;
+
+    /**
+     * Number of threads that run detection in parallel, and the factory for the extra detectors and
+     * the result processor they need.  See {@link Builder#setDetectionWorkers(int, DetectorFactory)}.
+     */
+    private int mDetectionWorkers = 1;
+    private DetectorFactory mDetectorFactory;
+
+    /**
+     * Adapts the preview frame rate and frame skipping to the measured detection latency.  Only
+     * used when a target latency is set, see {@link Builder#setTargetLatency(float)}.  A new
+     * governor is created every time the camera is opened, and handed to the frame pipeline.
+     */
+    private float mTargetLatencyMillis = 0;
+
+    /**
+     * Detects on a downscaled frame first, and only on the full frame when needed.  Null when the
+     * cascade is off.  See {@link Builder#setResolutionCascade(int)}.
+     */
+    private ResolutionCascade mResolutionCascade;
+
+    /**
+     * Timestamps of every frame at every stage of the way to JS, see {@link #getFrameTracer()}.
+     */
+    private final FrameTracer mFrameTracer = new FrameTracer(FrameTracer.DEFAULT_CAPACITY);
+
+    /**
+     * Takes preview frames to the detector on a dedicated processing thread (and the detection
+     * workers), as the frames become available from the camera: the frame pool, the frame rate
+     * governor, the frame gate, the scan area, the resolution cascade and the parallel workers.
+     * A new session with new buffers is started every time the camera is opened.
+     */
+    private final FramePipeline<Detector.Detections<?>> mPipeline =
+            new FramePipeline<>(new CameraFrameSource(), new DetectionsReceiver(), mFrameTracer);
+
+    /**
+     * Writes every preview frame to a capture file for replay, see
+     * {@link #setFrameRecorder(FrameRecorder)}.  Null when not recording.
+     */
+    private volatile FrameRecorder mFrameRecorder;
+
+    /**
+     * Number of preview buffers shared with the camera.  We use byte buffers internally because
+     * this is a more efficient way to call into native code later (avoids a potential copy).  A new
+     * pool is allocated every time the camera is opened.
+     */
+    private int mFramePoolDepth = FramePool.DEFAULT_DEPTH;
+
+    /**
+     * Thread that the camera is opened, configured and started on by
+     * {@link #startAsync(SurfaceHolder, StartCallback)}.  Camera callbacks are delivered on the
+     * looper of the thread that opened the camera, so preview frames arrive on this thread too.
+     * One thread is shared by all camera sources, so that camera operations never overlap.
+     */
+    private static HandlerThread sCameraThread;
+    private static Handler sCameraHandler;
+
+    /**
+     * Settings selected for earlier starts, so that warm starts don't have to query the camera.
+     * Null to always query the camera.  See {@link Builder#setCapabilityCache(CapabilityCache)}.
+     */
+    private CapabilityCache mCapabilityCache;
+
+    // The start waiting to run on the camera thread, if any
+    private volatile Future<CameraSource> mPendingStart;
+
+    // Told when the tuner moves the running camera to another preview size
+    private volatile PreviewSizeCallback mPreviewSizeCallback;
+
+    /**
+     * Tries a few preview sizes and settles on the one that scans best, replacing the requested
+     * preview size.  Null when tuning is off.  See {@link Builder#setPreviewSizeTuning(float)}.
+     */
+    private volatile PreviewSizeTuner mPreviewSizeTuner;
+
+    /**
+     * Times every start of the camera, see {@link #getStartupTimer()}.
+     */
+    private final StartupTimer mStartupTimer = new StartupTimer();
+
+    /**
+     * Times every focus run, see {@link #getFocusTimer()}.
+     */
+    private final FocusTimer mFocusTimer = new FocusTimer();
+
+    /**
+     * The area to focus and meter on, as fractions of the frame {left, top, right, bottom}, or
+     * null to leave it to the driver.  See {@link #setFocusArea(RectF)}.
      */
-    private Thread mProcessingThread;
-    private FrameProcessingRunnable mFrameProcessor;
+    private volatile float[] mFocusArea;
 
     /**
-     * Map to convert between a byte array, received from the camera, and its associated byte
-     * buffer.  We use byte buffers internally because this is a more efficient way to call into
-     * native code later (avoids a potential copy).
+     * Whether the open camera supports focus areas, as read when it was configured, so that
+     * {@link #setFocusArea(RectF)} can answer without waiting for the camera.
      */
-    private Map<byte[], ByteBuffer> mBytesToByteBuffer = new HashMap<>();
+    private volatile boolean mFocusAreasSupported;
+
+    // The app's focus move callback, which focus timing passes on to
+    @Nullable
+    private AutoFocusMoveCallback mAutoFocusMoveCallback;
 
     //==============================================================================================
     // Builder
@@ -241,6 +350,104 @@ public class CameraSource {
             return this;
         }
 
+        /**
+         * Sets the number of preview buffers shared between the camera and the detector.  More
+         * buffers means fewer frames are skipped by the camera while the detector holds on to
+         * frames, at the cost of one preview frame worth of memory per buffer.  Use
+         * {@link CameraSource#getFramePoolStats()} to see how the pool behaves on a device.
+         * Default: 4.
+         */
+        public Builder setFramePoolDepth(int depth) {
+            if (depth < FramePool.MIN_DEPTH || depth > FramePool.MAX_DEPTH) {
+                throw new IllegalArgumentException("Invalid frame pool depth: " + depth);
+            }
+            mCameraSource.mFramePoolDepth = depth;
+            return this;
+        }
+
+        /**
+         * Runs detection on {@code workers} threads in parallel instead of on a single thread.
+         * Each worker gets its own detector: the one given to the builder, plus detectors created
+         * with {@link DetectorFactory#createDetector()} for the others.  Workers take frames from
+         * a shared queue, and their results are merged back into frame order before they are
+         * handed to a single processor from {@link DetectorFactory#createProcessor()}.
+         * Default: 1 worker (no factory needed).
+         */
+        public Builder setDetectionWorkers(int workers, DetectorFactory factory) {
+            mCameraSource.setDetectionWorkers(workers, factory);
+            return this;
+        }
+
+        /**
+         * Lets the camera source adapt the preview frame rate to how fast the detector is on this
+         * device, aiming to keep the time from capturing a frame to having detected on it below the
+         * given latency.  The requested fps is then only the starting point.  See
+         * {@link FrameRateGovernor}.  Default: 0, which keeps the requested fps fixed.
+         */
+        public Builder setTargetLatency(float millis) {
+            mCameraSource.setTargetLatency(millis);
+            return this;
+        }
+
+        /**
+         * Detects on every frame at a lower resolution first: the luma plane downscaled by 2 or 4
+         * per side.  The full resolution frame is only detected upon when that finds nothing, or
+         * finds a dense code (see {@link ResolutionCascade#DETAIL_FORMATS}).  The results are
+         * handed to a processor from the {@link DetectorFactory} set with
+         * {@link #setDetectionWorkers(int, DetectorFactory)}, which is required for this.
+         * Default: 1, which turns the cascade off.
+         */
+        public Builder setResolutionCascade(int downscale) {
+            mCameraSource.setResolutionCascade(downscale);
+            return this;
+        }
+
+        /**
+         * Sets how the frame processing thread waits for the next frame:
+         * {@link LockFreeFrameHandoff#WAIT_PARK} (default) or
+         * {@link LockFreeFrameHandoff#WAIT_SPIN_THEN_PARK}, which spins briefly before parking to
+         * pick up frames that arrive right after detection finishes without a wake-up.
+         */
+        public Builder setFrameWaitStrategy(int waitStrategy) {
+            mCameraSource.setFrameWaitStrategy(waitStrategy);
+            return this;
+        }
+
+        /**
+         * Skips frames that aren't worth detecting on: frames with a sharpness score below
+         * {@code minSharpness} (motion blur, out of focus), and frames with a change score below
+         * {@code minChange} compared to the last frame that was detected on.  Both scores are mean
+         * absolute luma differences (0 to 255) over a sparse grid of samples, see
+         * {@link FrameGate}.  Default: no gating.
+         */
+        public Builder setFrameGate(float minSharpness, float minChange) {
+            mCameraSource.setFrameGate(minSharpness, minChange);
+            return this;
+        }
+
+        /**
+         * Sets the cache of camera settings selected on earlier starts.  With a cache, a warm start
+         * applies the settings selected before right away, instead of querying and comparing all
+         * preview sizes and frame rates the camera supports.  Default: no cache.
+         */
+        public Builder setCapabilityCache(@Nullable CapabilityCache capabilityCache) {
+            mCameraSource.mCapabilityCache = capabilityCache;
+            return this;
+        }
+
+        /**
+         * Turns preview size tuning on, with the given detection time budget per frame, or off (a
+         * budget of 0).  With tuning on, the first start tries a few of the preview sizes the camera
+         * supports instead of the requested size, measuring for each how often something is
+         * decoded and how long detection takes.  The camera then settles on the size that decodes
+         * best within the budget; see {@link PreviewSizeTuner}.  With a capability cache, the size
+         * is stored and later runs use it right away.  Default: off.
+         */
+        public Builder setPreviewSizeTuning(float latencyBudgetMillis) {
+            mCameraSource.setPreviewSizeTuning(latencyBudgetMillis);
+            return this;
+        }
+
         /**
          * Sets the camera to use (either {@link #CAMERA_FACING_BACK} or
          * {@link #CAMERA_FACING_FRONT}). Default: back facing.
@@ -257,7 +464,11 @@ public class CameraSource {
          * Creates an instance of the camera source.
          */
         public CameraSource build() {
-            mCameraSource.mFrameProcessor = mCameraSource.new FrameProcessingRunnable(mDetector);
+            if (mCameraSource.mResolutionCascade != null && mCameraSource.mDetectorFactory == null) {
+                throw new IllegalStateException("The resolution cascade needs a detector factory.");
+            }
+            // nothing can be running yet, so there is nothing to wait for
+            mCameraSource.applyDetector(mDetector);
             return mCameraSource;
         }
     }
@@ -325,18 +536,86 @@ public class CameraSource {
         void onAutoFocusMoving(boolean start);
     }
 
+    /**
+     * Callback interface used to notify on completion of
+     * {@link #startAsync(SurfaceHolder, StartCallback)}.  Called on the main thread.
+     */
+    public interface StartCallback {
+        /**
+         * Called when the camera preview is running.
+         */
+        void onCameraStarted(CameraSource cameraSource);
+
+        /**
+         * Called when the camera could not be opened or started.
+         */
+        void onCameraStartFailed(Exception e);
+    }
+
+    /**
+     * Callback interface used to notify that the running camera moved to another preview size, see
+     * {@link Builder#setPreviewSizeTuning(float)}.  Called on the main thread.
+     */
+    public interface PreviewSizeCallback {
+        /**
+         * Called when the preview frames have the new size.
+         */
+        void onPreviewSizeChanged(CameraSource cameraSource, Size previewSize);
+    }
+
+    /**
+     * Callback interface used to notify that a zoom set with {@link #setZoomRatio(float,
+     * ZoomCallback)} was applied.  Called on the camera thread.
+     */
+    public interface ZoomCallback {
+        /**
+         * Called with the zoom ratio the camera is at now.
+         */
+        void onZoomApplied(float ratio);
+    }
+
+    /**
+     * Creates the extra detectors and the result processor for parallel detection.
+     */
+    public interface DetectorFactory {
+        /**
+         * Creates a detector for one detection worker.  Only {@link Detector#detect(Frame)} is
+         * called on it, so it doesn't need a processor.
+         */
+        Detector<?> createDetector();
+
+        /**
+         * Creates the processor that receives the merged results of all workers, in frame order.
+         * The type of the processor must match the type of the detectors.
+         */
+        Detector.Processor<?> createProcessor();
+    }
+
     //==============================================================================================
     // Public
     //==============================================================================================
 
     /**
-     * Stops the camera and releases the resources of the camera and underlying detector.
+     * Stops the camera and releases the resources of the camera and underlying detector.  Like
+     * {@link #stopAsync()}, this happens on the camera thread and returns right away: the detector
+     * and the result processor are released once the camera is closed.  A detector set or a start
+     * requested afterwards runs once everything is released.
      */
     public void release() {
-        synchronized (mCameraLock) {
-            stop();
-            mFrameProcessor.release();
-        }
+        cancelPendingStart();
+        getCameraHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mCameraLock) {
+                    stopCamera();
+                    mPipeline.release();
+                    if (mProcessor != null) {
+                        mProcessor.release();
+                        mProcessor = null;
+                    }
+                }
+            }
+        });
     }
 
     public Camera.Parameters getParameters() {
@@ -345,13 +624,180 @@ public class CameraSource {
         }
     }
 
-    // Call release() before calling this
-    public void setDetector(Detector<?> detector) {
-        if (mFrameProcessor != null && mFrameProcessor.mActive) {
-            throw new RuntimeException("Can't replace detector while frame processor is active!");
+    /**
+     * Sets the detector that frames are passed to.
+     * <p/>
+     * While the camera is running, the detector is swapped in between two frames, without
+     * touching the camera: the frame being detected upon finishes with the old detector, and the
+     * next frame goes to the new one.  The old detector (and the old detectors of the parallel
+     * detection workers) are released once no frame is using them anymore.
+     * <p/>
+     * Otherwise, call release() before calling this.
+     * <p/>
+     * The detector is set on the camera thread, so that it comes after a {@link #release()} or
+     * {@link #stopAsync()} requested before this.
+     */
+    public void setDetector(final Detector<?> detector) {
+        getCameraHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                applyDetector(detector);
+            }
+        });
+    }
+
+    private void applyDetector(Detector<?> detector) {
+        if (mPipeline.isRunning()) {
+            mPipeline.swapDetector(new VisionDetector(detector, mProcessor != null));
+            return;
+        }
+
+        final DetectorFactory factory = mDetectorFactory;
+        mProcessor = mDetectionWorkers > 1 || mResolutionCascade != null ? factory.createProcessor() : null;
+        mPipeline.setResolutionCascade(mResolutionCascade);
+        mPipeline.setDetector(new VisionDetector(detector, mProcessor != null), mDetectionWorkers,
+                mDetectionWorkers == 1 ? null : new FramePipeline.DetectorFactory<Detector.Detections<?>>() {
+                    @Override
+                    public FramePipeline.Detector<Detector.Detections<?>> createDetector() {
+                        return new VisionDetector(factory.createDetector(), true);
+                    }
+                });
+    }
+
+    /**
+     * Sets the number of parallel detection workers.  Takes effect on the next call to
+     * {@link #setDetector(Detector)}, so call release() before calling this.
+     *
+     * @see Builder#setDetectionWorkers(int, DetectorFactory)
+     */
+    public void setDetectionWorkers(int workers, @Nullable DetectorFactory factory) {
+        if (workers < 1 || workers > MAX_DETECTION_WORKERS) {
+            throw new IllegalArgumentException("Invalid number of detection workers: " + workers);
+        }
+        if (workers > 1 && factory == null) {
+            throw new IllegalArgumentException("No detector factory supplied.");
+        }
+
+        mDetectionWorkers = workers;
+        mDetectorFactory = factory;
+    }
+
+    /**
+     * Turns the resolution cascade on (a downscale of 2 or 4) or off (1).  Takes effect on the next
+     * call to {@link #setDetector(Detector)}, so call release() before calling this.
+     *
+     * @see Builder#setResolutionCascade(int)
+     */
+    public void setResolutionCascade(int downscale) {
+        if (downscale == 1) {
+            mResolutionCascade = null;
+        } else if (mResolutionCascade == null || mResolutionCascade.getDownscale() != downscale) {
+            mResolutionCascade = new ResolutionCascade(downscale);
+        }
+    }
+
+    /**
+     * Returns the resolution cascade along with the count of frames resolved at each level, or null
+     * if the cascade is off.
+     */
+    @Nullable
+    public ResolutionCascade getResolutionCascade() {
+        return mResolutionCascade;
+    }
+
+    /**
+     * Sets how the frame processing thread waits for the next frame.  Takes effect right away.
+     *
+     * @see Builder#setFrameWaitStrategy(int)
+     */
+    public void setFrameWaitStrategy(int waitStrategy) {
+        if (waitStrategy != LockFreeFrameHandoff.WAIT_PARK
+                && waitStrategy != LockFreeFrameHandoff.WAIT_SPIN_THEN_PARK) {
+            throw new IllegalArgumentException("Invalid frame wait strategy: " + waitStrategy);
+        }
+
+        mPipeline.setWaitStrategy(waitStrategy);
+    }
+
+    /**
+     * Sets the thresholds of the frame gate, replacing its counters.  Thresholds of 0 and 0 turn
+     * gating off.
+     *
+     * @see Builder#setFrameGate(float, float)
+     */
+    public void setFrameGate(float minSharpness, float minChange) {
+        mPipeline.setFrameGate((minSharpness > 0 || minChange > 0) ? new FrameGate(minSharpness, minChange) : null);
+    }
+
+    /**
+     * Returns the frame gate along with its skip counters, or null if gating is off.
+     */
+    @Nullable
+    public FrameGate getFrameGate() {
+        return mPipeline.getFrameGate();
+    }
+
+    /**
+     * Turns preview size tuning on or off (a budget of 0), starting over.  Takes effect the next
+     * time the camera is started.
+     *
+     * @see Builder#setPreviewSizeTuning(float)
+     */
+    public void setPreviewSizeTuning(float latencyBudgetMillis) {
+        if (latencyBudgetMillis < 0) {
+            throw new IllegalArgumentException("Invalid latency budget: " + latencyBudgetMillis);
         }
 
-        this.mFrameProcessor = this.new FrameProcessingRunnable(detector);
+        mPreviewSizeTuner = latencyBudgetMillis > 0
+                ? new PreviewSizeTuner(PreviewSizeTuner.DEFAULT_FRAMES_PER_TRIAL, latencyBudgetMillis)
+                : null;
+        mPipeline.setPreviewSizeTuner(mPreviewSizeTuner);
+    }
+
+    /**
+     * Returns the preview size tuner, or null if tuning is off.  The processor should report
+     * frames that something was decoded in with {@link PreviewSizeTuner#onFrameDecoded()}.
+     */
+    @Nullable
+    public PreviewSizeTuner getPreviewSizeTuner() {
+        return mPreviewSizeTuner;
+    }
+
+    /**
+     * Returns the tracer that frames are timestamped with on their way from the camera to the
+     * processor.  The processor can add the stages after that, using
+     * {@link FrameTracer#getDeliveringFrameId()} to find out which frame it is looking at.
+     */
+    public FrameTracer getFrameTracer() {
+        return mFrameTracer;
+    }
+
+    /**
+     * Sets the target latency of the frame rate governor.  Enabling or disabling the governor (a
+     * latency of 0) takes effect the next time the camera is started.
+     *
+     * @see Builder#setTargetLatency(float)
+     */
+    public void setTargetLatency(float millis) {
+        if (millis < 0) {
+            throw new IllegalArgumentException("Invalid target latency: " + millis);
+        }
+
+        mTargetLatencyMillis = millis;
+
+        FrameRateGovernor governor = mPipeline.getFrameRateGovernor();
+        if (governor != null && millis > 0) {
+            governor.setTargetLatencyMillis(millis);
+        }
+    }
+
+    /**
+     * Returns the frame rate governor of the running camera, or null if the camera isn't running or
+     * no target latency is set.
+     */
+    @Nullable
+    public FrameRateGovernor getFrameRateGovernor() {
+        return mPipeline.getFrameRateGovernor();
     }
 
     /**
@@ -362,52 +808,145 @@ public class CameraSource {
      */
     @RequiresPermission(Manifest.permission.CAMERA)
     public CameraSource start() throws IOException {
-        synchronized (mCameraLock) {
-            if (mCamera != null) {
-                return this;
+        return start(null);
+    }
+
+    /**
+     * Opens the camera and starts sending preview frames to the underlying detector.  The supplied
+     * surface holder is used for the preview so frames can be displayed to the user.
+     * <p/>
+     * This blocks until the camera is running, which can take hundreds of milliseconds.  Use
+     * {@link #startAsync(SurfaceHolder, StartCallback)} to start the camera from the main thread.
+     *
+     * @param surfaceHolder the surface holder to use for the preview frames, or null to not display
+     *                      the preview frames
+     * @throws IOException if the supplied surface holder could not be used as the preview display
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    public CameraSource start(@Nullable SurfaceHolder surfaceHolder) throws IOException {
+        mStartupTimer.markRequested(System.nanoTime());
+        try {
+            return startCamera(surfaceHolder);
+        } finally {
+            mStartupTimer.markInteractive(System.nanoTime());
+        }
+    }
+
+    /**
+     * Opens, configures and starts the camera on the camera thread, and returns right away.  The
+     * returned future completes, and the callback is called on the main thread, once the camera
+     * preview is running.
+     * <p/>
+     * A start that hasn't begun yet is cancelled by {@link #stop()} and {@link #stopAsync()}.
+     *
+     * @param surfaceHolder the surface holder to use for the preview frames, or null to not display
+     *                      the preview frames
+     * @param callback      called when the camera is running or failed to start, or null
+     */
+    @RequiresPermission(Manifest.permission.CAMERA)
+    public Future<CameraSource> startAsync(@Nullable final SurfaceHolder surfaceHolder,
+                                           @Nullable final StartCallback callback) {
+        mStartupTimer.markRequested(System.nanoTime());
+
+        final Handler mainHandler = new Handler(Looper.getMainLooper());
+        FutureTask<CameraSource> start = new FutureTask<CameraSource>(new Callable<CameraSource>() {
+            @Override
+            public CameraSource call() throws IOException {
+                return startCamera(surfaceHolder);
             }
+        }) {
+            @Override
+            protected void done() {
+                if (isCancelled()) {
+                    return;
+                }
 
-            mCamera = createCamera();
+                mainHandler.post(new Runnable() {
+                    @Override
+                    public void run() {
+                        CameraSource cameraSource;
+                        try {
+                            cameraSource = get();
+                        } catch (ExecutionException e) {
+                            Throwable cause = e.getCause();
+                            if (callback != null) {
+                                callback.onCameraStartFailed(cause instanceof Exception ? (Exception) cause : e);
+                            }
+                            return;
+                        } catch (InterruptedException e) {
+                            if (callback != null) {
+                                callback.onCameraStartFailed(e);
+                            }
+                            return;
+                        }
 
-            // SurfaceTexture was introduced in Honeycomb (11), so if we are running and
-            // old version of Android. fall back to use SurfaceView.
-            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
-                mDummySurfaceTexture = new SurfaceTexture(DUMMY_TEXTURE_NAME);
-                mCamera.setPreviewTexture(mDummySurfaceTexture);
-            } else {
-                mDummySurfaceView = new SurfaceView(mContext);
-                mCamera.setPreviewDisplay(mDummySurfaceView.getHolder());
+                        // the main thread has the running camera now
+                        mStartupTimer.markInteractive(System.nanoTime());
+                        if (callback != null) {
+                            callback.onCameraStarted(cameraSource);
+                        }
+                    }
+                });
             }
-            mCamera.startPreview();
+        };
 
-            mProcessingThread = new Thread(mFrameProcessor);
-            mFrameProcessor.setActive(true);
-            mProcessingThread.start();
-        }
-        return this;
+        mPendingStart = start;
+        getCameraHandler().post(start);
+        return start;
     }
 
     /**
-     * Opens the camera and starts sending preview frames to the underlying detector.  The supplied
-     * surface holder is used for the preview so frames can be displayed to the user.
+     * Returns the timings of the last start of the camera.
+     */
+    public StartupTimer getStartupTimer() {
+        return mStartupTimer;
+    }
+
+    /**
+     * Starts writing every preview frame the camera delivers to the given recorder, before it goes
+     * to the detector, or stops with null.  Recording takes time on the camera thread, more so when
+     * compressed, so frames may arrive at a lower rate while recording.  The recorder isn't closed
+     * here.
      *
-     * @param surfaceHolder the surface holder to use for the preview frames
-     * @throws IOException if the supplied surface holder could not be used as the preview display
+     * @see FrameReplay
      */
-    @RequiresPermission(Manifest.permission.CAMERA)
-    public CameraSource start(SurfaceHolder surfaceHolder) throws IOException {
+    public void setFrameRecorder(@Nullable FrameRecorder frameRecorder) {
+        mFrameRecorder = frameRecorder;
+    }
+
+    private static synchronized Handler getCameraHandler() {
+        if (sCameraHandler == null) {
+            sCameraThread = new HandlerThread("CameraThread");
+            sCameraThread.start();
+            sCameraHandler = new Handler(sCameraThread.getLooper());
+        }
+        return sCameraHandler;
+    }
+
+    private CameraSource startCamera(@Nullable SurfaceHolder surfaceHolder) throws IOException {
         synchronized (mCameraLock) {
             if (mCamera != null) {
                 return this;
             }
 
             mCamera = createCamera();
-            mCamera.setPreviewDisplay(surfaceHolder);
+
+            if (surfaceHolder != null) {
+                mCamera.setPreviewDisplay(surfaceHolder);
+            } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.HONEYCOMB) {
+                // SurfaceTexture was introduced in Honeycomb (11), so if we are running and
+                // old version of Android. fall back to use SurfaceView.
+                mDummySurfaceTexture = new SurfaceTexture(DUMMY_TEXTURE_NAME);
+                mCamera.setPreviewTexture(mDummySurfaceTexture);
+            } else {
+                mDummySurfaceView = new SurfaceView(mContext);
+                mCamera.setPreviewDisplay(mDummySurfaceView.getHolder());
+            }
             mCamera.startPreview();
+            mStartupTimer.markReady(System.nanoTime());
+            setCameraFocusMoveCallback();
 
-            mProcessingThread = new Thread(mFrameProcessor);
-            mFrameProcessor.setActive(true);
-            mProcessingThread.start();
+            mPipeline.start();
         }
         return this;
     }
@@ -418,26 +957,79 @@ public class CameraSource {
      * This camera source may be restarted again by calling {@link #start()} or
      * {@link #start(SurfaceHolder)}.
      * <p/>
+     * A start that is already opening the camera on the camera thread can't be cancelled, so this
+     * blocks until it is done, and then closes the camera again.  Use {@link #stopAsync()} to stop
+     * the camera from the main thread.
+     * <p/>
      * Call {@link #release()} instead to completely shut down this camera source and release the
      * resources of the underlying detector.
      */
     public void stop() {
-        synchronized (mCameraLock) {
-            mFrameProcessor.setActive(false);
-            if (mProcessingThread != null) {
-                try {
-                    // Wait for the thread to complete to ensure that we can't have multiple threads
-                    // executing at the same time (i.e., which would happen if we called start too
-                    // quickly after stop).
-                    mProcessingThread.join();
-                } catch (InterruptedException e) {
-                    Log.d(TAG, "Frame processing thread interrupted on release.");
-                }
-                mProcessingThread = null;
+        cancelPendingStart();
+        stopCamera();
+    }
+
+    /**
+     * Like {@link #stop()}, but closes the camera on the camera thread and returns right away.  A
+     * start that is requested afterwards runs once the camera is closed.
+     */
+    public void stopAsync() {
+        cancelPendingStart();
+        getCameraHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                stopCamera();
             }
+        });
+    }
+
+    private void cancelPendingStart() {
+        // a start that already began finishes first, and is then undone by stopCamera()
+        Future<CameraSource> pendingStart = mPendingStart;
+        if (pendingStart != null) {
+            pendingStart.cancel(false);
+            mPendingStart = null;
+        }
+    }
 
-            // clear the buffer to prevent oom exceptions
-            mBytesToByteBuffer.clear();
+    private void stopCamera() {
+        synchronized (mCameraLock) {
+            // Waits for the processing thread and the detection workers to finish the frames they
+            // took, so that we can't have multiple threads executing at the same time (i.e., which
+            // would happen if we called start too quickly after stop).
+            mPipeline.stop();
+
+            // drop the buffers to prevent oom exceptions
+            FramePool framePool = mPipeline.getFramePool();
+            if (framePool != null) {
+                Log.d(TAG, "Frame pool: " + framePool.getStats());
+                FrameCropper cropper = mPipeline.getFrameCropper();
+                Log.d(TAG, "Frame cropper: cropped=" + cropper.getCropped() + " exhausted=" + cropper.getExhausted());
+                mPipeline.endSession();
+            }
+            FrameRateGovernor governor = mPipeline.getFrameRateGovernor();
+            if (governor != null) {
+                Log.d(TAG, "Frame rate governor: " + governor);
+                mPipeline.setFrameRateGovernor(null);
+            }
+            if (mResolutionCascade != null) {
+                Log.d(TAG, "Resolution cascade: " + mResolutionCascade);
+            }
+            FrameGate gate = mPipeline.getFrameGate();
+            if (gate != null) {
+                Log.d(TAG, "Frame gate: " + gate);
+            }
+            if (mCamera != null) {
+                Log.d(TAG, "Camera startup: " + mStartupTimer);
+                Log.d(TAG, "Focus: " + mFocusTimer);
+            }
+            mFocusTimer.cancel();
+            if (mCapabilityCache != null) {
+                Log.d(TAG, "Camera capability cache: " + mCapabilityCache);
+            }
+            if (mPreviewSizeTuner != null) {
+                Log.d(TAG, "Preview size tuner: " + mPreviewSizeTuner);
+            }
 
             if (mCamera != null) {
                 mCamera.stopPreview();
@@ -470,6 +1062,112 @@ public class CameraSource {
         return mPreviewSize;
     }
 
+    /**
+     * Sets the callback for when the preview size tuner moves the running camera to another preview
+     * size, or null.
+     */
+    public void setPreviewSizeCallback(@Nullable PreviewSizeCallback callback) {
+        mPreviewSizeCallback = callback;
+    }
+
+    /**
+     * Returns the rotation of the preview frames, as one of the rotation constants of {@link Frame}.
+     */
+    public int getRotation() {
+        return mRotation;
+    }
+
+    /**
+     * Restricts detection to a window of the preview frames.  Only that window is copied out of
+     * every frame and passed to the detector, which makes detection faster and ignores codes
+     * outside the window.
+     *
+     * @param area the window as fractions (0 to 1) of the frame size, in the orientation of the
+     *             camera frames (see {@link #getRotation()}), or null to detect on whole frames
+     */
+    public void setScanArea(@Nullable RectF area) {
+        if (area == null) {
+            mPipeline.setScanArea(null);
+            return;
+        }
+
+        mPipeline.setScanArea(new float[]{
+                Math.max(0.0f, Math.min(area.left, area.right)),
+                Math.max(0.0f, Math.min(area.top, area.bottom)),
+                Math.min(1.0f, Math.max(area.left, area.right)),
+                Math.min(1.0f, Math.max(area.top, area.bottom))
+        });
+    }
+
+    /**
+     * Makes the camera focus and meter exposure on an area of the frame, instead of wherever the
+     * driver picks (usually the center, or the whole frame).  Kept across restarts of the camera.
+     * In continuous focus modes the camera refocuses on its own; in {@link
+     * Camera.Parameters#FOCUS_MODE_AUTO}, call {@link #autoFocus(AutoFocusCallback)} after this.
+     *
+     * <p>The camera parameters are updated on the camera thread, so that this doesn't wait for the
+     * camera to open.
+     *
+     * @param area the area as fractions (0 to 1) of the frame size, in the orientation of the
+     *             camera frames (see {@link #getRotation()}), or null to leave it to the driver
+     * @return {@code true} if the camera supports focus areas, {@code false} if it doesn't or
+     * hasn't been opened yet
+     */
+    public boolean setFocusArea(@Nullable RectF area) {
+        mFocusArea = area != null ? new float[]{area.left, area.top, area.right, area.bottom} : null;
+
+        getCameraHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mCameraLock) {
+                    if (mCamera == null) {
+                        // applied by configureCamera() once the camera opens
+                        return;
+                    }
+
+                    Camera.Parameters parameters = mCamera.getParameters();
+                    if (applyFocusArea(parameters) || parameters.getMaxNumMeteringAreas() > 0) {
+                        mCamera.setParameters(parameters);
+                    }
+                }
+            }
+        });
+
+        return mFocusAreasSupported;
+    }
+
+    /**
+     * Sets the focus area on the parameters, as focus area and as metering area, where the camera
+     * supports them.
+     *
+     * @return {@code true} if the camera supports focus areas
+     */
+    private boolean applyFocusArea(Camera.Parameters parameters) {
+        float[] area = mFocusArea;
+        List<Camera.Area> areas = null;
+        if (area != null) {
+            int[] rect = FocusArea.toDriverRect(area[0], area[1], area[2], area[3]);
+            areas = new ArrayList<>(1);
+            areas.add(new Camera.Area(new Rect(rect[0], rect[1], rect[2], rect[3]), FocusArea.WEIGHT));
+        }
+
+        if (parameters.getMaxNumMeteringAreas() > 0) {
+            parameters.setMeteringAreas(areas);
+        }
+        if (parameters.getMaxNumFocusAreas() > 0) {
+            parameters.setFocusAreas(areas);
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Returns how long the camera took to lock focus, over all focus runs.
+     */
+    public FocusTimer getFocusTimer() {
+        return mFocusTimer;
+    }
+
     /**
      * Returns the selected camera; one of {@link #CAMERA_FACING_BACK} or
      * {@link #CAMERA_FACING_FRONT}.
@@ -478,6 +1176,16 @@ public class CameraSource {
         return mFacing;
     }
 
+    /**
+     * Returns the counters of the preview buffer pool of the running camera, or null if the camera
+     * isn't running.
+     */
+    @Nullable
+    public FramePool.Stats getFramePoolStats() {
+        FramePool framePool = mPipeline.getFramePool();
+        return framePool != null ? framePool.getStats() : null;
+    }
+
     public int doZoom(float scale) {
         synchronized (mCameraLock) {
             if (mCamera == null) {
@@ -499,15 +1207,64 @@ public class CameraSource {
             } else {
                 newZoom = currentZoom * scale;
             }
-            currentZoom = Math.round(newZoom) - 1;
-            if (currentZoom < 0) {
-                currentZoom = 0;
-            } else if (currentZoom > maxZoom) {
-                currentZoom = maxZoom;
+            currentZoom = Math.round(newZoom) - 1;
+            if (currentZoom < 0) {
+                currentZoom = 0;
+            } else if (currentZoom > maxZoom) {
+                currentZoom = maxZoom;
+            }
+            parameters.setZoom(currentZoom);
+            mCamera.setParameters(parameters);
+            return currentZoom;
+        }
+    }
+
+    /**
+     * Zooms to the highest zoom ratio the camera has that isn't above the given one, 1 for no
+     * zoom.  The zoom is set on the camera thread, so that this doesn't wait for the camera.
+     *
+     * @param callback told the zoom ratio the camera is at, 1 if zoom isn't supported or the
+     *                 camera isn't open, or null
+     */
+    public void setZoomRatio(final float ratio, @Nullable final ZoomCallback callback) {
+        getCameraHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                float applied = applyZoomRatio(ratio);
+                if (callback != null) {
+                    callback.onZoomApplied(applied);
+                }
+            }
+        });
+    }
+
+    /**
+     * Sets the zoom for {@link #setZoomRatio(float, ZoomCallback)}, on the camera thread.
+     *
+     * @return the zoom ratio the camera is at, 1 if zoom isn't supported or the camera isn't open
+     */
+    private float applyZoomRatio(float ratio) {
+        synchronized (mCameraLock) {
+            if (mCamera == null) {
+                return 1;
+            }
+            Camera.Parameters parameters = mCamera.getParameters();
+            if (!parameters.isZoomSupported()) {
+                return 1;
+            }
+
+            // Ratios are in hundredths, ascending, starting at 100 for zoom 0
+            List<Integer> ratios = parameters.getZoomRatios();
+            int zoom = 0;
+            while (zoom + 1 < ratios.size() && ratios.get(zoom + 1) <= ratio * 100) {
+                zoom++;
             }
-            parameters.setZoom(currentZoom);
-            mCamera.setParameters(parameters);
-            return currentZoom;
+
+            if (parameters.getZoom() != zoom) {
+                parameters.setZoom(zoom);
+                mCamera.setParameters(parameters);
+            }
+            return ratios.get(zoom) / 100f;
         }
     }
 
@@ -634,20 +1391,26 @@ public class CameraSource {
      * {@link Camera.Parameters#FLASH_MODE_OFF}, flash may be
      * fired during auto-focus, depending on the driver and camera hardware.<p>
      *
+     * <p>The focus run starts on the camera thread, after any focus area set before this call.
+     *
      * @param cb the callback to run
      * @see #cancelAutoFocus()
      */
-    public void autoFocus(@Nullable AutoFocusCallback cb) {
-        synchronized (mCameraLock) {
-            if (mCamera != null) {
-                CameraAutoFocusCallback autoFocusCallback = null;
-                if (cb != null) {
-                    autoFocusCallback = new CameraAutoFocusCallback();
-                    autoFocusCallback.mDelegate = cb;
+    public void autoFocus(@Nullable final AutoFocusCallback cb) {
+        getCameraHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mCameraLock) {
+                    if (mCamera != null) {
+                        // Always wrapped, so that the focus run is timed
+                        CameraAutoFocusCallback autoFocusCallback = new CameraAutoFocusCallback();
+                        autoFocusCallback.mDelegate = cb;
+                        mFocusTimer.markStarted(System.nanoTime());
+                        mCamera.autoFocus(autoFocusCallback);
+                    }
                 }
-                mCamera.autoFocus(autoFocusCallback);
             }
-        }
+        });
     }
 
     /**
@@ -679,19 +1442,30 @@ public class CameraSource {
         }
 
         synchronized (mCameraLock) {
+            mAutoFocusMoveCallback = cb;
             if (mCamera != null) {
-                CameraAutoFocusMoveCallback autoFocusMoveCallback = null;
-                if (cb != null) {
-                    autoFocusMoveCallback = new CameraAutoFocusMoveCallback();
-                    autoFocusMoveCallback.mDelegate = cb;
-                }
-                mCamera.setAutoFocusMoveCallback(autoFocusMoveCallback);
+                setCameraFocusMoveCallback();
             }
         }
 
         return true;
     }
 
+    /**
+     * Listens to the continuous focus moving, to time it, and passes it on to the app's callback.
+     * Call with the camera lock held.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN)
+    private void setCameraFocusMoveCallback() {
+        if (Build.VERSION.SDK_INT < Build.VERSION_CODES.JELLY_BEAN) {
+            return;
+        }
+
+        CameraAutoFocusMoveCallback autoFocusMoveCallback = new CameraAutoFocusMoveCallback();
+        autoFocusMoveCallback.mDelegate = mAutoFocusMoveCallback;
+        mCamera.setAutoFocusMoveCallback(autoFocusMoveCallback);
+    }
+
     //==============================================================================================
     // Private
     //==============================================================================================
@@ -744,6 +1518,11 @@ public class CameraSource {
 
         @Override
         public void onAutoFocus(boolean success, Camera camera) {
+            long nanos = System.nanoTime();
+            mFocusTimer.markFinished(nanos, success);
+            if (success) {
+                mStartupTimer.markFocused(nanos);
+            }
             if (mDelegate != null) {
                 mDelegate.onAutoFocus(success);
             }
@@ -759,6 +1538,14 @@ public class CameraSource {
 
         @Override
         public void onAutoFocusMoving(boolean start, Camera camera) {
+            // The driver doesn't say whether focus was found when it stops moving; it usually is.
+            long nanos = System.nanoTime();
+            if (start) {
+                mFocusTimer.markStarted(nanos);
+            } else {
+                mFocusTimer.markFinished(nanos, true);
+                mStartupTimer.markFocused(nanos);
+            }
             if (mDelegate != null) {
                 mDelegate.onAutoFocusMoving(start);
             }
@@ -766,74 +1553,311 @@ public class CameraSource {
     }
 
     /**
-     * Opens the camera and applies the user settings.
+     * Opens the camera and applies the user settings.  Settings selected for the same configuration
+     * before are taken from the capability cache, if there is one; otherwise they are selected from
+     * everything the camera supports, and stored in the cache.
+     * <p/>
+     * With preview size tuning on, the size under trial (or settled on) replaces the requested
+     * size.  Before tuning has started, the size settled on in an earlier run is looked up in the
+     * cache under the size 0 x 0; if there is none, tuning starts here.
      *
      * @throws RuntimeException if the method fails
      */
     @SuppressLint("InlinedApi")
     private Camera createCamera() {
+        PreviewSizeTuner tuner = mPreviewSizeTuner;
+        int[] tunedSize = tuner != null ? tuner.getPreviewSize() : null;
+        int requestedWidth = mRequestedPreviewWidth;
+        int requestedHeight = mRequestedPreviewHeight;
+        if (tuner != null) {
+            requestedWidth = tunedSize != null ? tunedSize[0] : 0;
+            requestedHeight = tunedSize != null ? tunedSize[1] : 0;
+        }
+
+        String capabilitiesKey = null;
+        CapabilityCache.Capabilities capabilities = null;
+        if (mCapabilityCache != null) {
+            capabilitiesKey = CapabilityCache.key(mFacing, requestedWidth, requestedHeight,
+                    mRequestedFps, mPreferredFocusModes);
+            capabilities = mCapabilityCache.get(capabilitiesKey);
+        }
+
+        if (capabilities != null) {
+            Log.d(TAG, "Known camera settings: " + capabilities);
+            Camera camera = Camera.open(capabilities.getCameraId());
+            try {
+                configureCamera(camera, capabilities, camera.getParameters());
+                if (tuner != null && tunedSize == null) {
+                    tuner.settle(capabilities.getPreviewWidth(), capabilities.getPreviewHeight());
+                } else if (tuner != null) {
+                    tuner.onPreviewSizeApplied();
+                }
+                return camera;
+            } catch (RuntimeException e) {
+                // e.g. a camera that changed without an OS update; select the settings again below
+                Log.w(TAG, "Camera rejected known settings: " + e);
+                camera.release();
+                try {
+                    mCapabilityCache.remove(capabilitiesKey);
+                } catch (IOException ioe) {
+                    Log.w(TAG, "Could not update camera capability cache: " + ioe);
+                }
+            }
+        }
+
         int requestedCameraId = getIdForRequestedCamera(mFacing);
         if (requestedCameraId == -1) {
             throw new RuntimeException("Could not find requested camera.");
         }
 
         Camera camera = Camera.open(requestedCameraId);
-        mCameraId = requestedCameraId;
+        Camera.Parameters parameters = camera.getParameters();
 
-        SizePair sizePair = selectSizePair(camera, mRequestedPreviewWidth, mRequestedPreviewHeight);
-        if (sizePair == null) {
-            throw new RuntimeException("Could not find suitable preview size.");
+        if (tuner != null && tunedSize == null) {
+            // pick the sizes to try, and start with the first one
+            int[][] candidates = PreviewSizeTuner.pickCandidates(
+                    getValidPreviewSizes(parameters), PreviewSizeTuner.DEFAULT_MAX_CANDIDATES);
+            if (candidates.length > 0) {
+                tuner.start(candidates);
+            } else {
+                tuner.settle(mRequestedPreviewWidth, mRequestedPreviewHeight);
+            }
+            Log.d(TAG, "Preview size tuner: " + tuner);
+
+            tunedSize = tuner.getPreviewSize();
+            requestedWidth = tunedSize[0];
+            requestedHeight = tunedSize[1];
+            if (mCapabilityCache != null) {
+                capabilitiesKey = CapabilityCache.key(mFacing, requestedWidth, requestedHeight,
+                        mRequestedFps, mPreferredFocusModes);
+            }
         }
-        Size pictureSize = sizePair.pictureSize();
-        mPreviewSize = sizePair.previewSize();
 
-        Log.d(TAG, String.format("Preview size: %d x %d", mPreviewSize.getWidth(), mPreviewSize.getHeight()));
-        Log.d(TAG, String.format("Picture size: %d x %d", pictureSize.getWidth(), pictureSize.getHeight()));
+        capabilities = selectCapabilities(requestedCameraId, parameters, requestedWidth, requestedHeight);
+        configureCamera(camera, capabilities, parameters);
+        if (tuner != null) {
+            tuner.onPreviewSizeApplied();
+        }
 
-        int[] previewFpsRange = selectPreviewFpsRange(camera, mRequestedFps);
-        if (previewFpsRange == null) {
-            throw new RuntimeException("Could not find suitable preview frames per second range.");
+        if (mCapabilityCache != null) {
+            try {
+                mCapabilityCache.put(capabilitiesKey, capabilities);
+            } catch (IOException e) {
+                Log.w(TAG, "Could not update camera capability cache: " + e);
+            }
         }
 
-        Camera.Parameters parameters = camera.getParameters();
+        return camera;
+    }
 
-        parameters.setPictureSize(pictureSize.getWidth(), pictureSize.getHeight());
+    /**
+     * Moves the running camera to the preview size the tuner asks for, and stores the size once the
+     * tuner has settled.  Runs on the camera thread.
+     * <p/>
+     * The open camera only pauses its preview while the size and the preview buffers are swapped, so
+     * nothing is joined and the camera isn't reported as started again.  A frame of the old size that
+     * is still being detected finishes normally, but its buffer isn't given back to the camera.
+     */
+    private void applyTunedPreviewSize() {
+        PreviewSizeTuner tuner = mPreviewSizeTuner;
+        if (tuner == null) {
+            return;
+        }
 
-        Log.d("PreviewSize", "Setting preview size.");
-        Log.d("PreviewSize", String.format("Actual preview dims: %d x %d", mPreviewSize.getWidth(), mPreviewSize.getHeight()));
+        int[] size = tuner.getPreviewSize();
+        Size previewSize;
+        synchronized (mCameraLock) {
+            Camera camera = mCamera;
+            if (camera == null) {
+                // stopped in the meantime; the next start picks up the size
+                return;
+            }
 
-        parameters.setPreviewSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
-        parameters.setPreviewFpsRange(
-                previewFpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
-                previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
-        parameters.setPreviewFormat(ImageFormat.NV21);
+            if (tuner.getState() == PreviewSizeTuner.STATE_SETTLED) {
+                Log.d(TAG, "Preview size tuner: " + tuner);
+                saveTunedPreviewSize(tuner);
+                if (size[0] == mPreviewSize.getWidth() && size[1] == mPreviewSize.getHeight()) {
+                    return;
+                }
+            }
 
-        setRotation(camera, parameters, requestedCameraId);
+            Camera.Parameters parameters = camera.getParameters();
+            CapabilityCache.Capabilities capabilities;
+            try {
+                capabilities = selectCapabilities(mCameraId, parameters, size[0], size[1]);
+            } catch (RuntimeException e) {
+                Log.e(TAG, "Could not select preview size " + size[0] + " x " + size[1], e);
+                return;
+            }
 
-        List<String> focusModes = parameters.getSupportedFocusModes();
+            camera.stopPreview();
+            // drops the buffers of the old size that the camera still holds
+            camera.setPreviewCallbackWithBuffer(null);
 
-        if (mFocusMode != null) {
-            if (focusModes.contains(mFocusMode)) {
-                parameters.setFocusMode(mFocusMode);
-            } else {
-                Log.i(TAG, "Camera focus mode: " + mFocusMode + " is not supported on this device.");
+            previewSize = mPreviewSize;
+            try {
+                parameters.setPreviewSize(capabilities.getPreviewWidth(), capabilities.getPreviewHeight());
+                if (capabilities.getPictureWidth() > 0) {
+                    parameters.setPictureSize(capabilities.getPictureWidth(), capabilities.getPictureHeight());
+                }
+                camera.setParameters(parameters);
+                previewSize = new Size(capabilities.getPreviewWidth(), capabilities.getPreviewHeight());
+            } catch (RuntimeException e) {
+                // keep running at the old size
+                Log.e(TAG, "Could not switch to preview size " + size[0] + " x " + size[1], e);
+            }
+
+            camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
+            FramePool framePool = new FramePool(getFramePoolDepth(), getPreviewBufferSize(previewSize));
+            mPipeline.startSession(framePool, previewSize.getWidth(), previewSize.getHeight());
+            for (int slot = 0; slot < framePool.getDepth(); slot++) {
+                camera.addCallbackBuffer(framePool.offer(slot));
+            }
+
+            boolean changed = previewSize != mPreviewSize;
+            mPreviewSize = previewSize;
+            camera.startPreview();
+            if (!changed) {
+                return;
+            }
+
+            Log.d(TAG, String.format("Preview size: %d x %d", previewSize.getWidth(), previewSize.getHeight()));
+            tuner.onPreviewSizeApplied();
+            if (mCapabilityCache != null) {
+                try {
+                    mCapabilityCache.put(CapabilityCache.key(mFacing, size[0], size[1], mRequestedFps,
+                            mPreferredFocusModes), capabilities);
+                } catch (IOException e) {
+                    Log.w(TAG, "Could not update camera capability cache: " + e);
+                }
             }
-        } else if (mPreferredFocusModes != null) {
-            String mode = null;
+        }
+
+        // the preview needs a new layout
+        final PreviewSizeCallback callback = mPreviewSizeCallback;
+        if (callback != null) {
+            final Size appliedSize = previewSize;
+            new Handler(Looper.getMainLooper()).post(new Runnable() {
+                @Override
+                public void run() {
+                    callback.onPreviewSizeChanged(CameraSource.this, appliedSize);
+                }
+            });
+        }
+    }
+
+    /**
+     * Stores the size the tuner settled on as the size for 0 x 0, if it was picked on evidence.
+     */
+    private void saveTunedPreviewSize(PreviewSizeTuner tuner) {
+        if (mCapabilityCache == null || !tuner.isConfident()) {
+            return;
+        }
+
+        int[] size = tuner.getPreviewSize();
+        CapabilityCache.Capabilities capabilities = mCapabilityCache.get(CapabilityCache.key(
+                mFacing, size[0], size[1], mRequestedFps, mPreferredFocusModes));
+        if (capabilities == null) {
+            return;
+        }
+
+        try {
+            mCapabilityCache.put(CapabilityCache.key(mFacing, 0, 0, mRequestedFps, mPreferredFocusModes),
+                    capabilities);
+        } catch (IOException e) {
+            Log.w(TAG, "Could not update camera capability cache: " + e);
+        }
+    }
+
+    /**
+     * Selects the preview size, frame rate range and focus mode for the requested configuration
+     * from everything the camera supports.
+     *
+     * @throws RuntimeException if no suitable settings are supported
+     */
+    private CapabilityCache.Capabilities selectCapabilities(int cameraId, Camera.Parameters parameters,
+                                                            int requestedWidth, int requestedHeight) {
+        SizePair sizePair = selectSizePair(parameters, requestedWidth, requestedHeight);
+        if (sizePair == null) {
+            throw new RuntimeException("Could not find suitable preview size.");
+        }
+        Size previewSize = sizePair.previewSize();
+        Size pictureSize = sizePair.pictureSize();
+
+        int[] previewFpsRange = selectPreviewFpsRange(parameters, mRequestedFps);
+        if (previewFpsRange == null) {
+            throw new RuntimeException("Could not find suitable preview frames per second range.");
+        }
+
+        int minFpsScaled = Integer.MAX_VALUE;
+        int maxFpsScaled = 0;
+        for (int[] range : parameters.getSupportedPreviewFpsRange()) {
+            minFpsScaled = Math.min(minFpsScaled, range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX]);
+            maxFpsScaled = Math.max(maxFpsScaled, range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+        }
+
+        // the first supported of the preferred focus modes, used unless a focus mode is set
+        List<String> focusModes = parameters.getSupportedFocusModes();
+        String focusMode = null;
+
+        if (mPreferredFocusModes != null) {
             for (int i = 0; i < mPreferredFocusModes.length; i++) {
                 if (focusModes.contains(mPreferredFocusModes[i])) {
-                    mode = mPreferredFocusModes[i];
-                    Log.i(TAG, "Set camera focus mode to " + mode + " (preferred mode " + (i + 1) + "/" + mPreferredFocusModes.length + ")");
-                    parameters.setFocusMode(mode);
+                    focusMode = mPreferredFocusModes[i];
+                    Log.i(TAG, "Set camera focus mode to " + focusMode + " (preferred mode " + (i + 1) + "/" + mPreferredFocusModes.length + ")");
                     break;
                 }
             }
 
-            if (mode == null) {
+            if (focusMode == null) {
                 Log.i(TAG, "No focus mode was selected from preferred ones.");
             }
         }
 
+        return new CapabilityCache.Capabilities(cameraId,
+                previewSize.getWidth(), previewSize.getHeight(),
+                pictureSize != null ? pictureSize.getWidth() : 0,
+                pictureSize != null ? pictureSize.getHeight() : 0,
+                previewFpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX],
+                Math.max(minFpsScaled, 1000), Math.max(maxFpsScaled, 1000),
+                focusMode);
+    }
+
+    /**
+     * Applies the selected settings and the user settings to the camera, and sets up the preview
+     * buffers.
+     */
+    private void configureCamera(Camera camera, CapabilityCache.Capabilities capabilities,
+                                 Camera.Parameters parameters) {
+        mCameraId = capabilities.getCameraId();
+        mPreviewSize = new Size(capabilities.getPreviewWidth(), capabilities.getPreviewHeight());
+
+        Log.d(TAG, String.format("Preview size: %d x %d", mPreviewSize.getWidth(), mPreviewSize.getHeight()));
+        Log.d(TAG, String.format("Picture size: %d x %d", capabilities.getPictureWidth(), capabilities.getPictureHeight()));
+
+        if (capabilities.getPictureWidth() > 0) {
+            parameters.setPictureSize(capabilities.getPictureWidth(), capabilities.getPictureHeight());
+        }
+
+        Log.d("PreviewSize", "Setting preview size.");
+        Log.d("PreviewSize", String.format("Actual preview dims: %d x %d", mPreviewSize.getWidth(), mPreviewSize.getHeight()));
+
+        parameters.setPreviewSize(mPreviewSize.getWidth(), mPreviewSize.getHeight());
+        parameters.setPreviewFpsRange(capabilities.getMinFps(), capabilities.getMaxFps());
+        parameters.setPreviewFormat(ImageFormat.NV21);
+
+        setRotation(camera, parameters, mCameraId);
+
+        String focusMode = mFocusMode != null ? mFocusMode : capabilities.getFocusMode();
+        if (!focusMode.isEmpty()) {
+            if (parameters.getSupportedFocusModes().contains(focusMode)) {
+                parameters.setFocusMode(focusMode);
+            } else {
+                Log.i(TAG, "Camera focus mode: " + focusMode + " is not supported on this device.");
+            }
+        }
+
         // setting mFocusMode to the one set in the params
         mFocusMode = parameters.getFocusMode();
 
@@ -851,20 +1875,23 @@ public class CameraSource {
         // setting mFlashMode to the one set in the params
         mFlashMode = parameters.getFlashMode();
 
+        mFocusAreasSupported = applyFocusArea(parameters);
+
         camera.setParameters(parameters);
 
-        // Four frame buffers are needed for working with the camera:
+        mPipeline.setFrameRateGovernor(mTargetLatencyMillis > 0 ? createGovernor(capabilities) : null);
+
+        // At least three frame buffers are needed for working with the camera:
         //
         //   one for the frame that is currently being executed upon in doing detection
         //   one for the next pending frame to process immediately upon completing detection
-        //   two for the frames that the camera uses to populate future preview images
+        //   the rest for the frames that the camera uses to populate future preview images
         camera.setPreviewCallbackWithBuffer(new CameraPreviewCallback());
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-        camera.addCallbackBuffer(createPreviewBuffer(mPreviewSize));
-
-        return camera;
+        FramePool framePool = new FramePool(getFramePoolDepth(), getPreviewBufferSize(mPreviewSize));
+        mPipeline.startSession(framePool, mPreviewSize.getWidth(), mPreviewSize.getHeight());
+        for (int slot = 0; slot < framePool.getDepth(); slot++) {
+            camera.addCallbackBuffer(framePool.offer(slot));
+        }
     }
 
     /**
@@ -892,13 +1919,13 @@ public class CameraSource {
      * ratio.  On some hardware, if you would only set the preview size, you will get a distorted
      * image.
      *
-     * @param camera        the camera to select a preview size from
+     * @param parameters    the parameters of the camera to select a preview size from
      * @param desiredWidth  the desired width of the camera preview frames
      * @param desiredHeight the desired height of the camera preview frames
      * @return the selected preview and picture size pair
      */
-    private static SizePair selectSizePair(Camera camera, int desiredWidth, int desiredHeight) {
-        List<SizePair> validPreviewSizes = generateValidPreviewSizeList(camera);
+    private static SizePair selectSizePair(Camera.Parameters parameters, int desiredWidth, int desiredHeight) {
+        List<SizePair> validPreviewSizes = generateValidPreviewSizeList(parameters);
 
         // The method for selecting the best size is to minimize the sum of the differences between
         // the desired values and the actual values for width and height.  This is certainly not the
@@ -956,8 +1983,7 @@ public class CameraSource {
      * set to a size that is the same aspect ratio as the preview size we choose.  Otherwise, the
      * preview images may be distorted on some devices.
      */
-    private static List<SizePair> generateValidPreviewSizeList(Camera camera) {
-        Camera.Parameters parameters = camera.getParameters();
+    private static List<SizePair> generateValidPreviewSizeList(Camera.Parameters parameters) {
         List<Camera.Size> supportedPreviewSizes =
                 parameters.getSupportedPreviewSizes();
         List<Camera.Size> supportedPictureSizes =
@@ -992,15 +2018,28 @@ public class CameraSource {
         return validPreviewSizes;
     }
 
+    /**
+     * Returns the acceptable preview sizes as {width, height} pairs.
+     */
+    private static int[][] getValidPreviewSizes(Camera.Parameters parameters) {
+        List<SizePair> validPreviewSizes = generateValidPreviewSizeList(parameters);
+        int[][] sizes = new int[validPreviewSizes.size()][];
+        for (int i = 0; i < sizes.length; i++) {
+            Size size = validPreviewSizes.get(i).previewSize();
+            sizes[i] = new int[]{size.getWidth(), size.getHeight()};
+        }
+        return sizes;
+    }
+
     /**
      * Selects the most suitable preview frames per second range, given the desired frames per
      * second.
      *
-     * @param camera            the camera to select a frames per second range from
+     * @param parameters        the parameters of the camera to select a frames per second range from
      * @param desiredPreviewFps the desired frames per second for the camera preview frames
      * @return the selected preview frames per second range
      */
-    private int[] selectPreviewFpsRange(Camera camera, float desiredPreviewFps) {
+    private int[] selectPreviewFpsRange(Camera.Parameters parameters, float desiredPreviewFps) {
         // The camera API uses integers scaled by a factor of 1000 instead of floating-point frame
         // rates.
         int desiredPreviewFpsScaled = (int) (desiredPreviewFps * 1000.0f);
@@ -1012,7 +2051,7 @@ public class CameraSource {
         // range (15, 30).
         int[] selectedFpsRange = null;
         int minDiff = Integer.MAX_VALUE;
-        List<int[]> previewFpsRangeList = camera.getParameters().getSupportedPreviewFpsRange();
+        List<int[]> previewFpsRangeList = parameters.getSupportedPreviewFpsRange();
         for (int[] range : previewFpsRangeList) {
             int deltaMin = desiredPreviewFpsScaled - range[Camera.Parameters.PREVIEW_FPS_MIN_INDEX];
             int deltaMax = desiredPreviewFpsScaled - range[Camera.Parameters.PREVIEW_FPS_MAX_INDEX];
@@ -1025,6 +2064,58 @@ public class CameraSource {
         return selectedFpsRange;
     }
 
+    /**
+     * Creates a frame rate governor that may move the preview frame rate anywhere within the frame
+     * rates that the camera supports.
+     */
+    private FrameRateGovernor createGovernor(CapabilityCache.Capabilities capabilities) {
+        FrameRateGovernor governor = new FrameRateGovernor(
+                capabilities.getSupportedMinFps() / 1000.0f,
+                capabilities.getSupportedMaxFps() / 1000.0f,
+                capabilities.getMaxFps() / 1000.0f,
+                mDetectionWorkers);
+        governor.setTargetLatencyMillis(mTargetLatencyMillis);
+        return governor;
+    }
+
+    /**
+     * Moves the preview frame rate of the running camera as close as possible to the given fps.
+     * Some devices refuse to change the frame rate while previewing, in which case the frame rate
+     * governor has to make do with skipping frames.  Runs on the camera thread, so that the preview
+     * callback never waits for the camera lock.
+     */
+    private void applyPreviewFps(Camera camera, float fps) {
+        synchronized (mCameraLock) {
+            if (mCamera != camera) {
+                return;
+            }
+
+            Camera.Parameters parameters = camera.getParameters();
+            int[] previewFpsRange = selectPreviewFpsRange(parameters, fps);
+            if (previewFpsRange == null) {
+                return;
+            }
+
+            int[] currentFpsRange = new int[2];
+            parameters.getPreviewFpsRange(currentFpsRange);
+            if (Arrays.equals(previewFpsRange, currentFpsRange)) {
+                return;
+            }
+
+            try {
+                parameters.setPreviewFpsRange(
+                        previewFpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                        previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]);
+                camera.setParameters(parameters);
+                Log.d(TAG, String.format("Preview fps range: %d - %d",
+                        previewFpsRange[Camera.Parameters.PREVIEW_FPS_MIN_INDEX],
+                        previewFpsRange[Camera.Parameters.PREVIEW_FPS_MAX_INDEX]));
+            } catch (RuntimeException e) {
+                Log.w(TAG, "Could not change the preview fps range while previewing.", e);
+            }
+        }
+    }
+
     /**
      * Calculates the correct rotation for the given camera id and sets the rotation in the
      * parameters.  It also sets the camera's display orientation and rotation.
@@ -1072,205 +2163,283 @@ public class CameraSource {
 
         // This corresponds to the rotation constants in {@link Frame}.
         mRotation = angle / 90;
+        mPipeline.setRotation(mRotation);
 
         camera.setDisplayOrientation(displayAngle);
         parameters.setRotation(angle);
     }
 
     public void setRotation() {
-        if (mCamera != null && mCameraId >= 0) {
-            setRotation(mCamera, mCamera.getParameters(), mCameraId);
+        // on the camera thread, so that this doesn't wait for the camera to open
+        getCameraHandler().post(new Runnable() {
+            @Override
+            public void run() {
+                synchronized (mCameraLock) {
+                    if (mCamera != null && mCameraId >= 0) {
+                        setRotation(mCamera, mCamera.getParameters(), mCameraId);
+                    }
+                }
+            }
+        });
+    }
+
+    /**
+     * Returns the requested frame pool depth, raised if needed so that every detection worker can
+     * hold a buffer while there are still buffers left for the pending frame and the camera.
+     */
+    private int getFramePoolDepth() {
+        int minDepth = mDetectionWorkers + FramePool.MIN_DEPTH;
+        if (mDetectionWorkers > 1 && mFramePoolDepth < minDepth) {
+            Log.i(TAG, "Raising frame pool depth to " + minDepth + " for " + mDetectionWorkers + " detection workers.");
+            return minDepth;
         }
+        return mFramePoolDepth;
     }
 
     /**
-     * Creates one buffer for the camera preview callback.  The size of the buffer is based off of
-     * the camera preview size and the format of the camera image.
+     * Computes the size of one buffer for the camera preview callback.  The size of the buffer is
+     * based off of the camera preview size and the format of the camera image.
      *
-     * @return a new preview buffer of the appropriate size for the current camera settings
+     * NOTICE: The buffers are passed to the detector as byte buffers, which only works when using
+     * play services v. 8.1 or higher.
+     */
+    private static int getPreviewBufferSize(Size previewSize) {
+        return getFrameSize(previewSize) + 1;
+    }
+
+    /**
+     * Returns the size of the NV21 data of a preview frame.
      */
-    private byte[] createPreviewBuffer(Size previewSize) {
+    private static int getFrameSize(Size previewSize) {
         int bitsPerPixel = ImageFormat.getBitsPerPixel(ImageFormat.NV21);
         long sizeInBits = previewSize.getHeight() * previewSize.getWidth() * bitsPerPixel;
-        int bufferSize = (int) Math.ceil(sizeInBits / 8.0d) + 1;
-
-        //
-        // NOTICE: This code only works when using play services v. 8.1 or higher.
-        //
+        return (int) Math.ceil(sizeInBits / 8.0d);
+    }
 
-        // Creating the byte array this way and wrapping it, as opposed to using .allocate(),
-        // should guarantee that there will be an array to work with.
-        byte[] byteArray = new byte[bufferSize];
-        ByteBuffer buffer = ByteBuffer.wrap(byteArray);
-        if (!buffer.hasArray() || (buffer.array() != byteArray)) {
-            // I don't think that this will ever happen.  But if it does, then we wouldn't be
-            // passing the preview content to the underlying detector later.
-            throw new IllegalStateException("Failed to create valid buffer for camera source.");
+    /**
+     * Writes a preview frame to the recorder, stopping the recording if that fails.
+     */
+    private void recordFrame(FrameRecorder recorder, byte[] data) {
+        Size previewSize = mPreviewSize;
+        if (previewSize == null) {
+            return;
         }
 
-        mBytesToByteBuffer.put(byteArray, buffer);
-        return byteArray;
+        try {
+            recorder.record(data, getFrameSize(previewSize), previewSize.getWidth(), previewSize.getHeight(),
+                    ImageFormat.NV21, mRotation, System.nanoTime());
+        } catch (IOException e) {
+            Log.e(TAG, "Could not record frame, recording stopped.", e);
+            mFrameRecorder = null;
+        }
     }
 
     //==============================================================================================
     // Frame processing
     //==============================================================================================
 
+    /**
+     * Hands detections to a processor, as the detector itself would in receiveFrame().
+     */
+    @SuppressWarnings("unchecked")
+    private void deliver(Detector.Processor processor, Detector.Detections detections) {
+        beginTraceSection("deliver");
+        try {
+            processor.receiveDetections(detections);
+        } catch (Throwable t) {
+            Log.e(TAG, "Exception thrown from processor.", t);
+        } finally {
+            endTraceSection();
+        }
+    }
+
+    /**
+     * Starts a section in systrace, on platforms that have it.  Sections must be ended on the same
+     * thread, in reverse order.
+     */
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void beginTraceSection(String name) {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.beginSection(name);
+        }
+    }
+
+    @TargetApi(Build.VERSION_CODES.JELLY_BEAN_MR2)
+    private static void endTraceSection() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.JELLY_BEAN_MR2) {
+            Trace.endSection();
+        }
+    }
+
     /**
      * Called when the camera has a new preview frame.
      */
     private class CameraPreviewCallback implements Camera.PreviewCallback {
         @Override
         public void onPreviewFrame(byte[] data, Camera camera) {
-            mFrameProcessor.setNextFrame(data, camera);
+            beginTraceSection("onPreviewFrame");
+            try {
+                mStartupTimer.markFrame(System.nanoTime());
+                FrameRecorder recorder = mFrameRecorder;
+                if (recorder != null) {
+                    recordFrame(recorder, data);
+                }
+                mPipeline.onFrame(data);
+            } finally {
+                endTraceSection();
+            }
         }
     }
 
     /**
-     * This runnable controls access to the underlying receiver, calling it to process frames when
-     * available from the camera.  This is designed to run detection on frames as fast as possible
-     * (i.e., without unnecessary context switching or waiting on the next frame).
-     * <p/>
-     * While detection is running on a frame, new frames may be received from the camera.  As these
-     * frames come in, the most recent frame is held onto as pending.  As soon as detection and its
-     * associated processing are done for the previous frame, detection on the mostly recently
-     * received frame will immediately start on the same thread.
+     * Runs a vision detector in the frame pipeline.  With a processor here, the detections are
+     * handed back to the pipeline, which passes them on to {@link DetectionsReceiver} in frame
+     * order.  Without one, the detector hands them to its own processor in receiveFrame(), and the
+     * pipeline gets nothing.
      */
-    private class FrameProcessingRunnable implements Runnable {
-        private Detector<?> mDetector;
-        private long mStartTimeMillis = SystemClock.elapsedRealtime();
+    private class VisionDetector implements FramePipeline.Detector<Detector.Detections<?>> {
+        private final Detector<?> mDetector;
+        private final boolean mReturnDetections;
 
-        // This lock guards all of the member variables below.
-        private final Object mLock = new Object();
-        private boolean mActive = true;
+        VisionDetector(Detector<?> detector, boolean returnDetections) {
+            mDetector = detector;
+            mReturnDetections = returnDetections;
+        }
 
-        // These pending variables hold the state associated with the new frame awaiting processing.
-        private long mPendingTimeMillis;
-        private int mPendingFrameId = 0;
-        private ByteBuffer mPendingFrameData;
+        @Override
+        @SuppressWarnings("unchecked")
+        public Detector.Detections<?> detect(ByteBuffer data, int width, int height, int frameId,
+                                            long timeMillis, int rotation) {
+            Frame frame = buildFrame(data, width, height, frameId, timeMillis, rotation);
+            beginTraceSection("detect");
+            try {
+                if (mReturnDetections) {
+                    return new Detector.Detections(mDetector.detect(frame), frame.getMetadata(),
+                            mDetector.isOperational());
+                }
 
-        FrameProcessingRunnable(Detector<?> detector) {
-            mDetector = detector;
+                // The detector hands its results to the processor before returning.
+                mFrameTracer.setDeliveringFrameId(frameId);
+                try {
+                    mDetector.receiveFrame(frame);
+                } finally {
+                    mFrameTracer.setDeliveringFrameId(FrameTracer.NO_FRAME);
+                }
+                return null;
+            } finally {
+                endTraceSection();
+            }
         }
 
-        /**
-         * Releases the underlying receiver.  This is only safe to do after the associated thread
-         * has completed, which is managed in camera source's release method above.
-         */
-        @SuppressLint("Assert")
-        void release() {
-            assert (mProcessingThread.getState() == State.TERMINATED);
-            mDetector.release();
-            mDetector = null;
+        @Override
+        public int getCount(Detector.Detections<?> detections) {
+            return detections != null ? detections.getDetectedItems().size() : 0;
         }
 
-        /**
-         * Marks the runnable as active/not active.  Signals any blocked threads to continue.
-         */
-        void setActive(boolean active) {
-            synchronized (mLock) {
-                mActive = active;
-                mLock.notifyAll();
+        @Override
+        public int getFormats(Detector.Detections<?> detections) {
+            int formats = 0;
+            SparseArray<?> items = detections != null ? detections.getDetectedItems() : null;
+            for (int i = 0; items != null && i < items.size(); i++) {
+                Object item = items.valueAt(i);
+                if (item instanceof Barcode) {
+                    formats |= ((Barcode) item).format;
+                }
             }
+            return formats;
         }
 
         /**
-         * Sets the frame data received from the camera.  This adds the previous unused frame buffer
-         * (if present) back to the camera, and keeps a pending reference to the frame data for
-         * future use.
+         * Scales the corner points of codes found in the low resolution pass up to full resolution
+         * frame coordinates, and gives the detections the metadata of the full frame.
          */
-        void setNextFrame(byte[] data, Camera camera) {
-            synchronized (mLock) {
-                if (mPendingFrameData != null) {
-                    camera.addCallbackBuffer(mPendingFrameData.array());
-                    mPendingFrameData = null;
+        @Override
+        @SuppressWarnings("unchecked")
+        public Detector.Detections<?> toFullResolution(Detector.Detections<?> detections, int downscale,
+                                                      ByteBuffer data, int width, int height,
+                                                      int frameId, long timeMillis, int rotation) {
+            SparseArray<?> items = detections.getDetectedItems();
+            for (int i = 0; i < items.size(); i++) {
+                Object item = items.valueAt(i);
+                if (item instanceof Barcode && ((Barcode) item).cornerPoints != null) {
+                    for (Point point : ((Barcode) item).cornerPoints) {
+                        point.x *= downscale;
+                        point.y *= downscale;
+                    }
                 }
+            }
 
-                if (!mBytesToByteBuffer.containsKey(data)) {
-                    Log.d(TAG,
-                        "Skipping frame.  Could not find ByteBuffer associated with the image " +
-                        "data from the camera.");
-                    return;
-                }
+            Frame frame = buildFrame(data, width, height, frameId, timeMillis, rotation);
+            return new Detector.Detections(items, frame.getMetadata(), detections.detectorIsOperational());
+        }
+
+        @Override
+        public void release() {
+            mDetector.release();
+        }
+    }
 
-                // Timestamp and frame ID are maintained here, which will give downstream code some
-                // idea of the timing of frames received and when frames were dropped along the way.
-                mPendingTimeMillis = SystemClock.elapsedRealtime() - mStartTimeMillis;
-                mPendingFrameId++;
-                mPendingFrameData = mBytesToByteBuffer.get(data);
+    private static Frame buildFrame(ByteBuffer data, int width, int height, int frameId,
+                                    long timeMillis, int rotation) {
+        return new Frame.Builder()
+                .setImageData(data, width, height, ImageFormat.NV21)
+                .setId(frameId)
+                .setTimestampMillis(timeMillis)
+                .setRotation(rotation)
+                .build();
+    }
 
-                // Notify the processor thread if it is waiting on the next frame (see below).
-                mLock.notifyAll();
+    /**
+     * Hands the detections of the frame pipeline to the processor.
+     */
+    private class DetectionsReceiver implements FramePipeline.Receiver<Detector.Detections<?>> {
+        @Override
+        public void receive(int frameId, long captureNanos, Detector.Detections<?> detections) {
+            Detector.Processor<?> processor = mProcessor;
+            if (detections != null && processor != null) {
+                deliver(processor, detections);
             }
         }
 
-        /**
-         * As long as the processing thread is active, this executes detection on frames
-         * continuously.  The next pending frame is either immediately available or hasn't been
-         * received yet.  Once it is available, we transfer the frame info to local variables and
-         * run detection on that frame.  It immediately loops back for the next frame without
-         * pausing.
-         * <p/>
-         * If detection takes longer than the time in between new frames from the camera, this will
-         * mean that this loop will run without ever waiting on a frame, avoiding any context
-         * switching or frame acquisition time latency.
-         * <p/>
-         * If you find that this is using more CPU than you'd like, you should probably decrease the
-         * FPS setting above to allow for some idle time in between frames.
-         */
         @Override
-        public void run() {
-            Frame outputFrame;
-            ByteBuffer data;
+        public void onError(int frameId, Throwable t) {
+            Log.e(TAG, "Exception thrown from detector.", t);
+        }
+    }
 
-            while (true) {
-                synchronized (mLock) {
-                    while (mActive && (mPendingFrameData == null)) {
-                        try {
-                            // Wait for the next frame to be received from the camera, since we
-                            // don't have it yet.
-                            mLock.wait();
-                        } catch (InterruptedException e) {
-                            Log.d(TAG, "Frame processing loop terminated.", e);
-                            return;
-                        }
-                    }
+    /**
+     * Gives buffers back to the camera, and passes on what the frame pipeline asks of the camera.
+     */
+    private class CameraFrameSource implements FramePipeline.FrameSource {
+        @Override
+        public void addBuffer(byte[] buffer) {
+            Camera camera = mCamera;
+            if (camera != null) {
+                camera.addCallbackBuffer(buffer);
+            }
+        }
 
-                    if (!mActive) {
-                        // Exit the loop once this camera source is stopped or released.  We check
-                        // this here, immediately after the wait() above, to handle the case where
-                        // setActive(false) had been called, triggering the termination of this
-                        // loop.
-                        return;
+        @Override
+        public void onTargetFpsChanged(final float fps) {
+            final Camera camera = mCamera;
+            if (camera != null) {
+                getCameraHandler().post(new Runnable() {
+                    @Override
+                    public void run() {
+                        applyPreviewFps(camera, fps);
                     }
+                });
+            }
+        }
 
-                    outputFrame = new Frame.Builder()
-                            .setImageData(mPendingFrameData, mPreviewSize.getWidth(),
-                                    mPreviewSize.getHeight(), ImageFormat.NV21)
-                            .setId(mPendingFrameId)
-                            .setTimestampMillis(mPendingTimeMillis)
-                            .setRotation(mRotation)
-                            .build();
-
-                    // Hold onto the frame data locally, so that we can use this for detection
-                    // below.  We need to clear mPendingFrameData to ensure that this buffer isn't
-                    // recycled back to the camera before we are done using that data.
-                    data = mPendingFrameData;
-                    mPendingFrameData = null;
-                }
-
-                // The code below needs to run outside of synchronization, because this will allow
-                // the camera to add pending frame(s) while we are running detection on the current
-                // frame.
-
-                try {
-                    mDetector.receiveFrame(outputFrame);
-                } catch (Throwable t) {
-                    Log.e(TAG, "Exception thrown from receiver.", t);
-                } finally {
-                    mCamera.addCallbackBuffer(data.array());
+        @Override
+        public void onPreviewSizeChange() {
+            getCameraHandler().post(new Runnable() {
+                @Override
+                public void run() {
+                    applyTunedPreviewSize();
                 }
-            }
+            });
         }
     }
 }
@@ -18,6 +18,9 @@ package com.ekreutz.barcodescanner.camera;
 import android.Manifest;
 import android.content.Context;
 import android.content.res.Configuration;
+import android.graphics.PointF;
+import android.graphics.RectF;
+import android.support.annotation.Nullable;
 import android.support.annotation.RequiresPermission;
 import android.util.AttributeSet;
 import android.util.Log;
@@ -27,6 +30,7 @@ import android.view.ViewGroup;
 
 import com.google.android.gms.common.images.Size;
 import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
 
 import java.io.IOException;
 
@@ -44,6 +48,18 @@ public class CameraSourcePreview extends ViewGroup {
     private int mWidth = 0, mHeight = 0;
     private int fillMode = FILL_MODE_COVER;
 
+    // Scan area in the coordinates of this view, and the layout it is mapped through
+    private RectF mScanArea;
+    private int mChildLeft, mChildTop, mChildRight, mChildBottom;
+    private float mScale = 1.0f;
+
+    // Tapped point in the coordinates of this view to focus on, null to focus on the scan area
+    private PointF mFocusPoint;
+
+    // Told when the camera is running, or failed to start
+    @Nullable
+    private CameraSource.StartCallback mStartCallback;
+
     public CameraSourcePreview(Context context, AttributeSet attrs) {
         super(context, attrs);
         mContext = context;
@@ -71,8 +87,8 @@ public class CameraSourcePreview extends ViewGroup {
 
     public void stop() {
         if (mCameraSource != null) {
-            mCameraSource.stop();
-
+            // the camera may still be opening, which the UI thread shouldn't wait for
+            mCameraSource.stopAsync();
         }
     }
 
@@ -83,15 +99,46 @@ public class CameraSourcePreview extends ViewGroup {
         }
     }
 
+    // Set the callback for when the camera is running, or failed to start
+    public void setStartCallback(@Nullable CameraSource.StartCallback startCallback) {
+        mStartCallback = startCallback;
+    }
+
+    // The camera is opened on the camera thread, so that the UI doesn't freeze while it starts
     @RequiresPermission(Manifest.permission.CAMERA)
     private void startIfReady() throws IOException, SecurityException {
         if (mStartRequested && mSurfaceAvailable && mCameraSource != null) {
-            mCameraSource.start(mSurfaceView.getHolder());
+            mCameraSource.setPreviewSizeCallback(new CameraSource.PreviewSizeCallback() {
+                @Override
+                public void onPreviewSizeChanged(CameraSource cameraSource, Size previewSize) {
+                    if (cameraSource == mCameraSource) {
+                        previewLayout();
+                    }
+                }
+            });
+            mCameraSource.startAsync(mSurfaceView.getHolder(), new CameraSource.StartCallback() {
+                @Override
+                public void onCameraStarted(CameraSource cameraSource) {
+                    // the preview size is only known now that the camera is open
+                    previewLayout();
+                    if (mStartCallback != null) {
+                        mStartCallback.onCameraStarted(cameraSource);
+                    }
+                }
+
+                @Override
+                public void onCameraStartFailed(Exception e) {
+                    Log.e(TAG, "Could not start camera source.", e);
+                    if (mStartCallback != null) {
+                        mStartCallback.onCameraStartFailed(e);
+                    }
+                }
+            });
             mStartRequested = false;
         }
     }
 
-    // Can be quite heavy, since it stops and restarts the camera
+    // Can be quite heavy, since it stops and restarts the camera; that happens on the camera thread
     @RequiresPermission(Manifest.permission.CAMERA)
     public void replaceBarcodeDetector(Detector<?> detector, boolean shouldResume) throws IOException, SecurityException {
         if (mCameraSource != null) {
@@ -104,6 +151,21 @@ public class CameraSourcePreview extends ViewGroup {
         }
     }
 
+    // Set the part of this view (in pixels) to scan barcodes in, or null for the whole camera stream.
+    // The camera focuses and meters on it too, until a point is tapped.
+    public void setScanArea(@Nullable RectF scanArea) {
+        mScanArea = scanArea;
+        mFocusPoint = null;
+        updateScanArea();
+    }
+
+    // Focus and meter on the area around a point of this view (in pixels), or on the scan area again
+    // with null. Returns false if the camera doesn't support focus areas.
+    public boolean setFocusPoint(@Nullable PointF focusPoint) {
+        mFocusPoint = focusPoint;
+        return updateFocusArea();
+    }
+
     // Set the camera stream fill mode
     public void setFillMode(int fillMode) {
         if (fillMode != FILL_MODE_COVER && fillMode != FILL_MODE_FIT) return;
@@ -197,6 +259,13 @@ public class CameraSourcePreview extends ViewGroup {
         setScaleX(r);
         setScaleY(r);
 
+        mChildLeft = childLeft;
+        mChildTop = childTop;
+        mChildRight = childRight;
+        mChildBottom = childBottom;
+        mScale = r;
+        updateScanArea();
+
         // Step 4: try starting the stream again (if needed) after our modifications
         // --------------------------------
 
@@ -209,6 +278,77 @@ public class CameraSourcePreview extends ViewGroup {
         }
     }
 
+    private void updateScanArea() {
+        if (mCameraSource == null) return;
+
+        mCameraSource.setScanArea(toFrameArea(mScanArea));
+        updateFocusArea();
+    }
+
+    private boolean updateFocusArea() {
+        if (mCameraSource == null) return false;
+
+        if (mFocusPoint == null) {
+            return mCameraSource.setFocusArea(toFrameArea(mScanArea));
+        }
+
+        RectF point = toFrameArea(new RectF(mFocusPoint.x, mFocusPoint.y, mFocusPoint.x, mFocusPoint.y));
+        if (point == null) {
+            return mCameraSource.setFocusArea(null);
+        }
+
+        float[] area = FocusArea.aroundPoint(point.left, point.top, FocusArea.DEFAULT_TAP_SIZE);
+        return mCameraSource.setFocusArea(new RectF(area[0], area[1], area[2], area[3]));
+    }
+
+    /* map an area from view coordinates to fractions of the camera frames, undoing previewLayout() */
+    @Nullable
+    private RectF toFrameArea(@Nullable RectF viewArea) {
+        if (viewArea == null || mCameraSource == null || mChildRight <= mChildLeft || mChildBottom <= mChildTop) {
+            return null;
+        }
+
+        // Step 1: undo the scaling of this view around its center
+        // --------------------------------
+
+        float centerX = mWidth / 2.0f;
+        float centerY = mHeight / 2.0f;
+        float left = centerX + (viewArea.left - centerX) / mScale;
+        float right = centerX + (viewArea.right - centerX) / mScale;
+        float top = centerY + (viewArea.top - centerY) / mScale;
+        float bottom = centerY + (viewArea.bottom - centerY) / mScale;
+
+        // Step 2: express the area as fractions of the surface that the stream is drawn on
+        // --------------------------------
+
+        float childWidth = mChildRight - mChildLeft;
+        float childHeight = mChildBottom - mChildTop;
+        float u0 = (left - mChildLeft) / childWidth;
+        float u1 = (right - mChildLeft) / childWidth;
+        float v0 = (top - mChildTop) / childHeight;
+        float v1 = (bottom - mChildTop) / childHeight;
+
+        // Step 3: undo the rotation of the stream, which is displayed rotated clockwise
+        // --------------------------------
+
+        RectF frameArea;
+        switch (mCameraSource.getRotation()) {
+            case Frame.ROTATION_90:
+                frameArea = new RectF(v0, 1 - u1, v1, 1 - u0);
+                break;
+            case Frame.ROTATION_180:
+                frameArea = new RectF(1 - u1, 1 - v1, 1 - u0, 1 - v0);
+                break;
+            case Frame.ROTATION_270:
+                frameArea = new RectF(1 - v1, u0, 1 - v0, u1);
+                break;
+            default:
+                frameArea = new RectF(u0, v0, u1, v1);
+        }
+
+        return frameArea;
+    }
+
     private boolean isPortraitMode() {
         int orientation = mContext.getResources().getConfiguration().orientation;
         return orientation == Configuration.ORIENTATION_PORTRAIT;
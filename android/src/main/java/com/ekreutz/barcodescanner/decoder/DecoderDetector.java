@@ -0,0 +1,84 @@
+package com.ekreutz.barcodescanner.decoder;
+
+import android.graphics.Point;
+import android.util.SparseArray;
+
+import com.ekreutz.barcodescanner.util.BarcodeFormat;
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Runs a {@link BarcodeDecoder} in place of the Play Services detector, so that the rest of the
+ * pipeline (processors, trackers, parallel detection) works the same with any decoder.
+ * <p/>
+ * Barcodes are keyed on their value, so that the same code keeps its tracker from frame to frame.
+ */
+public class DecoderDetector extends Detector<Barcode> {
+    private final BarcodeDecoder mDecoder;
+
+    // For frames whose data isn't backed by an array
+    private byte[] mCopy = new byte[0];
+
+    public DecoderDetector(BarcodeDecoder decoder) {
+        mDecoder = decoder;
+    }
+
+    @Override
+    public SparseArray<Barcode> detect(Frame frame) {
+        Frame.Metadata metadata = frame.getMetadata();
+        int width = metadata.getWidth();
+        int height = metadata.getHeight();
+
+        ByteBuffer buffer = frame.getGrayscaleImageData();
+        byte[] data;
+        if (buffer.hasArray() && buffer.arrayOffset() == 0) {
+            data = buffer.array();
+        } else {
+            if (mCopy.length < buffer.capacity()) {
+                mCopy = new byte[buffer.capacity()];
+            }
+            ByteBuffer source = buffer.duplicate();
+            source.rewind();
+            source.get(mCopy, 0, source.remaining());
+            data = mCopy;
+        }
+
+        List<DecodedBarcode> results = mDecoder.decode(data, width, height);
+        SparseArray<Barcode> barcodes = new SparseArray<>(results.size());
+        for (DecodedBarcode result : results) {
+            barcodes.append(result.getValue().hashCode(), toBarcode(result));
+        }
+        return barcodes;
+    }
+
+    private static Barcode toBarcode(DecodedBarcode result) {
+        Barcode barcode = new Barcode();
+        barcode.format = result.getFormat();
+        barcode.rawValue = result.getValue();
+        barcode.displayValue = result.getValue();
+        barcode.valueFormat = (result.getFormat() & (BarcodeFormat.EAN_13 | BarcodeFormat.EAN_8
+                | BarcodeFormat.UPC_A | BarcodeFormat.UPC_E)) != 0 ? Barcode.PRODUCT : Barcode.TEXT;
+        barcode.cornerPoints = new Point[]{
+            new Point(result.getLeft(), result.getTop()),
+            new Point(result.getRight(), result.getTop()),
+            new Point(result.getRight(), result.getBottom()),
+            new Point(result.getLeft(), result.getBottom())
+        };
+        return barcode;
+    }
+
+    @Override
+    public boolean isOperational() {
+        return mDecoder.isOperational();
+    }
+
+    @Override
+    public void release() {
+        super.release();
+        mDecoder.release();
+    }
+}
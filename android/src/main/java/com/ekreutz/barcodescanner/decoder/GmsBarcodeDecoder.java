@@ -0,0 +1,67 @@
+package com.ekreutz.barcodescanner.decoder;
+
+import android.content.Context;
+import android.graphics.ImageFormat;
+import android.graphics.Rect;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+import com.google.android.gms.vision.barcode.BarcodeDetector;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * The Play Services barcode detector as a {@link BarcodeDecoder}.
+ */
+public class GmsBarcodeDecoder implements BarcodeDecoder {
+    private final Detector<Barcode> mDetector;
+
+    public GmsBarcodeDecoder(Detector<Barcode> detector) {
+        mDetector = detector;
+    }
+
+    /**
+     * Returns a factory that builds a Play Services detector per decoder.
+     */
+    public static BarcodeDecoder.Factory factory(final Context context) {
+        return new BarcodeDecoder.Factory() {
+            @Override
+            public BarcodeDecoder create(int formats) {
+                return new GmsBarcodeDecoder(new BarcodeDetector.Builder(context)
+                        .setBarcodeFormats(formats)
+                        .build());
+            }
+        };
+    }
+
+    @Override
+    public List<DecodedBarcode> decode(byte[] data, int width, int height) {
+        Frame frame = new Frame.Builder()
+                .setImageData(ByteBuffer.wrap(data), width, height, ImageFormat.NV21)
+                .build();
+        SparseArray<Barcode> barcodes = mDetector.detect(frame);
+
+        List<DecodedBarcode> results = new ArrayList<>(barcodes.size());
+        for (int i = 0; i < barcodes.size(); i++) {
+            Barcode barcode = barcodes.valueAt(i);
+            Rect bounds = barcode.getBoundingBox();
+            results.add(new DecodedBarcode(barcode.format, barcode.displayValue,
+                    bounds.left, bounds.top, bounds.right, bounds.bottom));
+        }
+        return results;
+    }
+
+    @Override
+    public boolean isOperational() {
+        return mDetector.isOperational();
+    }
+
+    @Override
+    public void release() {
+        mDetector.release();
+    }
+}
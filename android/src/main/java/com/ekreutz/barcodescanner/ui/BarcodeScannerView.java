@@ -6,41 +6,88 @@ import android.content.Context;
 import android.content.Intent;
 import android.content.IntentFilter;
 import android.content.pm.PackageManager;
+import android.graphics.ImageFormat;
+import android.graphics.PointF;
+import android.graphics.Rect;
+import android.graphics.RectF;
 import android.hardware.Camera;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.support.annotation.Nullable;
 import android.support.v4.app.ActivityCompat;
 import android.support.v7.app.AlertDialog;
 import android.util.AttributeSet;
 import android.util.Log;
+import android.util.SparseArray;
 import android.view.MotionEvent;
 import android.view.ViewGroup;
 
+import com.ekreutz.barcodescanner.camera.AutoZoom;
 import com.ekreutz.barcodescanner.camera.CameraSource;
 import com.ekreutz.barcodescanner.camera.CameraSourcePreview;
+import com.ekreutz.barcodescanner.camera.CapabilityCache;
+import com.ekreutz.barcodescanner.camera.FocusTimer;
+import com.ekreutz.barcodescanner.camera.FormatCascade;
+import com.ekreutz.barcodescanner.camera.FormatScheduler;
+import com.ekreutz.barcodescanner.camera.FrameRecorder;
+import com.ekreutz.barcodescanner.camera.FrameTracer;
+import com.ekreutz.barcodescanner.camera.LockFreeFrameHandoff;
+import com.ekreutz.barcodescanner.camera.PreviewSizeTuner;
+import com.ekreutz.barcodescanner.camera.StartupTimer;
+import com.ekreutz.barcodescanner.decoder.DecoderDetector;
+import com.ekreutz.barcodescanner.decoder.JavaBarcodeDecoder;
 import com.ekreutz.barcodescanner.util.BarcodeFormat;
+import com.ekreutz.barcodescanner.util.DedupCache;
+import com.ekreutz.barcodescanner.util.DetectorCache;
+import com.ekreutz.barcodescanner.util.EventBatcher;
 import com.facebook.react.bridge.Arguments;
 import com.facebook.react.bridge.ReactContext;
+import com.facebook.react.bridge.WritableArray;
 import com.facebook.react.bridge.WritableMap;
 import com.facebook.react.uimanager.events.RCTEventEmitter;
 import com.google.android.gms.common.ConnectionResult;
 import com.google.android.gms.common.GoogleApiAvailability;
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
 import com.google.android.gms.vision.MultiProcessor;
 import com.google.android.gms.vision.Tracker;
 import com.google.android.gms.vision.barcode.Barcode;
 import com.google.android.gms.vision.barcode.BarcodeDetector;
 
+import java.io.File;
 import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.List;
 
-public class BarcodeScannerView extends ViewGroup implements CameraSource.AutoFocusCallback, MultiProcessor.Factory<Barcode> {
+public class BarcodeScannerView extends ViewGroup implements CameraSource.AutoFocusCallback, CameraSource.DetectorFactory, MultiProcessor.Factory<Barcode> {
 
     private final static String TAG = "BARCODE_CAPTURE_VIEW";
     private final Context mContext;
     private boolean hasAllCapabilities = false; // barcode scanner library and newest play services
 
-    private static final String BARCODE_FOUND_KEY = "barcode_found";
+    private static final String BARCODES_FOUND_KEY = "barcodes_found";
+    private static final String CAMERA_READY_KEY = "camera_ready";
     private static final String LOW_STORAGE_KEY = "low_storage";
     private static final String NOT_YET_OPERATIONAL = "not_yet_operational";
     private static final String NO_PLAY_SERVICES_KEY = "no_play_services";
 
+    // Which barcode engine decodes frames
+    public static final int DECODER_GMS = 0;
+    public static final int DECODER_JAVA = 1;
+    public static final int DECODER_AUTO = 2; // Play Services, or pure Java when it's unavailable
+
+    // Width and height of the blank frame that new detectors are warmed up with.
+    private static final int WARM_UP_SIZE = 64;
+
+    // File in app storage that the camera settings selected on earlier starts are kept in.
+    private static final String CAPABILITY_CACHE_FILE = "barcode_scanner_camera_capabilities";
+
+    // Shared by all scanner views, created on first use.
+    private static CapabilityCache sCapabilityCache;
+
     // intent request code to handle updating play services if needed.
     private static final int RC_HANDLE_GMS = 9001;
 
@@ -60,10 +107,105 @@ public class BarcodeScannerView extends ViewGroup implements CameraSource.AutoFo
 
     private CameraSource mCameraSource;
     private CameraSourcePreview mPreview;
+    @Nullable
+    private CameraArbiter mCameraArbiter;
     private BarcodeDetector mBarcodeDetector;
     private boolean mIsPaused = true;
 
     private int mBarcodeTypes = 0; // 0 for all supported types
+    private int mBarcodeTypesProp = 0; // the barcodeTypes prop, used while barcodeFormats isn't set
+    private boolean mHasBarcodeFormats = false;
+    private int mDetectionWorkers = 1;
+    private float mTargetLatency = 0; // 0 for a fixed frame rate
+    private float mPreviewSizeTuning = 0; // 0 for the fixed preview size below
+    private int mResolutionCascade = 1; // 1 for no cascade
+    private float mMinSharpness = 0; // 0 to never skip blurry frames
+    private float mMinChange = 0; // 0 to never skip unchanged frames
+    private int mFrameWaitStrategy = LockFreeFrameHandoff.WAIT_PARK;
+    private int mDecoder = DECODER_GMS;
+    private boolean mUseJavaDecoder = false; // DECODER_JAVA, or DECODER_AUTO without Play Services
+    private boolean mFormatCascade = false;
+    private int mFormatScheduling = 0; // formats per frame, 0 to look for all of them on every frame
+
+    // Shared by the detectors of all detection workers, null when the format cascade is off
+    @Nullable
+    private volatile FormatCascade mCascade;
+    @Nullable
+    private volatile FormatScheduler mScheduler;
+
+    private boolean mAutoZoomEnabled = false;
+    private float mMaxZoom = AutoZoom.DEFAULT_MAX_ZOOM;
+
+    // Null when auto zoom is off
+    @Nullable
+    private volatile AutoZoom mAutoZoom;
+
+    // Kept here so that recording carries on when the camera source is recreated
+    @Nullable
+    private FrameRecorder mFrameRecorder;
+
+    // Barcodes found are sent to JS in batches, from the main thread.
+    private final EventBatcher<WritableMap> mEventBatcher =
+            new EventBatcher<>(0, 0, EventBatcher.DEFAULT_MAX_BATCH_SIZE);
+    private final Handler mMainHandler = new Handler(Looper.getMainLooper());
+
+    // Suppresses barcodes read again shortly after, null when off.
+    private volatile DedupCache mDedupCache;
+
+    private final DetectorCache.Factory<BarcodeDetector> mBarcodeDetectorFactory = new DetectorCache.Factory<BarcodeDetector>() {
+        @Override
+        public BarcodeDetector create(int mask) {
+            return new BarcodeDetector.Builder(mContext)
+                .setBarcodeFormats(mask)
+                .build();
+        }
+
+        @Override
+        public void warmUp(BarcodeDetector detector) {
+            // the native detector initializes itself on its first frame
+            detector.detect(new Frame.Builder()
+                .setImageData(ByteBuffer.wrap(new byte[WARM_UP_SIZE * WARM_UP_SIZE * 3 / 2]),
+                        WARM_UP_SIZE, WARM_UP_SIZE, ImageFormat.NV21)
+                .build());
+        }
+
+        @Override
+        public void release(BarcodeDetector detector) {
+            detector.release();
+        }
+    };
+
+    // Detectors per barcode types, so that switching back and forth between types doesn't create
+    // and initialize a new native detector every time.
+    private final DetectorCache<BarcodeDetector> mDetectorCache =
+            new DetectorCache<>(DetectorCache.DEFAULT_CAPACITY, mBarcodeDetectorFactory);
+
+    // Slice detectors of the current scheduled detector, for its stats only: the detector clears
+    // them itself when it's released.  Null when format scheduling is off.
+    @Nullable
+    private DetectorCache<BarcodeDetector> mSliceDetectorCache;
+    private final Runnable mFlushEvents = new Runnable() {
+        @Override
+        public void run() {
+            flushEvents();
+        }
+    };
+
+    /**
+     * Decides which of several scanner views holds the camera, since only one can have it open.
+     */
+    public interface CameraArbiter {
+        /**
+         * Called right before the view starts the camera.  Whoever holds the camera has to let go
+         * of it before this returns.
+         */
+        void onAcquireCamera(BarcodeScannerView view);
+
+        /**
+         * Called after the view stopped the camera.
+         */
+        void onReleaseCamera(BarcodeScannerView view);
+    }
 
     public BarcodeScannerView(Context context) {
         super(context);
@@ -94,6 +236,29 @@ public class BarcodeScannerView extends ViewGroup implements CameraSource.AutoFo
 
     public void init() {
         mPreview = new CameraSourcePreview(mContext, null);
+        mPreview.setStartCallback(new CameraSource.StartCallback() {
+            @Override
+            public void onCameraStarted(CameraSource cameraSource) {
+                StartupTimer timer = cameraSource.getStartupTimer();
+                Log.d(TAG, "Camera ready: " + timer);
+
+                // A camera that was just opened isn't zoomed in
+                AutoZoom autoZoom = mAutoZoom;
+                if (autoZoom != null) {
+                    autoZoom.reset();
+                }
+
+                WritableMap event = Arguments.createMap();
+                event.putDouble("timeToInteractive", timer.getTimeToInteractiveMillis());
+                event.putDouble("timeToReady", timer.getTimeToReadyMillis());
+                sendNativeEvent(CAMERA_READY_KEY, event);
+            }
+
+            @Override
+            public void onCameraStartFailed(Exception e) {
+                mIsPaused = true;
+            }
+        });
         addView(mPreview);
 
         start();
@@ -114,6 +279,14 @@ public class BarcodeScannerView extends ViewGroup implements CameraSource.AutoFo
             return;
         }
 
+        if (mDecoder == DECODER_JAVA) {
+            // The pure Java decoder needs nothing from Play Services
+            mUseJavaDecoder = true;
+            hasAllCapabilities = true;
+            start();
+            return;
+        }
+
         /**
          * Check for a few other things that the device needs for the scanner to work.
          * And send a JS event if something goes wrongs.
@@ -128,6 +301,7 @@ public class BarcodeScannerView extends ViewGroup implements CameraSource.AutoFo
         int code = GoogleApiAvailability.getInstance().isGooglePlayServicesAvailable(mContext.getApplicationContext());
         if (code != ConnectionResult.SUCCESS) {
             sendNativeEvent(NO_PLAY_SERVICES_KEY, Arguments.createMap());
+            fallBackToJavaDecoder();
         } else if (mBarcodeDetector != null && !mBarcodeDetector.isOperational()) {
             // Note: The first time that an app using the barcode or face API is installed on a
             // device, GMS will download a native libraries to the device in order to do detection.
@@ -152,12 +326,28 @@ public class BarcodeScannerView extends ViewGroup implements CameraSource.AutoFo
                 // Storage isn't low, but dependencies haven't been downloaded yet
                 sendNativeEvent(NOT_YET_OPERATIONAL, Arguments.createMap());
             }
+            fallBackToJavaDecoder();
         } else {
             hasAllCapabilities = true;
             start();
         }
     }
 
+    /**
+     * With {@link #DECODER_AUTO}, scans with the pure Java decoder when Play Services can't,
+     * as long as it reads any of the barcode types asked for.
+     */
+    private void fallBackToJavaDecoder() {
+        if (mDecoder != DECODER_AUTO || !JavaBarcodeDecoder.supports(mBarcodeTypes)) {
+            return;
+        }
+
+        Log.i(TAG, "Play Services can't scan, falling back to the pure Java decoder.");
+        mUseJavaDecoder = true;
+        hasAllCapabilities = true;
+        start();
+    }
+
     /**
      * Start the camera for the first time.
      */
@@ -186,6 +376,24 @@ public class BarcodeScannerView extends ViewGroup implements CameraSource.AutoFo
         if (mPreview != null && !mIsPaused && hasNecessaryCapabilities()) {
             mPreview.stop();
             mIsPaused = true;
+            if (mCameraArbiter != null) {
+                mCameraArbiter.onReleaseCamera(this);
+            }
+
+            Log.d(TAG, "Barcode events: " + mEventBatcher);
+            Log.d(TAG, "Detector cache: " + mDetectorCache);
+            if (mCascade != null) {
+                Log.d(TAG, "Format cascade: " + mCascade);
+            }
+            if (mScheduler != null) {
+                Log.d(TAG, "Format scheduler: " + mScheduler + ", detectors: " + mSliceDetectorCache);
+            }
+            if (mAutoZoom != null) {
+                Log.d(TAG, "Auto zoom: " + mAutoZoom);
+            }
+            if (mDedupCache != null) {
+                Log.d(TAG, "Barcode dedup: " + mDedupCache);
+            }
         }
     }
 
@@ -197,22 +405,120 @@ public class BarcodeScannerView extends ViewGroup implements CameraSource.AutoFo
         if (mPreview != null && hasNecessaryCapabilities()) {
             mPreview.release();
             mIsPaused = true;
+            if (mCameraArbiter != null) {
+                mCameraArbiter.onReleaseCamera(this);
+            }
         }
+        mDetectorCache.clear();
+        stopFrameRecording();
     }
 
     /**
-     * Note: restarts the camera, so can be slow.
+     * Sets who decides whether this view may hold the camera, or null to always take it.
+     */
+    public void setCameraArbiter(@Nullable CameraArbiter cameraArbiter) {
+        mCameraArbiter = cameraArbiter;
+    }
+
+    public boolean isPaused() {
+        return mIsPaused;
+    }
+
+    /**
+     * Sets the barcodeTypes prop, which is used unless barcodeFormats is set.
      * @param barcodeTypes: desired types bitmask
      */
     public void setBarcodeTypes(int barcodeTypes) {
+        mBarcodeTypesProp = barcodeTypes;
+        if (!mHasBarcodeFormats) {
+            applyBarcodeTypes(barcodeTypes);
+        }
+    }
+
+    /**
+     * Sets the barcodeFormats prop, which overrides barcodeTypes.
+     * @param barcodeTypes: desired types bitmask
+     */
+    public void setBarcodeFormats(int barcodeTypes) {
+        mHasBarcodeFormats = true;
+        applyBarcodeTypes(barcodeTypes);
+    }
+
+    /**
+     * Unsets the barcodeFormats prop, going back to barcodeTypes.
+     */
+    public void clearBarcodeFormats() {
+        mHasBarcodeFormats = false;
+        applyBarcodeTypes(mBarcodeTypesProp);
+    }
+
+    /**
+     * Swaps the barcode detector in between two frames while the camera is running, so the preview
+     * doesn't stop.
+     */
+    private void applyBarcodeTypes(int barcodeTypes) {
         if (mBarcodeTypes == barcodeTypes) {
             return;
         }
 
         mBarcodeTypes = barcodeTypes;
+        Log.d(TAG, "Barcode types: " + Arrays.toString(BarcodeFormat.toNames(barcodeTypes)));
+
+        if (mCameraSource != null && !mIsPaused) {
+            // The camera keeps running; the new detector takes over from the next frame on.
+            mCameraSource.setDetector(createBarcodeDetector());
+        } else if (mPreview != null && ActivityCompat.checkSelfPermission(mContext, Manifest.permission.CAMERA) == PackageManager.PERMISSION_GRANTED) {
+            try {
+                mPreview.replaceBarcodeDetector(createBarcodeDetector(), !mIsPaused);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Note: restarts the camera, so can be slow.
+     * @param detectionWorkers: number of threads that run barcode detection in parallel
+     */
+    public void setDetectionWorkers(int detectionWorkers) {
+        detectionWorkers = Math.max(1, Math.min(detectionWorkers, CameraSource.MAX_DETECTION_WORKERS));
+
+        if (mDetectionWorkers == detectionWorkers) {
+            return;
+        }
+
+        mDetectionWorkers = detectionWorkers;
+
+        if (mCameraSource != null && mPreview != null && hasCameraPermission()) {
+            try {
+                // the new worker count is picked up when the detector is replaced
+                mCameraSource.setDetectionWorkers(mDetectionWorkers, this);
+                mPreview.replaceBarcodeDetector(createBarcodeDetector(), !mIsPaused);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
 
-        if (mPreview != null && ActivityCompat.checkSelfPermission(mContext, Manifest.permission.CAMERA) == PackageManager.PERMISSION_GRANTED) {
+    /**
+     * Note: restarts the camera, so can be slow.
+     * @param resolutionCascade: 2 or 4 to detect on a downscaled frame first, 1 to always detect on full frames
+     */
+    public void setResolutionCascade(int resolutionCascade) {
+        if (resolutionCascade != 2 && resolutionCascade != 4) {
+            resolutionCascade = 1;
+        }
+
+        if (mResolutionCascade == resolutionCascade) {
+            return;
+        }
+
+        mResolutionCascade = resolutionCascade;
+
+        if (mCameraSource != null && mPreview != null && hasCameraPermission()) {
             try {
+                // the cascade is picked up when the detector is replaced
+                mCameraSource.setResolutionCascade(mResolutionCascade);
                 mPreview.replaceBarcodeDetector(createBarcodeDetector(), !mIsPaused);
             } catch (IOException e) {
                 e.printStackTrace();
@@ -220,6 +526,340 @@ public class BarcodeScannerView extends ViewGroup implements CameraSource.AutoFo
         }
     }
 
+    /**
+     * Sets the target latency of the adaptive frame rate, in milliseconds.
+     * A value of 0 keeps the frame rate fixed. Turning the adaptive frame rate on or off takes effect
+     * the next time the camera is started.
+     * @param targetLatency
+     */
+    public void setTargetLatency(float targetLatency) {
+        mTargetLatency = Math.max(0, targetLatency);
+
+        if (mCameraSource != null) {
+            mCameraSource.setTargetLatency(mTargetLatency);
+        }
+    }
+
+    /**
+     * Turns preview size tuning on, with the given detection time budget per frame in milliseconds.
+     * A value of 0 uses a fixed preview size. Takes effect the next time the camera is started.
+     * @param previewSizeTuning
+     */
+    public void setPreviewSizeTuning(float previewSizeTuning) {
+        previewSizeTuning = Math.max(0, previewSizeTuning);
+
+        if (mPreviewSizeTuning == previewSizeTuning) {
+            return;
+        }
+
+        mPreviewSizeTuning = previewSizeTuning;
+
+        if (mCameraSource != null) {
+            mCameraSource.setPreviewSizeTuning(mPreviewSizeTuning);
+        }
+    }
+
+    /**
+     * Turns the format cascade on or off: a 1D only detector runs on every frame, and the detector
+     * for all formats only when that finds nothing, or every few frames.  See {@link FormatCascade}.
+     * Only applies to Play Services, and when the barcode types include both 1D and 2D formats.
+     * @param formatCascade
+     */
+    public void setFormatCascade(boolean formatCascade) {
+        if (mFormatCascade == formatCascade) {
+            return;
+        }
+
+        mFormatCascade = formatCascade;
+
+        if (mCameraSource != null && !mIsPaused) {
+            mCameraSource.setDetector(createBarcodeDetector());
+        } else if (mCameraSource != null && mPreview != null && hasCameraPermission()) {
+            try {
+                mPreview.replaceBarcodeDetector(createBarcodeDetector(), !mIsPaused);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Looks for only a few of the barcode types per frame, taking turns, with priority for the
+     * types read recently.  See {@link FormatScheduler}.  Only applies to Play Services, and not
+     * together with the format cascade.
+     * @param formatScheduling: how many types to look for per frame, 0 to look for all of them
+     */
+    public void setFormatScheduling(int formatScheduling) {
+        formatScheduling = Math.max(0, formatScheduling);
+
+        if (mFormatScheduling == formatScheduling) {
+            return;
+        }
+
+        mFormatScheduling = formatScheduling;
+
+        if (mCameraSource != null && !mIsPaused) {
+            mCameraSource.setDetector(createBarcodeDetector());
+        } else if (mCameraSource != null && mPreview != null && hasCameraPermission()) {
+            try {
+                mPreview.replaceBarcodeDetector(createBarcodeDetector(), !mIsPaused);
+            } catch (IOException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
+    /**
+     * Turns auto zoom on or off: the camera zooms in on codes that are small in the frame, up to
+     * the max zoom, and back out when the scene changes.  See {@link AutoZoom}.
+     * @param autoZoom
+     */
+    public void setAutoZoom(boolean autoZoom) {
+        if (mAutoZoomEnabled == autoZoom) {
+            return;
+        }
+
+        mAutoZoomEnabled = autoZoom;
+        updateAutoZoom();
+    }
+
+    /**
+     * @param maxZoom: highest zoom ratio that auto zoom goes to, e.g. 3 for 3x
+     */
+    public void setMaxZoom(float maxZoom) {
+        maxZoom = Math.max(1, maxZoom);
+
+        if (mMaxZoom == maxZoom) {
+            return;
+        }
+
+        mMaxZoom = maxZoom;
+        updateAutoZoom();
+    }
+
+    private void updateAutoZoom() {
+        mAutoZoom = mAutoZoomEnabled ? new AutoZoom(AutoZoom.DEFAULT_TARGET_SIZE, mMaxZoom) : null;
+
+        // The new controller starts out at zoom 1, so the camera does too
+        if (mCameraSource != null) {
+            mCameraSource.setZoomRatio(1, null);
+        }
+    }
+
+    /**
+     * Returns the size of the largest barcode in a frame, as a share of the frame, or 0 if there
+     * are none.
+     */
+    private static float getLargestCodeSize(Detector.Detections<Barcode> detections) {
+        SparseArray<Barcode> barcodes = detections.getDetectedItems();
+        if (barcodes.size() == 0) {
+            return 0;
+        }
+
+        // Bounding boxes are in the coordinates of the upright frame
+        Frame.Metadata metadata = detections.getFrameMetadata();
+        boolean sideways = metadata.getRotation() == Frame.ROTATION_90 || metadata.getRotation() == Frame.ROTATION_270;
+        int frameWidth = sideways ? metadata.getHeight() : metadata.getWidth();
+        int frameHeight = sideways ? metadata.getWidth() : metadata.getHeight();
+
+        float largest = 0;
+        for (int i = 0; i < barcodes.size(); i++) {
+            Rect box = barcodes.valueAt(i).getBoundingBox();
+            largest = Math.max(largest, AutoZoom.getCodeSize(box.width(), box.height(), frameWidth, frameHeight));
+        }
+        return largest;
+    }
+
+    /**
+     * Zooms the camera to the zoom of the controller.  The camera is zoomed on its own thread, so
+     * neither detection nor the main thread waits on it, and tells the controller from there.
+     */
+    private void applyZoom(final AutoZoom autoZoom) {
+        mMainHandler.post(new Runnable() {
+            @Override
+            public void run() {
+                if (mCameraSource == null || mAutoZoom != autoZoom) {
+                    return;
+                }
+
+                mCameraSource.setZoomRatio(autoZoom.getZoom(), new CameraSource.ZoomCallback() {
+                    @Override
+                    public void onZoomApplied(float ratio) {
+                        if (mAutoZoom == autoZoom) {
+                            autoZoom.onZoomApplied(ratio);
+                        }
+                    }
+                });
+            }
+        });
+    }
+
+    /**
+     * Sets how long barcodes found are gathered before they are sent to JS together.
+     * @param eventBatchWindow: in milliseconds, 0 to send the barcodes found in each frame together
+     */
+    public void setEventBatchWindow(int eventBatchWindow) {
+        mEventBatcher.setWindowMillis(Math.max(0, eventBatchWindow));
+    }
+
+    /**
+     * Caps how often barcodes found are sent to JS. Barcodes found in between are sent with the
+     * next batch.
+     * @param maxEventRate: batches per second, 0 for no limit
+     */
+    public void setMaxEventRate(float maxEventRate) {
+        mEventBatcher.setMaxBatchesPerSecond(Math.max(0, maxEventRate));
+    }
+
+    /**
+     * Suppresses barcodes that were already read within the given time. A barcode that stays in
+     * view is only reported once, and again once it has been out of view for this long.
+     * @param dedupTtl: in milliseconds, 0 to report every new read
+     */
+    public void setDedupTtl(int dedupTtl) {
+        if (dedupTtl <= 0) {
+            mDedupCache = null;
+        } else if (mDedupCache != null) {
+            mDedupCache.setTtlMillis(dedupTtl);
+        } else {
+            mDedupCache = new DedupCache(dedupTtl, DedupCache.DEFAULT_CAPACITY);
+        }
+    }
+
+    /**
+     * Sets the barcode engine.  Takes effect when the view is attached; after that, only switches
+     * between Play Services and pure Java if the camera is already running.
+     * @param decoder: one of the DECODER_ constants, Play Services by default
+     */
+    public void setDecoder(int decoder) {
+        if (decoder != DECODER_JAVA && decoder != DECODER_AUTO) {
+            decoder = DECODER_GMS;
+        }
+
+        if (mDecoder == decoder) {
+            return;
+        }
+
+        mDecoder = decoder;
+
+        if (mCameraSource != null && hasNecessaryCapabilities()) {
+            boolean useJavaDecoder = decoder == DECODER_JAVA
+                    || (decoder == DECODER_AUTO && mUseJavaDecoder);
+            if (useJavaDecoder != mUseJavaDecoder) {
+                mUseJavaDecoder = useJavaDecoder;
+                mCameraSource.setDetector(createBarcodeDetector());
+            }
+        }
+    }
+
+    /**
+     * Sets how the scanning thread waits for camera frames.
+     * @param frameWaitStrategy: 0 = park until the next frame (default), 1 = spin briefly first
+     */
+    public void setFrameWaitStrategy(int frameWaitStrategy) {
+        if (frameWaitStrategy != LockFreeFrameHandoff.WAIT_SPIN_THEN_PARK) {
+            frameWaitStrategy = LockFreeFrameHandoff.WAIT_PARK;
+        }
+
+        mFrameWaitStrategy = frameWaitStrategy;
+
+        if (mCameraSource != null) {
+            mCameraSource.setFrameWaitStrategy(mFrameWaitStrategy);
+        }
+    }
+
+    /**
+     * Skips frames that are too blurry, or too similar to the last scanned frame, to be worth
+     * scanning. Both thresholds are luma differences from 0 to 255; 0 turns that check off.
+     * @param minSharpness
+     * @param minChange
+     */
+    public void setFrameGate(float minSharpness, float minChange) {
+        mMinSharpness = Math.max(0, minSharpness);
+        mMinChange = Math.max(0, minChange);
+
+        if (mCameraSource != null) {
+            mCameraSource.setFrameGate(mMinSharpness, mMinChange);
+        }
+    }
+
+    /**
+     * Returns the tracer with the per stage timestamps of recent frames, or null if the camera
+     * hasn't been created.
+     */
+    @Nullable
+    public FrameTracer getFrameTracer() {
+        return mCameraSource != null ? mCameraSource.getFrameTracer() : null;
+    }
+
+    /**
+     * Returns the timings of the last camera start, or null if the camera source doesn't exist yet.
+     */
+    @Nullable
+    public StartupTimer getStartupTimer() {
+        return mCameraSource != null ? mCameraSource.getStartupTimer() : null;
+    }
+
+    /**
+     * Returns the focus timings since the camera source was created, or null if it doesn't exist yet.
+     */
+    @Nullable
+    public FocusTimer getFocusTimer() {
+        return mCameraSource != null ? mCameraSource.getFocusTimer() : null;
+    }
+
+    /**
+     * Starts recording the camera frames to the given file, replacing any recording in progress.
+     *
+     * @param compressed whether to deflate the frames
+     * @param maxFrames  how many frames to record at most, or {@link FrameRecorder#NO_LIMIT}
+     */
+    public synchronized void startFrameRecording(File file, boolean compressed, int maxFrames) throws IOException {
+        stopFrameRecording();
+
+        mFrameRecorder = new FrameRecorder(file, compressed, maxFrames);
+        if (mCameraSource != null) {
+            mCameraSource.setFrameRecorder(mFrameRecorder);
+        }
+        Log.d(TAG, "Recording frames to " + file);
+    }
+
+    /**
+     * Stops recording the camera frames and finishes the capture file.  Returns the recorder, for
+     * its counters, or null if nothing was being recorded.
+     */
+    @Nullable
+    public synchronized FrameRecorder stopFrameRecording() {
+        FrameRecorder recorder = mFrameRecorder;
+        if (recorder == null) {
+            return null;
+        }
+
+        mFrameRecorder = null;
+        if (mCameraSource != null) {
+            mCameraSource.setFrameRecorder(null);
+        }
+
+        try {
+            recorder.close();
+        } catch (IOException e) {
+            Log.e(TAG, "Could not finish frame recording " + recorder.getFile(), e);
+        }
+        Log.d(TAG, "Frame recording: " + recorder);
+        return recorder;
+    }
+
+    /**
+     * Restricts scanning to a part of the view. Only that part of the camera frames is passed to
+     * the barcode detector.
+     * @param scanArea: area in pixels relative to this view, or null to scan the whole view
+     */
+    public void setScanArea(RectF scanArea) {
+        if (mPreview != null) {
+            mPreview.setScanArea(scanArea);
+        }
+    }
+
     /**
      * Set focus mode.
      * Possible values: 0 = continuous focus (if supported), 1 = tap-to-focus (if supported), 2 = fixed focus
@@ -277,7 +917,7 @@ public class BarcodeScannerView extends ViewGroup implements CameraSource.AutoFo
     @SuppressLint("InlinedApi")
     private void createCameraSource() {
         // set preferred mBarcodeTypes before this :)
-        BarcodeDetector barcodeDetector = createBarcodeDetector();
+        Detector<Barcode> barcodeDetector = createBarcodeDetector();
 
         if (!hasNecessaryCapabilities()) {
             return;
@@ -291,21 +931,292 @@ public class BarcodeScannerView extends ViewGroup implements CameraSource.AutoFo
                 .setRequestedPreviewSize(1600, 900)
                 .setRequestedFps(15.0f)
                 .setPreferredFocusModes(PREFERRED_FOCUS_MODES)
+                .setDetectionWorkers(mDetectionWorkers, this)
+                .setTargetLatency(mTargetLatency)
+                .setPreviewSizeTuning(mPreviewSizeTuning)
+                .setResolutionCascade(mResolutionCascade)
+                .setFrameGate(mMinSharpness, mMinChange)
+                .setFrameWaitStrategy(mFrameWaitStrategy)
+                .setCapabilityCache(getCapabilityCache(mContext))
                 .build();
+        synchronized (this) {
+            mCameraSource.setFrameRecorder(mFrameRecorder);
+        }
+    }
+
+    /**
+     * The camera settings cache is tied to the OS build, so that it starts over after an OS update.
+     */
+    private static synchronized CapabilityCache getCapabilityCache(Context context) {
+        if (sCapabilityCache == null) {
+            File file = new File(context.getApplicationContext().getFilesDir(), CAPABILITY_CACHE_FILE);
+            sCapabilityCache = new CapabilityCache(file, Build.FINGERPRINT);
+        }
+        return sCapabilityCache;
     }
 
-    private BarcodeDetector createBarcodeDetector() {
-        // A barcode detector is created to track barcodes.  An associated multi-processor instance
-        // is set to receive the barcode detection results, and track the barcodes.
-        // The factory is used by the multi-processor to
+    private Detector<Barcode> createBarcodeDetector() {
+        if (mUseJavaDecoder) {
+            Detector<Barcode> barcodeDetector = new DecoderDetector(new JavaBarcodeDecoder(mBarcodeTypes));
+            barcodeDetector.setProcessor(new BatchingProcessor(new MultiProcessor.Builder<>(this).build()));
+            return barcodeDetector;
+        }
+
+        // A barcode detector is taken from the cache to track barcodes.  An associated
+        // multi-processor instance is set to receive the barcode detection results, and track the
+        // barcodes.  The factory is used by the multi-processor to
         // create a separate tracker instance for each barcode.
-        BarcodeDetector barcodeDetector = new BarcodeDetector.Builder(mContext)
+        Detector<Barcode> barcodeDetector;
+        if (mFormatCascade && FormatCascade.appliesTo(mBarcodeTypes)) {
+            // One cascade per set of barcode types, so that its interval is tuned to them
+            mCascade = new FormatCascade(mBarcodeTypes);
+            mScheduler = null;
+            mSliceDetectorCache = null;
+            mBarcodeDetector = mDetectorCache.acquire(mBarcodeTypes);
+            Detector<Barcode> linearDetector = new CachedDetector(mDetectorCache.acquire(mCascade.getLinearFormats()));
+            barcodeDetector = new FormatCascadeDetector(mCascade, linearDetector, new CachedDetector(mBarcodeDetector));
+        } else if (FormatScheduler.appliesTo(mBarcodeTypes, mFormatScheduling)) {
+            mCascade = null;
+            mScheduler = new FormatScheduler(mBarcodeTypes, mFormatScheduling);
+            // The slices change with the barcode types, so their detectors start over too.  The
+            // detector being replaced keeps running until the processing thread swaps it out, so it
+            // keeps its own cache and clears it when it's released.
+            DetectorCache<BarcodeDetector> sliceDetectorCache =
+                new DetectorCache<>(mScheduler.getDetectorCount(), mBarcodeDetectorFactory);
+            mSliceDetectorCache = sliceDetectorCache;
+
+            // No detector for all types is needed; the first slice's stands in for the operational check
+            mBarcodeDetector = sliceDetectorCache.acquire(mScheduler.getSlices()[0]);
+            sliceDetectorCache.release(mBarcodeDetector);
+            barcodeDetector = new ScheduledDetector(mScheduler, sliceDetectorCache);
+        } else {
+            mCascade = null;
+            mScheduler = null;
+            mSliceDetectorCache = null;
+            mBarcodeDetector = mDetectorCache.acquire(mBarcodeTypes);
+            barcodeDetector = new CachedDetector(mBarcodeDetector);
+        }
+        barcodeDetector.setProcessor(new BatchingProcessor(new MultiProcessor.Builder<>(this).build()));
+
+        return barcodeDetector;
+    }
+
+    /**
+     * A detector from the cache, with its own processor.  Releasing it releases the processor and
+     * hands the detector back to the cache instead of releasing it.
+     */
+    private class CachedDetector extends Detector<Barcode> {
+        private final BarcodeDetector mDetector;
+
+        CachedDetector(BarcodeDetector detector) {
+            mDetector = detector;
+        }
+
+        @Override
+        public SparseArray<Barcode> detect(Frame frame) {
+            return mDetector.detect(frame);
+        }
+
+        @Override
+        public boolean isOperational() {
+            return mDetector.isOperational();
+        }
+
+        @Override
+        public boolean setFocus(int id) {
+            return mDetector.setFocus(id);
+        }
+
+        @Override
+        public void release() {
+            super.release();
+            mDetectorCache.release(mDetector);
+        }
+    }
+
+    /**
+     * Runs a 1D only detector on every frame, and the detector for all formats when the
+     * {@link FormatCascade} asks for it.  Releasing it releases both detectors.
+     */
+    private static class FormatCascadeDetector extends Detector<Barcode> {
+        private final FormatCascade mCascade;
+        private final Detector<Barcode> mLinearDetector;
+        private final Detector<Barcode> mFullDetector;
+
+        FormatCascadeDetector(FormatCascade cascade, Detector<Barcode> linearDetector, Detector<Barcode> fullDetector) {
+            mCascade = cascade;
+            mLinearDetector = linearDetector;
+            mFullDetector = fullDetector;
+        }
+
+        @Override
+        public SparseArray<Barcode> detect(Frame frame) {
+            SparseArray<Barcode> linear = mLinearDetector.detect(frame);
+            if (!mCascade.needsFullPass(linear.size())) {
+                return linear;
+            }
+
+            SparseArray<Barcode> full = mFullDetector.detect(frame);
+            mCascade.recordFullPass(linear.size(), full.size());
+
+            // Keep 1D codes that the full pass missed
+            for (int i = 0; i < linear.size(); i++) {
+                Barcode barcode = linear.valueAt(i);
+                if (!containsValue(full, barcode)) {
+                    int key = linear.keyAt(i);
+                    while (full.get(key) != null) {
+                        key++;
+                    }
+                    full.put(key, barcode);
+                }
+            }
+            return full;
+        }
+
+        private static boolean containsValue(SparseArray<Barcode> barcodes, Barcode barcode) {
+            for (int i = 0; i < barcodes.size(); i++) {
+                Barcode other = barcodes.valueAt(i);
+                if (other.format == barcode.format && other.rawValue != null && other.rawValue.equals(barcode.rawValue)) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        @Override
+        public boolean isOperational() {
+            return mLinearDetector.isOperational() && mFullDetector.isOperational();
+        }
+
+        @Override
+        public boolean setFocus(int id) {
+            return mFullDetector.setFocus(id);
+        }
+
+        @Override
+        public void release() {
+            super.release();
+            mLinearDetector.release();
+            mFullDetector.release();
+        }
+    }
+
+    /**
+     * Detects upon the formats that the {@link FormatScheduler} picks for each frame, with
+     * detectors from a cache of its own.  Releasing it clears the cache, on the thread that ran
+     * the detector, so no detector is created or used after that.
+     */
+    private static class ScheduledDetector extends Detector<Barcode> {
+        private final FormatScheduler mScheduler;
+        private final DetectorCache<BarcodeDetector> mCache;
+
+        ScheduledDetector(FormatScheduler scheduler, DetectorCache<BarcodeDetector> cache) {
+            mScheduler = scheduler;
+            mCache = cache;
+        }
+
+        @Override
+        public SparseArray<Barcode> detect(Frame frame) {
+            BarcodeDetector detector = mCache.acquire(mScheduler.nextMask());
+            try {
+                SparseArray<Barcode> barcodes = detector.detect(frame);
+
+                int found = 0;
+                for (int i = 0; i < barcodes.size(); i++) {
+                    found |= barcodes.valueAt(i).format;
+                }
+                mScheduler.recordFound(found);
+                return barcodes;
+            } finally {
+                mCache.release(detector);
+            }
+        }
+
+        @Override
+        public boolean isOperational() {
+            // All slices share the same native library
+            BarcodeDetector detector = mCache.acquire(mScheduler.getSlices()[0]);
+            try {
+                return detector.isOperational();
+            } finally {
+                mCache.release(detector);
+            }
+        }
+
+        @Override
+        public void release() {
+            super.release();
+            mCache.clear();
+        }
+    }
+
+    /**
+     * Extra detectors for parallel detection.  These only run detection; the results of all
+     * workers are merged and passed to the processor below.
+     */
+    @Override
+    public Detector<?> createDetector() {
+        if (mUseJavaDecoder) {
+            return new DecoderDetector(new JavaBarcodeDecoder(mBarcodeTypes));
+        }
+
+        FormatScheduler scheduler = mScheduler;
+        if (scheduler != null) {
+            // Each worker gets detectors of its own, so no two workers detect with the same one
+            return new ScheduledDetector(scheduler,
+                new DetectorCache<>(scheduler.getDetectorCount(), mBarcodeDetectorFactory));
+        }
+
+        FormatCascade cascade = mCascade;
+        if (cascade != null) {
+            return new FormatCascadeDetector(cascade,
+                new BarcodeDetector.Builder(mContext).setBarcodeFormats(cascade.getLinearFormats()).build(),
+                new BarcodeDetector.Builder(mContext).setBarcodeFormats(mBarcodeTypes).build());
+        }
+
+        return new BarcodeDetector.Builder(mContext)
             .setBarcodeFormats(mBarcodeTypes)
             .build();
+    }
+
+    @Override
+    public Detector.Processor<?> createProcessor() {
+        return new BatchingProcessor(new MultiProcessor.Builder<>(this).build());
+    }
 
-        barcodeDetector.setProcessor(new MultiProcessor.Builder<>(this).build());
+    /**
+     * Passes detections on to the trackers, and marks the end of each frame for the event batcher.
+     */
+    private class BatchingProcessor implements Detector.Processor<Barcode> {
+        private final Detector.Processor<Barcode> mProcessor;
+
+        BatchingProcessor(Detector.Processor<Barcode> processor) {
+            mProcessor = processor;
+        }
+
+        @Override
+        public void receiveDetections(Detector.Detections<Barcode> detections) {
+            PreviewSizeTuner tuner = mCameraSource != null ? mCameraSource.getPreviewSizeTuner() : null;
+            if (tuner != null && detections.getDetectedItems().size() > 0) {
+                tuner.onFrameDecoded();
+            }
+
+            AutoZoom autoZoom = mAutoZoom;
+            if (autoZoom != null && autoZoom.onFrame(getLargestCodeSize(detections))) {
+                applyZoom(autoZoom);
+            }
+
+            try {
+                mProcessor.receiveDetections(detections);
+            } finally {
+                scheduleEventFlush(mEventBatcher.endFrame(SystemClock.uptimeMillis()));
+            }
+        }
 
-        return mBarcodeDetector = barcodeDetector;
+        @Override
+        public void release() {
+            mProcessor.release();
+        }
     }
 
     /**
@@ -315,6 +1226,9 @@ public class BarcodeScannerView extends ViewGroup implements CameraSource.AutoFo
      */
     private void startCameraSource() throws SecurityException {
         if (mCameraSource != null) {
+            if (mCameraArbiter != null) {
+                mCameraArbiter.onAcquireCamera(this);
+            }
             try {
                 mPreview.start(mCameraSource);
                 mIsPaused = false;
@@ -335,11 +1249,25 @@ public class BarcodeScannerView extends ViewGroup implements CameraSource.AutoFo
 
     @Override
     public boolean onTouchEvent(MotionEvent event) {
-        if (mCameraSource != null && mCameraSource.getFocusMode() != null && mCameraSource.getFocusMode().equals(Camera.Parameters.FOCUS_MODE_AUTO)) {
+        if (mCameraSource == null) {
+            return super.onTouchEvent(event);
+        }
+
+        // Focus and meter on the tapped point, in continuous focus modes too
+        boolean focused = false;
+        if (event.getActionMasked() == MotionEvent.ACTION_DOWN && mPreview != null) {
+            focused = mPreview.setFocusPoint(new PointF(event.getX(), event.getY()));
+        }
+
+        if (mCameraSource.getFocusMode() != null && mCameraSource.getFocusMode().equals(Camera.Parameters.FOCUS_MODE_AUTO)) {
             tryAutoFocus();
             return true;
         }
 
+        if (focused) {
+            return true;
+        }
+
         return super.onTouchEvent(event);
     }
 
@@ -357,16 +1285,64 @@ public class BarcodeScannerView extends ViewGroup implements CameraSource.AutoFo
              */
             @Override
             public void onNewItem(int id, Barcode item) {
+                FrameTracer tracer = getFrameTracer();
+                long frameId = tracer != null ? tracer.getDeliveringFrameId() : FrameTracer.NO_FRAME;
+                if (tracer != null) {
+                    tracer.record(frameId, FrameTracer.STAGE_TRACKED);
+                }
+
+                // Barcodes already reported a moment ago aren't worth a trip across the bridge.
+                DedupCache dedupCache = mDedupCache;
+                if (dedupCache != null && dedupCache.isRepeat(item.format, item.displayValue, SystemClock.uptimeMillis())) {
+                    return;
+                }
+
                 // Act on new barcode found
+                String type = BarcodeFormat.get(item.format);
                 WritableMap event = Arguments.createMap();
                 event.putString("data", item.displayValue);
-                event.putString("type", BarcodeFormat.get(item.format));
+                event.putString("type", type);
+                event.putInt("frameId", (int) frameId);
+                event.putDouble("timestamp", System.currentTimeMillis());
 
-                sendNativeEvent(BARCODE_FOUND_KEY, event);
+                scheduleEventFlush(mEventBatcher.add(type + ":" + item.displayValue, event, SystemClock.uptimeMillis()));
             }
         };
     }
 
+    private void scheduleEventFlush(long delayMillis) {
+        if (delayMillis != EventBatcher.NO_FLUSH) {
+            mMainHandler.postDelayed(mFlushEvents, delayMillis);
+        }
+    }
+
+    /**
+     * Sends the barcodes found since the last batch to JS, as one event.
+     */
+    private void flushEvents() {
+        List<WritableMap> events = mEventBatcher.flush(SystemClock.uptimeMillis());
+        if (events.isEmpty()) {
+            return;
+        }
+
+        FrameTracer tracer = getFrameTracer();
+        WritableArray barcodes = Arguments.createArray();
+        int frameId = (int) FrameTracer.NO_FRAME;
+        for (WritableMap event : events) {
+            frameId = event.getInt("frameId");
+            if (tracer != null) {
+                tracer.record(frameId, FrameTracer.STAGE_EMITTED);
+            }
+            barcodes.pushMap(event);
+        }
+
+        WritableMap batch = Arguments.createMap();
+        batch.putArray("barcodes", barcodes);
+        batch.putInt("frameId", frameId);
+        batch.putDouble("timestamp", System.currentTimeMillis());
+        sendNativeEvent(BARCODES_FOUND_KEY, batch);
+    }
+
     private void sendNativeEvent(String key, WritableMap event) {
         if (getId() < 0) {
             Log.w(TAG, "Tried to send native event with negative id!");
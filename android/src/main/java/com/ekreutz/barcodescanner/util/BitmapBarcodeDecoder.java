@@ -0,0 +1,125 @@
+package com.ekreutz.barcodescanner.util;
+
+import android.graphics.Bitmap;
+import android.graphics.BitmapFactory;
+import android.os.Build;
+import android.util.SparseArray;
+
+import com.google.android.gms.vision.Detector;
+import com.google.android.gms.vision.Frame;
+import com.google.android.gms.vision.barcode.Barcode;
+
+import java.io.IOException;
+
+/**
+ * Decodes barcodes in image files, for one worker of a {@link BatchDecoder}.
+ * <p/>
+ * Images are downsampled while they are read so that their longer side is at most twice
+ * {@code maxSize}, which keeps large photos from taking tens of megabytes each.  The bitmap of one
+ * image is decoded into again for the next one ({@code inBitmap}) when it is large enough, so a
+ * batch of similar photos allocates pixel memory about once per worker.
+ * <p/>
+ * Not thread safe: every worker has its own decoder.
+ */
+public class BitmapBarcodeDecoder implements BatchDecoder.Decoder<SparseArray<Barcode>> {
+    public static final int DEFAULT_MAX_SIZE = 1600;
+
+    private final Detector<Barcode> mDetector;
+    private final int mMaxSize;
+    private final BitmapFactory.Options mOptions = new BitmapFactory.Options();
+
+    private Bitmap mBitmap = null;
+
+    public BitmapBarcodeDecoder(Detector<Barcode> detector, int maxSize) {
+        if (maxSize < 1) {
+            throw new IllegalArgumentException("Invalid image size: " + maxSize);
+        }
+        mDetector = detector;
+        mMaxSize = maxSize;
+    }
+
+    /**
+     * Returns the power of two to downsample an image by, so that its longer side ends up between
+     * {@code maxSize} and twice that (or below, if it was smaller to begin with).  Downsampling
+     * by powers of two is what the image decoders do fastest.
+     */
+    public static int sampleSize(int width, int height, int maxSize) {
+        int longer = Math.max(width, height);
+        int sampleSize = 1;
+        while (longer / (sampleSize * 2) >= maxSize) {
+            sampleSize *= 2;
+        }
+        return sampleSize;
+    }
+
+    @Override
+    public SparseArray<Barcode> decode(String path) throws Exception {
+        if (!mDetector.isOperational()) {
+            throw new IllegalStateException("Barcode detector is not operational.");
+        }
+
+        mOptions.inJustDecodeBounds = true;
+        mOptions.inSampleSize = 1;
+        mOptions.inBitmap = null;
+        BitmapFactory.decodeFile(path, mOptions);
+        if (mOptions.outWidth <= 0 || mOptions.outHeight <= 0) {
+            throw new IOException("Could not read image " + path);
+        }
+
+        int sampleSize = sampleSize(mOptions.outWidth, mOptions.outHeight, mMaxSize);
+        int width = (mOptions.outWidth + sampleSize - 1) / sampleSize;
+        int height = (mOptions.outHeight + sampleSize - 1) / sampleSize;
+
+        mOptions.inJustDecodeBounds = false;
+        mOptions.inSampleSize = sampleSize;
+        mOptions.inMutable = true;
+        mOptions.inPreferredConfig = Bitmap.Config.ARGB_8888;
+        mOptions.inBitmap = canReuse(width, height) ? mBitmap : null;
+
+        Bitmap bitmap;
+        try {
+            bitmap = BitmapFactory.decodeFile(path, mOptions);
+        } catch (IllegalArgumentException e) {
+            // the image couldn't be decoded into the old bitmap after all
+            mOptions.inBitmap = null;
+            bitmap = BitmapFactory.decodeFile(path, mOptions);
+        }
+        if (bitmap == null) {
+            throw new IOException("Could not decode image " + path);
+        }
+
+        if (bitmap != mBitmap) {
+            if (mBitmap != null) {
+                mBitmap.recycle();
+            }
+            mBitmap = bitmap;
+        }
+
+        Frame frame = new Frame.Builder().setBitmap(bitmap).build();
+        return mDetector.detect(frame);
+    }
+
+    /**
+     * Returns true if an image of the given size can be decoded into the bitmap of the last one.
+     * Before KitKat, that takes the exact same size and no downsampling.
+     */
+    private boolean canReuse(int width, int height) {
+        if (mBitmap == null || mBitmap.isRecycled()) {
+            return false;
+        }
+
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.KITKAT) {
+            return mBitmap.getAllocationByteCount() >= width * height * 4;
+        }
+        return mOptions.inSampleSize == 1 && mBitmap.getWidth() == width && mBitmap.getHeight() == height;
+    }
+
+    @Override
+    public void release() {
+        mDetector.release();
+        if (mBitmap != null) {
+            mBitmap.recycle();
+            mBitmap = null;
+        }
+    }
+}
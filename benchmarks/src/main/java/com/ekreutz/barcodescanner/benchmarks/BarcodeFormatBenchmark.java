@@ -0,0 +1,65 @@
+package com.ekreutz.barcodescanner.benchmarks;
+
+import com.ekreutz.barcodescanner.util.BarcodeFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of the format lookups done for every detected barcode, and for every format list coming
+ * from JS.  Run with -Pgc: the per detection lookups ({@link #formatToName()},
+ * {@link #nameToFormat()}, {@link #maskToNames()} into a reused array) should not allocate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BarcodeFormatBenchmark {
+    private static final int[] FORMATS = {
+        BarcodeFormat.EAN_13, BarcodeFormat.QR_CODE, BarcodeFormat.CODE_128, BarcodeFormat.UPC_A,
+        BarcodeFormat.DATA_MATRIX, BarcodeFormat.PDF417, BarcodeFormat.ITF, BarcodeFormat.AZTEC
+    };
+
+    private static final String[] NAMES = {
+        "EAN_13", "QR_CODE", "CODE_128", "UPC_A", "DATA_MATRIX", "PDF417", "ITF", "AZTEC"
+    };
+
+    private static final String[] RETAIL_NAMES = {"EAN_13", "EAN_8", "UPC_A", "UPC_E"};
+
+    private final String[] mNames = new String[BarcodeFormat.count(BarcodeFormat.ALL_FORMATS)];
+    private int mIndex = 0;
+
+    @Benchmark
+    public String formatToName() {
+        mIndex = (mIndex + 1) & (FORMATS.length - 1);
+        return BarcodeFormat.get(FORMATS[mIndex]);
+    }
+
+    @Benchmark
+    public int nameToFormat() {
+        mIndex = (mIndex + 1) & (NAMES.length - 1);
+        return BarcodeFormat.get(NAMES[mIndex]);
+    }
+
+    @Benchmark
+    public int namesToMask() {
+        return BarcodeFormat.toMask(RETAIL_NAMES);
+    }
+
+    @Benchmark
+    public int maskToNames() {
+        mIndex = (mIndex + 1) & (FORMATS.length - 1);
+        return BarcodeFormat.toNames(FORMATS[mIndex] | BarcodeFormat.EAN_8, mNames);
+    }
+}
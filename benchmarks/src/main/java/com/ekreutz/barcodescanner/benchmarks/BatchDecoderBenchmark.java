@@ -0,0 +1,116 @@
+package com.ekreutz.barcodescanner.benchmarks;
+
+import com.ekreutz.barcodescanner.util.BatchDecoder;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to decode a batch of images by pool size, with a stand-in decoder that burns a fixed amount
+ * of CPU per image instead of reading files.  The mean per image decode time is checked against
+ * the stand-in's cost, so that a pool larger than the machine shows up as images taking longer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class BatchDecoderBenchmark {
+    private static final int IMAGES = 32;
+
+    // Simulated decode time per image
+    private static final long DECODE_TOKENS = 200000;
+
+    @Param({"1", "2", "4", "8"})
+    public int threads;
+
+    private BatchDecoder<Long> mDecoder;
+    private final List<String> mPaths = new ArrayList<>();
+
+    // Sum of per image decode times of the last batch
+    private volatile long mDecodeNanos;
+
+    private final BatchDecoder.Factory<Long> mFactory = new BatchDecoder.Factory<Long>() {
+        @Override
+        public BatchDecoder.Decoder<Long> create() {
+            return new BatchDecoder.Decoder<Long>() {
+                @Override
+                public Long decode(String path) {
+                    Blackhole.consumeCPU(DECODE_TOKENS);
+                    return (long) path.length();
+                }
+
+                @Override
+                public void release() {
+                }
+            };
+        }
+    };
+
+    @Setup
+    public void setUp() {
+        mDecoder = new BatchDecoder<>(threads);
+        for (int i = 0; i < IMAGES; i++) {
+            mPaths.add("/sdcard/labels/" + i + ".jpg");
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.printf("%n%d threads (pool size for this machine: %d): %.2f ms per image%n",
+                threads, BatchDecoder.poolSize(BatchDecoder.DEFAULT_MAX_THREADS,
+                        Runtime.getRuntime().availableProcessors()),
+                mDecodeNanos / 1e6 / IMAGES);
+        mDecoder.shutdown();
+    }
+
+    @Benchmark
+    public int decodeBatch() throws InterruptedException {
+        final CountDownLatch done = new CountDownLatch(1);
+        final long[] decodeNanos = new long[1];
+        final int[] decoded = new int[1];
+
+        mDecoder.decode(mPaths, mFactory, new BatchDecoder.Listener<Long>() {
+            @Override
+            public void onImageDecoded(int index, String path, Long result, long nanos) {
+                synchronized (decodeNanos) {
+                    decodeNanos[0] += nanos;
+                }
+            }
+
+            @Override
+            public void onImageFailed(int index, String path, Exception error, long nanos) {
+                throw new IllegalStateException("Stand-in decoder failed.", error);
+            }
+
+            @Override
+            public void onBatchFinished(int decodedImages, int failedImages, long batchNanos) {
+                decoded[0] = decodedImages;
+                done.countDown();
+            }
+        });
+
+        done.await();
+        synchronized (decodeNanos) {
+            mDecodeNanos = decodeNanos[0];
+        }
+        return decoded[0];
+    }
+}
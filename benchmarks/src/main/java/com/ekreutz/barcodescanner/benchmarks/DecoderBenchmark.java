@@ -0,0 +1,162 @@
+package com.ekreutz.barcodescanner.benchmarks;
+
+import com.ekreutz.barcodescanner.camera.FrameRecording;
+import com.ekreutz.barcodescanner.decoder.DecodedBarcode;
+import com.ekreutz.barcodescanner.decoder.JavaBarcodeDecoder;
+import com.ekreutz.barcodescanner.util.BarcodeFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decodes frames with the pure Java decoder: a generated EAN-13 label, a frame of noise without
+ * any barcode (the common case while the camera is being pointed), or the frames of a capture file
+ * given with e.g. {@code -p recording=/tmp/label.bsfr}, one frame per call.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DecoderBenchmark {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+
+    // Frames of a recording that are kept in memory
+    private static final int MAX_RECORDED_FRAMES = 300;
+
+    private static final String EAN_13 = "4006381333931";
+
+    // Same tables as the decoder, to draw the label with
+    private static final int[][] L_PATTERNS = {
+        {3, 2, 1, 1}, {2, 2, 2, 1}, {2, 1, 2, 2}, {1, 4, 1, 1}, {1, 1, 3, 2},
+        {1, 2, 3, 1}, {1, 1, 1, 4}, {1, 3, 1, 2}, {1, 2, 1, 3}, {3, 1, 1, 2}
+    };
+    private static final int[] FIRST_DIGIT_PARITIES = {
+        0x00, 0x0B, 0x0D, 0x0E, 0x13, 0x19, 0x1C, 0x15, 0x16, 0x1A
+    };
+
+    @Param({""})
+    public String recording;
+
+    @Param({"label", "noise"})
+    public String frame;
+
+    @Param({"16"})
+    public int scanLines;
+
+    private final List<byte[]> mFrames = new ArrayList<>();
+    private int mWidth;
+    private int mHeight;
+    private int mNext = 0;
+    private JavaBarcodeDecoder mDecoder;
+
+    @Setup
+    public void setUp() throws IOException {
+        mDecoder = new JavaBarcodeDecoder(BarcodeFormat.ALL_FORMATS, scanLines);
+
+        if (!recording.isEmpty()) {
+            load(new File(recording));
+        } else {
+            mWidth = WIDTH;
+            mHeight = HEIGHT;
+            Random random = new Random(42);
+            mFrames.add("label".equals(frame) ? renderLabel(EAN_13, random) : renderNoise(random));
+        }
+
+        List<DecodedBarcode> barcodes = mDecoder.decode(mFrames.get(0), mWidth, mHeight);
+        System.out.printf("%nFirst frame: %s%n", barcodes);
+    }
+
+    private void load(File file) throws IOException {
+        FrameRecording frames = new FrameRecording(file);
+        try {
+            FrameRecording.RecordedFrame recorded = new FrameRecording.RecordedFrame();
+            while (mFrames.size() < MAX_RECORDED_FRAMES && frames.next(recorded)) {
+                byte[] data = new byte[recorded.getLength()];
+                System.arraycopy(recorded.getData(), 0, data, 0, data.length);
+                mFrames.add(data);
+                mWidth = recorded.getWidth();
+                mHeight = recorded.getHeight();
+            }
+        } finally {
+            frames.close();
+        }
+        if (mFrames.isEmpty()) {
+            throw new IOException("No frames in " + file);
+        }
+    }
+
+    /**
+     * Draws the code across the middle half of the frame, 4 pixels per module, with sensor noise.
+     */
+    private static byte[] renderLabel(String code, Random random) {
+        List<Boolean> modules = new ArrayList<>();
+        addModules(modules, true, 1, 1, 1);
+        int parities = FIRST_DIGIT_PARITIES[code.charAt(0) - '0'];
+        for (int i = 0; i < 6; i++) {
+            int[] widths = L_PATTERNS[code.charAt(1 + i) - '0'];
+            if (((parities >> (5 - i)) & 1) == 1) {
+                widths = new int[]{widths[3], widths[2], widths[1], widths[0]};
+            }
+            addModules(modules, false, widths);
+        }
+        addModules(modules, false, 1, 1, 1, 1, 1);
+        for (int i = 0; i < 6; i++) {
+            addModules(modules, true, L_PATTERNS[code.charAt(7 + i) - '0']);
+        }
+        addModules(modules, true, 1, 1, 1);
+
+        int moduleWidth = 4;
+        int start = (WIDTH - modules.size() * moduleWidth) / 2;
+        byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+        for (int y = 0; y < HEIGHT; y++) {
+            boolean inLabel = y > HEIGHT / 4 && y < HEIGHT * 3 / 4;
+            for (int x = 0; x < WIDTH; x++) {
+                int module = (x - start) / moduleWidth;
+                boolean dark = inLabel && x >= start && module < modules.size() && modules.get(module);
+                data[y * WIDTH + x] = (byte) ((dark ? 40 : 200) + random.nextInt(30) - 15);
+            }
+        }
+        return data;
+    }
+
+    private static void addModules(List<Boolean> modules, boolean dark, int... widths) {
+        for (int width : widths) {
+            for (int i = 0; i < width; i++) {
+                modules.add(dark);
+            }
+            dark = !dark;
+        }
+    }
+
+    private static byte[] renderNoise(Random random) {
+        byte[] data = new byte[WIDTH * HEIGHT * 3 / 2];
+        random.nextBytes(data);
+        return data;
+    }
+
+    @Benchmark
+    public List<DecodedBarcode> decode() {
+        byte[] data = mFrames.get(mNext);
+        mNext = (mNext + 1) % mFrames.size();
+        return mDecoder.decode(data, mWidth, mHeight);
+    }
+}
@@ -0,0 +1,62 @@
+package com.ekreutz.barcodescanner.benchmarks;
+
+import com.ekreutz.barcodescanner.util.BarcodeFormat;
+import com.ekreutz.barcodescanner.util.DetectorCache;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of switching between a few sets of barcode types once their detectors are cached.  The
+ * factory hands out plain objects, so this measures the cache itself and not detector creation.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class DetectorCacheBenchmark {
+    private static final int[] MASKS = {
+        BarcodeFormat.EAN_13 | BarcodeFormat.EAN_8 | BarcodeFormat.UPC_A | BarcodeFormat.UPC_E,
+        BarcodeFormat.QR_CODE,
+        BarcodeFormat.CODE_128 | BarcodeFormat.ITF,
+        BarcodeFormat.DATA_MATRIX
+    };
+
+    private final DetectorCache<Object> mCache =
+            new DetectorCache<>(DetectorCache.DEFAULT_CAPACITY, new DetectorCache.Factory<Object>() {
+                @Override
+                public Object create(int mask) {
+                    return new Object();
+                }
+
+                @Override
+                public void warmUp(Object detector) {
+                }
+
+                @Override
+                public void release(Object detector) {
+                }
+            });
+
+    private Object mDetector = mCache.acquire(MASKS[0]);
+    private int mIndex = 0;
+
+    @Benchmark
+    public Object switchTypes() {
+        mIndex = (mIndex + 1) & (MASKS.length - 1);
+        Object detector = mCache.acquire(MASKS[mIndex]);
+        mCache.release(mDetector);
+        return mDetector = detector;
+    }
+}
@@ -0,0 +1,56 @@
+package com.ekreutz.barcodescanner.benchmarks;
+
+import com.ekreutz.barcodescanner.util.EventBatcher;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of batching the barcodes found in one frame into a single event: a shelf full of labels,
+ * where every label is seen again in every frame.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class EventBatcherBenchmark {
+    @Param({"1", "20"})
+    public int barcodesPerFrame;
+
+    private final EventBatcher<String> mBatcher =
+            new EventBatcher<>(0, 0, EventBatcher.DEFAULT_MAX_BATCH_SIZE);
+    private String[] mKeys;
+    private long mNowMillis = 0;
+
+    @Setup
+    public void setUp() {
+        mKeys = new String[barcodesPerFrame];
+        for (int i = 0; i < barcodesPerFrame; i++) {
+            mKeys[i] = "EAN_13:40000000" + (10000 + i);
+        }
+    }
+
+    @Benchmark
+    public List<String> frame() {
+        long nowMillis = mNowMillis += 33;
+        for (String key : mKeys) {
+            mBatcher.add(key, key, nowMillis);
+        }
+        mBatcher.endFrame(nowMillis);
+        return mBatcher.flush(nowMillis);
+    }
+}
@@ -0,0 +1,94 @@
+package com.ekreutz.barcodescanner.benchmarks;
+
+import com.ekreutz.barcodescanner.camera.FormatCascade;
+import com.ekreutz.barcodescanner.util.BarcodeFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates scanning a mix of 1D and 2D codes with and without the format cascade, with stand-in
+ * detectors that burn CPU in proportion to the number of formats they look for.
+ * <p/>
+ * Frames come in scans of {@link #SCAN_FRAMES}: a few frames of nothing while the camera is being
+ * pointed, then the code.  {@code matrixShare} of the scans are of a 2D code, the rest of a 1D
+ * code.  The time per frame is the mean detection cost; the cascade stats printed at the end show
+ * how many full passes it took.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatCascadeBenchmark {
+    private static final int SCAN_FRAMES = 20;
+    private static final int POINTING_FRAMES = 5;
+
+    // Simulated detection cost per format looked for
+    private static final long TOKENS_PER_FORMAT = 2000;
+
+    @Param({"false", "true"})
+    public boolean cascade;
+
+    @Param({"0.1"})
+    public float matrixShare;
+
+    private final Random mRandom = new Random(42);
+    private FormatCascade mCascade;
+    private int mFrame = 0;
+    private boolean mMatrixScan = false;
+
+    @Setup
+    public void setUp() {
+        mCascade = cascade ? new FormatCascade(BarcodeFormat.ALL_FORMATS) : null;
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (mCascade != null) {
+            System.out.printf("%nFormat cascade: %s%n", mCascade);
+        }
+    }
+
+    @Benchmark
+    public int frame() {
+        if (mFrame++ % SCAN_FRAMES == 0) {
+            mMatrixScan = mRandom.nextFloat() < matrixShare;
+        }
+        boolean inView = mFrame % SCAN_FRAMES >= POINTING_FRAMES;
+        int linearCodes = inView && !mMatrixScan ? 1 : 0;
+        int allCodes = inView ? 1 : 0;
+
+        if (mCascade == null) {
+            return detect(BarcodeFormat.ALL_FORMATS, allCodes);
+        }
+
+        int linear = detect(mCascade.getLinearFormats(), linearCodes);
+        if (!mCascade.needsFullPass(linear)) {
+            return linear;
+        }
+        int full = detect(BarcodeFormat.ALL_FORMATS, allCodes);
+        mCascade.recordFullPass(linear, full);
+        return full;
+    }
+
+    private static int detect(int formats, int codes) {
+        Blackhole.consumeCPU(TOKENS_PER_FORMAT * BarcodeFormat.count(formats));
+        return codes;
+    }
+}
@@ -0,0 +1,95 @@
+package com.ekreutz.barcodescanner.benchmarks;
+
+import com.ekreutz.barcodescanner.camera.FormatScheduler;
+import com.ekreutz.barcodescanner.util.BarcodeFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Simulates scanning with all formats enabled while mostly seeing EAN-13 codes, with and without
+ * format scheduling, with a stand-in detector that burns CPU in proportion to the number of formats
+ * it looks for.
+ * <p/>
+ * Frames come in scans of {@link #SCAN_FRAMES}: a few frames of nothing while the camera is being
+ * pointed, then the code, which is a QR code in {@code otherShare} of the scans.  The time per
+ * frame is the mean detection cost; the scheduler stats printed at the end include the number of
+ * formats looked for per frame, and the mean number of frames it took to first read a code.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class FormatSchedulerBenchmark {
+    private static final int SCAN_FRAMES = 20;
+    private static final int POINTING_FRAMES = 5;
+
+    // Simulated detection cost per format looked for
+    private static final long TOKENS_PER_FORMAT = 2000;
+
+    @Param({"0", "2", "4"})
+    public int sliceSize;
+
+    @Param({"0.1"})
+    public float otherShare;
+
+    private final Random mRandom = new Random(42);
+    private FormatScheduler mScheduler;
+    private int mFrame = 0;
+    private int mFormat;
+    private boolean mRead;
+
+    private long mScans = 0;
+    private long mFramesToRead = 0;
+
+    @Setup
+    public void setUp() {
+        mScheduler = FormatScheduler.appliesTo(BarcodeFormat.ALL_FORMATS, sliceSize)
+                ? new FormatScheduler(BarcodeFormat.ALL_FORMATS, sliceSize) : null;
+    }
+
+    @TearDown
+    public void tearDown() {
+        System.out.printf("%nFrames to first read: %.2f, scheduler: %s%n",
+                mScans > 0 ? (float) mFramesToRead / mScans : 0, mScheduler);
+    }
+
+    @Benchmark
+    public int frame() {
+        int frameOfScan = mFrame++ % SCAN_FRAMES;
+        if (frameOfScan == 0) {
+            mFormat = mRandom.nextFloat() < otherShare ? BarcodeFormat.QR_CODE : BarcodeFormat.EAN_13;
+            mRead = false;
+        }
+
+        int mask = mScheduler != null ? mScheduler.nextMask() : BarcodeFormat.ALL_FORMATS;
+        Blackhole.consumeCPU(TOKENS_PER_FORMAT * BarcodeFormat.count(mask));
+
+        boolean found = frameOfScan >= POINTING_FRAMES && BarcodeFormat.contains(mask, mFormat);
+        if (found && !mRead) {
+            mRead = true;
+            mScans++;
+            mFramesToRead += frameOfScan - POINTING_FRAMES + 1;
+        }
+        if (mScheduler != null) {
+            mScheduler.recordFound(found ? mFormat : 0);
+        }
+        return found ? 1 : 0;
+    }
+}
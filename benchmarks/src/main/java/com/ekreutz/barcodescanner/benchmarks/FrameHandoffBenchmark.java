@@ -0,0 +1,163 @@
+package com.ekreutz.barcodescanner.benchmarks;
+
+import com.ekreutz.barcodescanner.camera.FrameHandoff;
+import com.ekreutz.barcodescanner.camera.FramePool;
+import com.ekreutz.barcodescanner.camera.LockFreeFrameHandoff;
+import com.ekreutz.barcodescanner.camera.MonitorFrameHandoff;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the frame handoffs between the camera callback thread and the frame processing thread,
+ * with a processing thread taking frames in the background like the detector does.
+ * <ul>
+ * <li>monitor: {@link MonitorFrameHandoff}</li>
+ * <li>park, spin: {@link LockFreeFrameHandoff} with either wait strategy</li>
+ * </ul>
+ * {@link #cameraFrame()} measures everything the camera callback thread does per frame: taking the
+ * buffer's slot from the {@link FramePool}, the handoff, and recycling a replaced frame, while the
+ * processing thread hands the buffers it took back to the pool and the camera.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FrameHandoffBenchmark {
+    private static final int DEPTH = 4;
+
+    // Simulated detection time per frame
+    private static final long DETECTION_TOKENS = 1000;
+
+    @Param({"monitor", "park", "spin"})
+    public String handoff;
+
+    private FrameHandoff mHandoff;
+    private FramePool mFramePool;
+    // The buffers the camera has to fill
+    private final Queue<byte[]> mCameraQueue = new ConcurrentLinkedQueue<>();
+    private Thread mProcessingThread;
+    private int mFrameId = 0;
+
+    // The id of the last frame the processing thread took.
+    private volatile int mTakenFrameId = 0;
+    private volatile boolean mDetecting = true;
+
+    @Setup
+    public void setUp() {
+        if ("monitor".equals(handoff)) {
+            mHandoff = new MonitorFrameHandoff();
+        } else if ("park".equals(handoff)) {
+            mHandoff = new LockFreeFrameHandoff(LockFreeFrameHandoff.WAIT_PARK);
+        } else {
+            mHandoff = new LockFreeFrameHandoff(LockFreeFrameHandoff.WAIT_SPIN_THEN_PARK);
+        }
+
+        mFramePool = new FramePool(DEPTH, 64);
+        for (int slot = 0; slot < DEPTH; slot++) {
+            mCameraQueue.add(mFramePool.offer(slot));
+        }
+
+        mProcessingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                FrameHandoff.PendingFrame frame = new FrameHandoff.PendingFrame();
+                try {
+                    while (mHandoff.take(frame)) {
+                        mTakenFrameId = frame.getFrameId();
+                        if (mDetecting) {
+                            Blackhole.consumeCPU(DETECTION_TOKENS);
+                        }
+                        returnToCamera(frame.getSlot());
+                    }
+                } catch (InterruptedException e) {
+                    // Done
+                }
+            }
+        }, "FrameProcessor");
+        mProcessingThread.start();
+    }
+
+    @TearDown
+    public void tearDown() throws InterruptedException {
+        mHandoff.setActive(false);
+        mProcessingThread.join();
+    }
+
+    /**
+     * Time the camera callback thread spends handing over a frame, while the processing thread
+     * keeps taking them.
+     */
+    @Benchmark
+    public int put() {
+        mDetecting = true;
+        int frameId = ++mFrameId;
+        return mHandoff.put(frameId % DEPTH, frameId, frameId, frameId);
+    }
+
+    /**
+     * Time the camera callback thread spends on a frame, from the pool to the handoff, while the
+     * processing thread keeps taking frames and handing their buffers back.
+     */
+    @Benchmark
+    public int cameraFrame() {
+        mDetecting = true;
+        byte[] data = mCameraQueue.poll();
+        if (data == null) {
+            // the camera has no buffer to fill, and skips the frame
+            return FramePool.NO_SLOT;
+        }
+
+        int slot = mFramePool.acquire(data);
+        int frameId = ++mFrameId;
+        int replacedSlot = mHandoff.put(slot, frameId, frameId, frameId);
+        if (replacedSlot != FramePool.NO_SLOT) {
+            mFramePool.drop(replacedSlot);
+            returnToCamera(replacedSlot);
+        }
+        return slot;
+    }
+
+    /**
+     * Hands a buffer back to the camera, unless it already has it.  Frames of the other benchmarks
+     * don't come from the pool, and are never handed back.
+     */
+    private void returnToCamera(int slot) {
+        byte[] buffer = mFramePool.offer(slot);
+        if (buffer != null) {
+            mCameraQueue.add(buffer);
+        }
+    }
+
+    /**
+     * Time from handing over a frame until the idle processing thread has it, i.e. the wake-up
+     * latency.
+     */
+    @Benchmark
+    public int putAndWaitForTake() {
+        mDetecting = false;
+        int frameId = ++mFrameId;
+        int replacedSlot = mHandoff.put(frameId % DEPTH, frameId, frameId, frameId);
+        while (mTakenFrameId != frameId) {
+            // Busy wait, so that only the processing thread's wake-up is measured.
+        }
+        return replacedSlot;
+    }
+}
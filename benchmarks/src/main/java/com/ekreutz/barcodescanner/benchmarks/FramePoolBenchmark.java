@@ -0,0 +1,67 @@
+package com.ekreutz.barcodescanner.benchmarks;
+
+import com.ekreutz.barcodescanner.camera.FramePool;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayDeque;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of passing one preview buffer through the frame pool, the way the camera does: the camera
+ * fills its buffers in the order they were given to it, and each one is handed back once
+ * detection is done with it.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FramePoolBenchmark {
+    @Param({"4", "12"})
+    public int depth;
+
+    // 1280x720 NV21
+    private static final int BUFFER_SIZE = 1280 * 720 * 3 / 2;
+
+    private FramePool mFramePool;
+    private final ArrayDeque<byte[]> mCameraQueue = new ArrayDeque<>();
+
+    @Setup
+    public void setUp() {
+        mFramePool = new FramePool(depth, BUFFER_SIZE);
+        for (int slot = 0; slot < depth; slot++) {
+            mCameraQueue.add(mFramePool.offer(slot));
+        }
+    }
+
+    @Benchmark
+    public int acquireAndOffer() {
+        int slot = mFramePool.acquire(mCameraQueue.poll());
+        mCameraQueue.add(mFramePool.offer(slot));
+        return slot;
+    }
+
+    /**
+     * Same as above, but with the camera delivering buffers out of order, which makes the pool
+     * search for the buffer.
+     */
+    @Benchmark
+    public int acquireOutOfOrder() {
+        byte[] data = mCameraQueue.pollLast();
+        int slot = mFramePool.acquire(data);
+        mCameraQueue.addFirst(mFramePool.offer(slot));
+        return slot;
+    }
+}
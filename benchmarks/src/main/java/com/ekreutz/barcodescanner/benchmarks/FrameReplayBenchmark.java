@@ -0,0 +1,189 @@
+package com.ekreutz.barcodescanner.benchmarks;
+
+import com.ekreutz.barcodescanner.camera.FormatScheduler;
+import com.ekreutz.barcodescanner.camera.FramePipeline;
+import com.ekreutz.barcodescanner.camera.FrameRecorder;
+import com.ekreutz.barcodescanner.camera.FrameRecording;
+import com.ekreutz.barcodescanner.camera.FrameReplay;
+import com.ekreutz.barcodescanner.camera.ResolutionCascade;
+import com.ekreutz.barcodescanner.util.BarcodeFormat;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Replays a frame recording through the frame pipeline, with a stand-in detector that reads the
+ * luma plane of every frame and then burns CPU in proportion to its size and the number of formats
+ * it looks for.  It "finds" an EAN-13 code in frames whose sampled luma sum is a multiple of four.
+ * <p/>
+ * Pass a capture file recorded on a device with {@code startFrameRecording()} to benchmark on real
+ * footage, e.g. {@code -p recording=/tmp/label.bsfr}; without one, a short synthetic recording is
+ * made.  {@code -p speed=recorded} replays at the speed the frames were recorded at,
+ * {@code -p downscale=2} turns the resolution cascade on, and {@code -p sliceSize=2} schedules
+ * formats like the {@code formatSliceSize} prop.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class FrameReplayBenchmark {
+    private static final int WIDTH = 1280;
+    private static final int HEIGHT = 720;
+    private static final int FRAMES = 90;
+
+    // Simulated detection time per frame, for all formats at full size
+    private static final long DETECTION_TOKENS = 100000;
+
+    @Param({""})
+    public String recording;
+
+    @Param({"max"})
+    public String speed;
+
+    @Param({"false", "true"})
+    public boolean compressed;
+
+    @Param({"1", "2"})
+    public int workers;
+
+    @Param({"1"})
+    public int downscale;
+
+    @Param({"0"})
+    public int sliceSize;
+
+    private File mFile;
+    private boolean mSynthetic;
+    private FrameRecording mRecording;
+    private FormatScheduler mScheduler;
+    private FrameReplay<Integer> mReplay;
+    private FrameReplay.Result mResult;
+
+    @Setup
+    public void setUp() throws IOException {
+        if (recording.isEmpty()) {
+            mFile = File.createTempFile("replay", ".bsfr");
+            mSynthetic = true;
+            record(mFile, compressed);
+        } else {
+            mFile = new File(recording);
+        }
+
+        mRecording = new FrameRecording(mFile);
+        mScheduler = FormatScheduler.appliesTo(BarcodeFormat.ALL_FORMATS, sliceSize)
+                ? new FormatScheduler(BarcodeFormat.ALL_FORMATS, sliceSize) : null;
+        mReplay = new FrameReplay<>(mRecording, new StandInDetector())
+                .setSpeed("recorded".equals(speed) ? FrameReplay.SPEED_RECORDED : FrameReplay.SPEED_MAX)
+                .setDetectionWorkers(workers, new FramePipeline.DetectorFactory<Integer>() {
+                    @Override
+                    public FramePipeline.Detector<Integer> createDetector() {
+                        return new StandInDetector();
+                    }
+                })
+                .setResolutionCascade(downscale > 1 ? new ResolutionCascade(downscale) : null);
+    }
+
+    /**
+     * Stands in for a barcode detector, with the formats of every frame picked by the format
+     * scheduler if there is one.  Its results are the formats found.
+     */
+    private class StandInDetector implements FramePipeline.Detector<Integer> {
+        @Override
+        public Integer detect(ByteBuffer data, int width, int height, int frameId, long timeMillis, int rotation) {
+            int mask = mScheduler != null ? mScheduler.nextMask() : BarcodeFormat.ALL_FORMATS;
+
+            byte[] luma = data.array();
+            int sum = 0;
+            for (int i = 0; i < width * height; i += 16) {
+                sum += luma[i];
+            }
+            long pixelShare = (long) width * height * 1000 / (WIDTH * HEIGHT);
+            Blackhole.consumeCPU(DETECTION_TOKENS * pixelShare / 1000
+                    * BarcodeFormat.count(mask) / BarcodeFormat.count(BarcodeFormat.ALL_FORMATS));
+
+            int found = (sum & 3) == 0 && BarcodeFormat.contains(mask, BarcodeFormat.EAN_13) ? BarcodeFormat.EAN_13 : 0;
+            if (mScheduler != null) {
+                mScheduler.recordFound(found);
+            }
+            return found;
+        }
+
+        @Override
+        public int getCount(Integer result) {
+            return Integer.bitCount(result);
+        }
+
+        @Override
+        public int getFormats(Integer result) {
+            return result;
+        }
+
+        @Override
+        public Integer toFullResolution(Integer result, int downscale, ByteBuffer data, int width, int height,
+                                        int frameId, long timeMillis, int rotation) {
+            return result;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    /**
+     * Records frames of moving noise over a flat background at 30 fps, which compresses about as
+     * well as camera footage of a label.
+     */
+    private static void record(File file, boolean compressed) throws IOException {
+        byte[] frame = new byte[WIDTH * HEIGHT * 3 / 2];
+        Random random = new Random(42);
+        FrameRecorder recorder = new FrameRecorder(file, compressed, FrameRecorder.NO_LIMIT);
+        try {
+            for (int i = 0; i < FRAMES; i++) {
+                for (int y = 0; y < HEIGHT / 4; y++) {
+                    int row = ((y + i * 8) % HEIGHT) * WIDTH;
+                    for (int x = 0; x < WIDTH; x++) {
+                        frame[row + x] = (byte) random.nextInt(256);
+                    }
+                }
+                recorder.record(frame, frame.length, WIDTH, HEIGHT, 17 /* NV21 */, 0, i * 33333333L);
+            }
+        } finally {
+            recorder.close();
+        }
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        System.out.printf("%n%s%nscheduler: %s%n", mResult, mScheduler);
+        mReplay.release();
+        mRecording.close();
+        if (mSynthetic) {
+            mFile.delete();
+        }
+    }
+
+    @Benchmark
+    public int replay() throws IOException, InterruptedException {
+        mResult = mReplay.run();
+        return mResult.getReceived();
+    }
+}
@@ -0,0 +1,81 @@
+package com.ekreutz.barcodescanner.benchmarks;
+
+import com.ekreutz.barcodescanner.camera.FrameCropper;
+import com.ekreutz.barcodescanner.camera.FrameGate;
+import com.ekreutz.barcodescanner.camera.LumaDownscaler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Per frame cost of the NV21 work done before detection: cropping to the scan area, downscaling
+ * for the resolution cascade and scoring by the frame gate.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5)
+@Measurement(iterations = 5)
+@Fork(1)
+public class Nv21Benchmark {
+    @Param({"1280x720", "1920x1080"})
+    public String previewSize;
+
+    private int mWidth;
+    private int mHeight;
+    private byte[] mFrame;
+    private int[] mCrop;
+    private byte[] mCropped;
+
+    private final LumaDownscaler mDownscaler = new LumaDownscaler();
+    private final FrameGate mFrameGate = new FrameGate(1, 1);
+
+    @Setup
+    public void setUp() {
+        String[] size = previewSize.split("x");
+        mWidth = Integer.parseInt(size[0]);
+        mHeight = Integer.parseInt(size[1]);
+
+        // Noise is a worst case for none of these, but keeps the JIT from seeing constant data.
+        mFrame = new byte[FrameCropper.getBufferSize(mWidth, mHeight)];
+        new Random(42).nextBytes(mFrame);
+
+        // A typical scan area: a wide band across the middle of the frame.
+        mCrop = FrameCropper.alignCrop(0.1f, 0.35f, 0.9f, 0.65f, mWidth, mHeight);
+        mCropped = new byte[FrameCropper.getBufferSize(mCrop[2], mCrop[3])];
+    }
+
+    @Benchmark
+    public byte[] crop() {
+        FrameCropper.cropNv21(mFrame, mWidth, mHeight, mCrop[0], mCrop[1], mCrop[2], mCrop[3], mCropped);
+        return mCropped;
+    }
+
+    @Benchmark
+    public ByteBuffer downscale2() {
+        return mDownscaler.downscale(mFrame, mWidth, mHeight, 2);
+    }
+
+    @Benchmark
+    public ByteBuffer downscale4() {
+        return mDownscaler.downscale(mFrame, mWidth, mHeight, 4);
+    }
+
+    @Benchmark
+    public int gate() {
+        return mFrameGate.evaluate(mFrame, mWidth, 0, 0, mWidth, mHeight);
+    }
+}
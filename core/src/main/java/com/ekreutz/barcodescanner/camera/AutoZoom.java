@@ -0,0 +1,187 @@
+package com.ekreutz.barcodescanner.camera;
+
+/**
+ * Zooms the camera in on codes that are too small in the frame to read reliably, e.g. labels on a
+ * shelf across the aisle.
+ * <p/>
+ * After every frame the controller is told the size of the largest code found, as a share of the
+ * frame.  When that is below the target size, the zoom steps up towards the ratio that would
+ * bring the code to the target size; when a code takes up much more than the target, it steps
+ * back down.  Every step changes the zoom by at most {@link #MAX_STEP} times, and the next step
+ * only comes after {@link #SETTLE_FRAMES} frames, so that the camera has applied the last one and
+ * the zoom moves smoothly instead of overshooting.
+ * <p/>
+ * A small code that is read in some frames but missed in others (a partial detection) is the
+ * typical sign of a code at the edge of what can be read, so the zoom keeps stepping up on its
+ * last known size for {@link #PARTIAL_FRAMES} frames after it was last read.  Once no code has
+ * been read for {@link #RESET_FRAMES} frames, the scene is taken to have changed, and the zoom
+ * goes back to 1 so that the next code can be found anywhere in the full field of view.
+ * <p/>
+ * All methods are thread safe.
+ */
+public class AutoZoom {
+    public static final float DEFAULT_TARGET_SIZE = 0.3f;
+    public static final float DEFAULT_MAX_ZOOM = 3f;
+
+    public static final float MAX_STEP = 1.25f;
+    public static final int SETTLE_FRAMES = 4;
+    public static final int PARTIAL_FRAMES = 10;
+    public static final int RESET_FRAMES = 30;
+
+    // Codes between the target size and this many times it are left alone.
+    private static final float MAX_OVERSIZE = 1.8f;
+
+    // Steps smaller than this aren't worth a camera parameter change.
+    private static final float MIN_STEP = 1.02f;
+
+    private final float mTargetSize;
+    private final float mMaxZoom;
+
+    private float mZoom = 1;
+    private float mLastCodeSize = 0;
+    private int mFramesSinceCode = Integer.MAX_VALUE;
+    private int mFramesSinceStep = SETTLE_FRAMES;
+
+    private long mStepsIn = 0;
+    private long mStepsOut = 0;
+    private long mResets = 0;
+
+    /**
+     * @param targetSize the size to bring codes to, as a share of the frame, between 0 and 1
+     * @param maxZoom    the highest zoom ratio to step up to, at least 1
+     */
+    public AutoZoom(float targetSize, float maxZoom) {
+        if (!(targetSize > 0 && targetSize < 1)) {
+            throw new IllegalArgumentException("Invalid target code size: " + targetSize);
+        }
+        if (!(maxZoom >= 1)) {
+            throw new IllegalArgumentException("Invalid max zoom: " + maxZoom);
+        }
+        mTargetSize = targetSize;
+        mMaxZoom = maxZoom;
+    }
+
+    public float getTargetSize() {
+        return mTargetSize;
+    }
+
+    public float getMaxZoom() {
+        return mMaxZoom;
+    }
+
+    /**
+     * Returns the zoom ratio that the camera should be at, 1 for no zoom.
+     */
+    public synchronized float getZoom() {
+        return mZoom;
+    }
+
+    /**
+     * Returns the size of a code in a frame, as a share of the frame: the larger of its share of
+     * the frame's width and of its height.
+     */
+    public static float getCodeSize(int codeWidth, int codeHeight, int frameWidth, int frameHeight) {
+        if (frameWidth <= 0 || frameHeight <= 0) {
+            return 0;
+        }
+        return Math.max((float) codeWidth / frameWidth, (float) codeHeight / frameHeight);
+    }
+
+    /**
+     * Called after every frame.
+     *
+     * @param codeSize the size of the largest code found in the frame (see
+     *                 {@link #getCodeSize(int, int, int, int)}), or 0 if none was found
+     * @return true if the zoom changed, see {@link #getZoom()}
+     */
+    public synchronized boolean onFrame(float codeSize) {
+        if (mFramesSinceStep < Integer.MAX_VALUE) {
+            mFramesSinceStep++;
+        }
+
+        if (codeSize > 0) {
+            mLastCodeSize = codeSize;
+            mFramesSinceCode = 0;
+        } else if (mFramesSinceCode < Integer.MAX_VALUE) {
+            mFramesSinceCode++;
+        }
+
+        if (mFramesSinceCode >= RESET_FRAMES) {
+            if (mZoom > 1 && mFramesSinceCode < Integer.MAX_VALUE) {
+                mResets++;
+                mFramesSinceCode = Integer.MAX_VALUE;
+                return setZoom(1);
+            }
+            return false;
+        }
+
+        if (mFramesSinceStep < SETTLE_FRAMES) {
+            return false;
+        }
+
+        // A code that was just read, or one that flickers in and out while it's small
+        float size;
+        if (mFramesSinceCode == 0) {
+            size = mLastCodeSize;
+        } else if (mFramesSinceCode <= PARTIAL_FRAMES && mLastCodeSize < mTargetSize) {
+            size = mLastCodeSize;
+        } else {
+            return false;
+        }
+
+        // The size the code would have at zoom 1, so the ratio that brings it to the target
+        float wanted = mZoom * mTargetSize / size;
+        float zoom;
+        if (size < mTargetSize) {
+            zoom = Math.min(Math.min(wanted, mZoom * MAX_STEP), mMaxZoom);
+        } else if (size > mTargetSize * MAX_OVERSIZE) {
+            zoom = Math.max(Math.max(wanted, mZoom / MAX_STEP), 1);
+        } else {
+            return false;
+        }
+
+        if (zoom > mZoom * MIN_STEP) {
+            mStepsIn++;
+        } else if (zoom < mZoom / MIN_STEP) {
+            mStepsOut++;
+        } else {
+            return false;
+        }
+
+        // The last size is stale once the zoom changes; scale it along until the next read.
+        mLastCodeSize *= zoom / mZoom;
+        return setZoom(zoom);
+    }
+
+    private boolean setZoom(float zoom) {
+        mZoom = zoom;
+        mFramesSinceStep = 0;
+        return true;
+    }
+
+    /**
+     * Tells the controller which ratio the camera actually zoomed to, as cameras only have a fixed
+     * set of zoom ratios.
+     */
+    public synchronized void onZoomApplied(float zoom) {
+        if (zoom > 0) {
+            mZoom = zoom;
+        }
+    }
+
+    /**
+     * Starts over at zoom 1, e.g. when the camera is restarted.
+     */
+    public synchronized void reset() {
+        mZoom = 1;
+        mLastCodeSize = 0;
+        mFramesSinceCode = Integer.MAX_VALUE;
+        mFramesSinceStep = SETTLE_FRAMES;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("zoom=%.2f max=%.2f stepsIn=%d stepsOut=%d resets=%d",
+                mZoom, mMaxZoom, mStepsIn, mStepsOut, mResets);
+    }
+}
@@ -0,0 +1,282 @@
+package com.ekreutz.barcodescanner.camera;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers which camera settings were selected for a camera configuration, so that later starts
+ * can apply them right away instead of querying and comparing everything the camera supports.
+ * <p/>
+ * Selections are keyed on the requested configuration (see {@link #key}) and stored in a small
+ * binary file.  The file is tagged with the build fingerprint of the device: after an OS update the
+ * camera may support different settings, so a file with another fingerprint is ignored and
+ * overwritten.  A selection that the camera turns out to reject should be dropped with
+ * {@link #remove(String)}.
+ * <p/>
+ * The file is read on first use, not on construction, so the cache can be created on any thread.
+ * All methods are thread safe.
+ */
+public class CapabilityCache {
+    private static final int MAGIC = 0x42534343; // "BSCC"
+    private static final int VERSION = 1;
+
+    /**
+     * Camera settings selected for one configuration.  Frame rates are scaled by 1000, like in the
+     * camera API.  A picture size of 0 x 0 means no picture size is set.
+     */
+    public static final class Capabilities {
+        private final int mCameraId;
+        private final int mPreviewWidth;
+        private final int mPreviewHeight;
+        private final int mPictureWidth;
+        private final int mPictureHeight;
+        private final int mMinFps;
+        private final int mMaxFps;
+        private final int mSupportedMinFps;
+        private final int mSupportedMaxFps;
+        private final String mFocusMode;
+
+        public Capabilities(int cameraId, int previewWidth, int previewHeight,
+                            int pictureWidth, int pictureHeight, int minFps, int maxFps,
+                            int supportedMinFps, int supportedMaxFps, String focusMode) {
+            mCameraId = cameraId;
+            mPreviewWidth = previewWidth;
+            mPreviewHeight = previewHeight;
+            mPictureWidth = pictureWidth;
+            mPictureHeight = pictureHeight;
+            mMinFps = minFps;
+            mMaxFps = maxFps;
+            mSupportedMinFps = supportedMinFps;
+            mSupportedMaxFps = supportedMaxFps;
+            mFocusMode = focusMode != null ? focusMode : "";
+        }
+
+        public int getCameraId() {
+            return mCameraId;
+        }
+
+        public int getPreviewWidth() {
+            return mPreviewWidth;
+        }
+
+        public int getPreviewHeight() {
+            return mPreviewHeight;
+        }
+
+        public int getPictureWidth() {
+            return mPictureWidth;
+        }
+
+        public int getPictureHeight() {
+            return mPictureHeight;
+        }
+
+        public int getMinFps() {
+            return mMinFps;
+        }
+
+        public int getMaxFps() {
+            return mMaxFps;
+        }
+
+        public int getSupportedMinFps() {
+            return mSupportedMinFps;
+        }
+
+        public int getSupportedMaxFps() {
+            return mSupportedMaxFps;
+        }
+
+        /**
+         * Returns the selected focus mode, or an empty string when no focus mode is set.
+         */
+        public String getFocusMode() {
+            return mFocusMode;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("camera %d, preview %dx%d, picture %dx%d, fps %d-%d, focus %s",
+                    mCameraId, mPreviewWidth, mPreviewHeight, mPictureWidth, mPictureHeight,
+                    mMinFps, mMaxFps, mFocusMode);
+        }
+    }
+
+    private final File mFile;
+    private final String mFingerprint;
+
+    private final Map<String, Capabilities> mEntries = new LinkedHashMap<>();
+    private boolean mLoaded = false;
+
+    private long mHits = 0;
+    private long mMisses = 0;
+
+    /**
+     * @param file        where the selections are stored
+     * @param fingerprint identifies the device build, e.g. {@code Build.FINGERPRINT}
+     */
+    public CapabilityCache(File file, String fingerprint) {
+        if (file == null) {
+            throw new IllegalArgumentException("No capability cache file supplied.");
+        }
+        mFile = file;
+        mFingerprint = fingerprint != null ? fingerprint : "";
+    }
+
+    /**
+     * Returns the key for a requested camera configuration.
+     *
+     * @param facing     the requested camera facing
+     * @param width      the requested preview width
+     * @param height     the requested preview height
+     * @param fps        the requested frame rate
+     * @param focusModes the preferred focus modes in order, or null
+     */
+    public static String key(int facing, int width, int height, float fps, String[] focusModes) {
+        StringBuilder key = new StringBuilder()
+                .append(facing).append(':')
+                .append(width).append('x').append(height).append('@')
+                .append(Math.round(fps * 1000));
+        if (focusModes != null) {
+            for (String focusMode : focusModes) {
+                key.append(':').append(focusMode);
+            }
+        }
+        return key.toString();
+    }
+
+    /**
+     * Returns the settings selected for the given configuration before, or null.
+     */
+    public synchronized Capabilities get(String key) {
+        load();
+
+        Capabilities capabilities = mEntries.get(key);
+        if (capabilities != null) {
+            mHits++;
+        } else {
+            mMisses++;
+        }
+        return capabilities;
+    }
+
+    /**
+     * Stores the settings selected for the given configuration, and writes the file.
+     */
+    public synchronized void put(String key, Capabilities capabilities) throws IOException {
+        load();
+        mEntries.put(key, capabilities);
+        save();
+    }
+
+    /**
+     * Drops the settings stored for the given configuration, and writes the file.
+     */
+    public synchronized void remove(String key) throws IOException {
+        load();
+        if (mEntries.remove(key) != null) {
+            save();
+        }
+    }
+
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    private void load() {
+        if (mLoaded) {
+            return;
+        }
+        mLoaded = true;
+
+        if (!mFile.exists()) {
+            return;
+        }
+
+        DataInputStream in = null;
+        try {
+            in = new DataInputStream(new BufferedInputStream(new FileInputStream(mFile)));
+            if (in.readInt() != MAGIC || in.readInt() != VERSION || !mFingerprint.equals(in.readUTF())) {
+                // written by another version, or before an OS update
+                return;
+            }
+
+            int count = in.readInt();
+            for (int i = 0; i < count; i++) {
+                String key = in.readUTF();
+                mEntries.put(key, new Capabilities(in.readInt(), in.readInt(), in.readInt(),
+                        in.readInt(), in.readInt(), in.readInt(), in.readInt(),
+                        in.readInt(), in.readInt(), in.readUTF()));
+            }
+        } catch (IOException e) {
+            // a damaged file is as good as no file
+            mEntries.clear();
+        } finally {
+            closeQuietly(in);
+        }
+    }
+
+    private void save() throws IOException {
+        // write to a temporary file first, so that a crash can't leave a half written file
+        File tmp = new File(mFile.getPath() + ".tmp");
+        DataOutputStream out = null;
+        try {
+            out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tmp)));
+            out.writeInt(MAGIC);
+            out.writeInt(VERSION);
+            out.writeUTF(mFingerprint);
+            out.writeInt(mEntries.size());
+            for (Map.Entry<String, Capabilities> entry : mEntries.entrySet()) {
+                Capabilities capabilities = entry.getValue();
+                out.writeUTF(entry.getKey());
+                out.writeInt(capabilities.getCameraId());
+                out.writeInt(capabilities.getPreviewWidth());
+                out.writeInt(capabilities.getPreviewHeight());
+                out.writeInt(capabilities.getPictureWidth());
+                out.writeInt(capabilities.getPictureHeight());
+                out.writeInt(capabilities.getMinFps());
+                out.writeInt(capabilities.getMaxFps());
+                out.writeInt(capabilities.getSupportedMinFps());
+                out.writeInt(capabilities.getSupportedMaxFps());
+                out.writeUTF(capabilities.getFocusMode());
+            }
+            out.close();
+            out = null;
+        } finally {
+            closeQuietly(out);
+        }
+
+        if (!tmp.renameTo(mFile)) {
+            tmp.delete();
+            throw new IOException("Could not write " + mFile);
+        }
+    }
+
+    private static void closeQuietly(Closeable closeable) {
+        if (closeable != null) {
+            try {
+                closeable.close();
+            } catch (IOException e) {
+                // nothing left to do
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("hits=%d misses=%d size=%d", mHits, mMisses, mEntries.size());
+    }
+}
@@ -0,0 +1,72 @@
+package com.ekreutz.barcodescanner.camera;
+
+/**
+ * Maps areas of the camera frames to the coordinates that camera drivers take focus and metering
+ * areas in: -1000 to 1000 on both axes, from the top left to the bottom right corner of the
+ * sensor, in the orientation of the camera frames.
+ */
+public class FocusArea {
+    public static final int DRIVER_MIN = -1000;
+    public static final int DRIVER_MAX = 1000;
+
+    /**
+     * Weight of the area, for drivers that take several.  Only one area is ever set.
+     */
+    public static final int WEIGHT = 1000;
+
+    /**
+     * Size of the area around a tap point, as a share of the frame's width and height.
+     */
+    public static final float DEFAULT_TAP_SIZE = 0.15f;
+
+    // Drivers reject empty areas, and very small ones don't hold enough detail to focus on.
+    private static final int MIN_DRIVER_SIZE = 100;
+
+    private FocusArea() {
+    }
+
+    /**
+     * Returns an area given as fractions (0 to 1) of the frame size in driver coordinates, as
+     * {left, top, right, bottom}.  Whatever lies outside the frame is clamped to it.
+     */
+    public static int[] toDriverRect(float left, float top, float right, float bottom) {
+        int[] x = toDriverRange(Math.min(left, right), Math.max(left, right));
+        int[] y = toDriverRange(Math.min(top, bottom), Math.max(top, bottom));
+        return new int[]{x[0], y[0], x[1], y[1]};
+    }
+
+    private static int[] toDriverRange(float from, float to) {
+        int span = DRIVER_MAX - DRIVER_MIN;
+        int start = DRIVER_MIN + Math.round(clamp(from) * span);
+        int end = DRIVER_MIN + Math.round(clamp(to) * span);
+
+        if (end - start < MIN_DRIVER_SIZE) {
+            int center = (start + end) / 2;
+            start = Math.max(DRIVER_MIN, Math.min(center - MIN_DRIVER_SIZE / 2, DRIVER_MAX - MIN_DRIVER_SIZE));
+            end = start + MIN_DRIVER_SIZE;
+        }
+        return new int[]{start, end};
+    }
+
+    /**
+     * Returns an area {left, top, right, bottom} of the given size around a point, as fractions of
+     * the frame size, moved inward where it would stick out of the frame.
+     *
+     * @param x    the point, as a fraction (0 to 1) of the frame's width
+     * @param y    the point, as a fraction (0 to 1) of the frame's height
+     * @param size the width and height of the area, as a fraction of the frame's
+     */
+    public static float[] aroundPoint(float x, float y, float size) {
+        if (!(size > 0 && size <= 1)) {
+            throw new IllegalArgumentException("Invalid focus area size: " + size);
+        }
+
+        float left = Math.max(0, Math.min(clamp(x) - size / 2, 1 - size));
+        float top = Math.max(0, Math.min(clamp(y) - size / 2, 1 - size));
+        return new float[]{left, top, left + size, top + size};
+    }
+
+    private static float clamp(float fraction) {
+        return Math.max(0, Math.min(1, fraction));
+    }
+}
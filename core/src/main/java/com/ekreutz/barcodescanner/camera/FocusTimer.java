@@ -0,0 +1,93 @@
+package com.ekreutz.barcodescanner.camera;
+
+/**
+ * Times how long the camera takes to lock focus: from an auto focus run being started, or the
+ * continuous focus starting to move, until focus is reported locked (or failed).
+ * <p/>
+ * Times are in nanoseconds from {@link System#nanoTime()}, or the same clock.
+ * <p/>
+ * All methods are thread safe.
+ */
+public class FocusTimer {
+    /**
+     * Returned when no focus run has finished yet.
+     */
+    public static final float NOT_REACHED = -1;
+
+    private static final long UNSET = Long.MIN_VALUE;
+
+    private long mStartedNanos = UNSET;
+
+    private long mRuns = 0;
+    private long mLocked = 0;
+    private long mTotalNanos = 0;
+    private long mMaxNanos = 0;
+    private long mLastNanos = UNSET;
+
+    /**
+     * Marks the start of a focus run.  Ignored while one is already running, so that overlapping
+     * reports of the same run don't shorten it.
+     */
+    public synchronized void markStarted(long nanos) {
+        if (mStartedNanos == UNSET) {
+            mStartedNanos = nanos;
+        }
+    }
+
+    /**
+     * Marks the end of the running focus run, if any.
+     *
+     * @param locked whether focus was locked, false if the run failed
+     */
+    public synchronized void markFinished(long nanos, boolean locked) {
+        if (mStartedNanos == UNSET) {
+            return;
+        }
+
+        long duration = nanos - mStartedNanos;
+        mStartedNanos = UNSET;
+        mRuns++;
+        if (locked) {
+            mLocked++;
+        }
+        mTotalNanos += duration;
+        mMaxNanos = Math.max(mMaxNanos, duration);
+        mLastNanos = duration;
+    }
+
+    /**
+     * Forgets a focus run that won't be finished, e.g. when the camera is closed.
+     */
+    public synchronized void cancel() {
+        mStartedNanos = UNSET;
+    }
+
+    public synchronized long getRuns() {
+        return mRuns;
+    }
+
+    /**
+     * Returns the number of focus runs that locked focus.
+     */
+    public synchronized long getLocked() {
+        return mLocked;
+    }
+
+    public synchronized float getLastMillis() {
+        return mLastNanos != UNSET ? mLastNanos / 1e6f : NOT_REACHED;
+    }
+
+    public synchronized float getMeanMillis() {
+        return mRuns > 0 ? mTotalNanos / 1e6f / mRuns : NOT_REACHED;
+    }
+
+    public synchronized float getMaxMillis() {
+        return mRuns > 0 ? mMaxNanos / 1e6f : NOT_REACHED;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("runs=%d locked=%d last=%.1fms mean=%.1fms max=%.1fms",
+                mRuns, mLocked, getLastMillis(), getMeanMillis(), getMaxMillis());
+    }
+}
@@ -0,0 +1,138 @@
+package com.ekreutz.barcodescanner.camera;
+
+import com.ekreutz.barcodescanner.util.BarcodeFormat;
+
+/**
+ * Policy and statistics of the two-tier format cascade.
+ * <p/>
+ * Every frame is first detected upon by a detector that only looks for the 1D formats asked for,
+ * which is much cheaper than looking for every format.  The detector for all formats, 2D included,
+ * only runs when the 1D pass finds nothing (so a lone 2D code is read on the same frame as without
+ * the cascade), and every {@link #getInterval()} frames otherwise, to catch 2D codes that are in
+ * view together with a 1D code.
+ * <p/>
+ * The interval retunes itself while scanning: a scheduled full pass that finds codes the 1D pass
+ * missed halves it, and one that finds nothing more lengthens it by a frame, between
+ * {@link #MIN_INTERVAL} and {@link #MAX_INTERVAL}.
+ * <p/>
+ * All methods are thread safe, so one cascade can be shared by parallel detection workers.
+ */
+public class FormatCascade {
+    public static final int MIN_INTERVAL = 2;
+    public static final int MAX_INTERVAL = 30;
+    public static final int DEFAULT_INTERVAL = 8;
+
+    private final int mLinearFormats;
+
+    private int mInterval = DEFAULT_INTERVAL;
+    private int mFramesSinceFullPass = 0;
+
+    private long mFrames = 0;
+    private long mLinearOnlyFrames = 0;
+    private long mMissPasses = 0;
+    private long mScheduledPasses = 0;
+    private long mScheduledExtraHits = 0;
+
+    /**
+     * @param formats the formats asked for, a mask of {@link BarcodeFormat} flags or
+     *                {@link BarcodeFormat#ALL_FORMATS}; see {@link #appliesTo(int)}
+     */
+    public FormatCascade(int formats) {
+        if (!appliesTo(formats)) {
+            throw new IllegalArgumentException("Format cascade needs both 1D and 2D formats: " + formats);
+        }
+        mLinearFormats = getLinearFormats(formats);
+    }
+
+    /**
+     * Returns true if the formats include both 1D and 2D formats, so that a 1D pass first can save
+     * anything.
+     */
+    public static boolean appliesTo(int formats) {
+        return formats == BarcodeFormat.ALL_FORMATS
+                || ((formats & BarcodeFormat.LINEAR_FORMATS) != 0 && (formats & BarcodeFormat.MATRIX_FORMATS) != 0);
+    }
+
+    /**
+     * Returns the 1D formats of a mask.
+     */
+    public static int getLinearFormats(int formats) {
+        return formats == BarcodeFormat.ALL_FORMATS ? BarcodeFormat.LINEAR_FORMATS : formats & BarcodeFormat.LINEAR_FORMATS;
+    }
+
+    /**
+     * Returns the formats that the 1D pass should look for.
+     */
+    public int getLinearFormats() {
+        return mLinearFormats;
+    }
+
+    /**
+     * Called after the 1D pass of every frame.
+     *
+     * @param linearCount the number of codes that the 1D pass found
+     * @return true if the frame should be detected upon for all formats as well
+     */
+    public synchronized boolean needsFullPass(int linearCount) {
+        mFrames++;
+        mFramesSinceFullPass++;
+
+        if (linearCount > 0 && mFramesSinceFullPass < mInterval) {
+            mLinearOnlyFrames++;
+            return false;
+        }
+
+        mFramesSinceFullPass = 0;
+        return true;
+    }
+
+    /**
+     * Called after the full pass of a frame, with what both passes found.
+     */
+    public synchronized void recordFullPass(int linearCount, int fullCount) {
+        if (linearCount == 0) {
+            mMissPasses++;
+            return;
+        }
+
+        // Only scheduled passes say anything about how often 2D codes show up next to 1D codes.
+        mScheduledPasses++;
+        if (fullCount > linearCount) {
+            mScheduledExtraHits++;
+            mInterval = Math.max(MIN_INTERVAL, mInterval / 2);
+        } else {
+            mInterval = Math.min(MAX_INTERVAL, mInterval + 1);
+        }
+    }
+
+    /**
+     * Returns how many frames the 1D pass runs on by itself, at most, between two full passes.
+     */
+    public synchronized int getInterval() {
+        return mInterval;
+    }
+
+    public synchronized long getFrames() {
+        return mFrames;
+    }
+
+    /**
+     * Returns the number of frames that only the 1D pass ran on.
+     */
+    public synchronized long getLinearOnlyFrames() {
+        return mLinearOnlyFrames;
+    }
+
+    /**
+     * Returns the share of frames that the full pass ran on, from 0 to 1.
+     */
+    public synchronized float getFullPassRate() {
+        return mFrames > 0 ? 1 - (float) mLinearOnlyFrames / mFrames : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("interval=%d frames=%d linearOnly=%d missPasses=%d scheduledPasses=%d extraHits=%d",
+                mInterval, mFrames, mLinearOnlyFrames, mMissPasses, mScheduledPasses, mScheduledExtraHits);
+    }
+}
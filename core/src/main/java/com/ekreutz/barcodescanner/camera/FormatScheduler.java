@@ -0,0 +1,170 @@
+package com.ekreutz.barcodescanner.camera;
+
+import com.ekreutz.barcodescanner.util.BarcodeFormat;
+
+import java.util.Arrays;
+
+/**
+ * Spreads the barcode formats to look for over consecutive frames, so that every frame is only
+ * detected upon for a few of them.
+ * <p/>
+ * The formats are split into fixed slices of {@code sliceSize} formats, which take turns frame by
+ * frame.  Formats that were decoded in the last {@link #HOT_FRAMES} frames are hot: while any are,
+ * frames are detected upon for just the hot formats, and only every {@link #ROTATION_INTERVAL}th
+ * frame goes on with the slices.  An app that enables many formats but mostly sees one then pays
+ * for about one format per frame.  The price is that a code of a format that isn't hot is found a
+ * few frames later: at most one rotation through the slices, or {@link #ROTATION_INTERVAL} times
+ * that while something else is hot.
+ * <p/>
+ * Every mask handed out is either one of the fixed slices or a set of hot formats, so a cache of
+ * {@link #getDetectorCount()} detectors holds all of them, short of the hot formats changing
+ * often.
+ * <p/>
+ * All methods are thread safe, so one scheduler can be shared by parallel detection workers.
+ */
+public class FormatScheduler {
+    public static final int HOT_FRAMES = 30;
+    public static final int ROTATION_INTERVAL = 3;
+
+    // Distinct sets of hot formats that are expected to be in use around the same time
+    private static final int HOT_MASKS = 2;
+
+    private static final int NEVER = Integer.MIN_VALUE / 2;
+
+    private final int mFormats;
+    private final int mSliceSize;
+    private final int[] mSlices;
+
+    // Frame of the last decode of each format, by bit position
+    private final int[] mLastHit = new int[Integer.SIZE];
+
+    private int mFrame = 0;
+    private int mNextSlice = 0;
+
+    private long mHotFrames = 0;
+    private long mSliceFrames = 0;
+    private long mFormatsSearched = 0;
+
+    /**
+     * @param formats   the formats to look for, a mask of {@link BarcodeFormat} flags or
+     *                  {@link BarcodeFormat#ALL_FORMATS}
+     * @param sliceSize how many formats to look for per frame, at most
+     */
+    public FormatScheduler(int formats, int sliceSize) {
+        if (sliceSize < 1) {
+            throw new IllegalArgumentException("Invalid slice size: " + sliceSize);
+        }
+
+        mFormats = formats == BarcodeFormat.ALL_FORMATS ? BarcodeFormat.KNOWN_FORMATS : formats & BarcodeFormat.KNOWN_FORMATS;
+        mSliceSize = sliceSize;
+
+        int count = Integer.bitCount(mFormats);
+        mSlices = new int[Math.max(1, (count + sliceSize - 1) / sliceSize)];
+        int remaining = mFormats;
+        for (int i = 0; remaining != 0; i++) {
+            int format = Integer.lowestOneBit(remaining);
+            mSlices[i / sliceSize] |= format;
+            remaining &= ~format;
+        }
+
+        Arrays.fill(mLastHit, NEVER);
+    }
+
+    /**
+     * Returns true if the formats don't fit in one slice, so that scheduling saves anything.
+     */
+    public static boolean appliesTo(int formats, int sliceSize) {
+        return sliceSize > 0 && BarcodeFormat.count(formats) > sliceSize;
+    }
+
+    /**
+     * Returns the fixed slices that the formats are split into.
+     */
+    public int[] getSlices() {
+        return mSlices.clone();
+    }
+
+    /**
+     * Returns how many distinct masks a detector cache should have room for.
+     */
+    public int getDetectorCount() {
+        return mSlices.length + HOT_MASKS;
+    }
+
+    /**
+     * Returns the formats to detect upon in the next frame.
+     */
+    public synchronized int nextMask() {
+        mFrame++;
+
+        int mask = getHotMask();
+        if (mask != 0 && mFrame % ROTATION_INTERVAL != 0) {
+            mHotFrames++;
+        } else {
+            mask = mSlices[mNextSlice];
+            mNextSlice = (mNextSlice + 1) % mSlices.length;
+            mSliceFrames++;
+        }
+
+        mFormatsSearched += Integer.bitCount(mask);
+        return mask;
+    }
+
+    /**
+     * Returns the hot formats, or the {@code sliceSize} most recently decoded of them if there
+     * are more.
+     */
+    private int getHotMask() {
+        int hot = 0;
+        int remaining = mFormats;
+        while (remaining != 0) {
+            int bit = Integer.numberOfTrailingZeros(remaining);
+            remaining &= remaining - 1;
+            if (mFrame - mLastHit[bit] <= HOT_FRAMES) {
+                hot |= 1 << bit;
+            }
+        }
+
+        while (Integer.bitCount(hot) > mSliceSize) {
+            hot &= ~(1 << getLeastRecentlyHit(hot));
+        }
+        return hot;
+    }
+
+    private int getLeastRecentlyHit(int mask) {
+        int oldest = -1;
+        while (mask != 0) {
+            int bit = Integer.numberOfTrailingZeros(mask);
+            mask &= mask - 1;
+            if (oldest < 0 || mLastHit[bit] < mLastHit[oldest]) {
+                oldest = bit;
+            }
+        }
+        return oldest;
+    }
+
+    /**
+     * Records the formats of the codes found in a frame.
+     */
+    public synchronized void recordFound(int formats) {
+        int remaining = formats & mFormats;
+        while (remaining != 0) {
+            mLastHit[Integer.numberOfTrailingZeros(remaining)] = mFrame;
+            remaining &= remaining - 1;
+        }
+    }
+
+    /**
+     * Returns the mean number of formats looked for per frame.
+     */
+    public synchronized float getMeanFormatsPerFrame() {
+        long frames = mHotFrames + mSliceFrames;
+        return frames > 0 ? (float) mFormatsSearched / frames : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("slices=%d hotFrames=%d sliceFrames=%d formatsPerFrame=%.2f",
+                mSlices.length, mHotFrames, mSliceFrames, getMeanFormatsPerFrame());
+    }
+}
@@ -0,0 +1,154 @@
+package com.ekreutz.barcodescanner.camera;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Copies a rectangular window out of NV21 frames into a small pool of reusable buffers, so that
+ * detection only has to look at the part of the frame the user is scanning in.
+ * <p/>
+ * Every crop is written into a free slot of the pool, which stays reserved until
+ * {@link #release(int)} is called.  A slot's buffer is only reallocated when the crop size changes.
+ * <p/>
+ * All methods are thread safe.
+ */
+public class FrameCropper {
+    /**
+     * Crops smaller than this (in pixels, per side) are not worth detecting on.
+     */
+    public static final int MIN_CROP_SIZE = 32;
+
+    private final byte[][] mArrays;
+    private final ByteBuffer[] mBuffers;
+    private final boolean[] mInUse;
+
+    private long mCropped = 0;
+    private long mExhausted = 0;
+
+    public FrameCropper(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("Invalid cropper depth: " + depth);
+        }
+
+        mArrays = new byte[depth][];
+        mBuffers = new ByteBuffer[depth];
+        mInUse = new boolean[depth];
+    }
+
+    /**
+     * Copies the given window of an NV21 frame into a free buffer of the pool.  The window must
+     * lie within the frame, and its position and size must be even, see
+     * {@link #alignCrop(float, float, float, float, int, int)}.
+     *
+     * @return the slot holding the crop, or {@link FramePool#NO_SLOT} if every buffer is in use
+     */
+    public int crop(byte[] nv21, int frameWidth, int frameHeight,
+                    int left, int top, int width, int height) {
+        int slot = reserve(getBufferSize(width, height));
+        if (slot == FramePool.NO_SLOT) {
+            return FramePool.NO_SLOT;
+        }
+
+        // The copy itself runs outside of the lock; the slot is ours until it is released.
+        cropNv21(nv21, frameWidth, frameHeight, left, top, width, height, mArrays[slot]);
+        return slot;
+    }
+
+    /**
+     * Returns the byte buffer holding the crop in the given slot.
+     */
+    public synchronized ByteBuffer buffer(int slot) {
+        return mBuffers[slot];
+    }
+
+    /**
+     * Makes the given slot available for another crop.
+     */
+    public synchronized void release(int slot) {
+        mInUse[slot] = false;
+    }
+
+    public synchronized long getCropped() {
+        return mCropped;
+    }
+
+    /**
+     * Returns how often no buffer was free, meaning that the frame was dropped.
+     */
+    public synchronized long getExhausted() {
+        return mExhausted;
+    }
+
+    private synchronized int reserve(int bufferSize) {
+        for (int slot = 0; slot < mInUse.length; slot++) {
+            if (!mInUse[slot]) {
+                if (mArrays[slot] == null || mArrays[slot].length != bufferSize) {
+                    mArrays[slot] = new byte[bufferSize];
+                    mBuffers[slot] = ByteBuffer.wrap(mArrays[slot]);
+                }
+                mInUse[slot] = true;
+                mCropped++;
+                return slot;
+            }
+        }
+
+        mExhausted++;
+        return FramePool.NO_SLOT;
+    }
+
+    /**
+     * Returns the size of an NV21 image of the given size.
+     */
+    public static int getBufferSize(int width, int height) {
+        return width * height * 3 / 2;
+    }
+
+    /**
+     * Converts a window given as fractions of the frame size into whole pixels.  NV21 stores one
+     * chroma sample per 2x2 pixel block, so the window is widened to even coordinates.
+     *
+     * @return {left, top, width, height} in pixels, or null if the window covers (nearly) the whole
+     * frame or is too small to be useful
+     */
+    public static int[] alignCrop(float left, float top, float right, float bottom,
+                                  int frameWidth, int frameHeight) {
+        int cropLeft = clamp((int) Math.floor(left * frameWidth), 0, frameWidth) & ~1;
+        int cropTop = clamp((int) Math.floor(top * frameHeight), 0, frameHeight) & ~1;
+        int cropRight = clamp(((int) Math.ceil(right * frameWidth) + 1) & ~1, 0, frameWidth & ~1);
+        int cropBottom = clamp(((int) Math.ceil(bottom * frameHeight) + 1) & ~1, 0, frameHeight & ~1);
+
+        int width = cropRight - cropLeft;
+        int height = cropBottom - cropTop;
+        if (width < MIN_CROP_SIZE || height < MIN_CROP_SIZE) {
+            return null;
+        }
+
+        // Copying the frame only pays off if a good part of it can be left out.
+        if ((long) width * height > 0.9 * frameWidth * frameHeight) {
+            return null;
+        }
+
+        return new int[]{cropLeft, cropTop, width, height};
+    }
+
+    /**
+     * Copies a window of an NV21 frame into {@code dst}.  The luma rows are copied as is; the
+     * interleaved VU rows below them are copied at half the height.
+     */
+    public static void cropNv21(byte[] src, int frameWidth, int frameHeight,
+                                int left, int top, int width, int height, byte[] dst) {
+        for (int row = 0; row < height; row++) {
+            System.arraycopy(src, (top + row) * frameWidth + left, dst, row * width, width);
+        }
+
+        int srcChroma = frameWidth * frameHeight;
+        int dstChroma = width * height;
+        for (int row = 0; row < height / 2; row++) {
+            System.arraycopy(src, srcChroma + (top / 2 + row) * frameWidth + left,
+                    dst, dstChroma + row * width, width);
+        }
+    }
+
+    private static int clamp(int value, int min, int max) {
+        return Math.max(min, Math.min(value, max));
+    }
+}
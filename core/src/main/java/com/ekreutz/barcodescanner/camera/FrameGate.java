@@ -0,0 +1,202 @@
+package com.ekreutz.barcodescanner.camera;
+
+/**
+ * Cheap pre-filter that skips frames which aren't worth running the detector on.
+ * <p/>
+ * The gate looks at a sparse grid of luma samples in every frame and computes two scores:
+ * <ul>
+ * <li>sharpness: the mean absolute difference between each sample and its right and lower
+ * neighbours, whichever is larger.  Motion blur and defocus wash out those differences, so blurry
+ * frames score low.</li>
+ * <li>change: the mean absolute difference between the samples and the same samples of the last
+ * frame that passed the gate.  A frame that barely differs from it gives the same detection result
+ * all over again.</li>
+ * </ul>
+ * Frames scoring below either threshold are skipped, but never more than
+ * {@link #MAX_CONSECUTIVE_SKIPS} in a row, so that a slow scene still gets detected upon regularly.
+ * <p/>
+ * Scoring is not thread safe and must happen on one thread; the counters may be read from any
+ * thread.
+ */
+public class FrameGate {
+    public static final int RESULT_PASS = 0;
+    public static final int RESULT_BLURRY = 1;
+    public static final int RESULT_STATIC = 2;
+
+    public static final int MAX_CONSECUTIVE_SKIPS = 5;
+
+    private static final int GRID_COLUMNS = 32;
+    private static final int GRID_ROWS = 24;
+
+    private final float mMinSharpness;
+    private final float mMinChange;
+
+    private int[] mSamples = new int[GRID_COLUMNS * GRID_ROWS];
+    private int[] mReferenceSamples = new int[GRID_COLUMNS * GRID_ROWS];
+    private boolean mHasReference = false;
+    private int mReferenceLeft, mReferenceTop, mReferenceWidth, mReferenceHeight;
+    private int mConsecutiveSkips = 0;
+
+    private float mSharpness;
+    private float mChange;
+
+    private long mPassed = 0;
+    private long mSkippedBlurry = 0;
+    private long mSkippedStatic = 0;
+
+    /**
+     * @param minSharpness frames with a lower sharpness score are skipped, 0 to never skip for blur
+     * @param minChange    frames with a lower change score are skipped, 0 to never skip for lack of
+     *                     change
+     */
+    public FrameGate(float minSharpness, float minChange) {
+        if (minSharpness < 0 || minChange < 0) {
+            throw new IllegalArgumentException("Invalid thresholds: " + minSharpness + ", " + minChange);
+        }
+        mMinSharpness = minSharpness;
+        mMinChange = minChange;
+    }
+
+    public float getMinSharpness() {
+        return mMinSharpness;
+    }
+
+    public float getMinChange() {
+        return mMinChange;
+    }
+
+    /**
+     * Scores the given window of an NV21 (or any 8 bit luma-first) frame.
+     *
+     * @return {@link #RESULT_PASS} if the frame should be detected upon, otherwise the reason to
+     * skip it
+     */
+    public int evaluate(byte[] frame, int frameWidth, int left, int top, int width, int height) {
+        if (width < 2 || height < 2) {
+            return record(RESULT_PASS);
+        }
+
+        // Samples of a different window can't be compared.
+        if (left != mReferenceLeft || top != mReferenceTop
+                || width != mReferenceWidth || height != mReferenceHeight) {
+            mHasReference = false;
+            mReferenceLeft = left;
+            mReferenceTop = top;
+            mReferenceWidth = width;
+            mReferenceHeight = height;
+        }
+
+        // The grid is spread evenly over the window, leaving room for the neighbours of the last
+        // column and row.
+        int stepX = Math.max(1, (width - 1) / GRID_COLUMNS);
+        int stepY = Math.max(1, (height - 1) / GRID_ROWS);
+
+        long gradientSum = 0;
+        long changeSum = 0;
+        int count = 0;
+        for (int row = 0; row < GRID_ROWS; row++) {
+            int y = top + row * stepY;
+            if (y >= top + height - 1) {
+                break;
+            }
+            int rowOffset = y * frameWidth;
+            for (int column = 0; column < GRID_COLUMNS; column++) {
+                int x = left + column * stepX;
+                if (x >= left + width - 1) {
+                    break;
+                }
+
+                int index = rowOffset + x;
+                int value = frame[index] & 0xff;
+                int horizontal = Math.abs(value - (frame[index + 1] & 0xff));
+                int vertical = Math.abs(value - (frame[index + frameWidth] & 0xff));
+                gradientSum += Math.max(horizontal, vertical);
+
+                changeSum += Math.abs(value - mReferenceSamples[count]);
+                mSamples[count++] = value;
+            }
+        }
+
+        if (count == 0) {
+            return record(RESULT_PASS);
+        }
+
+        mSharpness = gradientSum / (float) count;
+        mChange = mHasReference ? changeSum / (float) count : Float.MAX_VALUE;
+
+        int result = RESULT_PASS;
+        if (mConsecutiveSkips < MAX_CONSECUTIVE_SKIPS) {
+            if (mSharpness < mMinSharpness) {
+                result = RESULT_BLURRY;
+            } else if (mChange < mMinChange) {
+                result = RESULT_STATIC;
+            }
+        }
+
+        if (result == RESULT_PASS) {
+            // This frame becomes the one that later frames are compared to.
+            int[] reference = mReferenceSamples;
+            mReferenceSamples = mSamples;
+            mSamples = reference;
+            mHasReference = true;
+        }
+
+        return record(result);
+    }
+
+    /**
+     * Forgets the reference frame, e.g. when the camera restarts.
+     */
+    public void reset() {
+        mHasReference = false;
+        mConsecutiveSkips = 0;
+    }
+
+    /**
+     * Returns the sharpness score of the last evaluated frame.
+     */
+    public float getSharpness() {
+        return mSharpness;
+    }
+
+    /**
+     * Returns the change score of the last evaluated frame.
+     */
+    public float getChange() {
+        return mChange;
+    }
+
+    public synchronized long getPassed() {
+        return mPassed;
+    }
+
+    public synchronized long getSkippedBlurry() {
+        return mSkippedBlurry;
+    }
+
+    public synchronized long getSkippedStatic() {
+        return mSkippedStatic;
+    }
+
+    private synchronized int record(int result) {
+        switch (result) {
+            case RESULT_BLURRY:
+                mSkippedBlurry++;
+                mConsecutiveSkips++;
+                break;
+            case RESULT_STATIC:
+                mSkippedStatic++;
+                mConsecutiveSkips++;
+                break;
+            default:
+                mPassed++;
+                mConsecutiveSkips = 0;
+        }
+        return result;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("passed=%d blurry=%d static=%d", mPassed, mSkippedBlurry, mSkippedStatic);
+    }
+}
@@ -0,0 +1,77 @@
+package com.ekreutz.barcodescanner.camera;
+
+/**
+ * Hands frames over from the camera callback thread to the frame processing thread, one at a time.
+ * <p/>
+ * Only the most recent frame is kept as pending.  A new frame replaces the pending frame if the
+ * processing thread hasn't taken it yet, and the replaced frame is handed back to the caller so
+ * that its buffer can be returned to the camera.  Frames are identified by their slot in the
+ * {@link FramePool}.
+ * <p/>
+ * {@link #put(int, int, long, long)} is meant to be called from a single producer thread, and
+ * {@link #take(PendingFrame)} from a single consumer thread.
+ */
+public interface FrameHandoff {
+
+    /**
+     * A frame taken by the processing thread.  Reused for every frame, so that taking frames
+     * doesn't allocate.
+     */
+    class PendingFrame {
+        private int mSlot = FramePool.NO_SLOT;
+        private int mFrameId;
+        private long mTimeMillis;
+        private long mCaptureNanos;
+
+        void set(int slot, int frameId, long timeMillis, long captureNanos) {
+            mSlot = slot;
+            mFrameId = frameId;
+            mTimeMillis = timeMillis;
+            mCaptureNanos = captureNanos;
+        }
+
+        public int getSlot() {
+            return mSlot;
+        }
+
+        public int getFrameId() {
+            return mFrameId;
+        }
+
+        public long getTimeMillis() {
+            return mTimeMillis;
+        }
+
+        public long getCaptureNanos() {
+            return mCaptureNanos;
+        }
+    }
+
+    /**
+     * Marks the handoff as active/not active, and forgets the pending frame.  Wakes up the
+     * processing thread if it is waiting for a frame, so that it can exit once inactive.
+     */
+    void setActive(boolean active);
+
+    boolean isActive();
+
+    /**
+     * Returns true while a frame has been put and not taken yet.
+     */
+    boolean hasPendingFrame();
+
+    /**
+     * Makes the given frame the pending frame.
+     *
+     * @return the slot of the frame that was pending and hadn't been taken yet, or
+     * {@link FramePool#NO_SLOT}
+     */
+    int put(int slot, int frameId, long timeMillis, long captureNanos);
+
+    /**
+     * Waits until a frame is pending, and moves it into {@code frame}.
+     *
+     * @return false if the handoff has been made inactive, and no frame was taken
+     */
+    boolean take(PendingFrame frame) throws InterruptedException;
+}
@@ -0,0 +1,797 @@
+package com.ekreutz.barcodescanner.camera;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Takes preview frames from a camera to a detector and its results to a receiver: the frame pool,
+ * the handoff to the processing thread, the frame rate governor, the frame gate, the scan area
+ * crop, the resolution cascade, the parallel detection workers and the merging of their results
+ * back into frame order.
+ * <p/>
+ * The pipeline knows nothing about the camera or the detector behind it.  {@code CameraSource}
+ * runs it between the Camera1 API and a vision detector, and {@link FrameReplay} between a
+ * recording and a stand-in detector, so that a replay measures the same code that runs on the
+ * device.
+ * <p/>
+ * The camera calls {@link #onFrame(byte[])} on a single thread for every filled buffer, and gets
+ * its buffers back through {@link FrameSource#addBuffer(byte[])}.  Every time the camera starts
+ * with new buffers (a new preview size, say), it starts a new session with
+ * {@link #startSession(FramePool, int, int)} before the first frame of the session arrives.
+ * Frames of an earlier session that are still on their way are dropped, and their buffers are not
+ * returned.
+ *
+ * @param <T> the results of the detector
+ */
+public class FramePipeline<T> {
+
+    /**
+     * The camera side of the pipeline.  Called on the processing thread and the detection workers,
+     * so none of these may block.
+     */
+    public interface FrameSource {
+        /**
+         * Gives a buffer of the current session back to the camera to fill.
+         */
+        void addBuffer(byte[] buffer);
+
+        /**
+         * Called on the thread calling {@link #onFrame(byte[])} when the frame rate governor wants
+         * the camera to run at a different frame rate.  Must not block, since the frame waits for it.
+         */
+        void onTargetFpsChanged(float fps);
+
+        /**
+         * Called when the preview size tuner is done with the current preview size, and the camera
+         * should move to {@link PreviewSizeTuner#getPreviewSize()}.
+         */
+        void onPreviewSizeChange();
+    }
+
+    /**
+     * Detects on single frames.  Each detector is only ever used by one thread at a time.
+     */
+    public interface Detector<T> {
+        /**
+         * Detects on an NV21 frame of the given size.  The buffer is only valid until this
+         * returns.
+         */
+        T detect(ByteBuffer data, int width, int height, int frameId, long timeMillis, int rotation);
+
+        /**
+         * Returns the number of codes in a result, for the resolution cascade.
+         */
+        int getCount(T result);
+
+        /**
+         * Returns the formats of the codes in a result as {@code BarcodeFormat} flags, OR-ed
+         * together, for the resolution cascade.
+         */
+        int getFormats(T result);
+
+        /**
+         * Turns the result of detecting on a frame downscaled {@code downscale} times per side
+         * into the result for the full frame, which is given as well.
+         */
+        T toFullResolution(T result, int downscale, ByteBuffer data, int width, int height,
+                           int frameId, long timeMillis, int rotation);
+
+        void release();
+    }
+
+    /**
+     * Creates the detectors of the extra detection workers.
+     */
+    public interface DetectorFactory<T> {
+        Detector<T> createDetector();
+    }
+
+    /**
+     * Receives the results of the detector.  Calls come in frame order and never overlap, but may
+     * come from different threads.
+     */
+    public interface Receiver<T> {
+        /**
+         * Called for every frame that was detected on.
+         *
+         * @param captureNanos when the frame was captured, in {@link System#nanoTime()} time
+         */
+        void receive(int frameId, long captureNanos, T result);
+
+        /**
+         * Called instead of {@link #receive(int, long, Object)} when the detector or the receiver
+         * threw.
+         */
+        void onError(int frameId, Throwable t);
+    }
+
+    /**
+     * The buffers and frame size the camera is running with.
+     */
+    private static class Session {
+        final FramePool mPool;
+        final int mWidth;
+        final int mHeight;
+        final int mFirstFrameId;
+
+        Session(FramePool pool, int width, int height, int firstFrameId) {
+            mPool = pool;
+            mWidth = width;
+            mHeight = height;
+            mFirstFrameId = firstFrameId;
+        }
+    }
+
+    private final FrameSource mSource;
+    private final Receiver<T> mReceiver;
+    private final FrameTracer mTracer;
+    private final long mStartNanos = System.nanoTime();
+
+    // Holds the new frame awaiting processing.  The camera thread never waits on it.
+    private final LockFreeFrameHandoff mHandoff = new LockFreeFrameHandoff(LockFreeFrameHandoff.WAIT_PARK);
+
+    private volatile Session mSession;
+
+    // Written on the camera thread, and read when a session starts.
+    private volatile int mLastFrameId = 0;
+
+    private volatile FrameRateGovernor mGovernor;
+    private volatile PreviewSizeTuner mTuner;
+    private volatile FrameGate mFrameGate;
+    private volatile float[] mScanArea;
+    private volatile ResolutionCascade mResolutionCascade;
+    private volatile int mRotation;
+
+    // Set while stopped.  mDetectors[i] belongs to worker i while the workers run, or to the
+    // processing thread for a single worker.  mNextDetectors[i] is the detector that worker i swaps
+    // in before its next frame.
+    private Detector<T>[] mDetectors;
+    private AtomicReferenceArray<Detector<T>> mNextDetectors;
+    private DetectorFactory<T> mFactory;
+    private FrameCropper mCropper;
+
+    // A detector waiting to replace the current ones, which the processing thread picks up in
+    // between frames.
+    private final AtomicReference<Detector<T>> mNextDetector = new AtomicReference<>();
+
+    private Thread mProcessingThread;
+    private Thread[] mWorkerThreads;
+    private final BlockingQueue<PendingDetection<T>> mQueue = new ArrayBlockingQueue<>(1);
+    private ResultSequencer<PendingDetection<T>> mSequencer;
+
+    public FramePipeline(FrameSource source, Receiver<T> receiver, FrameTracer tracer) {
+        mSource = source;
+        mReceiver = receiver;
+        mTracer = tracer;
+        mHandoff.setActive(false);
+    }
+
+    /**
+     * Sets the detector, and the number of threads that detect in parallel.  With more than one,
+     * the extra detectors come from the factory, and results are merged back into frame order.
+     * Only while stopped; call {@link #release()} first to release the detectors set before.
+     */
+    @SuppressWarnings("unchecked")
+    public void setDetector(Detector<T> detector, int workers, DetectorFactory<T> factory) {
+        if (workers < 1) {
+            throw new IllegalArgumentException("Invalid number of detection workers: " + workers);
+        }
+        if (workers > 1 && factory == null) {
+            throw new IllegalArgumentException("No detector factory supplied.");
+        }
+        if (isRunning()) {
+            throw new IllegalStateException("The pipeline is running.");
+        }
+
+        @SuppressWarnings("unchecked")
+        Detector<T>[] detectors = (Detector<T>[]) new Detector<?>[workers];
+        detectors[0] = detector;
+        for (int i = 1; i < workers; i++) {
+            detectors[i] = factory.createDetector();
+        }
+        mDetectors = detectors;
+        mNextDetectors = new AtomicReferenceArray<>(workers);
+        mFactory = factory;
+        // one crop buffer per worker, plus one for the frame waiting for a worker and one spare
+        mCropper = new FrameCropper(workers + 2);
+        mSequencer = workers > 1 ? new ResultSequencer<>(4 * workers, new ResultSequencer.Receiver<PendingDetection<T>>() {
+            @Override
+            public void receive(long sequence, PendingDetection<T> detection) {
+                // null for a frame that never reached a worker
+                if (detection != null) {
+                    deliver(detection.mFrameId, detection.mCaptureNanos, detection.mResult, detection.mError);
+                }
+            }
+        }) : null;
+    }
+
+    /**
+     * Queues a detector to replace the current ones from the next frame on, while running: the
+     * given one for the first worker, and new ones from the factory for the others.  Replaces
+     * (and releases) a detector queued earlier that hasn't been picked up yet.  The replaced
+     * detectors are released once no frame is using them anymore.
+     */
+    public void swapDetector(Detector<T> detector) {
+        Detector<T> replaced = mNextDetector.getAndSet(detector);
+        if (replaced != null) {
+            // No frame has seen it yet.
+            replaced.release();
+        }
+    }
+
+    public int getDetectionWorkers() {
+        return mDetectors != null ? mDetectors.length : 0;
+    }
+
+    public FrameCropper getFrameCropper() {
+        return mCropper;
+    }
+
+    public void setWaitStrategy(int waitStrategy) {
+        mHandoff.setWaitStrategy(waitStrategy);
+    }
+
+    public int getWaitStrategy() {
+        return mHandoff.getWaitStrategy();
+    }
+
+    /**
+     * Sets the frame rate governor of the running camera, or null for none.
+     */
+    public void setFrameRateGovernor(FrameRateGovernor governor) {
+        mGovernor = governor;
+    }
+
+    public FrameRateGovernor getFrameRateGovernor() {
+        return mGovernor;
+    }
+
+    /**
+     * Sets the preview size tuner that detection times are reported to, or null for none.
+     */
+    public void setPreviewSizeTuner(PreviewSizeTuner tuner) {
+        mTuner = tuner;
+    }
+
+    /**
+     * Sets the frame gate that frames pass before detection, or null for none.
+     */
+    public void setFrameGate(FrameGate frameGate) {
+        mFrameGate = frameGate;
+    }
+
+    public FrameGate getFrameGate() {
+        return mFrameGate;
+    }
+
+    /**
+     * Restricts detection to a window of the frames, as {left, top, right, bottom} fractions of the
+     * frame size, or null for whole frames.
+     */
+    public void setScanArea(float[] scanArea) {
+        mScanArea = scanArea;
+    }
+
+    /**
+     * Sets the resolution cascade, or null for none.  The detector has to support
+     * {@link Detector#toFullResolution}.
+     */
+    public void setResolutionCascade(ResolutionCascade cascade) {
+        mResolutionCascade = cascade;
+    }
+
+    public ResolutionCascade getResolutionCascade() {
+        return mResolutionCascade;
+    }
+
+    /**
+     * Sets the rotation that frames are passed to the detector with.
+     */
+    public void setRotation(int rotation) {
+        mRotation = rotation;
+    }
+
+    /**
+     * Starts a session with new buffers.  Called on the camera thread, before the first frame
+     * filled from the given pool, and after the camera is done with the buffers of the previous
+     * session.
+     */
+    public void startSession(FramePool pool, int width, int height) {
+        mSession = new Session(pool, width, height, mLastFrameId + 1);
+    }
+
+    /**
+     * Ends the current session.  Frames that arrive until the next session are ignored.
+     */
+    public void endSession() {
+        mSession = null;
+    }
+
+    /**
+     * Returns the frame pool of the current session, or null if there is none.
+     */
+    public FramePool getFramePool() {
+        Session session = mSession;
+        return session != null ? session.mPool : null;
+    }
+
+    /**
+     * Starts the processing thread and the detection workers.
+     */
+    public void start() {
+        FrameGate gate = mFrameGate;
+        if (gate != null) {
+            gate.reset();
+        }
+
+        mHandoff.setActive(true);
+        if (mDetectors.length > 1) {
+            mWorkerThreads = new Thread[mDetectors.length];
+            for (int i = 0; i < mDetectors.length; i++) {
+                mWorkerThreads[i] = new Thread(new DetectionWorker(i), "DetectionWorker-" + i);
+                mWorkerThreads[i].start();
+            }
+        }
+        mProcessingThread = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                processFrames();
+            }
+        }, "FrameProcessing");
+        mProcessingThread.start();
+    }
+
+    /**
+     * Stops the processing thread, and waits until every frame it took has been detected on and
+     * delivered.  The pending frame, if any, is forgotten.
+     */
+    public void stop() {
+        // A pending frame belongs to a session that is ending, so it is forgotten.
+        mHandoff.setActive(false);
+        if (mProcessingThread != null) {
+            // Wait for the thread to complete to ensure that we can't have multiple threads
+            // executing at the same time (i.e., which would happen if we called start too quickly
+            // after stop).
+            joinUninterruptibly(mProcessingThread);
+            mProcessingThread = null;
+        }
+
+        if (mWorkerThreads != null) {
+            // Frames already in the queue are still detected upon, so that no sequence number is
+            // left uncompleted.
+            boolean interrupted = false;
+            for (int i = 0; i < mWorkerThreads.length; ) {
+                try {
+                    mQueue.put(PendingDetection.<T>stop());
+                    i++;
+                } catch (InterruptedException e) {
+                    interrupted = true;
+                }
+            }
+            for (Thread thread : mWorkerThreads) {
+                joinUninterruptibly(thread);
+            }
+            mWorkerThreads = null;
+            if (interrupted) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public boolean isRunning() {
+        return mHandoff.isActive();
+    }
+
+    /**
+     * Returns true while a frame is waiting for the processing thread.
+     */
+    public boolean hasPendingFrame() {
+        return mHandoff.hasPendingFrame();
+    }
+
+    /**
+     * Releases the detectors.  Only while stopped.
+     */
+    public void release() {
+        Detector<T> nextDetector = mNextDetector.getAndSet(null);
+        if (nextDetector != null) {
+            nextDetector.release();
+        }
+
+        if (mDetectors != null) {
+            for (int i = 0; i < mDetectors.length; i++) {
+                mDetectors[i].release();
+
+                Detector<T> workerNextDetector = mNextDetectors.getAndSet(i, null);
+                if (workerNextDetector != null) {
+                    workerNextDetector.release();
+                }
+            }
+            mDetectors = null;
+        }
+    }
+
+    /**
+     * Takes a frame the camera filled, and makes it the pending frame.  This hands the buffer of
+     * the previous pending frame (if there is one) back to the camera.  Called on the camera
+     * thread.
+     */
+    public void onFrame(byte[] data) {
+        Session session = mSession;
+        if (session == null) {
+            return;
+        }
+        FramePool pool = session.mPool;
+
+        FrameRateGovernor governor = mGovernor;
+        if (governor != null && governor.takeTargetFpsChange()) {
+            mSource.onTargetFpsChanged(governor.getTargetFps());
+        }
+
+        int slot = pool.acquire(data);
+        if (slot == FramePool.NO_SLOT) {
+            // not one of this session's buffers
+            return;
+        }
+
+        long captureNanos = System.nanoTime();
+        if (governor != null && governor.onFrameCaptured(captureNanos)) {
+            // The detector can't keep up with this frame rate, so the frame goes straight back to
+            // the camera.
+            returnBuffer(session, slot);
+            return;
+        }
+
+        // Timestamp and frame ID are maintained here, which will give downstream code some idea of
+        // the timing of frames received and when frames were dropped along the way.
+        int frameId = ++mLastFrameId;
+        long timeMillis = (captureNanos - mStartNanos) / 1000000;
+        mTracer.record(frameId, FrameTracer.STAGE_CAPTURED, captureNanos);
+
+        int replacedSlot = mHandoff.put(slot, frameId, timeMillis, captureNanos);
+        if (replacedSlot != FramePool.NO_SLOT) {
+            // The processing thread didn't get to the previous frame in time.
+            pool.drop(replacedSlot);
+            returnBuffer(session, replacedSlot);
+        }
+    }
+
+    /**
+     * Hands the buffer in the given slot back to the camera, unless it already has it or has moved
+     * on to another session.
+     */
+    private void returnBuffer(Session session, int slot) {
+        byte[] buffer = session.mPool.offer(slot);
+        if (buffer != null && mSession == session) {
+            mSource.addBuffer(buffer);
+        }
+    }
+
+    /**
+     * Releases the buffers of a frame that detection is done with.  A frame holds either a preview
+     * buffer, a crop buffer, or both while it is being cropped.
+     */
+    private void releaseFrame(Session session, int slot, FrameCropper cropper, int cropSlot) {
+        if (slot != FramePool.NO_SLOT) {
+            returnBuffer(session, slot);
+        }
+        if (cropSlot != FramePool.NO_SLOT) {
+            cropper.release(cropSlot);
+        }
+    }
+
+    /**
+     * As long as the pipeline is running, this executes detection on frames continuously.  The
+     * next pending frame is either immediately available or hasn't been received yet.  Once it is
+     * available, it is gated, cropped and detected on, or handed to the next free detection worker.
+     * It immediately loops back for the next frame without pausing.
+     * <p/>
+     * If detection takes longer than the time in between new frames from the camera, this loop
+     * runs without ever waiting on a frame, avoiding any context switching or frame acquisition
+     * time latency.
+     */
+    private void processFrames() {
+        FrameHandoff.PendingFrame frame = new FrameHandoff.PendingFrame();
+        LumaDownscaler downscaler = new LumaDownscaler();
+
+        while (true) {
+            try {
+                if (!mHandoff.take(frame)) {
+                    // Exit the loop once the pipeline is stopped.
+                    return;
+                }
+            } catch (InterruptedException e) {
+                return;
+            }
+
+            applyNextDetector();
+
+            Session session = mSession;
+            int frameId = frame.getFrameId();
+            if (session == null || frameId < session.mFirstFrameId) {
+                // Filled before the camera moved to new buffers; its buffer went with the old pool.
+                continue;
+            }
+            mTracer.record(frameId, FrameTracer.STAGE_DEQUEUED);
+
+            // The handoff no longer holds the slot, so this buffer isn't recycled back to the camera
+            // before we are done using that data.
+            int slot = frame.getSlot();
+            ByteBuffer data = session.mPool.buffer(slot);
+            int width = session.mWidth;
+            int height = session.mHeight;
+            int[] crop = getScanAreaCrop(width, height);
+
+            // Skip frames that are too blurry, or too much like the last frame, to be worth
+            // detecting on.  Only the window that would be detected on is looked at.
+            FrameGate gate = mFrameGate;
+            if (gate != null) {
+                int result = crop != null
+                        ? gate.evaluate(data.array(), width, crop[0], crop[1], crop[2], crop[3])
+                        : gate.evaluate(data.array(), width, 0, 0, width, height);
+                if (result != FrameGate.RESULT_PASS) {
+                    returnBuffer(session, slot);
+                    continue;
+                }
+            }
+
+            // If a scan area is set, only that window is detected upon.  Once it has been copied
+            // out, the camera can have its buffer back right away.
+            FrameCropper cropper = mCropper;
+            int cropSlot = FramePool.NO_SLOT;
+            if (crop != null) {
+                cropSlot = cropper.crop(data.array(), width, height, crop[0], crop[1], crop[2], crop[3]);
+                if (cropSlot == FramePool.NO_SLOT) {
+                    // Every crop buffer is still being detected on.  Detecting on the full frame
+                    // instead would find codes outside the scan area, so the frame is dropped.
+                    session.mPool.drop(slot);
+                    returnBuffer(session, slot);
+                    continue;
+                }
+
+                returnBuffer(session, slot);
+                slot = FramePool.NO_SLOT;
+                data = cropper.buffer(cropSlot);
+                width = crop[2];
+                height = crop[3];
+            }
+
+            PendingDetection<T> detection = new PendingDetection<>(session, data, width, height,
+                    frameId, frame.getTimeMillis(), mRotation, frame.getCaptureNanos(), slot, cropSlot);
+
+            if (mWorkerThreads != null) {
+                // Hand the frame to the next free worker, which releases its buffers once it is done
+                // with them.
+                try {
+                    detection.mSequence = mSequencer.begin();
+                } catch (InterruptedException e) {
+                    releaseFrame(session, slot, cropper, cropSlot);
+                    return;
+                }
+                try {
+                    mQueue.put(detection);
+                } catch (InterruptedException e) {
+                    // Complete the sequence number without a result, or delivery stalls on it.
+                    releaseFrame(session, slot, cropper, cropSlot);
+                    mSequencer.complete(detection.mSequence, null);
+                    return;
+                }
+                continue;
+            }
+
+            detect(mDetectors[0], detection, downscaler);
+            deliver(frameId, detection.mCaptureNanos, detection.mResult, detection.mError);
+        }
+    }
+
+    /**
+     * Swaps in the queued detector, if any.  Only called on the processing thread, in between
+     * frames, so a single detector isn't in use anymore.  Detection workers swap their own
+     * detectors before their next frame.
+     */
+    private void applyNextDetector() {
+        Detector<T> detector = mNextDetector.getAndSet(null);
+        if (detector == null) {
+            return;
+        }
+
+        if (mDetectors.length == 1) {
+            mDetectors[0].release();
+            mDetectors[0] = detector;
+            return;
+        }
+
+        for (int i = 0; i < mDetectors.length; i++) {
+            Detector<T> replaced = mNextDetectors.getAndSet(i, i == 0 ? detector : mFactory.createDetector());
+            if (replaced != null) {
+                replaced.release();
+            }
+        }
+    }
+
+    /**
+     * Runs the detector on a frame, going through the resolution cascade if it is on, and releases
+     * the buffers of the frame.  Leaves the result or the error in the detection.
+     */
+    private void detect(Detector<T> detector, PendingDetection<T> detection, LumaDownscaler downscaler) {
+        long detectStartNanos = System.nanoTime();
+        try {
+            detection.mResult = detectFrame(detector, detection, downscaler);
+            mTracer.record(detection.mFrameId, FrameTracer.STAGE_DETECTED);
+        } catch (Throwable t) {
+            detection.mError = t;
+        } finally {
+            releaseFrame(detection.mSession, detection.mSlot, mCropper, detection.mCropSlot);
+        }
+        onFrameDetected(detection.mCaptureNanos, detectStartNanos);
+    }
+
+    private T detectFrame(Detector<T> detector, PendingDetection<T> frame, LumaDownscaler downscaler) {
+        ResolutionCascade cascade = mResolutionCascade;
+        int width = frame.mWidth;
+        int height = frame.mHeight;
+
+        if (cascade != null
+                && LumaDownscaler.getDownscaledSize(width, cascade.getDownscale()) >= FrameCropper.MIN_CROP_SIZE
+                && LumaDownscaler.getDownscaledSize(height, cascade.getDownscale()) >= FrameCropper.MIN_CROP_SIZE) {
+            ByteBuffer lowResolutionData = downscaler.downscale(frame.mData.array(), width, height, cascade.getDownscale());
+            T result = detector.detect(lowResolutionData, downscaler.getWidth(), downscaler.getHeight(),
+                    frame.mFrameId, frame.mTimeMillis, frame.mRotation);
+            if (!cascade.needsFullResolution(detector.getCount(result), detector.getFormats(result))) {
+                cascade.record(ResolutionCascade.LEVEL_LOW_RESOLUTION);
+                return detector.toFullResolution(result, cascade.getDownscale(), frame.mData, width, height,
+                        frame.mFrameId, frame.mTimeMillis, frame.mRotation);
+            }
+        }
+
+        T result = detector.detect(frame.mData, width, height, frame.mFrameId, frame.mTimeMillis, frame.mRotation);
+        if (cascade != null) {
+            cascade.record(detector.getCount(result) > 0
+                    ? ResolutionCascade.LEVEL_FULL_RESOLUTION : ResolutionCascade.LEVEL_MISS);
+        }
+        return result;
+    }
+
+    /**
+     * Reports the timing of a frame that detection has completed on to the frame rate governor
+     * and the preview size tuner.
+     */
+    private void onFrameDetected(long captureNanos, long detectStartNanos) {
+        long nowNanos = System.nanoTime();
+
+        FrameRateGovernor governor = mGovernor;
+        if (governor != null) {
+            governor.onFrameDetected(captureNanos, nowNanos - detectStartNanos, nowNanos);
+        }
+
+        PreviewSizeTuner tuner = mTuner;
+        if (tuner != null && tuner.onFrameDetected(nowNanos - detectStartNanos)) {
+            mSource.onPreviewSizeChange();
+        }
+    }
+
+    private void deliver(int frameId, long captureNanos, T result, Throwable error) {
+        mTracer.setDeliveringFrameId(frameId);
+        try {
+            if (error == null) {
+                mReceiver.receive(frameId, captureNanos, result);
+            } else {
+                mReceiver.onError(frameId, error);
+            }
+        } catch (RuntimeException e) {
+            mReceiver.onError(frameId, e);
+        } finally {
+            mTracer.setDeliveringFrameId(FrameTracer.NO_FRAME);
+        }
+    }
+
+    /**
+     * Returns the window of the scan area in a frame of the given size, or null to detect on the
+     * whole frame.
+     */
+    private int[] getScanAreaCrop(int frameWidth, int frameHeight) {
+        float[] scanArea = mScanArea;
+        if (scanArea == null) {
+            return null;
+        }
+        return FrameCropper.alignCrop(scanArea[0], scanArea[1], scanArea[2], scanArea[3],
+                frameWidth, frameHeight);
+    }
+
+    private static void joinUninterruptibly(Thread thread) {
+        boolean interrupted = false;
+        while (true) {
+            try {
+                thread.join();
+                break;
+            } catch (InterruptedException e) {
+                interrupted = true;
+            }
+        }
+        if (interrupted) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private class DetectionWorker implements Runnable {
+        private final int mIndex;
+        private final LumaDownscaler mDownscaler = new LumaDownscaler();
+
+        DetectionWorker(int index) {
+            mIndex = index;
+        }
+
+        @Override
+        public void run() {
+            while (true) {
+                PendingDetection<T> detection;
+                try {
+                    detection = mQueue.take();
+                } catch (InterruptedException e) {
+                    return;
+                }
+
+                if (detection == PendingDetection.STOP) {
+                    return;
+                }
+
+                // This worker's previous detector is done with its last frame.
+                Detector<T> nextDetector = mNextDetectors.getAndSet(mIndex, null);
+                if (nextDetector != null) {
+                    mDetectors[mIndex].release();
+                    mDetectors[mIndex] = nextDetector;
+                }
+
+                detect(mDetectors[mIndex], detection, mDownscaler);
+                mSequencer.complete(detection.mSequence, detection);
+            }
+        }
+    }
+
+    /**
+     * A frame on its way through detection, and then its result.
+     */
+    private static class PendingDetection<T> {
+        private static final PendingDetection<?> STOP =
+                new PendingDetection<>(null, null, 0, 0, 0, 0, 0, 0, FramePool.NO_SLOT, FramePool.NO_SLOT);
+
+        @SuppressWarnings("unchecked")
+        static <T> PendingDetection<T> stop() {
+            return (PendingDetection<T>) STOP;
+        }
+
+        final Session mSession;
+        final ByteBuffer mData;
+        final int mWidth;
+        final int mHeight;
+        final int mFrameId;
+        final long mTimeMillis;
+        final int mRotation;
+        final long mCaptureNanos;
+        final int mSlot;
+        final int mCropSlot;
+
+        // Assigned when the frame is submitted to the workers
+        long mSequence = -1;
+
+        T mResult;
+        Throwable mError;
+
+        PendingDetection(Session session, ByteBuffer data, int width, int height, int frameId,
+                         long timeMillis, int rotation, long captureNanos, int slot, int cropSlot) {
+            mSession = session;
+            mData = data;
+            mWidth = width;
+            mHeight = height;
+            mFrameId = frameId;
+            mTimeMillis = timeMillis;
+            mRotation = rotation;
+            mCaptureNanos = captureNanos;
+            mSlot = slot;
+            mCropSlot = cropSlot;
+        }
+    }
+}
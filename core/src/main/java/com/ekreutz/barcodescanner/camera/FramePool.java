@@ -0,0 +1,244 @@
+package com.ekreutz.barcodescanner.camera;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Fixed-depth pool of preview buffers that are shared between the camera and the frame processor.
+ * <p/>
+ * Every buffer lives in a numbered slot.  Callers pass slot indices around instead of the buffers
+ * themselves, so finding the {@link ByteBuffer} for a frame is an array index rather than a hash
+ * lookup on the {@code byte[]} identity.
+ * <p/>
+ * The pool also keeps counters of what happened to the buffers (frames received from the camera,
+ * pending frames dropped before they could be processed, buffers recycled back to the camera and
+ * how often the camera was left without a free buffer), so that the pool depth can be tuned per
+ * device.  See {@link #getStats()}.
+ * <p/>
+ * All methods are thread safe, and none of them take a lock: the state of every slot is changed
+ * with a single compare-and-set, so that the camera thread never waits on the threads returning
+ * buffers.  {@link #acquire(byte[])} is meant to be called from a single thread, the camera thread.
+ */
+public class FramePool {
+    /**
+     * Smallest usable depth: one buffer for the frame being detected upon, one for the pending
+     * frame and one for the camera to fill in the meantime.
+     */
+    public static final int MIN_DEPTH = 3;
+    public static final int MAX_DEPTH = 32;
+    public static final int DEFAULT_DEPTH = 4;
+
+    public static final int NO_SLOT = -1;
+
+    private static final int STATE_IN_CAMERA = 0;
+    private static final int STATE_DELIVERED = 1;
+
+    private final byte[][] mArrays;
+    private final ByteBuffer[] mBuffers;
+    private final AtomicIntegerArray mStates;
+    private final AtomicInteger mInCamera = new AtomicInteger();
+
+    // The slot after the one acquired last.  The camera fills callback buffers in the order they
+    // were added, and they are mostly added back in the order they were delivered, so this is
+    // almost always the slot of the next delivered frame.  Only used by acquire().
+    private int mNextSlot = 0;
+
+    private final AtomicLong mReceived = new AtomicLong();
+    private final AtomicLong mDropped = new AtomicLong();
+    private final AtomicLong mRecycled = new AtomicLong();
+    private final AtomicLong mStarved = new AtomicLong();
+    private final AtomicLong mUnknown = new AtomicLong();
+
+    /**
+     * Allocates {@code depth} buffers of {@code bufferSize} bytes each.  None of the buffers are
+     * handed to the camera yet; call {@link #offer(int)} for every slot to do that.
+     */
+    public FramePool(int depth, int bufferSize) {
+        if (depth < MIN_DEPTH || depth > MAX_DEPTH) {
+            throw new IllegalArgumentException("Invalid frame pool depth: " + depth);
+        }
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("Invalid frame buffer size: " + bufferSize);
+        }
+
+        mArrays = new byte[depth][];
+        mBuffers = new ByteBuffer[depth];
+        mStates = new AtomicIntegerArray(depth);
+
+        for (int i = 0; i < depth; i++) {
+            // Creating the byte array this way and wrapping it, as opposed to using .allocate(),
+            // should guarantee that there will be an array to work with.
+            byte[] byteArray = new byte[bufferSize];
+            ByteBuffer buffer = ByteBuffer.wrap(byteArray);
+            if (!buffer.hasArray() || (buffer.array() != byteArray)) {
+                // I don't think that this will ever happen.  But if it does, then we wouldn't be
+                // passing the preview content to the underlying detector later.
+                throw new IllegalStateException("Failed to create valid buffer for camera source.");
+            }
+
+            mArrays[i] = byteArray;
+            mBuffers[i] = buffer;
+            mStates.set(i, STATE_DELIVERED);
+        }
+    }
+
+    public int getDepth() {
+        return mArrays.length;
+    }
+
+    public int getBufferSize() {
+        return mArrays[0].length;
+    }
+
+    /**
+     * Returns the byte buffer wrapping the given slot.
+     */
+    public ByteBuffer buffer(int slot) {
+        return mBuffers[slot];
+    }
+
+    /**
+     * Marks the given slot as owned by the camera and returns the array that should be passed to
+     * {@code Camera.addCallbackBuffer}.  Returns null if the slot is already owned by the camera,
+     * in which case it must not be added again.
+     */
+    public byte[] offer(int slot) {
+        if (!mStates.compareAndSet(slot, STATE_DELIVERED, STATE_IN_CAMERA)) {
+            return null;
+        }
+
+        // Buffers that have been delivered at least once are recycled; the initial fill isn't.
+        if (mReceived.get() > 0) {
+            mRecycled.incrementAndGet();
+        }
+        mInCamera.incrementAndGet();
+        return mArrays[slot];
+    }
+
+    /**
+     * Called when the camera delivers a filled buffer.  Returns the slot of that buffer, or
+     * {@link #NO_SLOT} if the buffer doesn't belong to this pool or isn't owned by the camera.
+     */
+    public int acquire(byte[] data) {
+        int depth = mArrays.length;
+        int slot = NO_SLOT;
+        for (int i = 0; i < depth; i++) {
+            int candidate = (mNextSlot + i) % depth;
+            if (mArrays[candidate] == data) {
+                slot = candidate;
+                break;
+            }
+        }
+
+        if (slot == NO_SLOT || !mStates.compareAndSet(slot, STATE_IN_CAMERA, STATE_DELIVERED)) {
+            mUnknown.incrementAndGet();
+            return NO_SLOT;
+        }
+
+        mNextSlot = (slot + 1) % depth;
+        mReceived.incrementAndGet();
+
+        if (mInCamera.decrementAndGet() == 0) {
+            // Every buffer is now held by the processor, so the camera has nowhere to put the next
+            // frame and will silently skip it.
+            mStarved.incrementAndGet();
+        }
+
+        return slot;
+    }
+
+    /**
+     * Records that the frame in the given slot was dropped before it could be processed, because
+     * a newer frame replaced it or there was no crop buffer free for it.  The slot still has to be handed back through {@link #offer(int)}.  Returns false,
+     * and counts the slot as unknown instead, if the slot doesn't belong to this pool or is owned
+     * by the camera rather than delivered.
+     */
+    public boolean drop(int slot) {
+        if (slot < 0 || slot >= mArrays.length || mStates.get(slot) != STATE_DELIVERED) {
+            mUnknown.incrementAndGet();
+            return false;
+        }
+
+        mDropped.incrementAndGet();
+        return true;
+    }
+
+    /**
+     * Returns the counters.  While buffers are moving, they may be off from each other by the
+     * frames in flight.
+     */
+    public Stats getStats() {
+        return new Stats(mArrays.length, mReceived.get(), mDropped.get(), mRecycled.get(),
+                mStarved.get(), mUnknown.get());
+    }
+
+    /**
+     * Snapshot of the pool counters.
+     */
+    public static class Stats {
+        private final int mDepth;
+        private final long mReceived;
+        private final long mDropped;
+        private final long mRecycled;
+        private final long mStarved;
+        private final long mUnknown;
+
+        Stats(int depth, long received, long dropped, long recycled, long starved, long unknown) {
+            mDepth = depth;
+            mReceived = received;
+            mDropped = dropped;
+            mRecycled = recycled;
+            mStarved = starved;
+            mUnknown = unknown;
+        }
+
+        public int getDepth() {
+            return mDepth;
+        }
+
+        /**
+         * Frames delivered by the camera into one of the pool buffers.
+         */
+        public long getReceived() {
+            return mReceived;
+        }
+
+        /**
+         * Frames that were dropped before the detector got to them, because a newer frame
+         * replaced them or there was no crop buffer free for them.
+         */
+        public long getDropped() {
+            return mDropped;
+        }
+
+        /**
+         * Buffers handed back to the camera after having been delivered.
+         */
+        public long getRecycled() {
+            return mRecycled;
+        }
+
+        /**
+         * Times the camera was left without a free buffer after delivering a frame.
+         */
+        public long getStarved() {
+            return mStarved;
+        }
+
+        /**
+         * Buffers delivered by the camera that didn't belong to the pool, and slots dropped that
+         * didn't belong to it or weren't delivered.
+         */
+        public long getUnknown() {
+            return mUnknown;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("depth=%d received=%d dropped=%d recycled=%d starved=%d unknown=%d",
+                    mDepth, mReceived, mDropped, mRecycled, mStarved, mUnknown);
+        }
+    }
+}
@@ -0,0 +1,209 @@
+package com.ekreutz.barcodescanner.camera;
+
+/**
+ * Adapts the camera frame rate to how fast the detector actually is.
+ * <p/>
+ * The governor measures how long detection takes per frame, and how long frames take from being
+ * captured to having been detected upon (the latency).  From those it derives:
+ * <ul>
+ * <li>a target camera frame rate, which is what the detector(s) can sustain plus some headroom,
+ * bounded by the frame rates the camera supports</li>
+ * <li>a frame skip ratio, for when the camera can't go as low as the target frame rate, or when
+ * the measured latency is above the target latency.  Only every n:th captured frame is passed on
+ * to detection.</li>
+ * </ul>
+ * All times are in nanoseconds from {@link System#nanoTime()} unless stated otherwise.  All methods
+ * are thread safe.
+ */
+public class FrameRateGovernor {
+    public static final float DEFAULT_TARGET_LATENCY_MILLIS = 100.0f;
+    public static final int MAX_SKIP_RATIO = 8;
+
+    // Weight of a new sample in the moving averages.
+    private static final float SMOOTHING = 0.1f;
+
+    // Feed the detector slightly more frames than it can handle, so that it never idles waiting
+    // for the next frame.
+    private static final float HEADROOM = 1.2f;
+
+    // The frame rate is only changed when the target moved by more than this fraction, and at
+    // most once per adjustment interval.  Changing the preview frame rate isn't free.
+    private static final float FPS_HYSTERESIS = 0.2f;
+    private static final long ADJUST_INTERVAL_NANOS = 1000000000L;
+
+    private static final int MIN_SAMPLES = 5;
+
+    private final float mMinFps;
+    private final float mMaxFps;
+    private final int mWorkers;
+
+    private float mTargetLatencyMillis;
+
+    // Moving averages, in milliseconds
+    private float mDecodeMillis = 0;
+    private float mLatencyMillis = 0;
+    private float mFrameIntervalMillis = 0;
+    private int mSamples = 0;
+
+    private long mLastCaptureNanos = 0;
+    private long mLastAdjustNanos = 0;
+
+    private float mTargetFps;
+    private boolean mTargetFpsChanged = false;
+    private int mSkipRatio = 1;
+    private int mLatencyPenalty = 0;
+    private int mSkipCounter = 0;
+
+    private long mFramesCaptured = 0;
+    private long mFramesSkipped = 0;
+
+    /**
+     * @param minFps     the lowest frame rate the camera supports
+     * @param maxFps     the highest frame rate the camera supports
+     * @param initialFps the frame rate the camera was opened with
+     * @param workers    the number of frames that are detected upon in parallel
+     */
+    public FrameRateGovernor(float minFps, float maxFps, float initialFps, int workers) {
+        if (minFps <= 0 || maxFps < minFps) {
+            throw new IllegalArgumentException("Invalid fps range: " + minFps + " - " + maxFps);
+        }
+        if (workers < 1) {
+            throw new IllegalArgumentException("Invalid number of workers: " + workers);
+        }
+
+        mMinFps = minFps;
+        mMaxFps = maxFps;
+        mWorkers = workers;
+        mTargetFps = Math.max(minFps, Math.min(initialFps, maxFps));
+        mTargetLatencyMillis = DEFAULT_TARGET_LATENCY_MILLIS;
+    }
+
+    /**
+     * Sets the capture-to-detection latency that the governor aims to stay below.  When frames
+     * take longer than this, more frames are skipped so that detection always runs on a fresh
+     * frame.
+     */
+    public synchronized void setTargetLatencyMillis(float millis) {
+        if (millis <= 0) {
+            throw new IllegalArgumentException("Invalid target latency: " + millis);
+        }
+        mTargetLatencyMillis = millis;
+    }
+
+    public synchronized float getTargetLatencyMillis() {
+        return mTargetLatencyMillis;
+    }
+
+    /**
+     * Called for every frame the camera delivers.
+     *
+     * @return true if the frame should be skipped instead of being passed on to detection
+     */
+    public synchronized boolean onFrameCaptured(long captureNanos) {
+        if (mLastCaptureNanos != 0) {
+            mFrameIntervalMillis = average(mFrameIntervalMillis, (captureNanos - mLastCaptureNanos) / 1e6f);
+        }
+        mLastCaptureNanos = captureNanos;
+        mFramesCaptured++;
+
+        mSkipCounter = (mSkipCounter + 1) % mSkipRatio;
+        if (mSkipCounter != 0) {
+            mFramesSkipped++;
+            return true;
+        }
+        return false;
+    }
+
+    /**
+     * Called after detection on a frame has completed.
+     *
+     * @param captureNanos when the frame was captured
+     * @param decodeNanos  how long the detector took on the frame
+     * @param nowNanos     the current time
+     */
+    public synchronized void onFrameDetected(long captureNanos, long decodeNanos, long nowNanos) {
+        mDecodeMillis = average(mDecodeMillis, decodeNanos / 1e6f);
+        mLatencyMillis = average(mLatencyMillis, (nowNanos - captureNanos) / 1e6f);
+        mSamples++;
+
+        if (mSamples >= MIN_SAMPLES && nowNanos - mLastAdjustNanos >= ADJUST_INTERVAL_NANOS) {
+            mLastAdjustNanos = nowNanos;
+            adjust();
+        }
+    }
+
+    /**
+     * Returns true, once, after the target frame rate has changed.  The caller should then apply
+     * {@link #getTargetFps()} to the camera.
+     */
+    public synchronized boolean takeTargetFpsChange() {
+        boolean changed = mTargetFpsChanged;
+        mTargetFpsChanged = false;
+        return changed;
+    }
+
+    public synchronized float getTargetFps() {
+        return mTargetFps;
+    }
+
+    public synchronized int getSkipRatio() {
+        return mSkipRatio;
+    }
+
+    public synchronized float getDecodeMillis() {
+        return mDecodeMillis;
+    }
+
+    public synchronized float getLatencyMillis() {
+        return mLatencyMillis;
+    }
+
+    public synchronized long getFramesCaptured() {
+        return mFramesCaptured;
+    }
+
+    public synchronized long getFramesSkipped() {
+        return mFramesSkipped;
+    }
+
+    private void adjust() {
+        // The frame rate at which the detector(s) are exactly busy all the time.
+        float sustainableFps = mWorkers * 1000.0f / Math.max(mDecodeMillis, 1.0f);
+
+        float targetFps = Math.max(mMinFps, Math.min(sustainableFps * HEADROOM, mMaxFps));
+        if (Math.abs(targetFps - mTargetFps) > mTargetFps * FPS_HYSTERESIS) {
+            mTargetFps = targetFps;
+            mTargetFpsChanged = true;
+        }
+
+        // Skip the frames that the camera delivers beyond what the detector can use, e.g. when the
+        // camera can't go as low as the sustainable frame rate.
+        int skipRatio = 1;
+        if (mFrameIntervalMillis > 0) {
+            float cameraFps = 1000.0f / mFrameIntervalMillis;
+            skipRatio = Math.max(1, (int) (cameraFps / (sustainableFps * HEADROOM)));
+        }
+
+        // On top of that, back off while frames still sit around for too long before they are
+        // detected upon, and recover once the latency is well below the target.  Skipping only
+        // helps with the waiting part of the latency, not with the detection itself.
+        float waitMillis = mLatencyMillis - mDecodeMillis;
+        if (mLatencyMillis > mTargetLatencyMillis && waitMillis > mDecodeMillis / 4) {
+            mLatencyPenalty = Math.min(mLatencyPenalty + 1, MAX_SKIP_RATIO);
+        } else if (mLatencyMillis < mTargetLatencyMillis / 2 && mLatencyPenalty > 0) {
+            mLatencyPenalty--;
+        }
+
+        mSkipRatio = Math.max(1, Math.min(skipRatio + mLatencyPenalty, MAX_SKIP_RATIO));
+    }
+
+    private static float average(float average, float sample) {
+        return average == 0 ? sample : average + SMOOTHING * (sample - average);
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("fps=%.1f skip=1/%d decode=%.1fms latency=%.1fms captured=%d skipped=%d",
+                mTargetFps, mSkipRatio, mDecodeMillis, mLatencyMillis, mFramesCaptured, mFramesSkipped);
+    }
+}
@@ -0,0 +1,217 @@
+package com.ekreutz.barcodescanner.camera;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.Deflater;
+
+/**
+ * Writes camera frames with their metadata to a capture file, so that they can be replayed later
+ * with {@link FrameReplay}, e.g. to benchmark changes to the frame pipeline on real footage.
+ * <p/>
+ * The file is written through memory mapped regions of {@link #REGION_SIZE} bytes, so that
+ * recording a frame is a copy into the page cache instead of a write call.  Frames can optionally
+ * be compressed with deflate, which makes the file a fraction of the size at the cost of time on
+ * the recording thread.
+ * <p/>
+ * File layout, big endian:
+ * <pre>
+ * header: magic, version, flags (int each)
+ * frame:  width, height, format, rotation (int each), timestamp in nanoseconds (long),
+ *         length of the frame data, length as stored (int each), stored data
+ * </pre>
+ * A recording that is stopped by a crash ends with a truncated or zeroed frame, which
+ * {@link FrameRecording} treats as the end of the file.
+ * <p/>
+ * All methods are thread safe.
+ */
+public class FrameRecorder implements Closeable {
+    static final int MAGIC = 0x42534652; // "BSFR"
+    static final int VERSION = 1;
+    static final int FLAG_COMPRESSED = 1;
+
+    static final int HEADER_SIZE = 3 * 4;
+    static final int FRAME_HEADER_SIZE = 4 * 4 + 8 + 2 * 4;
+
+    public static final int REGION_SIZE = 32 * 1024 * 1024;
+
+    /**
+     * Passed as the frame limit to record until {@link #close()}.
+     */
+    public static final int NO_LIMIT = 0;
+
+    private final File mFile;
+    private final RandomAccessFile mRandomAccessFile;
+    private final FileChannel mChannel;
+    private final boolean mCompressed;
+    private final int mMaxFrames;
+
+    private MappedByteBuffer mRegion;
+    private long mRegionStart = 0;
+    private long mPosition = 0;
+
+    private Deflater mDeflater;
+    private byte[] mCompressBuffer;
+
+    private int mFrames = 0;
+    private long mFrameBytes = 0;
+    private boolean mClosed = false;
+
+    /**
+     * @param file       the capture file, which is overwritten
+     * @param compressed whether to deflate the frame data
+     * @param maxFrames  how many frames to record at most, or {@link #NO_LIMIT}
+     */
+    public FrameRecorder(File file, boolean compressed, int maxFrames) throws IOException {
+        if (maxFrames < 0) {
+            throw new IllegalArgumentException("Invalid frame limit: " + maxFrames);
+        }
+        mFile = file;
+        mCompressed = compressed;
+        mMaxFrames = maxFrames;
+
+        mRandomAccessFile = new RandomAccessFile(file, "rw");
+        mRandomAccessFile.setLength(0);
+        mChannel = mRandomAccessFile.getChannel();
+        if (compressed) {
+            mDeflater = new Deflater(Deflater.BEST_SPEED);
+        }
+
+        reserve(HEADER_SIZE);
+        mRegion.putInt(MAGIC);
+        mRegion.putInt(VERSION);
+        mRegion.putInt(compressed ? FLAG_COMPRESSED : 0);
+        mPosition += HEADER_SIZE;
+    }
+
+    /**
+     * Records a frame.  Does nothing once the frame limit is reached or the recorder is closed.
+     *
+     * @param data           the frame data; only the first {@code length} bytes are recorded
+     * @param length         the size of the frame, e.g. width * height * 3 / 2 for NV21
+     * @param format         the image format, e.g. {@code ImageFormat.NV21}
+     * @param timestampNanos when the frame was captured
+     * @return false if the frame wasn't recorded
+     */
+    public synchronized boolean record(byte[] data, int length, int width, int height, int format,
+                                       int rotation, long timestampNanos) throws IOException {
+        if (mClosed || (mMaxFrames != NO_LIMIT && mFrames >= mMaxFrames)) {
+            return false;
+        }
+        if (length < 0 || length > data.length) {
+            throw new IllegalArgumentException("Invalid frame length: " + length);
+        }
+
+        byte[] stored = data;
+        int storedLength = length;
+        if (mCompressed) {
+            storedLength = compress(data, length);
+            stored = mCompressBuffer;
+        }
+
+        reserve(FRAME_HEADER_SIZE + storedLength);
+        mRegion.putInt(width);
+        mRegion.putInt(height);
+        mRegion.putInt(format);
+        mRegion.putInt(rotation);
+        mRegion.putLong(timestampNanos);
+        mRegion.putInt(length);
+        mRegion.putInt(storedLength);
+        mRegion.put(stored, 0, storedLength);
+        mPosition += FRAME_HEADER_SIZE + storedLength;
+
+        mFrames++;
+        mFrameBytes += length;
+        return true;
+    }
+
+    private int compress(byte[] data, int length) {
+        // the most that deflate can grow incompressible data by, like zlib's deflateBound()
+        int bound = length + (length >> 12) + (length >> 14) + 64;
+        if (mCompressBuffer == null || mCompressBuffer.length < bound) {
+            mCompressBuffer = new byte[bound];
+        }
+
+        mDeflater.reset();
+        mDeflater.setInput(data, 0, length);
+        mDeflater.finish();
+        int compressedLength = 0;
+        while (!mDeflater.finished()) {
+            compressedLength += mDeflater.deflate(mCompressBuffer, compressedLength,
+                    mCompressBuffer.length - compressedLength);
+        }
+        return compressedLength;
+    }
+
+    /**
+     * Makes sure that the mapped region has room for the given number of bytes at the current
+     * position, mapping the next region if it doesn't.  Records never span two regions.
+     */
+    private void reserve(int bytes) throws IOException {
+        if (mRegion != null && mPosition - mRegionStart + bytes <= mRegion.capacity()) {
+            return;
+        }
+
+        mRegionStart = mPosition;
+        mRegion = mChannel.map(FileChannel.MapMode.READ_WRITE, mRegionStart, Math.max(REGION_SIZE, bytes));
+        mRegion.order(ByteOrder.BIG_ENDIAN);
+    }
+
+    public synchronized int getFrames() {
+        return mFrames;
+    }
+
+    /**
+     * Returns the size of the recorded frames before compression.
+     */
+    public synchronized long getFrameBytes() {
+        return mFrameBytes;
+    }
+
+    /**
+     * Returns the size of the capture file so far.
+     */
+    public synchronized long getFileBytes() {
+        return mPosition;
+    }
+
+    public synchronized boolean isFull() {
+        return mMaxFrames != NO_LIMIT && mFrames >= mMaxFrames;
+    }
+
+    public File getFile() {
+        return mFile;
+    }
+
+    /**
+     * Finishes the capture file, cutting off the unused end of the last mapped region.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        if (mClosed) {
+            return;
+        }
+        mClosed = true;
+
+        try {
+            mRegion.force();
+            mRegion = null;
+            mChannel.truncate(mPosition);
+        } finally {
+            mRandomAccessFile.close();
+            if (mDeflater != null) {
+                mDeflater.end();
+            }
+        }
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("frames=%d frameBytes=%d fileBytes=%d compressed=%b",
+                mFrames, mFrameBytes, mPosition, mCompressed);
+    }
+}
@@ -0,0 +1,264 @@
+package com.ekreutz.barcodescanner.camera;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reads the frames of a capture file written by {@link FrameRecorder}, in order.
+ * <p/>
+ * The file is read through memory mapped regions like it was written, so reading a frame that
+ * wasn't compressed is a single copy out of the page cache.  A truncated frame at the end of the
+ * file, as left by a recording that was cut short, ends the recording.
+ * <p/>
+ * Not thread safe.
+ */
+public class FrameRecording implements Closeable {
+
+    /**
+     * A frame read from the recording.  Reused for every frame, so that reading doesn't allocate
+     * once the buffer is large enough.
+     */
+    public static class RecordedFrame {
+        private byte[] mData = new byte[0];
+        private int mLength;
+        private int mWidth;
+        private int mHeight;
+        private int mFormat;
+        private int mRotation;
+        private long mTimestampNanos;
+
+        /**
+         * Returns the frame data.  Only the first {@link #getLength()} bytes belong to the frame.
+         */
+        public byte[] getData() {
+            return mData;
+        }
+
+        public int getLength() {
+            return mLength;
+        }
+
+        public int getWidth() {
+            return mWidth;
+        }
+
+        public int getHeight() {
+            return mHeight;
+        }
+
+        public int getFormat() {
+            return mFormat;
+        }
+
+        public int getRotation() {
+            return mRotation;
+        }
+
+        public long getTimestampNanos() {
+            return mTimestampNanos;
+        }
+    }
+
+    private final RandomAccessFile mRandomAccessFile;
+    private final FileChannel mChannel;
+    private final long mSize;
+    private final boolean mCompressed;
+
+    private MappedByteBuffer mRegion;
+    private long mRegionStart = 0;
+    private long mPosition;
+
+    private Inflater mInflater;
+    private byte[] mCompressBuffer;
+
+    // Found by scan(), on first use
+    private int mFrameCount = -1;
+    private int mMaxFrameLength;
+
+    public FrameRecording(File file) throws IOException {
+        mRandomAccessFile = new RandomAccessFile(file, "r");
+        mChannel = mRandomAccessFile.getChannel();
+        mSize = mChannel.size();
+
+        try {
+            if (!map(0, FrameRecorder.HEADER_SIZE)
+                    || mRegion.getInt() != FrameRecorder.MAGIC
+                    || mRegion.getInt() != FrameRecorder.VERSION) {
+                throw new IOException("Not a frame recording: " + file);
+            }
+        } catch (IOException e) {
+            mRandomAccessFile.close();
+            throw e;
+        }
+
+        mCompressed = (mRegion.getInt() & FrameRecorder.FLAG_COMPRESSED) != 0;
+        if (mCompressed) {
+            mInflater = new Inflater();
+        }
+        mPosition = FrameRecorder.HEADER_SIZE;
+    }
+
+    public boolean isCompressed() {
+        return mCompressed;
+    }
+
+    /**
+     * Reads the next frame into the given frame.
+     *
+     * @return false at the end of the recording
+     */
+    public boolean next(RecordedFrame frame) throws IOException {
+        if (!map(mPosition, FrameRecorder.FRAME_HEADER_SIZE)) {
+            return false;
+        }
+
+        int width = mRegion.getInt();
+        int height = mRegion.getInt();
+        int format = mRegion.getInt();
+        int rotation = mRegion.getInt();
+        long timestampNanos = mRegion.getLong();
+        int length = mRegion.getInt();
+        int storedLength = mRegion.getInt();
+        if (width <= 0 || height <= 0 || length <= 0 || storedLength <= 0
+                || !map(mPosition + FrameRecorder.FRAME_HEADER_SIZE, storedLength)) {
+            // cut short while recording
+            return false;
+        }
+
+        if (frame.mData.length < length) {
+            frame.mData = new byte[length];
+        }
+
+        if (mCompressed) {
+            if (mCompressBuffer == null || mCompressBuffer.length < storedLength) {
+                mCompressBuffer = new byte[storedLength];
+            }
+            mRegion.get(mCompressBuffer, 0, storedLength);
+            inflate(storedLength, frame.mData, length);
+        } else {
+            mRegion.get(frame.mData, 0, length);
+        }
+
+        frame.mLength = length;
+        frame.mWidth = width;
+        frame.mHeight = height;
+        frame.mFormat = format;
+        frame.mRotation = rotation;
+        frame.mTimestampNanos = timestampNanos;
+        mPosition += FrameRecorder.FRAME_HEADER_SIZE + storedLength;
+        return true;
+    }
+
+    /**
+     * Returns the number of frames in the recording.
+     */
+    public int getFrameCount() throws IOException {
+        scan();
+        return mFrameCount;
+    }
+
+    /**
+     * Returns the size of the largest frame, e.g. to size buffers for every frame.  Frames differ
+     * in size if the preview size changed while recording.
+     */
+    public int getMaxFrameLength() throws IOException {
+        scan();
+        return mMaxFrameLength;
+    }
+
+    /**
+     * Walks the frame headers once, without reading the frames.
+     */
+    private void scan() throws IOException {
+        if (mFrameCount >= 0) {
+            return;
+        }
+
+        int count = 0;
+        int maxLength = 0;
+        long position = FrameRecorder.HEADER_SIZE;
+        while (map(position, FrameRecorder.FRAME_HEADER_SIZE)) {
+            int width = mRegion.getInt();
+            int height = mRegion.getInt();
+            mRegion.position(mRegion.position() + 4 + 4 + 8);
+            int length = mRegion.getInt();
+            int storedLength = mRegion.getInt();
+            position += FrameRecorder.FRAME_HEADER_SIZE + (long) storedLength;
+            if (width <= 0 || height <= 0 || length <= 0 || storedLength <= 0 || position > mSize) {
+                break;
+            }
+
+            count++;
+            maxLength = Math.max(maxLength, length);
+        }
+
+        mFrameCount = count;
+        mMaxFrameLength = maxLength;
+    }
+
+    /**
+     * Starts over at the first frame.
+     */
+    public void rewind() {
+        mPosition = FrameRecorder.HEADER_SIZE;
+    }
+
+    private void inflate(int storedLength, byte[] data, int length) throws IOException {
+        mInflater.reset();
+        mInflater.setInput(mCompressBuffer, 0, storedLength);
+        try {
+            int inflated = 0;
+            while (inflated < length && !mInflater.finished()) {
+                int count = mInflater.inflate(data, inflated, length - inflated);
+                if (count == 0 && (mInflater.needsInput() || mInflater.needsDictionary())) {
+                    break;
+                }
+                inflated += count;
+            }
+            if (inflated != length) {
+                throw new IOException("Damaged frame at " + mPosition);
+            }
+        } catch (DataFormatException e) {
+            throw new IOException("Damaged frame at " + mPosition, e);
+        }
+    }
+
+    /**
+     * Positions the mapped region at {@code position}, with at least {@code bytes} bytes after it,
+     * mapping another region if needed.
+     *
+     * @return false if the file ends before that
+     */
+    private boolean map(long position, int bytes) throws IOException {
+        if (position + bytes > mSize) {
+            return false;
+        }
+
+        if (mRegion == null || position < mRegionStart
+                || position - mRegionStart + bytes > mRegion.capacity()) {
+            mRegionStart = position;
+            mRegion = mChannel.map(FileChannel.MapMode.READ_ONLY, position,
+                    Math.min(mSize - position, Math.max(FrameRecorder.REGION_SIZE, bytes)));
+            mRegion.order(ByteOrder.BIG_ENDIAN);
+        }
+
+        mRegion.position((int) (position - mRegionStart));
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        mRegion = null;
+        mRandomAccessFile.close();
+        if (mInflater != null) {
+            mInflater.end();
+        }
+    }
+}
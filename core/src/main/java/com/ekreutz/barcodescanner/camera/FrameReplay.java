@@ -0,0 +1,453 @@
+package com.ekreutz.barcodescanner.camera;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Feeds the frames of a {@link FrameRecording} through the {@link FramePipeline} that
+ * {@code CameraSource} runs on the device, on a plain JVM and with a stand-in for the detector, so
+ * that changes to the pipeline can be benchmarked on real footage without a device.
+ * <p/>
+ * The thread calling {@link #run()} plays the camera: it fills the buffers the pipeline hands back
+ * with recorded frames and passes them to {@link FramePipeline#onFrame(byte[])}, skipping frames
+ * while the pipeline holds every buffer.  Everything after that is the pipeline of the device: the
+ * handoff, the frame rate governor, the frame gate, the scan area crop, the resolution cascade,
+ * the parallel detection workers and the merging of their results.  A detector that schedules
+ * formats, or runs a format cascade, does so inside the detector that is passed in.
+ * <p/>
+ * Frames are played either at the speed they were recorded at, which drops frames like the camera
+ * would, or as fast as the processing thread takes them, which drops none and measures
+ * throughput.  A camera whose frame rate can't be changed is played: the frame rate governor can
+ * only skip frames.
+ *
+ * @param <T> the results of the detector
+ */
+public class FrameReplay<T> {
+    public static final int SPEED_RECORDED = 0;
+    public static final int SPEED_MAX = 1;
+
+    // How long the camera waits in between looking at whether the processing thread has taken the
+    // last frame, at full speed.
+    private static final long POLL_NANOS = 20000;
+
+    private final FrameRecording mRecording;
+    private final TimedDetector mDetector;
+    private final FramePipeline<T> mPipeline;
+
+    // The buffers the camera has to fill, and all buffers of the current preview size
+    private final BlockingQueue<byte[]> mInCamera = new LinkedBlockingQueue<>();
+    private volatile byte[][] mBuffers = new byte[0][];
+    private final AtomicLong mDetectNanos = new AtomicLong();
+
+    private int mSpeed = SPEED_RECORDED;
+    private int mPoolDepth = FramePool.DEFAULT_DEPTH;
+    private FramePipeline.Receiver<T> mReceiver;
+
+    // Written by the receiver, which never runs concurrently with itself, and read after the
+    // pipeline has been stopped.
+    private int mReceived;
+    private long mLatencyNanos;
+    private volatile Throwable mError;
+
+    public FrameReplay(FrameRecording recording, FramePipeline.Detector<T> detector) {
+        mRecording = recording;
+        // released by release(), and not when the detection workers change
+        mDetector = new TimedDetector(detector, false);
+        mPipeline = new FramePipeline<>(new ReplaySource(), new ReplayReceiver(),
+                new FrameTracer(FrameTracer.DEFAULT_CAPACITY));
+        mPipeline.setDetector(mDetector, 1, null);
+    }
+
+    public FrameReplay<T> setSpeed(int speed) {
+        if (speed != SPEED_RECORDED && speed != SPEED_MAX) {
+            throw new IllegalArgumentException("Invalid replay speed: " + speed);
+        }
+        mSpeed = speed;
+        return this;
+    }
+
+    public FrameReplay<T> setPoolDepth(int poolDepth) {
+        if (poolDepth < FramePool.MIN_DEPTH || poolDepth > FramePool.MAX_DEPTH) {
+            throw new IllegalArgumentException("Invalid frame pool depth: " + poolDepth);
+        }
+        mPoolDepth = poolDepth;
+        return this;
+    }
+
+    public FrameReplay<T> setWaitStrategy(int waitStrategy) {
+        mPipeline.setWaitStrategy(waitStrategy);
+        return this;
+    }
+
+    /**
+     * Sets the frame gate that frames pass before detection, or null for none.
+     */
+    public FrameReplay<T> setFrameGate(FrameGate frameGate) {
+        mPipeline.setFrameGate(frameGate);
+        return this;
+    }
+
+    /**
+     * Runs detection on {@code workers} threads in parallel, with the detector passed in for the
+     * first, and detectors from the factory for the others.
+     */
+    public FrameReplay<T> setDetectionWorkers(int workers, final FramePipeline.DetectorFactory<T> factory) {
+        mPipeline.release();
+        mPipeline.setDetector(mDetector, workers, factory == null ? null : new FramePipeline.DetectorFactory<T>() {
+            @Override
+            public FramePipeline.Detector<T> createDetector() {
+                return new TimedDetector(factory.createDetector(), true);
+            }
+        });
+        return this;
+    }
+
+    /**
+     * Sets the frame rate governor, or null for none.
+     */
+    public FrameReplay<T> setFrameRateGovernor(FrameRateGovernor governor) {
+        mPipeline.setFrameRateGovernor(governor);
+        return this;
+    }
+
+    /**
+     * Sets the resolution cascade, or null for none.
+     */
+    public FrameReplay<T> setResolutionCascade(ResolutionCascade cascade) {
+        mPipeline.setResolutionCascade(cascade);
+        return this;
+    }
+
+    /**
+     * Restricts detection to a window of the frames, as fractions of the frame size, or to whole
+     * frames for null.
+     */
+    public FrameReplay<T> setScanArea(float[] scanArea) {
+        mPipeline.setScanArea(scanArea);
+        return this;
+    }
+
+    /**
+     * Sets a receiver that is handed the results of every frame, or null for none.
+     */
+    public FrameReplay<T> setReceiver(FramePipeline.Receiver<T> receiver) {
+        mReceiver = receiver;
+        return this;
+    }
+
+    /**
+     * Replays the recording from the start, and returns once every frame was either detected on or
+     * dropped.
+     *
+     * @throws RuntimeException if the detector or the receiver threw
+     */
+    public Result run() throws IOException, InterruptedException {
+        mRecording.rewind();
+        int frameLength = mRecording.getMaxFrameLength();
+        if (frameLength == 0) {
+            return new Result();
+        }
+
+        mReceived = 0;
+        mLatencyNanos = 0;
+        mError = null;
+        mDetectNanos.set(0);
+        FrameGate gate = mPipeline.getFrameGate();
+        long gatedBefore = gate != null ? gate.getSkippedBlurry() + gate.getSkippedStatic() : 0;
+        FrameRateGovernor governor = mPipeline.getFrameRateGovernor();
+        long skippedBefore = governor != null ? governor.getFramesSkipped() : 0;
+
+        Result result = new Result();
+        FrameRecording.RecordedFrame recorded = new FrameRecording.RecordedFrame();
+        FramePool pool = null;
+        int width = 0;
+        int height = 0;
+        long startNanos = System.nanoTime();
+        long firstTimestampNanos = 0;
+
+        mPipeline.start();
+        try {
+            while (mRecording.next(recorded) && mError == null) {
+                result.mFrames++;
+                if (result.mFrames == 1) {
+                    firstTimestampNanos = recorded.getTimestampNanos();
+                }
+
+                if (recorded.getWidth() != width || recorded.getHeight() != height) {
+                    // the camera moves to another preview size, with new buffers, once the
+                    // processing thread has the last frame of the old size
+                    awaitTaken();
+                    if (pool != null) {
+                        result.mDropped += pool.getStats().getDropped();
+                    }
+                    width = recorded.getWidth();
+                    height = recorded.getHeight();
+                    pool = new FramePool(mPoolDepth, frameLength);
+                    byte[][] buffers = new byte[pool.getDepth()][];
+                    for (int slot = 0; slot < buffers.length; slot++) {
+                        buffers[slot] = pool.offer(slot);
+                    }
+                    synchronized (mInCamera) {
+                        mBuffers = buffers;
+                        mInCamera.clear();
+                        mInCamera.addAll(Arrays.asList(buffers));
+                    }
+                    mPipeline.startSession(pool, width, height);
+                }
+
+                byte[] buffer;
+                if (mSpeed == SPEED_RECORDED) {
+                    waitUntil(startNanos + recorded.getTimestampNanos() - firstTimestampNanos);
+                    buffer = mInCamera.poll();
+                    if (buffer == null) {
+                        // the camera has no buffer to fill, and skips the frame
+                        result.mStarved++;
+                        continue;
+                    }
+                } else {
+                    awaitTaken();
+                    buffer = mInCamera.take();
+                }
+
+                System.arraycopy(recorded.getData(), 0, buffer, 0, recorded.getLength());
+                mPipeline.onFrame(buffer);
+            }
+
+            // let the processing thread take the last frame
+            awaitTaken();
+        } finally {
+            mPipeline.stop();
+            mPipeline.endSession();
+        }
+
+        if (mError != null) {
+            throw new RuntimeException("Detection failed during replay.", mError);
+        }
+
+        if (pool != null) {
+            result.mDropped += pool.getStats().getDropped();
+        }
+        result.mGated = gate != null ? (int) (gate.getSkippedBlurry() + gate.getSkippedStatic() - gatedBefore) : 0;
+        result.mSkipped = governor != null ? (int) (governor.getFramesSkipped() - skippedBefore) : 0;
+        result.mReceived = mReceived;
+        result.mDetectNanos = mDetectNanos.get();
+        result.mLatencyNanos = mLatencyNanos;
+        result.mReplayNanos = System.nanoTime() - startNanos;
+        return result;
+    }
+
+    /**
+     * Releases the detectors.
+     */
+    public void release() {
+        mPipeline.release();
+        mDetector.mDetector.release();
+    }
+
+    /**
+     * Waits until the processing thread has taken the last frame, or detection failed.
+     */
+    private void awaitTaken() {
+        while (mPipeline.hasPendingFrame() && mError == null) {
+            LockSupport.parkNanos(POLL_NANOS);
+        }
+    }
+
+    private static void waitUntil(long nanos) {
+        long remaining;
+        while ((remaining = nanos - System.nanoTime()) > 0) {
+            LockSupport.parkNanos(remaining);
+        }
+    }
+
+    /**
+     * The camera, which gets the buffers back in a queue, and whose frame rate and preview size
+     * are fixed by the recording.
+     */
+    private class ReplaySource implements FramePipeline.FrameSource {
+        @Override
+        public void addBuffer(byte[] buffer) {
+            // A buffer of the previous size can come back right after the size changed; the camera
+            // drops those.
+            synchronized (mInCamera) {
+                for (byte[] current : mBuffers) {
+                    if (current == buffer) {
+                        mInCamera.add(buffer);
+                        return;
+                    }
+                }
+            }
+        }
+
+        @Override
+        public void onTargetFpsChanged(float fps) {
+        }
+
+        @Override
+        public void onPreviewSizeChange() {
+        }
+    }
+
+    private class ReplayReceiver implements FramePipeline.Receiver<T> {
+        @Override
+        public void receive(int frameId, long captureNanos, T result) {
+            mReceived++;
+            mLatencyNanos += System.nanoTime() - captureNanos;
+
+            FramePipeline.Receiver<T> receiver = mReceiver;
+            if (receiver != null) {
+                receiver.receive(frameId, captureNanos, result);
+            }
+        }
+
+        @Override
+        public void onError(int frameId, Throwable t) {
+            if (mError == null) {
+                mError = t;
+            }
+        }
+    }
+
+    /**
+     * Adds the time spent in a detector to the total detection time.
+     */
+    private class TimedDetector implements FramePipeline.Detector<T> {
+        private final FramePipeline.Detector<T> mDetector;
+        private final boolean mReleasable;
+
+        TimedDetector(FramePipeline.Detector<T> detector, boolean releasable) {
+            mDetector = detector;
+            mReleasable = releasable;
+        }
+
+        @Override
+        public T detect(ByteBuffer data, int width, int height, int frameId, long timeMillis, int rotation) {
+            long startNanos = System.nanoTime();
+            try {
+                return mDetector.detect(data, width, height, frameId, timeMillis, rotation);
+            } finally {
+                mDetectNanos.addAndGet(System.nanoTime() - startNanos);
+            }
+        }
+
+        @Override
+        public int getCount(T result) {
+            return mDetector.getCount(result);
+        }
+
+        @Override
+        public int getFormats(T result) {
+            return mDetector.getFormats(result);
+        }
+
+        @Override
+        public T toFullResolution(T result, int downscale, ByteBuffer data, int width, int height,
+                                  int frameId, long timeMillis, int rotation) {
+            return mDetector.toFullResolution(result, downscale, data, width, height, frameId, timeMillis, rotation);
+        }
+
+        @Override
+        public void release() {
+            if (mReleasable) {
+                mDetector.release();
+            }
+        }
+    }
+
+    /**
+     * What happened to the frames of a replay.
+     */
+    public static class Result {
+        private int mFrames;
+        private int mStarved;
+        private int mDropped;
+        private int mGated;
+        private int mSkipped;
+        private int mReceived;
+        private long mDetectNanos;
+        private long mLatencyNanos;
+        private long mReplayNanos;
+
+        /**
+         * Returns the number of frames read from the recording.
+         */
+        public int getFrames() {
+            return mFrames;
+        }
+
+        /**
+         * Returns the number of frames skipped because every buffer was taken.
+         */
+        public int getStarved() {
+            return mStarved;
+        }
+
+        /**
+         * Returns the number of frames replaced by a newer frame before they were taken.
+         */
+        public int getDropped() {
+            return mDropped;
+        }
+
+        /**
+         * Returns the number of frames that the frame gate held back.
+         */
+        public int getGated() {
+            return mGated;
+        }
+
+        /**
+         * Returns the number of frames that the frame rate governor skipped.
+         */
+        public int getSkipped() {
+            return mSkipped;
+        }
+
+        /**
+         * Returns the number of frames detected on.
+         */
+        public int getReceived() {
+            return mReceived;
+        }
+
+        /**
+         * Returns the mean time the detectors took per frame, counting every pass of the
+         * resolution cascade.
+         */
+        public float getMeanDetectMillis() {
+            return mReceived > 0 ? mDetectNanos / 1e6f / mReceived : 0;
+        }
+
+        /**
+         * Returns the mean time from the camera handing a frame to the pipeline until its results
+         * were received.
+         */
+        public float getMeanLatencyMillis() {
+            return mReceived > 0 ? mLatencyNanos / 1e6f / mReceived : 0;
+        }
+
+        public float getReplayMillis() {
+            return mReplayNanos / 1e6f;
+        }
+
+        /**
+         * Returns the number of frames detected on per second of replay.
+         */
+        public float getReceivedFps() {
+            return mReplayNanos > 0 ? mReceived * 1e9f / mReplayNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("frames=%d starved=%d dropped=%d gated=%d skipped=%d received=%d "
+                            + "detect=%.2fms latency=%.2fms replay=%.0fms fps=%.1f",
+                    mFrames, mStarved, mDropped, mGated, mSkipped, mReceived, getMeanDetectMillis(),
+                    getMeanLatencyMillis(), getReplayMillis(), getReceivedFps());
+        }
+    }
+}
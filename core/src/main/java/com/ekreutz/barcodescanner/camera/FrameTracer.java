@@ -0,0 +1,142 @@
+package com.ekreutz.barcodescanner.camera;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Records when each frame passes each stage of the way from the camera to JS, so that the time
+ * spent in every stage can be measured in the field.
+ * <p/>
+ * Entries go into a fixed-size ring that overwrites its oldest entries, and recording never takes
+ * a lock: a writer claims the next position with a single atomic increment.  Every entry carries
+ * the sequence number it was written with, which readers check before and after reading the entry
+ * to leave out entries that were being overwritten at the same time.
+ * <p/>
+ * All methods are thread safe.
+ */
+public class FrameTracer {
+    public static final int STAGE_CAPTURED = 0; // the camera delivered the frame
+    public static final int STAGE_DEQUEUED = 1; // the processing thread took the frame
+    public static final int STAGE_DETECTED = 2; // the detector is done with the frame
+    public static final int STAGE_TRACKED = 3; // a tracker was told about a new barcode
+    public static final int STAGE_EMITTED = 4; // the barcode event was sent to JS
+
+    public static final String[] STAGE_NAMES = {
+        "CAPTURED", "DEQUEUED", "DETECTED", "TRACKED", "EMITTED"
+    };
+
+    public static final int DEFAULT_CAPACITY = 1024;
+    public static final long NO_FRAME = -1;
+
+    // Each entry takes three longs in the ring: its sequence number, its frame id and stage packed
+    // together, and its timestamp.
+    private static final int ENTRY_SIZE = 3;
+    private static final int STAGE_BITS = 8;
+    private static final long WRITING = -1;
+
+    private final int mCapacity;
+    private final int mMask;
+    private final AtomicLongArray mEntries;
+    private final AtomicLong mNextSequence = new AtomicLong();
+
+    // The frame whose results are being handed to the processor, if any.  Results are delivered
+    // by one thread at a time, which lets trackers find out which frame they are looking at.
+    private volatile long mDeliveringFrameId = NO_FRAME;
+
+    /**
+     * @param capacity the number of entries to keep, a power of two
+     */
+    public FrameTracer(int capacity) {
+        if (capacity < 1 || Integer.bitCount(capacity) != 1) {
+            throw new IllegalArgumentException("Invalid tracer capacity: " + capacity);
+        }
+
+        mCapacity = capacity;
+        mMask = capacity - 1;
+        mEntries = new AtomicLongArray(capacity * ENTRY_SIZE);
+        for (int i = 0; i < capacity; i++) {
+            mEntries.set(i * ENTRY_SIZE, WRITING);
+        }
+    }
+
+    public int getCapacity() {
+        return mCapacity;
+    }
+
+    /**
+     * Records that a frame has reached a stage just now.
+     */
+    public void record(long frameId, int stage) {
+        record(frameId, stage, System.nanoTime());
+    }
+
+    /**
+     * Records that a frame reached a stage at the given time, from {@link System#nanoTime()}.
+     */
+    public void record(long frameId, int stage, long nanos) {
+        if (frameId < 0) {
+            return;
+        }
+
+        long sequence = mNextSequence.getAndIncrement();
+        int index = (int) (sequence & mMask) * ENTRY_SIZE;
+
+        mEntries.set(index, WRITING);
+        mEntries.set(index + 1, (frameId << STAGE_BITS) | stage);
+        mEntries.set(index + 2, nanos);
+        mEntries.set(index, sequence);
+    }
+
+    /**
+     * Returns the total number of entries recorded, including the ones overwritten since.
+     */
+    public long getRecorded() {
+        return mNextSequence.get();
+    }
+
+    public void setDeliveringFrameId(long frameId) {
+        mDeliveringFrameId = frameId;
+    }
+
+    /**
+     * Returns the frame whose results are being delivered right now, or {@link #NO_FRAME}.
+     */
+    public long getDeliveringFrameId() {
+        return mDeliveringFrameId;
+    }
+
+    /**
+     * Copies the entries in the ring, oldest first, as consecutive {frame id, stage, nanos}
+     * triples.  Entries that are overwritten while being copied are left out.
+     */
+    public long[] snapshot() {
+        long end = mNextSequence.get();
+        long start = Math.max(0, end - mCapacity);
+
+        long[] entries = new long[(int) (end - start) * ENTRY_SIZE];
+        int count = 0;
+        for (long sequence = start; sequence < end; sequence++) {
+            int index = (int) (sequence & mMask) * ENTRY_SIZE;
+            if (mEntries.get(index) != sequence) {
+                continue;
+            }
+
+            long packed = mEntries.get(index + 1);
+            long nanos = mEntries.get(index + 2);
+            if (mEntries.get(index) != sequence) {
+                continue;
+            }
+
+            entries[count++] = packed >>> STAGE_BITS;
+            entries[count++] = packed & ((1 << STAGE_BITS) - 1);
+            entries[count++] = nanos;
+        }
+
+        if (count == entries.length) {
+            return entries;
+        }
+        long[] copied = new long[count];
+        System.arraycopy(entries, 0, copied, 0, count);
+        return copied;
+    }
+}
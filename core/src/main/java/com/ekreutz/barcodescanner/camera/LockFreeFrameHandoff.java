@@ -0,0 +1,143 @@
+package com.ekreutz.barcodescanner.camera;
+
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Frame handoff without locks.  The pending frame is a single atomic reference, which the camera
+ * callback thread swaps a new frame into and the processing thread swaps out, so the camera
+ * callback thread never waits for the processing thread.
+ * <p/>
+ * While no frame is pending, the processing thread waits according to its wait strategy:
+ * <ul>
+ * <li>{@link #WAIT_PARK}: park right away until the next frame arrives.  Cheapest on the
+ * battery.</li>
+ * <li>{@link #WAIT_SPIN_THEN_PARK}: check for a frame in a short busy loop first, and only park
+ * when none arrived.  Saves the wake-up latency when frames arrive back to back, at the cost of
+ * some CPU time.</li>
+ * </ul>
+ * To avoid allocating per frame, the details of a frame are kept in one reusable entry per frame
+ * pool slot.  A slot belongs either to the camera callback thread or to the processing thread at
+ * any time, and so does its entry.
+ */
+public class LockFreeFrameHandoff implements FrameHandoff {
+    public static final int WAIT_PARK = 0;
+    public static final int WAIT_SPIN_THEN_PARK = 1;
+
+    // How many times the processing thread checks for a frame before parking, when spinning.  A
+    // few microseconds on current devices.
+    private static final int SPIN_TRIES = 1000;
+
+    private final Entry[] mEntries = new Entry[FramePool.MAX_DEPTH];
+    private final AtomicReference<Entry> mPending = new AtomicReference<>();
+
+    private volatile boolean mActive = true;
+    private volatile int mWaitStrategy;
+
+    // The processing thread, while it is parked or about to park.
+    private volatile Thread mWaiter;
+
+    private static class Entry {
+        final int mSlot;
+        int mFrameId;
+        long mTimeMillis;
+        long mCaptureNanos;
+
+        Entry(int slot) {
+            mSlot = slot;
+        }
+    }
+
+    public LockFreeFrameHandoff(int waitStrategy) {
+        setWaitStrategy(waitStrategy);
+        for (int slot = 0; slot < mEntries.length; slot++) {
+            mEntries[slot] = new Entry(slot);
+        }
+    }
+
+    /**
+     * Sets how the processing thread waits for frames: {@link #WAIT_PARK} or
+     * {@link #WAIT_SPIN_THEN_PARK}.  Takes effect the next time it waits.
+     */
+    public void setWaitStrategy(int waitStrategy) {
+        if (waitStrategy != WAIT_PARK && waitStrategy != WAIT_SPIN_THEN_PARK) {
+            throw new IllegalArgumentException("Invalid wait strategy: " + waitStrategy);
+        }
+        mWaitStrategy = waitStrategy;
+    }
+
+    public int getWaitStrategy() {
+        return mWaitStrategy;
+    }
+
+    @Override
+    public void setActive(boolean active) {
+        mActive = active;
+        mPending.set(null);
+        wakeWaiter();
+    }
+
+    @Override
+    public boolean isActive() {
+        return mActive;
+    }
+
+    @Override
+    public boolean hasPendingFrame() {
+        return mPending.get() != null;
+    }
+
+    @Override
+    public int put(int slot, int frameId, long timeMillis, long captureNanos) {
+        // Filled in before the swap below, which publishes the entry to the processing thread.
+        Entry entry = mEntries[slot];
+        entry.mFrameId = frameId;
+        entry.mTimeMillis = timeMillis;
+        entry.mCaptureNanos = captureNanos;
+
+        Entry replaced = mPending.getAndSet(entry);
+        wakeWaiter();
+        return replaced != null ? replaced.mSlot : FramePool.NO_SLOT;
+    }
+
+    @Override
+    public boolean take(PendingFrame frame) throws InterruptedException {
+        int spins = mWaitStrategy == WAIT_SPIN_THEN_PARK ? SPIN_TRIES : 0;
+
+        while (true) {
+            if (!mActive) {
+                return false;
+            }
+
+            Entry entry = mPending.getAndSet(null);
+            if (entry != null) {
+                frame.set(entry.mSlot, entry.mFrameId, entry.mTimeMillis, entry.mCaptureNanos);
+                return true;
+            }
+
+            if (spins > 0) {
+                spins--;
+                continue;
+            }
+
+            // Announce the wait before checking once more, so that a frame put in between either
+            // is seen here or unparks this thread.
+            mWaiter = Thread.currentThread();
+            if (mActive && mPending.get() == null) {
+                LockSupport.park(this);
+            }
+            mWaiter = null;
+
+            if (Thread.interrupted()) {
+                throw new InterruptedException();
+            }
+        }
+    }
+
+    private void wakeWaiter() {
+        Thread waiter = mWaiter;
+        if (waiter != null) {
+            LockSupport.unpark(waiter);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.ekreutz.barcodescanner.camera;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Builds downscaled copies of the luma (Y) plane of NV21 frames in a reusable buffer.
+ * <p/>
+ * The output is itself a valid NV21 image, so it can be detected upon like any other frame.  Its
+ * chroma plane is filled with neutral grey once, when the buffer is allocated; detection only looks
+ * at the luma plane.
+ * <p/>
+ * Not thread safe: use one downscaler per detection thread.
+ */
+public class LumaDownscaler {
+    private static final byte NEUTRAL_CHROMA = (byte) 128;
+
+    private byte[] mArray;
+    private ByteBuffer mBuffer;
+    private int mWidth;
+    private int mHeight;
+
+    /**
+     * Downscales the luma plane of an NV21 frame by an integer factor, averaging each
+     * {@code factor x factor} block of pixels into one.
+     *
+     * @return the buffer holding the downscaled image, which is overwritten by the next call
+     */
+    public ByteBuffer downscale(byte[] nv21, int width, int height, int factor) {
+        int dstWidth = getDownscaledSize(width, factor);
+        int dstHeight = getDownscaledSize(height, factor);
+        int bufferSize = dstWidth * dstHeight * 3 / 2;
+
+        if (mArray == null || mArray.length != bufferSize) {
+            mArray = new byte[bufferSize];
+            Arrays.fill(mArray, dstWidth * dstHeight, bufferSize, NEUTRAL_CHROMA);
+            mBuffer = ByteBuffer.wrap(mArray);
+        }
+
+        mWidth = dstWidth;
+        mHeight = dstHeight;
+        downscaleLuma(nv21, width, factor, mArray, dstWidth, dstHeight);
+        return mBuffer;
+    }
+
+    /**
+     * Returns the width of the last downscaled image.
+     */
+    public int getWidth() {
+        return mWidth;
+    }
+
+    /**
+     * Returns the height of the last downscaled image.
+     */
+    public int getHeight() {
+        return mHeight;
+    }
+
+    /**
+     * Returns the size of one side of a downscaled image, rounded down to an even number as NV21
+     * requires.
+     */
+    public static int getDownscaledSize(int size, int factor) {
+        return (size / factor) & ~1;
+    }
+
+    /**
+     * Averages each {@code factor x factor} block of the source luma plane into one destination
+     * pixel.  Source pixels beyond {@code dstWidth * factor} or {@code dstHeight * factor} are left
+     * out.
+     */
+    public static void downscaleLuma(byte[] src, int srcWidth, int factor,
+                                     byte[] dst, int dstWidth, int dstHeight) {
+        if (factor == 1) {
+            for (int y = 0; y < dstHeight; y++) {
+                System.arraycopy(src, y * srcWidth, dst, y * dstWidth, dstWidth);
+            }
+            return;
+        }
+
+        int area = factor * factor;
+        int half = area / 2;
+        for (int y = 0; y < dstHeight; y++) {
+            int srcRow = y * factor * srcWidth;
+            int dstRow = y * dstWidth;
+            for (int x = 0; x < dstWidth; x++) {
+                int srcIndex = srcRow + x * factor;
+                int sum = 0;
+                for (int dy = 0; dy < factor; dy++) {
+                    int index = srcIndex + dy * srcWidth;
+                    for (int dx = 0; dx < factor; dx++) {
+                        sum += src[index + dx] & 0xff;
+                    }
+                }
+                dst[dstRow + x] = (byte) ((sum + half) / area);
+            }
+        }
+    }
+}
@@ -0,0 +1,79 @@
+package com.ekreutz.barcodescanner.camera;
+
+/**
+ * Frame handoff guarded by a monitor: the processing thread waits on it for the next frame, and
+ * the camera callback thread notifies it.  Simple, but the camera callback thread has to take the
+ * monitor for every frame, and may have to wait for the processing thread to release it.
+ *
+ * @see LockFreeFrameHandoff
+ */
+public class MonitorFrameHandoff implements FrameHandoff {
+    // This lock guards all of the member variables below.
+    private final Object mLock = new Object();
+    private boolean mActive = true;
+
+    // These pending variables hold the state associated with the new frame awaiting processing.
+    private int mPendingSlot = FramePool.NO_SLOT;
+    private int mPendingFrameId;
+    private long mPendingTimeMillis;
+    private long mPendingCaptureNanos;
+
+    @Override
+    public void setActive(boolean active) {
+        synchronized (mLock) {
+            mActive = active;
+            mPendingSlot = FramePool.NO_SLOT;
+            mLock.notifyAll();
+        }
+    }
+
+    @Override
+    public boolean isActive() {
+        synchronized (mLock) {
+            return mActive;
+        }
+    }
+
+    @Override
+    public boolean hasPendingFrame() {
+        synchronized (mLock) {
+            return mPendingSlot != FramePool.NO_SLOT;
+        }
+    }
+
+    @Override
+    public int put(int slot, int frameId, long timeMillis, long captureNanos) {
+        synchronized (mLock) {
+            int replacedSlot = mPendingSlot;
+            mPendingSlot = slot;
+            mPendingFrameId = frameId;
+            mPendingTimeMillis = timeMillis;
+            mPendingCaptureNanos = captureNanos;
+
+            // Notify the processor thread if it is waiting on the next frame.
+            mLock.notifyAll();
+            return replacedSlot;
+        }
+    }
+
+    @Override
+    public boolean take(PendingFrame frame) throws InterruptedException {
+        synchronized (mLock) {
+            while (mActive && mPendingSlot == FramePool.NO_SLOT) {
+                // Wait for the next frame to be received from the camera, since we don't have it
+                // yet.
+                mLock.wait();
+            }
+
+            if (!mActive) {
+                return false;
+            }
+
+            // Clearing the pending slot makes sure that the buffer isn't returned to the camera
+            // while the processing thread is still using it.
+            frame.set(mPendingSlot, mPendingFrameId, mPendingTimeMillis, mPendingCaptureNanos);
+            mPendingSlot = FramePool.NO_SLOT;
+            return true;
+        }
+    }
+}
@@ -0,0 +1,249 @@
+package com.ekreutz.barcodescanner.camera;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Picks the camera preview size by trying a few and measuring how well each one scans.
+ * <p/>
+ * Every candidate size gets a trial of a fixed number of detected frames, recording the share of
+ * frames that something was decoded in (the decode rate) and the mean detection time.  After the
+ * last trial the tuner settles on the size with the highest decode rate among the sizes whose
+ * detection time is within the latency budget, preferring the larger size on a tie.  If no size is
+ * within budget, the fastest one wins.
+ * <p/>
+ * The tuner doesn't touch the camera itself.  {@link #onFrameDetected(long)} returns true when a
+ * trial is over; the caller then moves the camera to {@link #getPreviewSize()} and calls
+ * {@link #onPreviewSizeApplied()}.  Frames detected while the size is changing don't count.
+ * <p/>
+ * All methods are thread safe.
+ */
+public class PreviewSizeTuner {
+    public static final int DEFAULT_FRAMES_PER_TRIAL = 150;
+    public static final int DEFAULT_MAX_CANDIDATES = 4;
+
+    // Sizes outside this range of pixel counts are never tried: smaller ones don't resolve
+    // barcodes, larger ones aren't worth the memory bandwidth.
+    public static final int MIN_AREA = 640 * 480;
+    public static final int MAX_AREA = 1920 * 1080;
+
+    public static final int STATE_IDLE = 0;
+    public static final int STATE_TRIAL = 1;
+    public static final int STATE_SWITCHING = 2;
+    public static final int STATE_SETTLED = 3;
+
+    private final int mFramesPerTrial;
+    private final float mLatencyBudgetMillis;
+
+    private int mState = STATE_IDLE;
+    private int[][] mCandidates;
+    private int mCandidate;
+
+    // Per candidate
+    private int[] mFrames;
+    private int[] mDecodedFrames;
+    private long[] mDetectNanos;
+
+    private int[] mPreviewSize;
+    private boolean mConfident = false;
+
+    /**
+     * @param framesPerTrial      how many detected frames each candidate size is measured on
+     * @param latencyBudgetMillis the detection time per frame that a size should stay within
+     */
+    public PreviewSizeTuner(int framesPerTrial, float latencyBudgetMillis) {
+        if (framesPerTrial < 1) {
+            throw new IllegalArgumentException("Invalid frames per trial: " + framesPerTrial);
+        }
+        if (latencyBudgetMillis <= 0) {
+            throw new IllegalArgumentException("Invalid latency budget: " + latencyBudgetMillis);
+        }
+        mFramesPerTrial = framesPerTrial;
+        mLatencyBudgetMillis = latencyBudgetMillis;
+    }
+
+    /**
+     * Picks up to {@code maxCandidates} sizes to try out of the given {width, height} sizes,
+     * spread evenly from the smallest to the largest size within {@link #MIN_AREA} and
+     * {@link #MAX_AREA}.  Falls back to the size closest to that range if none is within it.
+     */
+    public static int[][] pickCandidates(int[][] sizes, int maxCandidates) {
+        if (maxCandidates < 1) {
+            throw new IllegalArgumentException("Invalid number of candidates: " + maxCandidates);
+        }
+
+        List<int[]> inRange = new ArrayList<>();
+        int[] closest = null;
+        long closestDistance = Long.MAX_VALUE;
+        for (int[] size : sizes) {
+            long area = (long) size[0] * size[1];
+            if (area >= MIN_AREA && area <= MAX_AREA) {
+                inRange.add(size);
+            }
+            long distance = area < MIN_AREA ? MIN_AREA - area : Math.max(0, area - MAX_AREA);
+            if (distance < closestDistance) {
+                closest = size;
+                closestDistance = distance;
+            }
+        }
+
+        if (inRange.isEmpty()) {
+            return closest != null ? new int[][]{closest} : new int[0][];
+        }
+
+        int[][] sorted = inRange.toArray(new int[inRange.size()][]);
+        Arrays.sort(sorted, new Comparator<int[]>() {
+            @Override
+            public int compare(int[] a, int[] b) {
+                long areaA = (long) a[0] * a[1];
+                long areaB = (long) b[0] * b[1];
+                return areaA < areaB ? -1 : (areaA == areaB ? 0 : 1);
+            }
+        });
+
+        int count = Math.min(maxCandidates, sorted.length);
+        int[][] candidates = new int[count][];
+        for (int i = 0; i < count; i++) {
+            candidates[i] = sorted[count == 1 ? sorted.length - 1 : i * (sorted.length - 1) / (count - 1)];
+        }
+        return candidates;
+    }
+
+    /**
+     * Starts trying the given {width, height} sizes, the first one first.  A single candidate is
+     * settled on right away.
+     */
+    public synchronized void start(int[][] candidates) {
+        if (candidates.length == 0) {
+            throw new IllegalArgumentException("No candidate preview sizes supplied.");
+        }
+
+        mCandidates = candidates;
+        mCandidate = 0;
+        mFrames = new int[candidates.length];
+        mDecodedFrames = new int[candidates.length];
+        mDetectNanos = new long[candidates.length];
+        mPreviewSize = candidates[0];
+        mConfident = false;
+        mState = candidates.length > 1 ? STATE_TRIAL : STATE_SETTLED;
+    }
+
+    /**
+     * Settles on a size picked before, without any trials.
+     */
+    public synchronized void settle(int width, int height) {
+        mPreviewSize = new int[]{width, height};
+        mConfident = true;
+        mState = STATE_SETTLED;
+    }
+
+    public synchronized int getState() {
+        return mState;
+    }
+
+    /**
+     * Returns the {width, height} size under trial or settled on, or null while idle.
+     */
+    public synchronized int[] getPreviewSize() {
+        return mPreviewSize;
+    }
+
+    /**
+     * Returns true if the settled size was picked on evidence, i.e. something was decoded during
+     * the trials or the size was picked before.  A size picked without evidence isn't worth
+     * keeping.
+     */
+    public synchronized boolean isConfident() {
+        return mConfident;
+    }
+
+    /**
+     * Records that something was decoded in the frame being detected upon.  Call before
+     * {@link #onFrameDetected(long)} for the same frame.
+     */
+    public synchronized void onFrameDecoded() {
+        if (mState == STATE_TRIAL) {
+            mDecodedFrames[mCandidate]++;
+        }
+    }
+
+    /**
+     * Records the detection time of a frame.
+     *
+     * @return true if a trial just ended, and the camera should move to {@link #getPreviewSize()}
+     */
+    public synchronized boolean onFrameDetected(long detectNanos) {
+        if (mState != STATE_TRIAL) {
+            return false;
+        }
+
+        mDetectNanos[mCandidate] += detectNanos;
+        if (++mFrames[mCandidate] < mFramesPerTrial) {
+            return false;
+        }
+
+        if (mCandidate + 1 < mCandidates.length) {
+            mCandidate++;
+            mPreviewSize = mCandidates[mCandidate];
+            mState = STATE_SWITCHING;
+        } else {
+            mPreviewSize = mCandidates[pickBest()];
+            mState = STATE_SETTLED;
+        }
+        return true;
+    }
+
+    /**
+     * Marks the camera as running at {@link #getPreviewSize()}, which starts the next trial.
+     */
+    public synchronized void onPreviewSizeApplied() {
+        if (mState == STATE_SWITCHING) {
+            mState = STATE_TRIAL;
+        }
+    }
+
+    private int pickBest() {
+        int best = -1;
+        int fastest = 0;
+        for (int i = 0; i < mCandidates.length; i++) {
+            mConfident |= mDecodedFrames[i] > 0;
+            if (getDetectMillis(i) < getDetectMillis(fastest)) {
+                fastest = i;
+            }
+            if (getDetectMillis(i) > mLatencyBudgetMillis) {
+                continue;
+            }
+
+            // Candidates are tried from small to large, so later ones win ties.
+            if (best == -1 || getDecodeRate(i) >= getDecodeRate(best)) {
+                best = i;
+            }
+        }
+        return best != -1 ? best : fastest;
+    }
+
+    private float getDecodeRate(int candidate) {
+        return mFrames[candidate] > 0 ? (float) mDecodedFrames[candidate] / mFrames[candidate] : 0;
+    }
+
+    private float getDetectMillis(int candidate) {
+        return mFrames[candidate] > 0 ? mDetectNanos[candidate] / 1e6f / mFrames[candidate] : 0;
+    }
+
+    @Override
+    public synchronized String toString() {
+        StringBuilder builder = new StringBuilder("state=").append(mState);
+        if (mPreviewSize != null) {
+            builder.append(" size=").append(mPreviewSize[0]).append('x').append(mPreviewSize[1]);
+        }
+        if (mCandidates != null) {
+            for (int i = 0; i < mCandidates.length; i++) {
+                builder.append(String.format(" [%dx%d rate=%.2f detect=%.1fms]",
+                        mCandidates[i][0], mCandidates[i][1], getDecodeRate(i), getDetectMillis(i)));
+            }
+        }
+        return builder.toString();
+    }
+}
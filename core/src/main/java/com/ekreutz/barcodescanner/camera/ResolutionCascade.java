@@ -0,0 +1,73 @@
+package com.ekreutz.barcodescanner.camera;
+
+import com.ekreutz.barcodescanner.util.BarcodeFormat;
+
+/**
+ * Policy and statistics of the multi-resolution detection cascade.
+ * <p/>
+ * Every frame is first detected upon at a lower resolution (the luma plane downscaled by
+ * {@link #getDownscale()}).  Only when that finds nothing, or finds a code in one of the
+ * {@link #DETAIL_FORMATS} that are easily misread or missed at low resolution, is the frame
+ * detected upon again at full resolution.
+ * <p/>
+ * All methods are thread safe.
+ */
+public class ResolutionCascade {
+    public static final int LEVEL_LOW_RESOLUTION = 0;
+    public static final int LEVEL_FULL_RESOLUTION = 1;
+    public static final int LEVEL_MISS = 2;
+
+    /**
+     * Dense 2D formats, for which a low resolution hit still gets a full resolution pass.
+     */
+    public static final int DETAIL_FORMATS = BarcodeFormat.PDF417 | BarcodeFormat.DATA_MATRIX;
+
+    private final int mDownscale;
+    private final long[] mLevelCounts = new long[3];
+
+    /**
+     * @param downscale how many times smaller the low resolution pass is per side: 2 or 4
+     */
+    public ResolutionCascade(int downscale) {
+        if (downscale != 2 && downscale != 4) {
+            throw new IllegalArgumentException("Invalid cascade downscale: " + downscale);
+        }
+        mDownscale = downscale;
+    }
+
+    public int getDownscale() {
+        return mDownscale;
+    }
+
+    /**
+     * Returns true if the results of the low resolution pass aren't enough to go on.
+     *
+     * @param found   the number of codes the low resolution pass found
+     * @param formats the {@link BarcodeFormat} flags of the codes it found, OR-ed together
+     */
+    public boolean needsFullResolution(int found, int formats) {
+        return found == 0 || (formats & DETAIL_FORMATS) != 0;
+    }
+
+    /**
+     * Records at which level a frame was resolved: one of {@link #LEVEL_LOW_RESOLUTION},
+     * {@link #LEVEL_FULL_RESOLUTION} or {@link #LEVEL_MISS}.
+     */
+    public synchronized void record(int level) {
+        mLevelCounts[level]++;
+    }
+
+    /**
+     * Returns how many frames were resolved at the given level.
+     */
+    public synchronized long getCount(int level) {
+        return mLevelCounts[level];
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("downscale=%d low=%d full=%d miss=%d", mDownscale,
+                mLevelCounts[LEVEL_LOW_RESOLUTION], mLevelCounts[LEVEL_FULL_RESOLUTION],
+                mLevelCounts[LEVEL_MISS]);
+    }
+}
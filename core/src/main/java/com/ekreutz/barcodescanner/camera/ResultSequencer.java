@@ -0,0 +1,132 @@
+package com.ekreutz.barcodescanner.camera;
+
+/**
+ * Puts results that are completed out of order back into the order in which their work was started.
+ * <p/>
+ * The producer calls {@link #begin()} to get a sequence number for every unit of work, and whoever
+ * finishes the work calls {@link #complete(long, Object)} with that number.  Results are handed to
+ * the {@link Receiver} strictly in sequence order, one at a time, as soon as all earlier results
+ * have been completed.
+ * <p/>
+ * The receiver is called without holding the sequencer's lock, by the thread that completed the
+ * next result in order.  While it delivers, other threads completing work only store their results
+ * and return; the delivering thread hands those over too before it returns.
+ * <p/>
+ * At most {@code window} units of work can be outstanding at once; {@link #begin()} blocks until
+ * the oldest one is handed to the receiver if that limit is reached.
+ */
+public class ResultSequencer<T> {
+
+    /**
+     * Receives the results in sequence order.  Never called concurrently.
+     */
+    public interface Receiver<T> {
+        /**
+         * @param result the completed result, or null if the work produced no result
+         */
+        void receive(long sequence, T result);
+    }
+
+    private final Receiver<T> mReceiver;
+    private final Object[] mResults;
+    private final boolean[] mCompleted;
+
+    // Guarded by this
+    private long mNextSequence = 0;
+    private long mNextDelivery = 0;
+    private boolean mDelivering = false;
+
+    public ResultSequencer(int window, Receiver<T> receiver) {
+        if (window <= 0) {
+            throw new IllegalArgumentException("Invalid window: " + window);
+        }
+        if (receiver == null) {
+            throw new IllegalArgumentException("No receiver supplied.");
+        }
+
+        mReceiver = receiver;
+        mResults = new Object[window];
+        mCompleted = new boolean[window];
+    }
+
+    /**
+     * Returns the sequence number for the next unit of work, waiting for room in the window if
+     * needed.
+     */
+    public synchronized long begin() throws InterruptedException {
+        while (mNextSequence - mNextDelivery >= mResults.length) {
+            wait();
+        }
+        return mNextSequence++;
+    }
+
+    /**
+     * Stores the result of the given unit of work, and delivers it along with any later results that
+     * were waiting on it, unless another thread is delivering already.  Every sequence number from
+     * {@link #begin()} must be completed exactly once, or delivery stalls.  If the receiver throws,
+     * the exception is passed on, and results still waiting are delivered by the next call.
+     */
+    public void complete(long sequence, T result) {
+        synchronized (this) {
+            if (sequence < mNextDelivery || sequence >= mNextSequence) {
+                throw new IllegalArgumentException("Sequence not outstanding: " + sequence);
+            }
+
+            int index = (int) (sequence % mResults.length);
+            mResults[index] = result;
+            mCompleted[index] = true;
+
+            if (mDelivering) {
+                // The delivering thread picks it up once it gets to it.
+                return;
+            }
+            mDelivering = true;
+        }
+
+        boolean delivered = false;
+        try {
+            deliverReady();
+            delivered = true;
+        } finally {
+            if (!delivered) {
+                synchronized (this) {
+                    mDelivering = false;
+                }
+            }
+        }
+    }
+
+    /**
+     * Hands results to the receiver in order until the next one isn't completed yet.  Only called
+     * by the delivering thread.
+     */
+    @SuppressWarnings("unchecked")
+    private void deliverReady() {
+        while (true) {
+            long sequence;
+            T next;
+            synchronized (this) {
+                int index = (int) (mNextDelivery % mResults.length);
+                if (!mCompleted[index]) {
+                    mDelivering = false;
+                    return;
+                }
+
+                next = (T) mResults[index];
+                mResults[index] = null;
+                mCompleted[index] = false;
+                sequence = mNextDelivery++;
+                notifyAll();
+            }
+
+            mReceiver.receive(sequence, next);
+        }
+    }
+
+    /**
+     * Returns the number of units of work that have been started but not yet delivered.
+     */
+    public synchronized int getOutstanding() {
+        return (int) (mNextSequence - mNextDelivery);
+    }
+}
@@ -0,0 +1,98 @@
+package com.ekreutz.barcodescanner.camera;
+
+/**
+ * Times the start of the camera, from the moment it is requested:
+ * <ul>
+ * <li>time to interactive: until the thread that requested the start has the running camera.  When
+ * the camera is opened on its own thread, this is when the requesting thread is told that the
+ * camera started.</li>
+ * <li>time to ready: until the camera preview is running.</li>
+ * <li>time to first frame: until the first preview frame arrives.</li>
+ * <li>time to focus: until the camera first reports focus locked.</li>
+ * </ul>
+ * Every new request starts the timings over.  Times are in nanoseconds from
+ * {@link System#nanoTime()}, or the same clock.
+ * <p/>
+ * All methods are thread safe, given that every stage is marked from one thread at a time.
+ */
+public class StartupTimer {
+    /**
+     * Returned for a stage that hasn't been reached yet.
+     */
+    public static final float NOT_REACHED = -1;
+
+    private static final long UNSET = Long.MIN_VALUE;
+
+    private volatile long mRequestedNanos = UNSET;
+    private volatile long mInteractiveNanos = UNSET;
+    private volatile long mReadyNanos = UNSET;
+    private volatile long mFirstFrameNanos = UNSET;
+    private volatile long mFocusedNanos = UNSET;
+
+    public void markRequested(long nanos) {
+        mInteractiveNanos = UNSET;
+        mReadyNanos = UNSET;
+        mFirstFrameNanos = UNSET;
+        mFocusedNanos = UNSET;
+        mRequestedNanos = nanos;
+    }
+
+    public void markInteractive(long nanos) {
+        if (mRequestedNanos != UNSET && mInteractiveNanos == UNSET) {
+            mInteractiveNanos = nanos;
+        }
+    }
+
+    public void markReady(long nanos) {
+        if (mRequestedNanos != UNSET && mReadyNanos == UNSET) {
+            mReadyNanos = nanos;
+        }
+    }
+
+    /**
+     * Marks the arrival of a frame.  Cheap enough to call for every frame; only the first one
+     * after a request counts.
+     */
+    public void markFrame(long nanos) {
+        if (mFirstFrameNanos == UNSET && mRequestedNanos != UNSET) {
+            mFirstFrameNanos = nanos;
+        }
+    }
+
+    public void markFocused(long nanos) {
+        if (mRequestedNanos != UNSET && mFocusedNanos == UNSET) {
+            mFocusedNanos = nanos;
+        }
+    }
+
+    public float getTimeToInteractiveMillis() {
+        return since(mInteractiveNanos);
+    }
+
+    public float getTimeToReadyMillis() {
+        return since(mReadyNanos);
+    }
+
+    public float getTimeToFirstFrameMillis() {
+        return since(mFirstFrameNanos);
+    }
+
+    public float getTimeToFocusMillis() {
+        return since(mFocusedNanos);
+    }
+
+    private float since(long nanos) {
+        long requestedNanos = mRequestedNanos;
+        if (nanos == UNSET || requestedNanos == UNSET) {
+            return NOT_REACHED;
+        }
+        return (nanos - requestedNanos) / 1e6f;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("interactive=%.1fms ready=%.1fms firstFrame=%.1fms focus=%.1fms",
+                getTimeToInteractiveMillis(), getTimeToReadyMillis(), getTimeToFirstFrameMillis(),
+                getTimeToFocusMillis());
+    }
+}
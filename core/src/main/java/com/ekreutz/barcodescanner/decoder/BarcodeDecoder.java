@@ -0,0 +1,48 @@
+package com.ekreutz.barcodescanner.decoder;
+
+import java.util.List;
+
+/**
+ * Finds and decodes barcodes in camera frames.
+ * <p/>
+ * This is what the scanner needs from a barcode engine, so that engines can be swapped: the
+ * Play Services detector on devices that have it, {@link JavaBarcodeDecoder} on devices that
+ * don't and on a plain JVM.
+ * <p/>
+ * A decoder is used by one thread at a time.
+ */
+public interface BarcodeDecoder {
+
+    /**
+     * Creates decoders for a set of barcode formats.
+     */
+    interface Factory {
+        /**
+         * @param formats the formats to look for, a mask of {@code BarcodeFormat} flags, or
+         *                {@code BarcodeFormat.ALL_FORMATS}
+         */
+        BarcodeDecoder create(int formats);
+    }
+
+    /**
+     * Decodes the barcodes in a frame.
+     *
+     * @param data   an NV21 frame, at least {@code width * height * 3 / 2} bytes.  Decoders that
+     *               only need the luma plane read the first {@code width * height} bytes.
+     * @param width  the frame width
+     * @param height the frame height
+     * @return the barcodes found, possibly none
+     */
+    List<DecodedBarcode> decode(byte[] data, int width, int height);
+
+    /**
+     * Returns false if the decoder can't decode anything yet, e.g. while its native code is still
+     * being downloaded.
+     */
+    boolean isOperational();
+
+    /**
+     * Frees the decoder's resources.
+     */
+    void release();
+}
@@ -0,0 +1,55 @@
+package com.ekreutz.barcodescanner.decoder;
+
+/**
+ * A barcode found by a {@link BarcodeDecoder}, with where it was found in the frame.
+ */
+public class DecodedBarcode {
+    private final int mFormat;
+    private final String mValue;
+    private final int mLeft;
+    private final int mTop;
+    private final int mRight;
+    private final int mBottom;
+
+    /**
+     * @param format one of the {@code BarcodeFormat} flags
+     * @param value  the decoded text
+     */
+    public DecodedBarcode(int format, String value, int left, int top, int right, int bottom) {
+        mFormat = format;
+        mValue = value;
+        mLeft = left;
+        mTop = top;
+        mRight = right;
+        mBottom = bottom;
+    }
+
+    public int getFormat() {
+        return mFormat;
+    }
+
+    public String getValue() {
+        return mValue;
+    }
+
+    public int getLeft() {
+        return mLeft;
+    }
+
+    public int getTop() {
+        return mTop;
+    }
+
+    public int getRight() {
+        return mRight;
+    }
+
+    public int getBottom() {
+        return mBottom;
+    }
+
+    @Override
+    public String toString() {
+        return String.format("%d:%s [%d,%d - %d,%d]", mFormat, mValue, mLeft, mTop, mRight, mBottom);
+    }
+}
@@ -0,0 +1,128 @@
+package com.ekreutz.barcodescanner.decoder;
+
+import com.ekreutz.barcodescanner.camera.FrameRecording;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+/**
+ * Runs several decoders over the same recorded frames and measures each: how long a frame takes
+ * to decode, and how many frames something was read in.  Runs wherever the decoders do, so the
+ * Play Services detector can be compared with {@link JavaBarcodeDecoder} on a device, and pure
+ * Java decoders on any JVM.
+ * <p/>
+ * Every decoder gets every frame, one decoder after the other, on the calling thread.
+ */
+public class DecoderComparison {
+
+    /**
+     * How one decoder did on the recording.
+     */
+    public static class Result {
+        private final String mName;
+        private int mFrames = 0;
+        private int mFramesRead = 0;
+        private int mReads = 0;
+        private long mDecodeNanos = 0;
+        private long mMaxDecodeNanos = 0;
+        private final Set<String> mValues = new TreeSet<>();
+
+        Result(String name) {
+            mName = name;
+        }
+
+        public String getName() {
+            return mName;
+        }
+
+        public int getFrames() {
+            return mFrames;
+        }
+
+        /**
+         * Returns the number of frames that at least one barcode was read in.
+         */
+        public int getFramesRead() {
+            return mFramesRead;
+        }
+
+        /**
+         * Returns the number of barcodes read, over all frames.
+         */
+        public int getReads() {
+            return mReads;
+        }
+
+        /**
+         * Returns the distinct values read, sorted.
+         */
+        public Set<String> getValues() {
+            return mValues;
+        }
+
+        public float getMeanDecodeMillis() {
+            return mFrames > 0 ? mDecodeNanos / 1e6f / mFrames : 0;
+        }
+
+        public float getMaxDecodeMillis() {
+            return mMaxDecodeNanos / 1e6f;
+        }
+
+        /**
+         * Returns how many frames a second the decoder keeps up with on one thread.
+         */
+        public float getFramesPerSecond() {
+            return mDecodeNanos > 0 ? mFrames * 1e9f / mDecodeNanos : 0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("%s: frames=%d read=%d reads=%d decode=%.2fms max=%.2fms fps=%.1f values=%s",
+                    mName, mFrames, mFramesRead, mReads, getMeanDecodeMillis(), getMaxDecodeMillis(),
+                    getFramesPerSecond(), mValues);
+        }
+    }
+
+    private DecoderComparison() {
+    }
+
+    /**
+     * Runs every decoder over every frame of the recording.  The decoders aren't released.
+     *
+     * @param decoders the decoders by name, in the order to run them
+     */
+    public static List<Result> run(FrameRecording recording, Map<String, BarcodeDecoder> decoders)
+            throws IOException {
+        List<Result> results = new ArrayList<>(decoders.size());
+        FrameRecording.RecordedFrame frame = new FrameRecording.RecordedFrame();
+
+        for (Map.Entry<String, BarcodeDecoder> entry : decoders.entrySet()) {
+            BarcodeDecoder decoder = entry.getValue();
+            Result result = new Result(entry.getKey());
+
+            recording.rewind();
+            while (recording.next(frame)) {
+                long startNanos = System.nanoTime();
+                List<DecodedBarcode> barcodes = decoder.decode(frame.getData(), frame.getWidth(), frame.getHeight());
+                long decodeNanos = System.nanoTime() - startNanos;
+
+                result.mFrames++;
+                result.mDecodeNanos += decodeNanos;
+                result.mMaxDecodeNanos = Math.max(result.mMaxDecodeNanos, decodeNanos);
+                if (!barcodes.isEmpty()) {
+                    result.mFramesRead++;
+                    result.mReads += barcodes.size();
+                    for (DecodedBarcode barcode : barcodes) {
+                        result.mValues.add(barcode.getValue());
+                    }
+                }
+            }
+            results.add(result);
+        }
+        return results;
+    }
+}
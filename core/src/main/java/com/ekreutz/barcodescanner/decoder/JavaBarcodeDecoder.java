@@ -0,0 +1,417 @@
+package com.ekreutz.barcodescanner.decoder;
+
+import com.ekreutz.barcodescanner.util.BarcodeFormat;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * A barcode decoder in plain Java, for devices without Play Services and for measuring the frame
+ * pipeline on a plain JVM.
+ * <p/>
+ * Only reads the retail formats EAN-13, EAN-8 and UPC-A, which make up most product scans.  The
+ * frame is sampled along a few evenly spaced rows and columns, so that codes are found whichever
+ * way the phone is held; every scan line is binarized at the midpoint between its darkest and
+ * brightest pixel, cut into runs of bars and spaces, and matched against the symbology's guard and
+ * digit patterns in both directions.  A read counts once its check digit is right.
+ * <p/>
+ * Not thread safe: scratch buffers are reused from frame to frame.
+ */
+public class JavaBarcodeDecoder implements BarcodeDecoder {
+    public static final int SUPPORTED_FORMATS = BarcodeFormat.EAN_13 | BarcodeFormat.EAN_8 | BarcodeFormat.UPC_A;
+
+    public static final int DEFAULT_SCAN_LINES = 16;
+
+    // Scan lines with less contrast than this between their darkest and brightest pixel are
+    // assumed to cross no barcode.
+    private static final int MIN_CONTRAST = 32;
+
+    // How far run widths may be off the pattern, as a share of the module width, on average and
+    // for any single run.
+    private static final float MAX_AVG_VARIANCE = 0.48f;
+    private static final float MAX_INDIVIDUAL_VARIANCE = 0.7f;
+
+    private static final int[] GUARD_PATTERN = {1, 1, 1};
+    private static final int[] MIDDLE_PATTERN = {1, 1, 1, 1, 1};
+
+    // Run widths of the digits 0-9 in L code, starting with a space.  R code has the same widths
+    // starting with a bar, G code has them reversed.
+    private static final int[][] L_PATTERNS = {
+        {3, 2, 1, 1}, {2, 2, 2, 1}, {2, 1, 2, 2}, {1, 4, 1, 1}, {1, 1, 3, 2},
+        {1, 2, 3, 1}, {1, 1, 1, 4}, {1, 3, 1, 2}, {1, 2, 1, 3}, {3, 1, 1, 2}
+    };
+    private static final int[][] G_PATTERNS = new int[10][];
+
+    // Which of the six left hand digits of an EAN-13 code are in G code (bit 5 for the first one)
+    // encodes the first digit.
+    private static final int[] FIRST_DIGIT_PARITIES = {
+        0x00, 0x0B, 0x0D, 0x0E, 0x13, 0x19, 0x1C, 0x15, 0x16, 0x1A
+    };
+
+    // Runs from the start guard to the end guard
+    private static final int EAN_13_RUNS = 3 + 6 * 4 + 5 + 6 * 4 + 3;
+    private static final int EAN_8_RUNS = 3 + 4 * 4 + 5 + 4 * 4 + 3;
+
+    static {
+        for (int digit = 0; digit < 10; digit++) {
+            int[] pattern = L_PATTERNS[digit];
+            G_PATTERNS[digit] = new int[]{pattern[3], pattern[2], pattern[1], pattern[0]};
+        }
+    }
+
+    private final int mFormats;
+    private final int mScanLines;
+
+    // Scratch buffers, sized for the largest frame side seen
+    private int[] mLine = new int[0];
+    private int[] mRuns = new int[0];
+    private int[] mStarts = new int[0];
+    private int mRunCount;
+    private boolean mFirstRunDark;
+    private boolean mReversed;
+
+    private final int[] mDigits = new int[13];
+    private final int[] mCounters = new int[5];
+
+    private long mLines = 0;
+    private long mReads = 0;
+
+    /**
+     * @param formats the formats to look for; formats other than {@link #SUPPORTED_FORMATS} are
+     *                never found
+     */
+    public JavaBarcodeDecoder(int formats) {
+        this(formats, DEFAULT_SCAN_LINES);
+    }
+
+    /**
+     * @param scanLines how many rows, and as many columns, to sample every frame along
+     */
+    public JavaBarcodeDecoder(int formats, int scanLines) {
+        if (scanLines < 1) {
+            throw new IllegalArgumentException("Invalid number of scan lines: " + scanLines);
+        }
+        mFormats = (formats == BarcodeFormat.ALL_FORMATS ? BarcodeFormat.KNOWN_FORMATS : formats) & SUPPORTED_FORMATS;
+        mScanLines = scanLines;
+    }
+
+    /**
+     * Returns true if this decoder reads any of the given formats.
+     */
+    public static boolean supports(int formats) {
+        return formats == BarcodeFormat.ALL_FORMATS || (formats & SUPPORTED_FORMATS) != 0;
+    }
+
+    @Override
+    public List<DecodedBarcode> decode(byte[] data, int width, int height) {
+        List<DecodedBarcode> results = new ArrayList<>();
+        if (mFormats == 0) {
+            return results;
+        }
+
+        int size = Math.max(width, height);
+        if (mLine.length < size) {
+            mLine = new int[size];
+            mRuns = new int[size];
+            mStarts = new int[size];
+        }
+
+        for (int i = 1; i <= mScanLines; i++) {
+            int y = height * i / (mScanLines + 1);
+            int offset = y * width;
+            for (int x = 0; x < width; x++) {
+                mLine[x] = data[offset + x] & 0xff;
+            }
+            decodeLine(width, false, y, results);
+        }
+
+        for (int i = 1; i <= mScanLines; i++) {
+            int x = width * i / (mScanLines + 1);
+            for (int y = 0, offset = x; y < height; y++, offset += width) {
+                mLine[y] = data[offset] & 0xff;
+            }
+            decodeLine(height, true, x, results);
+        }
+
+        return results;
+    }
+
+    private void decodeLine(int length, boolean vertical, int position, List<DecodedBarcode> results) {
+        mLines++;
+
+        int min = 255;
+        int max = 0;
+        for (int i = 0; i < length; i++) {
+            min = Math.min(min, mLine[i]);
+            max = Math.max(max, mLine[i]);
+        }
+        if (max - min < MIN_CONTRAST) {
+            return;
+        }
+
+        // Runs of pixels on the same side of the threshold
+        int threshold = (min + max) / 2;
+        mFirstRunDark = mLine[0] < threshold;
+        mRunCount = 0;
+        boolean dark = mFirstRunDark;
+        int start = 0;
+        for (int i = 1; i <= length; i++) {
+            if (i == length || (mLine[i] < threshold) != dark) {
+                mStarts[mRunCount] = start;
+                mRuns[mRunCount++] = i - start;
+                start = i;
+                dark = !dark;
+            }
+        }
+
+        mReversed = false;
+        if (decodeRuns(vertical, position, results)) {
+            return;
+        }
+
+        // upside down: read the runs from the other end
+        reverseRuns();
+        decodeRuns(vertical, position, results);
+    }
+
+    private void reverseRuns() {
+        for (int i = 0, j = mRunCount - 1; i < j; i++, j--) {
+            int run = mRuns[i];
+            mRuns[i] = mRuns[j];
+            mRuns[j] = run;
+        }
+        if (mRunCount % 2 == 0) {
+            mFirstRunDark = !mFirstRunDark;
+        }
+        mReversed = true;
+    }
+
+    /**
+     * Tries every bar that follows a space as the start of a code.
+     *
+     * @return true if something was read
+     */
+    private boolean decodeRuns(boolean vertical, int position, List<DecodedBarcode> results) {
+        boolean found = false;
+        for (int i = mFirstRunDark ? 2 : 1; i < mRunCount; i += 2) {
+            int runs = 0;
+            String value = null;
+            int format = 0;
+
+            if ((mFormats & (BarcodeFormat.EAN_13 | BarcodeFormat.UPC_A)) != 0 && i + EAN_13_RUNS < mRunCount) {
+                value = decodeEan(i, 6, true);
+                runs = EAN_13_RUNS;
+                if (value != null) {
+                    boolean upc = value.charAt(0) == '0' && (mFormats & BarcodeFormat.UPC_A) != 0;
+                    if (upc) {
+                        value = value.substring(1);
+                        format = BarcodeFormat.UPC_A;
+                    } else if ((mFormats & BarcodeFormat.EAN_13) != 0) {
+                        format = BarcodeFormat.EAN_13;
+                    } else {
+                        value = null;
+                    }
+                }
+            }
+            if (value == null && (mFormats & BarcodeFormat.EAN_8) != 0 && i + EAN_8_RUNS < mRunCount) {
+                value = decodeEan(i, 4, false);
+                runs = EAN_8_RUNS;
+                format = BarcodeFormat.EAN_8;
+            }
+
+            if (value != null) {
+                addResult(results, format, value, i, i + runs - 1, vertical, position);
+                mReads++;
+                found = true;
+                i += runs - 1;
+            }
+        }
+        return found;
+    }
+
+    /**
+     * Decodes an EAN code whose start guard begins at run {@code start}.
+     *
+     * @param digitsPerHalf 6 for EAN-13, 4 for EAN-8
+     * @param parity        whether the left half encodes an extra digit in its L/G parity
+     * @return the digits, or null if this isn't a valid code
+     */
+    private String decodeEan(int start, int digitsPerHalf, boolean parity) {
+        int guardWidth = mRuns[start] + mRuns[start + 1] + mRuns[start + 2];
+        // the quiet zone before the code should be at least about as wide as the guard
+        if (mRuns[start - 1] * 4 < guardWidth * 3 || matchVariance(start, GUARD_PATTERN) > MAX_AVG_VARIANCE) {
+            return null;
+        }
+
+        int digits = 0;
+        if (parity) {
+            // the first digit is filled in from the parities below
+            digits = 1;
+        }
+
+        int run = start + 3;
+        int parities = 0;
+        for (int i = 0; i < digitsPerHalf; i++, run += 4) {
+            int digit = matchDigit(run, L_PATTERNS);
+            if (parity) {
+                int gDigit = matchDigit(run, G_PATTERNS);
+                if (gDigit >= 0 && (digit < 0 || matchVariance(run, G_PATTERNS[gDigit]) < matchVariance(run, L_PATTERNS[digit]))) {
+                    digit = gDigit;
+                    parities |= 1 << (digitsPerHalf - 1 - i);
+                }
+            }
+            if (digit < 0) {
+                return null;
+            }
+            mDigits[digits++] = digit;
+        }
+
+        if (matchVariance(run, MIDDLE_PATTERN) > MAX_AVG_VARIANCE) {
+            return null;
+        }
+        run += 5;
+
+        for (int i = 0; i < digitsPerHalf; i++, run += 4) {
+            int digit = matchDigit(run, L_PATTERNS);
+            if (digit < 0) {
+                return null;
+            }
+            mDigits[digits++] = digit;
+        }
+
+        int endWidth = mRuns[run] + mRuns[run + 1] + mRuns[run + 2];
+        if (matchVariance(run, GUARD_PATTERN) > MAX_AVG_VARIANCE || mRuns[run + 3] * 4 < endWidth * 3) {
+            return null;
+        }
+
+        if (parity) {
+            mDigits[0] = -1;
+            for (int digit = 0; digit < FIRST_DIGIT_PARITIES.length; digit++) {
+                if (FIRST_DIGIT_PARITIES[digit] == parities) {
+                    mDigits[0] = digit;
+                    break;
+                }
+            }
+            if (mDigits[0] < 0) {
+                return null;
+            }
+        }
+
+        if (!checkDigitIsValid(mDigits, digits)) {
+            return null;
+        }
+
+        char[] value = new char[digits];
+        for (int i = 0; i < digits; i++) {
+            value[i] = (char) ('0' + mDigits[i]);
+        }
+        return new String(value);
+    }
+
+    /**
+     * The last digit is chosen so that the digits, weighted 3 and 1 alternately from the right,
+     * add up to a multiple of 10.
+     */
+    static boolean checkDigitIsValid(int[] digits, int count) {
+        int sum = 0;
+        for (int i = count - 2, weight = 3; i >= 0; i--, weight = 4 - weight) {
+            sum += digits[i] * weight;
+        }
+        return (10 - sum % 10) % 10 == digits[count - 1];
+    }
+
+    private int matchDigit(int run, int[][] patterns) {
+        float bestVariance = MAX_AVG_VARIANCE;
+        int bestDigit = -1;
+        for (int digit = 0; digit < patterns.length; digit++) {
+            float variance = matchVariance(run, patterns[digit]);
+            if (variance < bestVariance) {
+                bestVariance = variance;
+                bestDigit = digit;
+            }
+        }
+        return bestDigit;
+    }
+
+    /**
+     * Returns how far the runs starting at {@code run} are off the given pattern of module widths,
+     * as a share of their total width, or infinity if any single run is too far off.
+     */
+    private float matchVariance(int run, int[] pattern) {
+        int total = 0;
+        int modules = 0;
+        for (int i = 0; i < pattern.length; i++) {
+            mCounters[i] = mRuns[run + i];
+            total += mCounters[i];
+            modules += pattern[i];
+        }
+        if (total < modules) {
+            // less than a pixel per module
+            return Float.POSITIVE_INFINITY;
+        }
+
+        float moduleWidth = (float) total / modules;
+        float maxIndividualVariance = MAX_INDIVIDUAL_VARIANCE * moduleWidth;
+        float totalVariance = 0;
+        for (int i = 0; i < pattern.length; i++) {
+            float variance = Math.abs(mCounters[i] - pattern[i] * moduleWidth);
+            if (variance > maxIndividualVariance) {
+                return Float.POSITIVE_INFINITY;
+            }
+            totalVariance += variance;
+        }
+        return totalVariance / total;
+    }
+
+    /**
+     * Adds a read, or widens the bounds of the same code read on another scan line.
+     */
+    private void addResult(List<DecodedBarcode> results, int format, String value, int firstRun, int lastRun,
+                           boolean vertical, int position) {
+        // pixel range of the runs on the scan line, in the original direction
+        int first = mReversed ? mRunCount - 1 - lastRun : firstRun;
+        int last = mReversed ? mRunCount - 1 - firstRun : lastRun;
+        int from = mStarts[first];
+        int to = mStarts[last] + runWidth(last);
+
+        int left = vertical ? position : from;
+        int right = vertical ? position : to;
+        int top = vertical ? from : position;
+        int bottom = vertical ? to : position;
+
+        for (int i = 0; i < results.size(); i++) {
+            DecodedBarcode result = results.get(i);
+            if (result.getFormat() == format && result.getValue().equals(value)) {
+                results.set(i, new DecodedBarcode(format, value,
+                        Math.min(left, result.getLeft()), Math.min(top, result.getTop()),
+                        Math.max(right, result.getRight()), Math.max(bottom, result.getBottom())));
+                return;
+            }
+        }
+        results.add(new DecodedBarcode(format, value, left, top, right, bottom));
+    }
+
+    /**
+     * Returns the width of a run by its index in the original direction.
+     */
+    private int runWidth(int originalIndex) {
+        return mRuns[mReversed ? mRunCount - 1 - originalIndex : originalIndex];
+    }
+
+    @Override
+    public boolean isOperational() {
+        return true;
+    }
+
+    @Override
+    public void release() {
+        mLine = new int[0];
+        mRuns = new int[0];
+        mStarts = new int[0];
+    }
+
+    @Override
+    public String toString() {
+        return String.format("lines=%d reads=%d", mLines, mReads);
+    }
+}
@@ -0,0 +1,187 @@
+package com.ekreutz.barcodescanner.util;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Maps barcode FORMATS from Google's Barcode class, to a set of human readable strings.
+ * <p/>
+ * The format flags are copied from com.google.android.gms.vision.barcode.Barcode, so that this
+ * class doesn't depend on play services.
+ */
+public class BarcodeFormat {
+
+    public static final int ALL_FORMATS = 0;
+    public static final int CODE_128 = 1;
+    public static final int CODE_39 = 2;
+    public static final int CODE_93 = 4;
+    public static final int CODABAR = 8;
+    public static final int DATA_MATRIX = 16;
+    public static final int EAN_13 = 32;
+    public static final int EAN_8 = 64;
+    public static final int ITF = 128;
+    public static final int QR_CODE = 256;
+    public static final int UPC_A = 512;
+    public static final int UPC_E = 1024;
+    public static final int PDF417 = 2048;
+    public static final int AZTEC = 4096;
+
+    public static final Map<Integer, String> FORMATS;
+    public static final Map<String, Integer> REVERSE_FORMATS;
+
+    /**
+     * Returned for a format name that isn't known.
+     */
+    public static final int UNKNOWN_FORMAT_INT = -1;
+
+    private static final String UNKNOWN_FORMAT_STRING = "UNKNOWN_FORMAT";
+    private static final String ALL_FORMATS_STRING = "ALL";
+
+    // Every format is a single bit, so the names are indexed by bit position.  This is what the
+    // per detection lookups use; the maps above are only for exporting the formats to JS.
+    private static final String[] NAMES = {
+        "CODE_128",     // 1 << 0
+        "CODE_39",      // 1 << 1
+        "CODE_93",      // 1 << 2
+        "CODABAR",      // 1 << 3
+        "DATA_MATRIX",  // 1 << 4
+        "EAN_13",       // 1 << 5
+        "EAN_8",        // 1 << 6
+        "ITF",          // 1 << 7
+        "QR_CODE",      // 1 << 8
+        "UPC_A",        // 1 << 9
+        "UPC_E",        // 1 << 10
+        "PDF417",       // 1 << 11
+        "AZTEC"         // 1 << 12
+    };
+
+    /**
+     * Mask with the bits of all known formats set.
+     */
+    public static final int KNOWN_FORMATS = (1 << NAMES.length) - 1;
+
+    /**
+     * Mask of the 1D (linear) formats, and of the 2D formats.
+     */
+    public static final int LINEAR_FORMATS = CODE_128 | CODE_39 | CODE_93 | CODABAR | EAN_13 | EAN_8
+            | ITF | UPC_A | UPC_E;
+    public static final int MATRIX_FORMATS = DATA_MATRIX | QR_CODE | PDF417 | AZTEC;
+
+    static {
+        // Initialize integer to string map
+        Map<Integer, String> map = new HashMap<>();
+        for (int bit = 0; bit < NAMES.length; bit++) {
+            map.put(1 << bit, NAMES[bit]);
+        }
+        FORMATS = Collections.unmodifiableMap(map);
+
+
+        // Initialize string to integer map
+        Map<String, Integer> rmap = new HashMap<>();
+        for (Map.Entry<Integer, String> entry : FORMATS.entrySet()) {
+            rmap.put(entry.getValue(), entry.getKey());
+        }
+
+        rmap.put(ALL_FORMATS_STRING, ALL_FORMATS);
+        REVERSE_FORMATS = Collections.unmodifiableMap(rmap);
+    }
+
+    /**
+     * Returns the name of a single format, or "UNKNOWN_FORMAT".
+     */
+    public static String get(int format) {
+        // A known format has exactly one of the known bits set.
+        if ((format & KNOWN_FORMATS) != 0 && (format & (format - 1)) == 0) {
+            return NAMES[Integer.numberOfTrailingZeros(format)];
+        }
+
+        return UNKNOWN_FORMAT_STRING;
+    }
+
+    /**
+     * Returns the format with the given name, {@link #ALL_FORMATS} for "ALL", or
+     * {@link #UNKNOWN_FORMAT_INT} if the name is unknown.
+     */
+    public static int get(String format) {
+        if (format == null) {
+            return UNKNOWN_FORMAT_INT;
+        }
+
+        for (int bit = 0; bit < NAMES.length; bit++) {
+            if (NAMES[bit].equals(format)) {
+                return 1 << bit;
+            }
+        }
+
+        if (ALL_FORMATS_STRING.equals(format)) {
+            return ALL_FORMATS;
+        }
+
+        return UNKNOWN_FORMAT_INT;
+    }
+
+    /**
+     * Turns a list of format names into a mask for the barcode detector.  Unknown names are left
+     * out; "ALL", or an empty list, gives {@link #ALL_FORMATS}.  A list of only unknown names gives
+     * {@link #UNKNOWN_FORMAT_INT}, rather than a mask that would scan for every format.
+     */
+    public static int toMask(String[] formats) {
+        if (formats.length == 0) {
+            return ALL_FORMATS;
+        }
+
+        int mask = 0;
+        for (String name : formats) {
+            int format = get(name);
+            if (format == ALL_FORMATS) {
+                return ALL_FORMATS;
+            }
+            if (format != UNKNOWN_FORMAT_INT) {
+                mask |= format;
+            }
+        }
+        return mask != 0 ? mask : UNKNOWN_FORMAT_INT;
+    }
+
+    /**
+     * Writes the names of the formats in a mask into {@code names}, lowest bit first.  A mask of
+     * {@link #ALL_FORMATS} gives the names of all known formats.
+     *
+     * @return the number of names written; {@code names} should have room for
+     * {@link #count(int)} names
+     */
+    public static int toNames(int mask, String[] names) {
+        int remaining = mask == ALL_FORMATS ? KNOWN_FORMATS : mask & KNOWN_FORMATS;
+        int count = 0;
+        while (remaining != 0) {
+            names[count++] = NAMES[Integer.numberOfTrailingZeros(remaining)];
+            remaining &= remaining - 1;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the names of the formats in a mask, lowest bit first.
+     */
+    public static String[] toNames(int mask) {
+        String[] names = new String[count(mask)];
+        toNames(mask, names);
+        return names;
+    }
+
+    /**
+     * Returns the number of known formats in a mask, where {@link #ALL_FORMATS} counts as all of
+     * them.
+     */
+    public static int count(int mask) {
+        return Integer.bitCount(mask == ALL_FORMATS ? KNOWN_FORMATS : mask & KNOWN_FORMATS);
+    }
+
+    /**
+     * Returns true if the detector mask includes the given format.
+     */
+    public static boolean contains(int mask, int format) {
+        return mask == ALL_FORMATS || (mask & format) != 0;
+    }
+}
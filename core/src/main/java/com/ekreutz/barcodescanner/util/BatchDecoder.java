@@ -0,0 +1,195 @@
+package com.ekreutz.barcodescanner.util;
+
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Decodes a batch of image files on a bounded pool of worker threads, reporting every image as
+ * soon as it is done instead of at the end of the batch.
+ * <p/>
+ * Every worker takes images off the batch in order and decodes them with a decoder of its own, so
+ * that decoders can keep per thread state (a detector, a bitmap to decode into) without locking.
+ * A batch never uses more workers than it has images, and never more than the pool has threads;
+ * batches started while the pool is busy wait for a free thread.
+ * <p/>
+ * Listener methods are called on the worker threads.
+ */
+public class BatchDecoder<R> {
+    public static final int DEFAULT_MAX_THREADS = 4;
+
+    public interface Decoder<R> {
+        /**
+         * Decodes the image at the given path.
+         */
+        R decode(String path) throws Exception;
+
+        /**
+         * Frees the decoder's resources once the batch is done.
+         */
+        void release();
+    }
+
+    public interface Factory<R> {
+        /**
+         * Creates a decoder for one worker of a batch.  Called on the worker thread.
+         */
+        Decoder<R> create();
+    }
+
+    public interface Listener<R> {
+        void onImageDecoded(int index, String path, R result, long decodeNanos);
+
+        void onImageFailed(int index, String path, Exception error, long decodeNanos);
+
+        /**
+         * Called once, after every image of the batch was reported.
+         */
+        void onBatchFinished(int decoded, int failed, long batchNanos);
+    }
+
+    private final int mThreads;
+    private final ExecutorService mExecutor;
+
+    /**
+     * @param threads how many images are decoded at once at most, see {@link #poolSize(int, int)}
+     */
+    public BatchDecoder(int threads) {
+        if (threads < 1) {
+            throw new IllegalArgumentException("Invalid number of decoder threads: " + threads);
+        }
+        mThreads = threads;
+
+        ThreadPoolExecutor executor = new ThreadPoolExecutor(threads, threads, 30, TimeUnit.SECONDS,
+                new LinkedBlockingQueue<Runnable>(), new ThreadFactory() {
+                    private final AtomicInteger mCount = new AtomicInteger();
+
+                    @Override
+                    public Thread newThread(Runnable runnable) {
+                        Thread thread = new Thread(runnable, "BatchDecoder-" + mCount.incrementAndGet());
+                        thread.setDaemon(true);
+                        thread.setPriority(Thread.MIN_PRIORITY);
+                        return thread;
+                    }
+                });
+        // idle workers go away, since batches are rare
+        executor.allowCoreThreadTimeOut(true);
+        mExecutor = executor;
+    }
+
+    /**
+     * Returns the number of threads to decode on: one per processor, but at most
+     * {@code maxThreads}.  Decoding is CPU and memory bound, so more threads than processors only
+     * add memory pressure.
+     */
+    public static int poolSize(int maxThreads, int processors) {
+        return Math.max(1, Math.min(maxThreads, processors));
+    }
+
+    public int getThreads() {
+        return mThreads;
+    }
+
+    /**
+     * Starts decoding the images at the given paths, and returns right away.
+     */
+    public void decode(List<String> paths, Factory<R> factory, Listener<R> listener) {
+        Batch<R> batch = new Batch<>(paths.toArray(new String[paths.size()]), factory, listener);
+        if (batch.mPaths.length == 0) {
+            listener.onBatchFinished(0, 0, 0);
+            return;
+        }
+
+        int workers = Math.min(mThreads, batch.mPaths.length);
+        batch.mWorkers.set(workers);
+        for (int i = 0; i < workers; i++) {
+            mExecutor.execute(batch);
+        }
+    }
+
+    /**
+     * Stops the pool.  Batches that are running finish the image they are on; the images no
+     * worker got to are reported as failed.
+     */
+    public void shutdown() {
+        for (Runnable pending : mExecutor.shutdownNow()) {
+            ((Batch<?>) pending).abandon();
+        }
+    }
+
+    private static class Batch<R> implements Runnable {
+        final String[] mPaths;
+        final Factory<R> mFactory;
+        final Listener<R> mListener;
+        final long mStartNanos = System.nanoTime();
+
+        final AtomicInteger mNext = new AtomicInteger();
+        final AtomicInteger mWorkers = new AtomicInteger();
+        final AtomicInteger mDecoded = new AtomicInteger();
+        final AtomicInteger mFailed = new AtomicInteger();
+
+        Batch(String[] paths, Factory<R> factory, Listener<R> listener) {
+            mPaths = paths;
+            mFactory = factory;
+            mListener = listener;
+        }
+
+        @Override
+        public void run() {
+            Decoder<R> decoder = null;
+            try {
+                decoder = mFactory.create();
+                int index;
+                while (!Thread.currentThread().isInterrupted() && (index = mNext.getAndIncrement()) < mPaths.length) {
+                    decodeImage(decoder, index);
+                }
+            } catch (RuntimeException e) {
+                // the decoder couldn't be created: the other workers take over this worker's share
+            } finally {
+                if (decoder != null) {
+                    decoder.release();
+                }
+                abandon();
+            }
+        }
+
+        /**
+         * Marks one worker as done, finishing the batch after the last one.
+         */
+        void abandon() {
+            if (mWorkers.decrementAndGet() == 0) {
+                finish();
+            }
+        }
+
+        private void decodeImage(Decoder<R> decoder, int index) {
+            String path = mPaths[index];
+            long startNanos = System.nanoTime();
+            R result;
+            try {
+                result = decoder.decode(path);
+            } catch (Exception e) {
+                mFailed.incrementAndGet();
+                mListener.onImageFailed(index, path, e, System.nanoTime() - startNanos);
+                return;
+            }
+            mDecoded.incrementAndGet();
+            mListener.onImageDecoded(index, path, result, System.nanoTime() - startNanos);
+        }
+
+        private void finish() {
+            // images that no worker got to, because every decoder failed or the pool was stopped
+            int index;
+            while ((index = mNext.getAndIncrement()) < mPaths.length) {
+                mFailed.incrementAndGet();
+                mListener.onImageFailed(index, mPaths[index],
+                        new IllegalStateException("Image was not decoded."), 0);
+            }
+            mListener.onBatchFinished(mDecoded.get(), mFailed.get(), System.nanoTime() - mStartNanos);
+        }
+    }
+}
@@ -0,0 +1,100 @@
+package com.ekreutz.barcodescanner.util;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Remembers recently read barcodes, so that reading the same barcode again shortly after isn't
+ * reported again.
+ * <p/>
+ * Barcodes are keyed on their format and value.  A barcode counts as a repeat while it is read
+ * again within the time to live of its last read, so a label that stays in view keeps being
+ * suppressed however long it stays.  The cache holds a bounded number of barcodes, evicting the
+ * least recently read one when full.
+ * <p/>
+ * All methods are thread safe.
+ */
+public class DedupCache {
+    public static final int DEFAULT_CAPACITY = 256;
+
+    private final LinkedHashMap<String, long[]> mLastRead;
+    private long mTtlMillis;
+
+    private long mPassed = 0;
+    private long mSuppressed = 0;
+
+    /**
+     * @param ttlMillis how long after its last read a barcode counts as a repeat
+     * @param capacity  how many barcodes to remember at most
+     */
+    public DedupCache(long ttlMillis, final int capacity) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid dedup cache capacity: " + capacity);
+        }
+        setTtlMillis(ttlMillis);
+
+        // In access order, so that the eldest entry is the least recently read barcode.
+        mLastRead = new LinkedHashMap<String, long[]>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, long[]> eldest) {
+                return size() > capacity;
+            }
+        };
+    }
+
+    public synchronized void setTtlMillis(long ttlMillis) {
+        if (ttlMillis <= 0) {
+            throw new IllegalArgumentException("Invalid dedup time to live: " + ttlMillis);
+        }
+        mTtlMillis = ttlMillis;
+    }
+
+    /**
+     * Records a read of the given barcode.
+     *
+     * @return true if the barcode was read before within the time to live, and should not be
+     * reported again
+     */
+    public synchronized boolean isRepeat(int format, String value, long nowMillis) {
+        String key = format + ":" + value;
+        long[] lastRead = mLastRead.get(key);
+
+        if (lastRead == null) {
+            mLastRead.put(key, new long[]{nowMillis});
+            mPassed++;
+            return false;
+        }
+
+        boolean repeat = nowMillis - lastRead[0] < mTtlMillis;
+        lastRead[0] = nowMillis;
+        if (repeat) {
+            mSuppressed++;
+        } else {
+            mPassed++;
+        }
+        return repeat;
+    }
+
+    /**
+     * Forgets all barcodes read so far.
+     */
+    public synchronized void clear() {
+        mLastRead.clear();
+    }
+
+    public synchronized long getPassed() {
+        return mPassed;
+    }
+
+    /**
+     * Returns how many reads were suppressed as repeats.
+     */
+    public synchronized long getSuppressed() {
+        return mSuppressed;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("passed=%d suppressed=%d size=%d", mPassed, mSuppressed, mLastRead.size());
+    }
+}
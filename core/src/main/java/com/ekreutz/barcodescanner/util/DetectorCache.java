@@ -0,0 +1,168 @@
+package com.ekreutz.barcodescanner.util;
+
+import java.util.ArrayList;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Keeps detectors around per barcode format mask, so that switching between a few masks reuses
+ * detectors that are already created and warmed up.
+ * <p/>
+ * Detectors are handed out with {@link #acquire(int)} and handed back with {@link #release(Object)}.
+ * A detector is handed to one user at a time: acquiring a mask whose detectors are all in use, e.g.
+ * by another detection worker or by the detector that is being swapped out, creates another one.
+ * So a detector is never used from two threads at once, as long as every thread acquires its own.
+ * <p/>
+ * The cache holds the detectors of at most {@code capacity} masks.  When it is full, the detectors
+ * of the least recently acquired mask are evicted and released through the factory, but only once
+ * they have been handed back: a detector is never released while it is in use.
+ * <p/>
+ * All methods are thread safe.
+ */
+public class DetectorCache<D> {
+    public static final int DEFAULT_CAPACITY = 4;
+
+    public interface Factory<D> {
+        /**
+         * Creates a detector for the given format mask.
+         */
+        D create(int mask);
+
+        /**
+         * Runs the detector once, so that its first real frame doesn't pay for initialization.
+         */
+        void warmUp(D detector);
+
+        /**
+         * Frees the detector's resources.
+         */
+        void release(D detector);
+    }
+
+    private static class Entry<D> {
+        // Detectors of this mask that nobody uses right now
+        final List<D> mIdle = new ArrayList<>(1);
+        boolean mEvicted = false;
+    }
+
+    private final int mCapacity;
+    private final Factory<D> mFactory;
+
+    // In access order, so that the eldest entry is the least recently acquired mask.
+    private final LinkedHashMap<Integer, Entry<D>> mEntries = new LinkedHashMap<>(16, 0.75f, true);
+
+    // Detectors that are handed out, by identity, with the entry to hand them back to.  The
+    // entry may have been evicted since, in which case the detector is released when handed back.
+    private final Map<D, Entry<D>> mInUse = new IdentityHashMap<>();
+
+    private long mHits = 0;
+    private long mMisses = 0;
+    private long mEvictions = 0;
+
+    public DetectorCache(int capacity, Factory<D> factory) {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Invalid detector cache capacity: " + capacity);
+        }
+        mCapacity = capacity;
+        mFactory = factory;
+    }
+
+    /**
+     * Returns a detector for the given format mask that nobody else uses, creating and warming one
+     * up if there is none.  The detector must be handed back with {@link #release(Object)} once it
+     * isn't used anymore.
+     */
+    public synchronized D acquire(int mask) {
+        Entry<D> entry = mEntries.get(mask);
+        if (entry == null) {
+            entry = new Entry<>();
+            mEntries.put(mask, entry);
+            evict();
+        }
+
+        D detector;
+        if (!entry.mIdle.isEmpty()) {
+            mHits++;
+            detector = entry.mIdle.remove(entry.mIdle.size() - 1);
+        } else {
+            mMisses++;
+            detector = mFactory.create(mask);
+            mFactory.warmUp(detector);
+        }
+
+        mInUse.put(detector, entry);
+        return detector;
+    }
+
+    /**
+     * Hands back a detector from {@link #acquire(int)}.
+     */
+    public synchronized void release(D detector) {
+        Entry<D> entry = mInUse.remove(detector);
+        if (entry == null) {
+            return;
+        }
+
+        if (entry.mEvicted) {
+            mFactory.release(detector);
+        } else {
+            entry.mIdle.add(detector);
+        }
+    }
+
+    /**
+     * Evicts every detector, releasing the ones that aren't in use right away.
+     */
+    public synchronized void clear() {
+        for (Entry<D> entry : mEntries.values()) {
+            retire(entry);
+        }
+        mEntries.clear();
+    }
+
+    private void evict() {
+        Iterator<Map.Entry<Integer, Entry<D>>> eldest = mEntries.entrySet().iterator();
+        while (mEntries.size() > mCapacity && eldest.hasNext()) {
+            Entry<D> entry = eldest.next().getValue();
+            eldest.remove();
+            mEvictions++;
+            retire(entry);
+        }
+    }
+
+    private void retire(Entry<D> entry) {
+        entry.mEvicted = true;
+        for (D detector : entry.mIdle) {
+            mFactory.release(detector);
+        }
+        entry.mIdle.clear();
+    }
+
+    /**
+     * Returns the number of masks that have detectors cached.
+     */
+    public synchronized int size() {
+        return mEntries.size();
+    }
+
+    public synchronized long getHits() {
+        return mHits;
+    }
+
+    public synchronized long getMisses() {
+        return mMisses;
+    }
+
+    public synchronized long getEvictions() {
+        return mEvictions;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("size=%d inUse=%d hits=%d misses=%d evictions=%d",
+                mEntries.size(), mInUse.size(), mHits, mMisses, mEvictions);
+    }
+}
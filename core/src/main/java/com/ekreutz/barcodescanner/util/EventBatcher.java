@@ -0,0 +1,178 @@
+package com.ekreutz.barcodescanner.util;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+/**
+ * Gathers events into batches, so that many events found at about the same time cross the bridge
+ * as one message instead of one message each.
+ * <p/>
+ * A batch is sent either at the end of the frame its first event came from (a window of 0), or a
+ * fixed window after its first event.  Events with the same key within a batch are coalesced into
+ * the latest one.  On top of that, batches are sent at most {@code maxBatchesPerSecond} times a
+ * second: while a batch has to wait, new events keep joining it, so that at most one batch is ever
+ * waiting to be sent, however far behind the receiver is.
+ * <p/>
+ * The batcher doesn't keep time itself.  {@link #add(String, Object, long)} and
+ * {@link #endFrame(long)} return when the caller should call {@link #flush(long)} to take the
+ * batch, and only do so once per batch.
+ * <p/>
+ * All methods are thread safe.
+ */
+public class EventBatcher<T> {
+    /**
+     * Returned when no flush needs to be scheduled.
+     */
+    public static final long NO_FLUSH = -1;
+
+    public static final int DEFAULT_MAX_BATCH_SIZE = 64;
+
+    private final int mMaxBatchSize;
+    private long mWindowMillis;
+    private long mMinIntervalMillis;
+
+    private final LinkedHashMap<String, T> mBatch = new LinkedHashMap<>();
+    private long mFirstEventMillis;
+    private long mLastFlushMillis = Long.MIN_VALUE / 2;
+    private boolean mFrameEnded = false;
+    private boolean mFlushScheduled = false;
+
+    private long mEvents = 0;
+    private long mCoalesced = 0;
+    private long mDropped = 0;
+    private long mBatches = 0;
+
+    /**
+     * @param windowMillis        how long a batch gathers events, or 0 to send it at the end of the
+     *                            frame
+     * @param maxBatchesPerSecond how many batches may be sent per second, or 0 for no limit
+     * @param maxBatchSize        how many distinct events a batch holds at most; events beyond
+     *                            that are dropped
+     */
+    public EventBatcher(long windowMillis, float maxBatchesPerSecond, int maxBatchSize) {
+        if (maxBatchSize < 1) {
+            throw new IllegalArgumentException("Invalid batch size: " + maxBatchSize);
+        }
+        mMaxBatchSize = maxBatchSize;
+        setWindowMillis(windowMillis);
+        setMaxBatchesPerSecond(maxBatchesPerSecond);
+    }
+
+    public synchronized void setWindowMillis(long windowMillis) {
+        if (windowMillis < 0) {
+            throw new IllegalArgumentException("Invalid batch window: " + windowMillis);
+        }
+        mWindowMillis = windowMillis;
+    }
+
+    public synchronized void setMaxBatchesPerSecond(float maxBatchesPerSecond) {
+        if (maxBatchesPerSecond < 0) {
+            throw new IllegalArgumentException("Invalid batch rate: " + maxBatchesPerSecond);
+        }
+        mMinIntervalMillis = maxBatchesPerSecond > 0 ? (long) Math.ceil(1000 / maxBatchesPerSecond) : 0;
+    }
+
+    /**
+     * Adds an event to the current batch, replacing an event with the same key.
+     *
+     * @return in how many milliseconds {@link #flush(long)} should be called, or {@link #NO_FLUSH}
+     */
+    public synchronized long add(String key, T event, long nowMillis) {
+        if (mBatch.isEmpty()) {
+            mFirstEventMillis = nowMillis;
+        }
+
+        if (mBatch.remove(key) != null) {
+            mCoalesced++;
+        } else if (mBatch.size() >= mMaxBatchSize) {
+            mDropped++;
+            return scheduleFlush(nowMillis);
+        } else {
+            mEvents++;
+        }
+        mBatch.put(key, event);
+
+        return scheduleFlush(nowMillis);
+    }
+
+    /**
+     * Marks the end of a frame.  Without a window, this is when the batch is sent.
+     *
+     * @return in how many milliseconds {@link #flush(long)} should be called, or {@link #NO_FLUSH}
+     */
+    public synchronized long endFrame(long nowMillis) {
+        if (mWindowMillis == 0 && !mBatch.isEmpty()) {
+            mFrameEnded = true;
+        }
+        return scheduleFlush(nowMillis);
+    }
+
+    /**
+     * Takes the current batch, in the order its events were added.
+     */
+    public synchronized List<T> flush(long nowMillis) {
+        mFlushScheduled = false;
+        mFrameEnded = false;
+        if (mBatch.isEmpty()) {
+            return Collections.emptyList();
+        }
+
+        List<T> events = new ArrayList<>(mBatch.values());
+        mBatch.clear();
+        mLastFlushMillis = nowMillis;
+        mBatches++;
+        return events;
+    }
+
+    private long scheduleFlush(long nowMillis) {
+        if (mFlushScheduled || mBatch.isEmpty()) {
+            return NO_FLUSH;
+        }
+
+        long dueMillis;
+        if (mWindowMillis > 0) {
+            dueMillis = mFirstEventMillis + mWindowMillis;
+        } else if (mFrameEnded) {
+            dueMillis = nowMillis;
+        } else {
+            return NO_FLUSH;
+        }
+
+        dueMillis = Math.max(dueMillis, mLastFlushMillis + mMinIntervalMillis);
+        mFlushScheduled = true;
+        return Math.max(0, dueMillis - nowMillis);
+    }
+
+    /**
+     * Returns how many events were added to a batch, not counting coalesced and dropped ones.
+     */
+    public synchronized long getEvents() {
+        return mEvents;
+    }
+
+    /**
+     * Returns how many events replaced an earlier event with the same key in their batch.
+     */
+    public synchronized long getCoalesced() {
+        return mCoalesced;
+    }
+
+    /**
+     * Returns how many events were dropped because their batch was full.
+     */
+    public synchronized long getDropped() {
+        return mDropped;
+    }
+
+    public synchronized long getBatches() {
+        return mBatches;
+    }
+
+    @Override
+    public synchronized String toString() {
+        return String.format("events=%d coalesced=%d dropped=%d batches=%d",
+                mEvents, mCoalesced, mDropped, mBatches);
+    }
+}
@@ -0,0 +1,66 @@
+package com.ekreutz.barcodescanner.camera;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+import static org.junit.Assert.assertNull;
+
+public class FrameCropperTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyPool() {
+        new FrameCropper(0);
+    }
+
+    @Test
+    public void cropCopiesTheWindowOfBothPlanes() {
+        // 4x4 frame: luma 0..15, then two interleaved VU rows 16..23
+        byte[] frame = new byte[FrameCropper.getBufferSize(4, 4)];
+        for (int i = 0; i < frame.length; i++) {
+            frame[i] = (byte) i;
+        }
+
+        FrameCropper cropper = new FrameCropper(1);
+        int slot = cropper.crop(frame, 4, 4, 2, 2, 2, 2);
+        assertNotEquals(FramePool.NO_SLOT, slot);
+
+        byte[] expected = {10, 11, 14, 15, 22, 23};
+        assertArrayEquals(expected, cropper.buffer(slot).array());
+        assertEquals(1, cropper.getCropped());
+    }
+
+    @Test
+    public void cropReturnsNoSlotWhileEveryBufferIsInUse() {
+        byte[] frame = new byte[FrameCropper.getBufferSize(64, 64)];
+        FrameCropper cropper = new FrameCropper(2);
+
+        int first = cropper.crop(frame, 64, 64, 0, 0, 32, 32);
+        int second = cropper.crop(frame, 64, 64, 0, 0, 32, 32);
+        assertNotEquals(FramePool.NO_SLOT, first);
+        assertNotEquals(FramePool.NO_SLOT, second);
+        assertNotEquals(first, second);
+
+        assertEquals(FramePool.NO_SLOT, cropper.crop(frame, 64, 64, 0, 0, 32, 32));
+        assertEquals(FramePool.NO_SLOT, cropper.crop(frame, 64, 64, 0, 0, 32, 32));
+        assertEquals(2, cropper.getCropped());
+        assertEquals(2, cropper.getExhausted());
+
+        cropper.release(first);
+        assertEquals(first, cropper.crop(frame, 64, 64, 0, 0, 32, 32));
+        assertEquals(3, cropper.getCropped());
+        assertEquals(2, cropper.getExhausted());
+    }
+
+    @Test
+    public void alignCropWidensToEvenPixels() {
+        assertArrayEquals(new int[]{10, 20, 40, 40}, FrameCropper.alignCrop(0.11f, 0.21f, 0.49f, 0.59f, 100, 100));
+    }
+
+    @Test
+    public void alignCropSkipsWholeAndTinyWindows() {
+        assertNull(FrameCropper.alignCrop(0, 0, 1, 1, 640, 480));
+        assertNull(FrameCropper.alignCrop(0.5f, 0.5f, 0.51f, 0.51f, 640, 480));
+    }
+}
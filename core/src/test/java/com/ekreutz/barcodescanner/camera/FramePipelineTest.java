@@ -0,0 +1,231 @@
+package com.ekreutz.barcodescanner.camera;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class FramePipelineTest {
+    private static final int WIDTH = 16;
+    private static final int HEIGHT = 8;
+    private static final int FRAMES = 200;
+
+    /**
+     * Stand-in camera: a queue of the buffers it may fill.
+     */
+    private static class QueueSource implements FramePipeline.FrameSource {
+        final LinkedBlockingQueue<byte[]> mBuffers = new LinkedBlockingQueue<>();
+
+        @Override
+        public void addBuffer(byte[] buffer) {
+            mBuffers.add(buffer);
+        }
+
+        @Override
+        public void onTargetFpsChanged(float fps) {
+        }
+
+        @Override
+        public void onPreviewSizeChange() {
+        }
+    }
+
+    /**
+     * Stand-in detector that "finds" the number written into the first byte of the frame.
+     */
+    private static class FirstByteDetector implements FramePipeline.Detector<Integer> {
+        @Override
+        public Integer detect(ByteBuffer data, int width, int height, int frameId, long timeMillis, int rotation) {
+            if (width != WIDTH || height != HEIGHT) {
+                throw new IllegalStateException("Unexpected frame size " + width + " x " + height);
+            }
+            return data.get(0) & 0xff;
+        }
+
+        @Override
+        public int getCount(Integer result) {
+            return 1;
+        }
+
+        @Override
+        public int getFormats(Integer result) {
+            return 0;
+        }
+
+        @Override
+        public Integer toFullResolution(Integer result, int downscale, ByteBuffer data, int width, int height,
+                                       int frameId, long timeMillis, int rotation) {
+            return result;
+        }
+
+        @Override
+        public void release() {
+        }
+    }
+
+    /**
+     * Records the results, and the frame ids they came with.
+     */
+    private static class RecordingReceiver implements FramePipeline.Receiver<Integer> {
+        final List<Integer> mFrameIds = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> mResults = Collections.synchronizedList(new ArrayList<Integer>());
+        final List<Integer> mErrors = Collections.synchronizedList(new ArrayList<Integer>());
+
+        @Override
+        public void receive(int frameId, long captureNanos, Integer result) {
+            mFrameIds.add(frameId);
+            mResults.add(result);
+        }
+
+        @Override
+        public void onError(int frameId, Throwable t) {
+            mErrors.add(frameId);
+        }
+    }
+
+    private QueueSource mSource;
+    private RecordingReceiver mReceiver;
+    private FramePipeline<Integer> mPipeline;
+
+    @Before
+    public void setUp() {
+        mSource = new QueueSource();
+        mReceiver = new RecordingReceiver();
+        mPipeline = new FramePipeline<>(mSource, mReceiver, new FrameTracer(64));
+    }
+
+    @After
+    public void tearDown() {
+        mPipeline.stop();
+        mPipeline.release();
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroWorkers() {
+        mPipeline.setDetector(new FirstByteDetector(), 0, null);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void parallelWorkersNeedAFactory() {
+        mPipeline.setDetector(new FirstByteDetector(), 2, null);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void detectorCantBeSetWhileRunning() {
+        mPipeline.setDetector(new FirstByteDetector(), 1, null);
+        mPipeline.start();
+        mPipeline.setDetector(new FirstByteDetector(), 1, null);
+    }
+
+    @Test
+    public void deliversEveryFrameInOrder() throws InterruptedException {
+        mPipeline.setDetector(new FirstByteDetector(), 1, null);
+        runFrames(FRAMES);
+
+        assertDeliveredInOrder(FRAMES);
+    }
+
+    @Test
+    public void parallelWorkersDeliverInFrameOrder() throws InterruptedException {
+        mPipeline.setDetector(new FirstByteDetector(), 3, new FramePipeline.DetectorFactory<Integer>() {
+            @Override
+            public FramePipeline.Detector<Integer> createDetector() {
+                return new FirstByteDetector();
+            }
+        });
+        runFrames(FRAMES);
+
+        assertDeliveredInOrder(FRAMES);
+    }
+
+    @Test
+    public void detectorErrorsAreReportedForTheirFrame() throws InterruptedException {
+        mPipeline.setDetector(new FirstByteDetector() {
+            @Override
+            public Integer detect(ByteBuffer data, int width, int height, int frameId, long timeMillis, int rotation) {
+                if (frameId % 2 == 0) {
+                    throw new IllegalStateException("even frame");
+                }
+                return super.detect(data, width, height, frameId, timeMillis, rotation);
+            }
+        }, 1, null);
+        runFrames(10);
+
+        assertEquals(10, mReceiver.mFrameIds.size() + mReceiver.mErrors.size());
+        for (int frameId : mReceiver.mErrors) {
+            assertEquals(0, frameId % 2);
+        }
+        for (int frameId : mReceiver.mFrameIds) {
+            assertEquals(1, frameId % 2);
+        }
+    }
+
+    @Test
+    public void framesOutsideASessionAreIgnored() throws InterruptedException {
+        mPipeline.setDetector(new FirstByteDetector(), 1, null);
+        FramePool pool = startSession();
+        mPipeline.start();
+        mPipeline.endSession();
+        assertNull(mPipeline.getFramePool());
+
+        mPipeline.onFrame(mSource.mBuffers.take());
+        mPipeline.stop();
+
+        assertTrue(mReceiver.mFrameIds.isEmpty());
+        assertEquals(0, pool.getStats().getReceived());
+        assertEquals(pool.getDepth() - 1, mSource.mBuffers.size());
+    }
+
+    private FramePool startSession() {
+        FramePool pool = new FramePool(FramePool.DEFAULT_DEPTH, WIDTH * HEIGHT * 3 / 2);
+        mPipeline.startSession(pool, WIDTH, HEIGHT);
+        for (int slot = 0; slot < pool.getDepth(); slot++) {
+            mSource.addBuffer(pool.offer(slot));
+        }
+        return pool;
+    }
+
+    /**
+     * Feeds frames like a camera that waits for the processing thread, so that none is dropped.
+     */
+    private void runFrames(int frames) throws InterruptedException {
+        FramePool pool = startSession();
+        mPipeline.start();
+        for (int i = 0; i < frames; i++) {
+            byte[] data = mSource.mBuffers.poll(5, TimeUnit.SECONDS);
+            assertNotNull("the camera ran out of buffers", data);
+            data[0] = (byte) i;
+            mPipeline.onFrame(data);
+            while (mPipeline.hasPendingFrame()) {
+                Thread.yield();
+            }
+        }
+        mPipeline.stop();
+        mPipeline.endSession();
+
+        assertEquals(frames, pool.getStats().getReceived());
+        assertEquals(0, pool.getStats().getDropped());
+    }
+
+    private void assertDeliveredInOrder(int frames) {
+        assertEquals(frames, mReceiver.mResults.size());
+        for (int i = 0; i < frames; i++) {
+            assertEquals(Integer.valueOf(i & 0xff), mReceiver.mResults.get(i));
+            if (i > 0) {
+                assertTrue(mReceiver.mFrameIds.get(i) > mReceiver.mFrameIds.get(i - 1));
+            }
+        }
+        assertTrue(mReceiver.mErrors.isEmpty());
+    }
+}
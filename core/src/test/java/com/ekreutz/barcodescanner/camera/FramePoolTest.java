@@ -0,0 +1,181 @@
+package com.ekreutz.barcodescanner.camera;
+
+import org.junit.Test;
+
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class FramePoolTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooShallowDepth() {
+        new FramePool(FramePool.MIN_DEPTH - 1, 16);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsTooDeepDepth() {
+        new FramePool(FramePool.MAX_DEPTH + 1, 16);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyBuffers() {
+        new FramePool(FramePool.DEFAULT_DEPTH, 0);
+    }
+
+    @Test
+    public void buffersWrapTheOfferedArrays() {
+        FramePool pool = new FramePool(FramePool.MIN_DEPTH, 16);
+        assertEquals(FramePool.MIN_DEPTH, pool.getDepth());
+        assertEquals(16, pool.getBufferSize());
+
+        for (int slot = 0; slot < pool.getDepth(); slot++) {
+            byte[] data = pool.offer(slot);
+            assertNotNull(data);
+            assertEquals(16, data.length);
+            assertSame(data, pool.buffer(slot).array());
+        }
+    }
+
+    @Test
+    public void slotIsOfferedToTheCameraOnlyOnce() {
+        FramePool pool = new FramePool(FramePool.MIN_DEPTH, 16);
+        assertNotNull(pool.offer(0));
+        assertNull(pool.offer(0));
+
+        assertEquals(0, pool.acquire(pool.buffer(0).array()));
+        assertNotNull(pool.offer(0));
+    }
+
+    @Test
+    public void acquireFindsTheSlotOfTheDeliveredBuffer() {
+        FramePool pool = new FramePool(FramePool.DEFAULT_DEPTH, 16);
+        byte[][] arrays = offerAll(pool);
+
+        assertEquals(2, pool.acquire(arrays[2]));
+        assertEquals(0, pool.acquire(arrays[0]));
+        assertEquals(3, pool.acquire(arrays[3]));
+        assertEquals(3, pool.getStats().getReceived());
+        assertEquals(0, pool.getStats().getUnknown());
+    }
+
+    @Test
+    public void unknownAndDoubleDeliveredBuffersGetNoSlot() {
+        FramePool pool = new FramePool(FramePool.MIN_DEPTH, 16);
+        byte[][] arrays = offerAll(pool);
+
+        assertEquals(FramePool.NO_SLOT, pool.acquire(new byte[16]));
+        assertEquals(1, pool.acquire(arrays[1]));
+        assertEquals(FramePool.NO_SLOT, pool.acquire(arrays[1]));
+
+        FramePool.Stats stats = pool.getStats();
+        assertEquals(1, stats.getReceived());
+        assertEquals(2, stats.getUnknown());
+    }
+
+    @Test
+    public void countsStarvedRecycledAndDropped() {
+        FramePool pool = new FramePool(FramePool.MIN_DEPTH, 16);
+        byte[][] arrays = offerAll(pool);
+        assertEquals(0, pool.getStats().getRecycled());
+
+        pool.acquire(arrays[0]);
+        pool.acquire(arrays[1]);
+        assertEquals(0, pool.getStats().getStarved());
+        pool.acquire(arrays[2]);
+        assertEquals(1, pool.getStats().getStarved());
+
+        pool.drop(0);
+        pool.offer(0);
+        pool.offer(1);
+
+        FramePool.Stats stats = pool.getStats();
+        assertEquals(1, stats.getDropped());
+        assertEquals(2, stats.getRecycled());
+        assertEquals(FramePool.MIN_DEPTH, stats.getDepth());
+    }
+
+    @Test
+    public void dropRejectsSlotsThatArentDelivered() {
+        FramePool pool = new FramePool(FramePool.MIN_DEPTH, 16);
+        byte[][] arrays = offerAll(pool);
+
+        assertFalse(pool.drop(-1));
+        assertFalse(pool.drop(FramePool.MIN_DEPTH));
+        assertFalse(pool.drop(0));
+
+        pool.acquire(arrays[0]);
+        assertTrue(pool.drop(0));
+
+        FramePool.Stats stats = pool.getStats();
+        assertEquals(1, stats.getDropped());
+        assertEquals(3, stats.getUnknown());
+    }
+
+    @Test
+    public void buffersNeverGoToTheCameraTwiceWhileReturnedConcurrently()throws InterruptedException {
+        final FramePool pool = new FramePool(FramePool.DEFAULT_DEPTH, 16);
+        final ConcurrentLinkedQueue<byte[]> camera = new ConcurrentLinkedQueue<>();
+        final ConcurrentLinkedQueue<Integer> delivered = new ConcurrentLinkedQueue<>();
+        for (byte[] data : offerAll(pool)) {
+            camera.add(data);
+        }
+
+        final int frames = 100000;
+        final AtomicInteger doubleOffers = new AtomicInteger();
+        Thread returner = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                int returned = 0;
+                while (returned < frames) {
+                    Integer slot = delivered.poll();
+                    if (slot == null) {
+                        Thread.yield();
+                        continue;
+                    }
+                    byte[] data = pool.offer(slot);
+                    if (data == null) {
+                        doubleOffers.incrementAndGet();
+                    } else {
+                        camera.add(data);
+                    }
+                    returned++;
+                }
+            }
+        });
+        returner.start();
+
+        int received = 0;
+        while (received < frames) {
+            byte[] data = camera.poll();
+            if (data == null) {
+                Thread.yield();
+                continue;
+            }
+            int slot = pool.acquire(data);
+            assertTrue(slot != FramePool.NO_SLOT);
+            delivered.add(slot);
+            received++;
+        }
+        returner.join();
+
+        assertEquals(0, doubleOffers.get());
+        assertEquals(0, pool.getStats().getUnknown());
+        assertEquals(frames, pool.getStats().getReceived());
+        assertFalse(camera.size() > pool.getDepth());
+    }
+
+    private static byte[][] offerAll(FramePool pool) {
+        byte[][] arrays = new byte[pool.getDepth()][];
+        for (int slot = 0; slot < arrays.length; slot++) {
+            arrays[slot] = pool.offer(slot);
+        }
+        return arrays;
+    }
+}
@@ -0,0 +1,159 @@
+package com.ekreutz.barcodescanner.camera;
+
+import org.junit.Test;
+
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LockFreeFrameHandoffTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsUnknownWaitStrategy() {
+        new LockFreeFrameHandoff(-1);
+    }
+
+    @Test
+    public void takesThePutFrame() throws InterruptedException {
+        LockFreeFrameHandoff handoff = new LockFreeFrameHandoff(LockFreeFrameHandoff.WAIT_PARK);
+        assertFalse(handoff.hasPendingFrame());
+
+        assertEquals(FramePool.NO_SLOT, handoff.put(2, 7, 1000L, 2000L));
+        assertTrue(handoff.hasPendingFrame());
+
+        FrameHandoff.PendingFrame frame = new FrameHandoff.PendingFrame();
+        assertTrue(handoff.take(frame));
+        assertEquals(2, frame.getSlot());
+        assertEquals(7, frame.getFrameId());
+        assertEquals(1000L, frame.getTimeMillis());
+        assertEquals(2000L, frame.getCaptureNanos());
+        assertFalse(handoff.hasPendingFrame());
+    }
+
+    @Test
+    public void newerFrameReplacesThePendingOne() throws InterruptedException {
+        LockFreeFrameHandoff handoff = new LockFreeFrameHandoff(LockFreeFrameHandoff.WAIT_PARK);
+        handoff.put(0, 1, 0L, 0L);
+        assertEquals(0, handoff.put(1, 2, 0L, 0L));
+
+        FrameHandoff.PendingFrame frame = new FrameHandoff.PendingFrame();
+        assertTrue(handoff.take(frame));
+        assertEquals(1, frame.getSlot());
+        assertEquals(2, frame.getFrameId());
+    }
+
+    @Test
+    public void inactiveHandoffForgetsThePendingFrame() throws InterruptedException {
+        LockFreeFrameHandoff handoff = new LockFreeFrameHandoff(LockFreeFrameHandoff.WAIT_PARK);
+        handoff.put(0, 1, 0L, 0L);
+        handoff.setActive(false);
+
+        assertFalse(handoff.isActive());
+        assertFalse(handoff.hasPendingFrame());
+        assertFalse(handoff.take(new FrameHandoff.PendingFrame()));
+    }
+
+    @Test
+    public void waitingTakeGetsAFramePutLater() throws InterruptedException {
+        for (int strategy : new int[]{LockFreeFrameHandoff.WAIT_PARK, LockFreeFrameHandoff.WAIT_SPIN_THEN_PARK}) {
+            final LockFreeFrameHandoff handoff = new LockFreeFrameHandoff(strategy);
+            final FrameHandoff.PendingFrame frame = new FrameHandoff.PendingFrame();
+            final AtomicBoolean taken = new AtomicBoolean();
+            Thread processor = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        taken.set(handoff.take(frame));
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            processor.start();
+            Thread.sleep(20);
+
+            handoff.put(3, 42, 0L, 0L);
+            processor.join(5000);
+            assertFalse(processor.isAlive());
+            assertTrue(taken.get());
+            assertEquals(3, frame.getSlot());
+            assertEquals(42, frame.getFrameId());
+        }
+    }
+
+    @Test
+    public void deactivatingWakesAWaitingTake() throws InterruptedException {
+        final LockFreeFrameHandoff handoff = new LockFreeFrameHandoff(LockFreeFrameHandoff.WAIT_PARK);
+        final AtomicBoolean taken = new AtomicBoolean(true);
+        Thread processor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    taken.set(handoff.take(new FrameHandoff.PendingFrame()));
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        processor.start();
+        Thread.sleep(20);
+
+        handoff.setActive(false);
+        processor.join(5000);
+        assertFalse(processor.isAlive());
+        assertFalse(taken.get());
+    }
+
+    @Test
+    public void everyFrameIsEitherTakenOrHandedBack() throws InterruptedException {
+        final LockFreeFrameHandoff handoff = new LockFreeFrameHandoff(LockFreeFrameHandoff.WAIT_SPIN_THEN_PARK);
+        final int frames = 100000;
+        final int[] taken = new int[1];
+        // Slots that are pending or being processed, which the camera must not put again
+        final AtomicIntegerArray held = new AtomicIntegerArray(FramePool.MIN_DEPTH);
+        Thread processor = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                FrameHandoff.PendingFrame frame = new FrameHandoff.PendingFrame();
+                int lastFrameId = -1;
+                try {
+                    while (handoff.take(frame)) {
+                        if (frame.getFrameId() <= lastFrameId) {
+                            throw new AssertionError("frame " + frame.getFrameId() + " after " + lastFrameId);
+                        }
+                        lastFrameId = frame.getFrameId();
+                        taken[0]++;
+                        held.set(frame.getSlot(), 0);
+                    }
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        processor.start();
+
+        int replaced = 0;
+        int slot = 0;
+        for (int frameId = 0; frameId < frames; frameId++) {
+            while (!held.compareAndSet(slot, 0, 1)) {
+                slot = (slot + 1) % held.length();
+            }
+            int replacedSlot = handoff.put(slot, frameId, 0L, 0L);
+            if (replacedSlot != FramePool.NO_SLOT) {
+                held.set(replacedSlot, 0);
+                replaced++;
+            }
+        }
+        while (handoff.hasPendingFrame()) {
+            Thread.yield();
+        }
+        handoff.setActive(false);
+        processor.join(5000);
+
+        assertFalse(processor.isAlive());
+        assertEquals(frames, taken[0] + replaced);
+    }
+}
@@ -0,0 +1,200 @@
+package com.ekreutz.barcodescanner.camera;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class ResultSequencerTest {
+
+    /**
+     * Records what it receives, and fails on concurrent or out of order calls.
+     */
+    private static class RecordingReceiver implements ResultSequencer.Receiver<String> {
+        final List<Long> mSequences = Collections.synchronizedList(new ArrayList<Long>());
+        final List<String> mResults = Collections.synchronizedList(new ArrayList<String>());
+        final AtomicBoolean mReceiving = new AtomicBoolean();
+        volatile String mError;
+
+        @Override
+        public void receive(long sequence, String result) {
+            if (!mReceiving.compareAndSet(false, true)) {
+                mError = "called concurrently";
+            }
+            if (sequence != mSequences.size()) {
+                mError = "sequence " + sequence + " after " + mSequences.size() + " results";
+            }
+            mSequences.add(sequence);
+            mResults.add(result);
+            mReceiving.set(false);
+        }
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyWindow() {
+        new ResultSequencer<>(0, new RecordingReceiver());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsMissingReceiver() {
+        new ResultSequencer<String>(4, null);
+    }
+
+    @Test
+    public void deliversOutOfOrderResultsInOrder() throws InterruptedException {
+        RecordingReceiver receiver = new RecordingReceiver();
+        ResultSequencer<String> sequencer = new ResultSequencer<>(4, receiver);
+        long first = sequencer.begin();
+        long second = sequencer.begin();
+        long third = sequencer.begin();
+
+        sequencer.complete(third, "c");
+        sequencer.complete(second, "b");
+        assertTrue(receiver.mResults.isEmpty());
+        assertEquals(3, sequencer.getOutstanding());
+
+        sequencer.complete(first, "a");
+        assertEquals(3, receiver.mResults.size());
+        assertEquals("a", receiver.mResults.get(0));
+        assertEquals("b", receiver.mResults.get(1));
+        assertEquals("c", receiver.mResults.get(2));
+        assertEquals(0, sequencer.getOutstanding());
+        assertNull(receiver.mError);
+    }
+
+    @Test
+    public void deliversWorkWithoutResultAsNull() throws InterruptedException {
+        RecordingReceiver receiver = new RecordingReceiver();
+        ResultSequencer<String> sequencer = new ResultSequencer<>(2, receiver);
+        sequencer.complete(sequencer.begin(), null);
+
+        assertEquals(1, receiver.mResults.size());
+        assertNull(receiver.mResults.get(0));
+    }
+
+    @Test
+    public void rejectsSequencesThatArentOutstanding() throws InterruptedException {
+        ResultSequencer<String> sequencer = new ResultSequencer<>(2, new RecordingReceiver());
+        long sequence = sequencer.begin();
+        sequencer.complete(sequence, "a");
+
+        try {
+            sequencer.complete(sequence, "a");
+            fail("completed twice");
+        } catch (IllegalArgumentException expected) {
+        }
+        try {
+            sequencer.complete(sequence + 1, "b");
+            fail("completed before begin");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+
+    @Test
+    public void beginWaitsForRoomInTheWindow() throws InterruptedException {
+        final ResultSequencer<String> sequencer = new ResultSequencer<>(2, new RecordingReceiver());
+        long first = sequencer.begin();
+        sequencer.begin();
+
+        final AtomicInteger begun = new AtomicInteger(-1);
+        Thread producer = new Thread(new Runnable() {
+            @Override
+            public void run() {
+                try {
+                    begun.set((int) sequencer.begin());
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+            }
+        });
+        producer.start();
+        producer.join(100);
+        assertTrue(producer.isAlive());
+
+        sequencer.complete(first, "a");
+        producer.join(5000);
+        assertFalse(producer.isAlive());
+        assertEquals(2, begun.get());
+    }
+
+    @Test
+    public void resultsWaitingOnAFailedReceiverAreDeliveredByTheNextCall() throws InterruptedException {
+        final List<String> received = new ArrayList<>();
+        ResultSequencer<String> sequencer = new ResultSequencer<>(4, new ResultSequencer.Receiver<String>() {
+            @Override
+            public void receive(long sequence, String result) {
+                if ("boom".equals(result)) {
+                    throw new IllegalStateException(result);
+                }
+                received.add(result);
+            }
+        });
+        long first = sequencer.begin();
+        long second = sequencer.begin();
+        sequencer.complete(second, "b");
+
+        try {
+            sequencer.complete(first, "boom");
+            fail("receiver exception was swallowed");
+        } catch (IllegalStateException expected) {
+        }
+        assertTrue(received.isEmpty());
+
+        sequencer.complete(sequencer.begin(), "c");
+        assertEquals(2, received.size());
+        assertEquals("b", received.get(0));
+        assertEquals("c", received.get(1));
+    }
+
+    @Test
+    public void concurrentCompletionsAreDeliveredInOrderOneAtATime() throws InterruptedException {
+        final RecordingReceiver receiver = new RecordingReceiver();
+        final ResultSequencer<String> sequencer = new ResultSequencer<>(8, receiver);
+        final int perWorker = 20000;
+        final int workers = 4;
+
+        List<Thread> threads = new ArrayList<>();
+        final BlockingQueue<Long> work = new ArrayBlockingQueue<>(8);
+        for (int i = 0; i < workers; i++) {
+            Thread worker = new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    try {
+                        for (int j = 0; j < perWorker; j++) {
+                            long sequence = work.take();
+                            sequencer.complete(sequence, Long.toString(sequence));
+                        }
+                    } catch (InterruptedException e) {
+                        Thread.currentThread().interrupt();
+                    }
+                }
+            });
+            threads.add(worker);
+            worker.start();
+        }
+
+        for (int i = 0; i < perWorker * workers; i++) {
+            work.put(sequencer.begin());
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertNull(receiver.mError);
+        assertEquals(perWorker * workers, receiver.mResults.size());
+        for (int i = 0; i < receiver.mResults.size(); i++) {
+            assertEquals(Integer.toString(i), receiver.mResults.get(i));
+        }
+    }
+}
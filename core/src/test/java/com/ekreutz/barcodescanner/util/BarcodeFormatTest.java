@@ -0,0 +1,77 @@
+package com.ekreutz.barcodescanner.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class BarcodeFormatTest {
+
+    @Test
+    public void namesSingleFormats() {
+        assertEquals("CODE_128", BarcodeFormat.get(BarcodeFormat.CODE_128));
+        assertEquals("AZTEC", BarcodeFormat.get(BarcodeFormat.AZTEC));
+        assertEquals("UNKNOWN_FORMAT", BarcodeFormat.get(BarcodeFormat.EAN_13 | BarcodeFormat.EAN_8));
+        assertEquals("UNKNOWN_FORMAT", BarcodeFormat.get(BarcodeFormat.ALL_FORMATS));
+        assertEquals("UNKNOWN_FORMAT", BarcodeFormat.get(1 << 20));
+    }
+
+    @Test
+    public void looksUpFormatsByName() {
+        assertEquals(BarcodeFormat.QR_CODE, BarcodeFormat.get("QR_CODE"));
+        assertEquals(BarcodeFormat.ALL_FORMATS, BarcodeFormat.get("ALL"));
+        assertEquals(BarcodeFormat.UNKNOWN_FORMAT_INT, BarcodeFormat.get("qr_code"));
+        assertEquals(BarcodeFormat.UNKNOWN_FORMAT_INT, BarcodeFormat.get((String) null));
+    }
+
+    @Test
+    public void mapsMatchTheLookups() {
+        for (int bit = 0; bit < 13; bit++) {
+            int format = 1 << bit;
+            assertEquals(BarcodeFormat.get(format), BarcodeFormat.FORMATS.get(format));
+            assertEquals(Integer.valueOf(format), BarcodeFormat.REVERSE_FORMATS.get(BarcodeFormat.get(format)));
+        }
+        assertEquals(Integer.valueOf(BarcodeFormat.ALL_FORMATS), BarcodeFormat.REVERSE_FORMATS.get("ALL"));
+    }
+
+    @Test
+    public void turnsNamesIntoAMask() {
+        assertEquals(BarcodeFormat.EAN_13 | BarcodeFormat.QR_CODE,
+                BarcodeFormat.toMask(new String[]{"EAN_13", "QR_CODE"}));
+        assertEquals(BarcodeFormat.EAN_13, BarcodeFormat.toMask(new String[]{"EAN_13", "NOPE"}));
+        assertEquals(BarcodeFormat.ALL_FORMATS, BarcodeFormat.toMask(new String[]{"EAN_13", "ALL"}));
+        assertEquals(BarcodeFormat.ALL_FORMATS, BarcodeFormat.toMask(new String[0]));
+    }
+
+    @Test
+    public void onlyUnknownNamesGiveNoMask() {
+        assertEquals(BarcodeFormat.UNKNOWN_FORMAT_INT, BarcodeFormat.toMask(new String[]{"NOPE", null}));
+    }
+
+    @Test
+    public void turnsAMaskIntoNames() {
+        assertArrayEquals(new String[]{"CODE_128", "QR_CODE"},
+                BarcodeFormat.toNames(BarcodeFormat.QR_CODE | BarcodeFormat.CODE_128));
+        assertEquals(13, BarcodeFormat.toNames(BarcodeFormat.ALL_FORMATS).length);
+        assertEquals(0, BarcodeFormat.toNames(1 << 20).length);
+
+        String[] names = new String[13];
+        assertEquals(2, BarcodeFormat.toNames(BarcodeFormat.EAN_8 | BarcodeFormat.UPC_E | (1 << 20), names));
+        assertEquals("EAN_8", names[0]);
+        assertEquals("UPC_E", names[1]);
+    }
+
+    @Test
+    public void countsAndContainsTreatAllFormatsAsEveryFormat() {
+        assertEquals(13, BarcodeFormat.count(BarcodeFormat.ALL_FORMATS));
+        assertEquals(9, BarcodeFormat.count(BarcodeFormat.LINEAR_FORMATS));
+        assertEquals(4, BarcodeFormat.count(BarcodeFormat.MATRIX_FORMATS));
+        assertEquals(BarcodeFormat.KNOWN_FORMATS, BarcodeFormat.LINEAR_FORMATS | BarcodeFormat.MATRIX_FORMATS);
+
+        assertTrue(BarcodeFormat.contains(BarcodeFormat.ALL_FORMATS, BarcodeFormat.PDF417));
+        assertTrue(BarcodeFormat.contains(BarcodeFormat.LINEAR_FORMATS, BarcodeFormat.ITF));
+        assertFalse(BarcodeFormat.contains(BarcodeFormat.LINEAR_FORMATS, BarcodeFormat.QR_CODE));
+    }
+}
@@ -0,0 +1,264 @@
+package com.ekreutz.barcodescanner.util;
+
+import org.junit.After;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class BatchDecoderTest {
+    private static final long DECODE_MILLIS = 5;
+
+    /**
+     * Stand-in decoder that takes a while, "decodes" a path to its upper case form and fails on
+     * paths starting with "bad".
+     */
+    private static class SlowDecoder implements BatchDecoder.Decoder<String> {
+        final AtomicInteger mReleased;
+
+        SlowDecoder(AtomicInteger released) {
+            mReleased = released;
+        }
+
+        @Override
+        public String decode(String path) throws Exception {
+            Thread.sleep(DECODE_MILLIS);
+            if (path.startsWith("bad")) {
+                throw new IOException("Can't read " + path);
+            }
+            return path.toUpperCase();
+        }
+
+        @Override
+        public void release() {
+            mReleased.incrementAndGet();
+        }
+    }
+
+    /**
+     * Records every callback in order, and lets the test wait for the end of the batch.
+     */
+    private static class RecordingListener implements BatchDecoder.Listener<String> {
+        final List<String> mEvents = Collections.synchronizedList(new ArrayList<String>());
+        final List<Long> mDecodeNanos = Collections.synchronizedList(new ArrayList<Long>());
+        final CountDownLatch mFinished = new CountDownLatch(1);
+        volatile int mDecoded = -1;
+        volatile int mFailed = -1;
+
+        @Override
+        public void onImageDecoded(int index, String path, String result, long decodeNanos) {
+            mEvents.add(index + ":" + result);
+            mDecodeNanos.add(decodeNanos);
+        }
+
+        @Override
+        public void onImageFailed(int index, String path, Exception error, long decodeNanos) {
+            mEvents.add(index + ":" + error.getClass().getSimpleName());
+            mDecodeNanos.add(decodeNanos);
+        }
+
+        @Override
+        public void onBatchFinished(int decoded, int failed, long batchNanos) {
+            if (mFinished.getCount() == 0) {
+                throw new AssertionError("Batch finished twice");
+            }
+            mDecoded = decoded;
+            mFailed = failed;
+            mEvents.add("finished");
+            mFinished.countDown();
+        }
+
+        void await() throws InterruptedException {
+            assertTrue("batch didn't finish", mFinished.await(5, TimeUnit.SECONDS));
+        }
+    }
+
+    private BatchDecoder<String> mBatchDecoder;
+
+    @After
+    public void tearDown() {
+        if (mBatchDecoder != null) {
+            mBatchDecoder.shutdown();
+        }
+    }
+
+    @Test
+    public void poolSizeIsOneThreadPerProcessorUpToTheMax() {
+        assertEquals(4, BatchDecoder.poolSize(4, 8));
+        assertEquals(2, BatchDecoder.poolSize(4, 2));
+        assertEquals(1, BatchDecoder.poolSize(4, 0));
+        assertEquals(1, BatchDecoder.poolSize(0, 8));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroThreads() {
+        new BatchDecoder<String>(0);
+    }
+
+    @Test
+    public void emptyBatchFinishesRightAway() {
+        mBatchDecoder = new BatchDecoder<>(2);
+        RecordingListener listener = new RecordingListener();
+        mBatchDecoder.decode(Collections.<String>emptyList(), factory(new AtomicInteger()), listener);
+
+        assertEquals(0, listener.mFinished.getCount());
+        assertEquals(0, listener.mDecoded);
+        assertEquals(0, listener.mFailed);
+    }
+
+    @Test
+    public void reportsEveryImageInOrderOnASingleThread() throws InterruptedException {
+        mBatchDecoder = new BatchDecoder<>(1);
+        RecordingListener listener = new RecordingListener();
+        AtomicInteger released = new AtomicInteger();
+        mBatchDecoder.decode(Arrays.asList("a", "bad1", "c"), factory(released), listener);
+        listener.await();
+
+        assertEquals(Arrays.asList("0:A", "1:IOException", "2:C", "finished"), listener.mEvents);
+        assertEquals(2, listener.mDecoded);
+        assertEquals(1, listener.mFailed);
+        for (long decodeNanos : listener.mDecodeNanos) {
+            assertTrue(decodeNanos >= TimeUnit.MILLISECONDS.toNanos(DECODE_MILLIS));
+        }
+        assertEquals(1, released.get());
+    }
+
+    @Test
+    public void reportsEveryImageOnceBeforeFinishingOnSeveralThreads() throws InterruptedException {
+        mBatchDecoder = new BatchDecoder<>(3);
+        RecordingListener listener = new RecordingListener();
+        AtomicInteger released = new AtomicInteger();
+        List<String> paths = new ArrayList<>();
+        for (int i = 0; i < 20; i++) {
+            paths.add("image" + i);
+        }
+        mBatchDecoder.decode(paths, factory(released), listener);
+        listener.await();
+
+        assertEquals(21, listener.mEvents.size());
+        assertEquals("finished", listener.mEvents.get(20));
+        for (int i = 0; i < 20; i++) {
+            assertTrue(listener.mEvents.contains(i + ":IMAGE" + i));
+        }
+        assertEquals(20, listener.mDecoded);
+        assertEquals(0, listener.mFailed);
+        assertEquals(3, released.get());
+    }
+
+    @Test
+    public void otherWorkersTakeOverWhenADecoderCantBeCreated() throws InterruptedException {
+        mBatchDecoder = new BatchDecoder<>(2);
+        RecordingListener listener = new RecordingListener();
+        final AtomicInteger released = new AtomicInteger();
+        final AtomicInteger created = new AtomicInteger();
+        mBatchDecoder.decode(Arrays.asList("a", "b", "c", "d"), new BatchDecoder.Factory<String>() {
+            @Override
+            public BatchDecoder.Decoder<String> create() {
+                if (created.getAndIncrement() == 0) {
+                    throw new IllegalStateException("No detector");
+                }
+                return new SlowDecoder(released);
+            }
+        }, listener);
+        listener.await();
+
+        assertEquals(4, listener.mDecoded);
+        assertEquals(0, listener.mFailed);
+        assertEquals(1, released.get());
+    }
+
+    @Test
+    public void imagesAreReportedFailedWhenNoDecoderCanBeCreated() throws InterruptedException {
+        mBatchDecoder = new BatchDecoder<>(2);
+        RecordingListener listener = new RecordingListener();
+        mBatchDecoder.decode(Arrays.asList("a", "b", "c"), new BatchDecoder.Factory<String>() {
+            @Override
+            public BatchDecoder.Decoder<String> create() {
+                throw new IllegalStateException("No detector");
+            }
+        }, listener);
+        listener.await();
+
+        assertEquals(0, listener.mDecoded);
+        assertEquals(3, listener.mFailed);
+        assertEquals(4, listener.mEvents.size());
+        for (int i = 0; i < 3; i++) {
+            assertTrue(listener.mEvents.contains(i + ":IllegalStateException"));
+        }
+    }
+
+    @Test
+    public void shutdownReportsTheImagesNotDecodedYet() throws InterruptedException {
+        mBatchDecoder = new BatchDecoder<>(1);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch proceed = new CountDownLatch(1);
+        RecordingListener running = new RecordingListener();
+        RecordingListener queued = new RecordingListener();
+
+        // The only thread is stuck on the first image of the first batch, which finishes it even
+        // when interrupted.
+        mBatchDecoder.decode(Arrays.asList("a", "b", "c"), new BatchDecoder.Factory<String>() {
+            @Override
+            public BatchDecoder.Decoder<String> create() {
+                return new BatchDecoder.Decoder<String>() {
+                    @Override
+                    public String decode(String path) {
+                        started.countDown();
+                        boolean interrupted = false;
+                        while (true) {
+                            try {
+                                proceed.await();
+                                break;
+                            } catch (InterruptedException e) {
+                                interrupted = true;
+                            }
+                        }
+                        if (interrupted) {
+                            Thread.currentThread().interrupt();
+                        }
+                        return path.toUpperCase();
+                    }
+
+                    @Override
+                    public void release() {
+                    }
+                };
+            }
+        }, running);
+        mBatchDecoder.decode(Arrays.asList("d", "e"), factory(new AtomicInteger()), queued);
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        mBatchDecoder.shutdown();
+        queued.await();
+        assertEquals(0, queued.mDecoded);
+        assertEquals(2, queued.mFailed);
+        assertEquals(Arrays.asList("0:IllegalStateException", "1:IllegalStateException", "finished"),
+                queued.mEvents);
+
+        proceed.countDown();
+        running.await();
+        assertEquals(Arrays.asList("0:A", "1:IllegalStateException", "2:IllegalStateException", "finished"),
+                running.mEvents);
+        assertEquals(1, running.mDecoded);
+        assertEquals(2, running.mFailed);
+        mBatchDecoder = null;
+    }
+
+    private static BatchDecoder.Factory<String> factory(final AtomicInteger released) {
+        return new BatchDecoder.Factory<String>() {
+            @Override
+            public BatchDecoder.Decoder<String> create() {
+                return new SlowDecoder(released);
+            }
+        };
+    }
+}
@@ -0,0 +1,67 @@
+package com.ekreutz.barcodescanner.util;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class DedupCacheTest {
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyCapacity() {
+        new DedupCache(1000, 0);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsZeroTimeToLive() {
+        new DedupCache(0, DedupCache.DEFAULT_CAPACITY);
+    }
+
+    @Test
+    public void readAgainWithinTheTimeToLiveIsARepeat() {
+        DedupCache cache = new DedupCache(1000, DedupCache.DEFAULT_CAPACITY);
+        assertFalse(cache.isRepeat(BarcodeFormat.EAN_13, "4006381333931", 0));
+        assertTrue(cache.isRepeat(BarcodeFormat.EAN_13, "4006381333931", 999));
+        assertFalse(cache.isRepeat(BarcodeFormat.EAN_13, "4006381333931", 2000));
+
+        assertEquals(2, cache.getPassed());
+        assertEquals(1, cache.getSuppressed());
+    }
+
+    @Test
+    public void labelThatStaysInViewStaysSuppressed() {
+        DedupCache cache = new DedupCache(1000, DedupCache.DEFAULT_CAPACITY);
+        assertFalse(cache.isRepeat(BarcodeFormat.QR_CODE, "hello", 0));
+        for (long now = 500; now <= 5000; now += 500) {
+            assertTrue(cache.isRepeat(BarcodeFormat.QR_CODE, "hello", now));
+        }
+    }
+
+    @Test
+    public void sameValueInAnotherFormatIsNoRepeat() {
+        DedupCache cache = new DedupCache(1000, DedupCache.DEFAULT_CAPACITY);
+        assertFalse(cache.isRepeat(BarcodeFormat.CODE_128, "12345", 0));
+        assertFalse(cache.isRepeat(BarcodeFormat.CODE_39, "12345", 0));
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyReadBarcode() {
+        DedupCache cache = new DedupCache(1000, 2);
+        cache.isRepeat(BarcodeFormat.QR_CODE, "a", 0);
+        cache.isRepeat(BarcodeFormat.QR_CODE, "b", 0);
+        cache.isRepeat(BarcodeFormat.QR_CODE, "a", 1);
+        cache.isRepeat(BarcodeFormat.QR_CODE, "c", 2);
+
+        assertTrue(cache.isRepeat(BarcodeFormat.QR_CODE, "a", 3));
+        assertFalse(cache.isRepeat(BarcodeFormat.QR_CODE, "b", 3));
+    }
+
+    @Test
+    public void clearForgetsAllBarcodes() {
+        DedupCache cache = new DedupCache(1000, DedupCache.DEFAULT_CAPACITY);
+        cache.isRepeat(BarcodeFormat.QR_CODE, "a", 0);
+        cache.clear();
+        assertFalse(cache.isRepeat(BarcodeFormat.QR_CODE, "a", 1));
+    }
+}
@@ -0,0 +1,147 @@
+package com.ekreutz.barcodescanner.util;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DetectorCacheTest {
+
+    /**
+     * Stand-in detector that remembers its mask.
+     */
+    private static class FakeDetector {
+        final int mMask;
+        boolean mWarmedUp = false;
+
+        FakeDetector(int mask) {
+            mMask = mask;
+        }
+    }
+
+    private final List<FakeDetector> mCreated = new ArrayList<>();
+    private final List<FakeDetector> mReleased = new ArrayList<>();
+    private DetectorCache.Factory<FakeDetector> mFactory;
+
+    @Before
+    public void setUp() {
+        mFactory = new DetectorCache.Factory<FakeDetector>() {
+            @Override
+            public FakeDetector create(int mask) {
+                FakeDetector detector = new FakeDetector(mask);
+                mCreated.add(detector);
+                return detector;
+            }
+
+            @Override
+            public void warmUp(FakeDetector detector) {
+                detector.mWarmedUp = true;
+            }
+
+            @Override
+            public void release(FakeDetector detector) {
+                mReleased.add(detector);
+            }
+        };
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsEmptyCapacity() {
+        new DetectorCache<>(0, mFactory);
+    }
+
+    @Test
+    public void reusesAHandedBackDetector() {
+        DetectorCache<FakeDetector> cache = new DetectorCache<>(2, mFactory);
+        FakeDetector detector = cache.acquire(BarcodeFormat.QR_CODE);
+        assertEquals(BarcodeFormat.QR_CODE, detector.mMask);
+        assertTrue(detector.mWarmedUp);
+        cache.release(detector);
+
+        assertSame(detector, cache.acquire(BarcodeFormat.QR_CODE));
+        assertEquals(1, cache.getHits());
+        assertEquals(1, cache.getMisses());
+        assertEquals(1, mCreated.size());
+    }
+
+    @Test
+    public void handsEveryUserADetectorOfItsOwn() {
+        DetectorCache<FakeDetector> cache = new DetectorCache<>(2, mFactory);
+        FakeDetector first = cache.acquire(BarcodeFormat.QR_CODE);
+        FakeDetector second = cache.acquire(BarcodeFormat.QR_CODE);
+        assertNotSame(first, second);
+        assertEquals(1, cache.size());
+
+        cache.release(first);
+        cache.release(second);
+        FakeDetector third = cache.acquire(BarcodeFormat.QR_CODE);
+        FakeDetector fourth = cache.acquire(BarcodeFormat.QR_CODE);
+        assertNotSame(third, fourth);
+        assertEquals(2, mCreated.size());
+        assertTrue(mReleased.isEmpty());
+    }
+
+    @Test
+    public void evictsTheLeastRecentlyAcquiredMask() {
+        DetectorCache<FakeDetector> cache = new DetectorCache<>(2, mFactory);
+        FakeDetector ean = cache.acquire(BarcodeFormat.EAN_13);
+        cache.release(ean);
+        cache.release(cache.acquire(BarcodeFormat.QR_CODE));
+        cache.release(cache.acquire(BarcodeFormat.EAN_13));
+        cache.release(cache.acquire(BarcodeFormat.PDF417));
+
+        assertEquals(2, cache.size());
+        assertEquals(1, cache.getEvictions());
+        assertEquals(1, mReleased.size());
+        assertEquals(BarcodeFormat.QR_CODE, mReleased.get(0).mMask);
+        assertSame(ean, cache.acquire(BarcodeFormat.EAN_13));
+    }
+
+    @Test
+    public void neverReleasesADetectorInUse() {
+        DetectorCache<FakeDetector> cache = new DetectorCache<>(1, mFactory);
+        FakeDetector inUse = cache.acquire(BarcodeFormat.EAN_13);
+        cache.release(cache.acquire(BarcodeFormat.QR_CODE));
+        assertTrue(mReleased.isEmpty());
+
+        cache.release(inUse);
+        assertEquals(1, mReleased.size());
+        assertSame(inUse, mReleased.get(0));
+    }
+
+    @Test
+    public void clearReleasesIdleDetectorsNowAndTheOthersWhenHandedBack() {
+        DetectorCache<FakeDetector> cache = new DetectorCache<>(2, mFactory);
+        FakeDetector idle = cache.acquire(BarcodeFormat.EAN_13);
+        cache.release(idle);
+        FakeDetector inUse = cache.acquire(BarcodeFormat.QR_CODE);
+
+        cache.clear();
+        assertEquals(0, cache.size());
+        assertEquals(1, mReleased.size());
+        assertSame(idle, mReleased.get(0));
+
+        cache.release(inUse);
+        assertEquals(2, mReleased.size());
+        assertSame(inUse, mReleased.get(1));
+    }
+
+    @Test
+    public void ignoresDetectorsItDidntHandOut() {
+        DetectorCache<FakeDetector> cache = new DetectorCache<>(2, mFactory);
+        FakeDetector detector = cache.acquire(BarcodeFormat.EAN_13);
+        cache.release(new FakeDetector(BarcodeFormat.EAN_13));
+        cache.release(detector);
+        cache.release(detector);
+
+        assertTrue(mReleased.isEmpty());
+        assertSame(detector, cache.acquire(BarcodeFormat.EAN_13));
+        assertNotSame(detector, cache.acquire(BarcodeFormat.EAN_13));
+    }
+}
@@ -2,6 +2,8 @@ import React, { Component } from 'react';
 import {
   requireNativeComponent,
   NativeModules,
+  DeviceEventEmitter,
+  findNodeHandle,
   View,
   TouchableHighlight
 } from 'react-native';
@@ -9,25 +11,58 @@ import PropTypes from 'prop-types';
 
 const scannerModule = NativeModules['BarcodeScannerModule'];
 
-const BARCODE_FOUND_KEY = 'barcode_found';
+const BARCODES_FOUND_KEY = 'barcodes_found';
+const CAMERA_READY_KEY = 'camera_ready';
 const LOW_STORAGE_EXCEPTION = 'low_storage';
 const NOT_YET_OPERATIONAL_EXCEPTION = 'not_yet_operational';
 const NO_PLAY_SERVICES_EXCEPTION = 'no_play_services';
 
+// Tag that native methods take to mean the scanner holding the camera, else the one created last
+const ANY_SCANNER = -1;
+
+const IMAGE_DECODED_EVENT = 'barcodeImageDecoded';
+let nextBatchId = 1;
+
 class BarcodeScanner extends Component {
   static propTypes = {
     onBarcodeRead: PropTypes.func, // Callback that fires whenever a new barcode is read
     onBarCodeRead: PropTypes.func, // alias of onBarcodeRead (for compatibility with other libraries)
+    onBarcodesRead: PropTypes.func, // Callback that fires with all barcodes of a batch at once
     onException: PropTypes.func, // function(reason)
+    onCameraReady: PropTypes.func, // function({ timeToInteractive, timeToReady }), in milliseconds
     barcodeTypes: PropTypes.number, // int
+    barcodeFormats: PropTypes.arrayOf(PropTypes.string), // e.g. ['EAN_13', 'QR_CODE']
     focusMode: PropTypes.number, // int
     torchMode: PropTypes.number, // int
     cameraFillMode: PropTypes.number, // int
+    detectionWorkers: PropTypes.number, // int, 1-8
+    targetLatency: PropTypes.number, // milliseconds, 0 for a fixed frame rate
+    previewSizeTuning: PropTypes.number, // milliseconds of detection per frame, 0 for a fixed preview size
+    resolutionCascade: PropTypes.oneOf([1, 2, 4]), // int
+    formatCascade: PropTypes.bool, // 1D codes first, all types when none are found
+    formatScheduling: PropTypes.number, // barcode types per frame, 0 for all of them
+    autoZoom: PropTypes.bool, // zoom in on small codes
+    maxZoom: PropTypes.number, // highest zoom ratio of autoZoom
+    scanArea: PropTypes.shape({
+      x: PropTypes.number.isRequired,
+      y: PropTypes.number.isRequired,
+      width: PropTypes.number.isRequired,
+      height: PropTypes.number.isRequired
+    }), // scan only this part of the view
+    frameWaitStrategy: PropTypes.number, // int
+    decoder: PropTypes.number, // int
+    dedupTtl: PropTypes.number, // milliseconds, 0 to report every new read
+    eventBatchWindow: PropTypes.number, // milliseconds, 0 to batch per frame
+    maxEventRate: PropTypes.number, // batches per second, 0 for no limit
+    frameGate: PropTypes.shape({
+      minSharpness: PropTypes.number,
+      minChange: PropTypes.number
+    }), // skip blurry and unchanged frames
     ...View.propTypes
   };
 
-  componentWillMount() {
-    resumeScanner()
+  componentDidMount() {
+    resumeScanner(this._tag())
       .then(() => {
         console.log('BarcodeScanner was resumed on component mount.');
       })
@@ -38,7 +73,7 @@ class BarcodeScanner extends Component {
   }
 
   componentWillUnmount() {
-    pauseScanner()
+    pauseScanner(this._tag())
       .then(() => {
         console.log('BarcodeScanner was paused on component mount.');
       })
@@ -48,15 +83,38 @@ class BarcodeScanner extends Component {
       });
   }
 
+  // The React tag of the native view, which the native methods take to tell scanners apart
+  _tag() {
+    return this._scanner ? findNodeHandle(this._scanner) : ANY_SCANNER;
+  }
+
+  // Resumes this scanner, taking the camera from any other mounted scanner
+  resume() {
+    return resumeScanner(this._tag());
+  }
+
+  // Pauses this scanner, handing the camera back to the scanner that had it before
+  pause() {
+    return pauseScanner(this._tag());
+  }
+
   _onChange(event: Event) {
     switch (event.nativeEvent.key) {
-      case BARCODE_FOUND_KEY:
-        const onBarcodeRead =
-          this.props.onBarcodeRead || this.props.onBarCodeRead;
-        if (onBarcodeRead) {
-          onBarcodeRead({
-            data: event.nativeEvent.data, // the barcode itself
-            type: event.nativeEvent.type // the barcode type, eg "EAN_13"
+      case BARCODES_FOUND_KEY:
+        const barcodes = event.nativeEvent.barcodes;
+        const onRead = this.props.onBarcodeRead || this.props.onBarCodeRead;
+        if (onRead) {
+          barcodes.forEach(barcode => onRead(barcode));
+        }
+        if (this.props.onBarcodesRead) {
+          this.props.onBarcodesRead(barcodes);
+        }
+        break;
+      case CAMERA_READY_KEY:
+        if (this.props.onCameraReady) {
+          this.props.onCameraReady({
+            timeToInteractive: event.nativeEvent.timeToInteractive,
+            timeToReady: event.nativeEvent.timeToReady
           });
         }
         break;
@@ -73,6 +131,7 @@ class BarcodeScanner extends Component {
     return (
       <NativeBarcodeScanner
         {...this.props}
+        ref={scanner => (this._scanner = scanner)}
         onChange={this._onChange.bind(this)}
       />
     );
@@ -100,6 +159,12 @@ export const FocusMode = scannerModule.FocusMode;
 export const TorchMode = scannerModule.TorchMode;
 // Alternatives: COVER, FIT
 export const CameraFillMode = scannerModule.CameraFillMode;
+// Alternatives: PARK, SPIN_THEN_PARK
+export const FrameWaitStrategy = scannerModule.FrameWaitStrategy;
+// Alternatives: GMS, JAVA, AUTO
+export const Decoder = scannerModule.Decoder;
+// Alternatives: CAPTURED, DEQUEUED, DETECTED, TRACKED, EMITTED
+export const TraceStage = scannerModule.TraceStage;
 
 export const Exception = {
   LOW_STORAGE: LOW_STORAGE_EXCEPTION,
@@ -107,8 +172,48 @@ export const Exception = {
   NO_PLAY_SERVICES: NO_PLAY_SERVICES_EXCEPTION
 };
 
-// Methods that the user (dev) might access to pause/resume the scanner at will
-export const pauseScanner = scannerModule.pause;
-export const resumeScanner = scannerModule.resume;
+// Methods that the user (dev) might access to pause/resume the scanner at will.
+// All of these take the React tag of a scanner (see findNodeHandle), or act on the scanner holding
+// the camera without one.
+export const pauseScanner = (tag = ANY_SCANNER) => scannerModule.pause(tag);
+export const resumeScanner = (tag = ANY_SCANNER) => scannerModule.resume(tag);
+
+// Per stage timestamps of recent frames, for measuring scanning latency in the field
+export const getFrameTrace = (tag = ANY_SCANNER) => scannerModule.getFrameTrace(tag);
+
+// Timings of the last camera start: timeToInteractive, timeToReady, timeToFirstFrame and timeToFocus, in milliseconds
+export const getStartupTimings = (tag = ANY_SCANNER) => scannerModule.getStartupTimings(tag);
+
+// How long focusing takes: runs, locked, and the last, mean and max run time in milliseconds
+export const getFocusTimings = (tag = ANY_SCANNER) => scannerModule.getFocusTimings(tag);
+
+// Records the camera frames to a capture file for replay on a JVM, see FrameReplay
+export const startFrameRecording = (path, options = {}, tag = ANY_SCANNER) =>
+  scannerModule.startFrameRecording(tag, path, options);
+export const stopFrameRecording = (tag = ANY_SCANNER) => scannerModule.stopFrameRecording(tag);
+
+// Runs every barcode engine over a frame recording, resolves with read counts and decode times per engine
+export const compareDecoders = (path, options = {}) => scannerModule.compareDecoders(path, options);
+
+// Decodes barcodes in image files off the camera. onImage gets every image's result as soon as it's done;
+// the returned promise resolves with { decoded, failed, time } once all of them are.
+export function decodeImages(paths, options = {}, onImage = () => {}) {
+  const batchId = nextBatchId++;
+  const subscription = DeviceEventEmitter.addListener(IMAGE_DECODED_EVENT, image => {
+    if (image.batchId === batchId) {
+      onImage(image);
+    }
+  });
+
+  return scannerModule
+    .decodeImages(paths, { ...options, batchId })
+    .then(result => {
+      subscription.remove();
+      return result;
+    }, error => {
+      subscription.remove();
+      throw error;
+    });
+}
 
 export default BarcodeScanner;